@@ -41,6 +41,18 @@ public class BinaryMetadataConstants {
      */
     public static final String EXIFTOOL_READ_TAGLIST_NOPREFIX = "exiftool-read-taglist-noprefix";
 
+    /**
+     * Commandline id - read metadata listing from several binaries, listed in an argument file, with exiftool.
+     *
+     * @since 7.3
+     */
+    public static final String EXIFTOOL_READ_TAGLIST_BATCH = "exiftool-read-taglist-batch";
+
+    /**
+     * @since 7.3
+     */
+    public static final String EXIFTOOL_READ_TAGLIST_BATCH_NOPREFIX = "exiftool-read-taglist-batch-noprefix";
+
     /**
      * Commandline id - Write metadata into binary with exiftool.
      */
@@ -59,6 +71,63 @@ public class BinaryMetadataConstants {
 
     public static final String EXIF_TOOL_CONTRIBUTION_ID = "exifTool";
 
+    /**
+     * Processor contribution id - exiftool reading non file based blobs from its standard input.
+     *
+     * @since 7.3
+     */
+    public static final String EXIF_TOOL_STREAMING_CONTRIBUTION_ID = "exifToolStreaming";
+
+    /**
+     * Processor contribution id - exiftool through a pool of long-lived processes.
+     *
+     * @since 7.3
+     */
+    public static final String EXIF_TOOL_POOL_CONTRIBUTION_ID = "exifToolPool";
+
+    /**
+     * Processor contribution id - JPEG and TIFF files read in the JVM.
+     *
+     * @since 7.3
+     */
+    public static final String JPEG_CONTRIBUTION_ID = "jpeg";
+
+    /**
+     * Processor contribution id - PDF files read in the JVM.
+     *
+     * @since 7.3
+     */
+    public static final String PDF_CONTRIBUTION_ID = "pdf";
+
+    /**
+     * Processor contribution id - ID3 tags of MP3 files read in the JVM.
+     *
+     * @since 7.3
+     */
+    public static final String ID3_CONTRIBUTION_ID = "id3";
+
+    /**
+     * Processor contribution id - PNG files read in the JVM.
+     *
+     * @since 7.3
+     */
+    public static final String PNG_CONTRIBUTION_ID = "png";
+
+    /**
+     * Processor contribution id - JPEG and TIFF files read in the JVM along with their IPTC datasets.
+     *
+     * @since 7.3
+     */
+    public static final String IPTC_CONTRIBUTION_ID = "iptc";
+
+    /**
+     * Processor contribution id - blobs routed by MIME type to the processors reading them in the JVM, the others
+     * going through exifTool.
+     *
+     * @since 7.3
+     */
+    public static final String ROUTING_CONTRIBUTION_ID = "routing";
+
     /**
      * Flag to disable binary metadata listener.
      */
@@ -82,4 +151,133 @@ public class BinaryMetadataConstants {
      * @since 7.2
      */
     public static final String BINARY_METADATA_MONITOR = "binary.metadata.monitor.enable";
+
+    /**
+     * Binary Metadata configuration constant to activate/deactivate the adaptive concurrency limit of the processor
+     * calls, enabled by default.
+     *
+     * @since 7.3
+     */
+    public static final String BINARY_METADATA_LIMITER = "binary.metadata.limiter.enable";
+
+    /**
+     * Initial concurrency limit of the processor calls, twice the number of processors by default.
+     *
+     * @since 7.3
+     */
+    public static final String BINARY_METADATA_LIMITER_INITIAL = "binary.metadata.limiter.initial";
+
+    /**
+     * @since 7.3
+     */
+    public static final String BINARY_METADATA_LIMITER_MIN = "binary.metadata.limiter.min";
+
+    /**
+     * @since 7.3
+     */
+    public static final String BINARY_METADATA_LIMITER_MAX = "binary.metadata.limiter.max";
+
+    /**
+     * Binary Metadata configuration constant to send the calls addressed to the exifTool processor, including the
+     * mappings bound to it, through the routing processor. Disabled by default.
+     *
+     * @since 7.3
+     */
+    public static final String BINARY_METADATA_ROUTING = "binary.metadata.routing.enable";
+
+    /**
+     * Binary Metadata configuration constant to activate/deactivate the cache of the metadata read from the stored
+     * binaries, keyed by digest, processor and tags. Enabled by default.
+     *
+     * @since 7.3
+     */
+    public static final String BINARY_METADATA_CACHE = "binary.metadata.cache.enable";
+
+    /**
+     * Maximum size of the cached metadata, in characters of tag names and values, 8M by default.
+     *
+     * @since 7.3
+     */
+    public static final String BINARY_METADATA_CACHE_MAX_WEIGHT = "binary.metadata.cache.maxWeight";
+
+    /**
+     * Time to live of the cached metadata, in seconds, 10 minutes by default.
+     *
+     * @since 7.3
+     */
+    public static final String BINARY_METADATA_CACHE_TTL = "binary.metadata.cache.ttl";
+
+    /**
+     * Binary Metadata configuration constant to activate/deactivate the cache of the metadata read from the stored
+     * binaries kept on the local disk across restarts, below the in-memory one. Disabled by default.
+     *
+     * @since 7.3
+     */
+    public static final String BINARY_METADATA_DISK_CACHE = "binary.metadata.diskCache.enable";
+
+    /**
+     * Directory of the disk cache, {@code binary-metadata} under the data directory by default.
+     *
+     * @since 7.3
+     */
+    public static final String BINARY_METADATA_DISK_CACHE_DIR = "binary.metadata.diskCache.dir";
+
+    /**
+     * Size of the disk cache, in megabytes, 256 by default.
+     *
+     * @since 7.3
+     */
+    public static final String BINARY_METADATA_DISK_CACHE_MAX_SIZE = "binary.metadata.diskCache.maxSize";
+
+    /**
+     * Binary Metadata configuration constant to activate/deactivate the cache of the reads of the stored binaries
+     * bringing nothing, failures or empty results, which are then not retried at each save of the documents. Enabled
+     * by default.
+     *
+     * @since 7.3
+     */
+    public static final String BINARY_METADATA_NEGATIVE_CACHE = "binary.metadata.negativeCache.enable";
+
+    /**
+     * Maximum number of failures, and of empty results, kept by the negative cache, 10000 by default.
+     *
+     * @since 7.3
+     */
+    public static final String BINARY_METADATA_NEGATIVE_CACHE_MAX_SIZE = "binary.metadata.negativeCache.maxSize";
+
+    /**
+     * Time to live of the failures and empty results kept by the negative cache, in seconds, 5 minutes by default.
+     *
+     * @since 7.3
+     */
+    public static final String BINARY_METADATA_NEGATIVE_CACHE_TTL = "binary.metadata.negativeCache.ttl";
+
+    /**
+     * Binary Metadata configuration constant to activate/deactivate the cache of the metadata read from the stored
+     * binaries shared by the nodes of a cluster, below the local ones. Disabled by default.
+     *
+     * @since 7.3
+     */
+    public static final String BINARY_METADATA_SHARED_CACHE = "binary.metadata.sharedCache.enable";
+
+    /**
+     * Class of the {@link KeyValueStore} of the shared cache, the store held in memory by default.
+     *
+     * @since 7.3
+     */
+    public static final String BINARY_METADATA_SHARED_CACHE_STORE = "binary.metadata.sharedCache.store";
+
+    /**
+     * Time to live of the shared metadata, in seconds, 1 day by default.
+     *
+     * @since 7.3
+     */
+    public static final String BINARY_METADATA_SHARED_CACHE_TTL = "binary.metadata.sharedCache.ttl";
+
+    /**
+     * Maximum size of an encoded result in the shared cache, in bytes, 64K by default.
+     *
+     * @since 7.3
+     */
+    public static final String BINARY_METADATA_SHARED_CACHE_MAX_VALUE_SIZE = "binary.metadata.sharedCache.maxValueSize";
 }
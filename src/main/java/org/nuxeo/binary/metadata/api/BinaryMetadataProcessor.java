@@ -16,6 +16,7 @@
  */
 package org.nuxeo.binary.metadata.api;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -57,4 +58,23 @@ public interface BinaryMetadataProcessor {
      */
     public Map<String, Object> readMetadata(Blob blob, boolean ignorePrefix);
 
+    /**
+     * Read from the given blobs the same metadata. Processors able to handle several binaries at once should override
+     * the default implementation, which reads each blob separately.
+     *
+     * @param blobs Blobs to read.
+     * @param metadata Metadata to extract.
+     * @param ignorePrefix
+     * @return One metadata map per blob, in the blobs order (empty if nothing could be read from a blob).
+     * @since 7.3
+     */
+    public default List<Map<String, Object>> readMetadata(List<Blob> blobs, List<String> metadata,
+            boolean ignorePrefix) {
+        List<Map<String, Object>> results = new ArrayList<>(blobs.size());
+        for (Blob blob : blobs) {
+            results.add(readMetadata(blob, metadata, ignorePrefix));
+        }
+        return results;
+    }
+
 }
@@ -73,6 +73,32 @@ public interface BinaryMetadataService {
      */
     public Map<String, Object> readMetadata(String processorName, Blob blob, boolean ignorePrefix);
 
+    /**
+     * Read and return the same metadata list from several binaries with a given processor, in as few processor
+     * invocations as possible.
+     *
+     * @param processorName Name of the contributed processor to run.
+     * @param blobs Binaries which metadata are read.
+     * @param metadataNames Metadata list to extract from the binaries.
+     * @param ignorePrefix
+     * @return Extracted metadata, one map per binary in the given order.
+     * @since 7.3
+     */
+    public List<Map<String, Object>> readMetadata(String processorName, List<Blob> blobs, List<String> metadataNames,
+            boolean ignorePrefix);
+
+    /**
+     * Read and return the same metadata list from several binaries with Nuxeo default processor, in as few processor
+     * invocations as possible.
+     *
+     * @param blobs Binaries which metadata are read.
+     * @param metadataNames Metadata list to extract from the binaries.
+     * @param ignorePrefix
+     * @return Extracted metadata, one map per binary in the given order.
+     * @since 7.3
+     */
+    public List<Map<String, Object>> readMetadata(List<Blob> blobs, List<String> metadataNames, boolean ignorePrefix);
+
     /**
      * Write given metadata into a given binary with a given processor.
      *
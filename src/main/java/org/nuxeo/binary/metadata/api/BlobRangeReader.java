@@ -0,0 +1,40 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.api;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+
+import org.nuxeo.ecm.core.api.Blob;
+
+/**
+ * Random access to the binaries of the blobs, for the ranged reads of the ExifTool processor: only the head and tail
+ * ranges of a binary are fetched from the binary store. The implementations are given by class name with the
+ * {@code rangeReader} processor parameter and must have a public no-argument constructor.
+ *
+ * @since 7.3
+ */
+public interface BlobRangeReader {
+
+    /**
+     * Opens a channel on the binary of the blob, the ranges being read by positioning the channel.
+     *
+     * @return The channel, {@code null} if the binary of the blob cannot be read by ranges.
+     */
+    SeekableByteChannel open(Blob blob) throws IOException;
+
+}
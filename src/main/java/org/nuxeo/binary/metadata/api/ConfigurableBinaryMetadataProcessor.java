@@ -0,0 +1,41 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.api;
+
+import java.util.Map;
+
+/**
+ * Processor receiving the parameters of its 'metadataProcessors' contribution and holding resources which have to be
+ * released when the contribution is removed.
+ *
+ * @since 7.3
+ */
+public interface ConfigurableBinaryMetadataProcessor extends BinaryMetadataProcessor {
+
+    /**
+     * Called once the processor contribution is registered.
+     *
+     * @param parameters Contributed parameters (never null).
+     */
+    public void init(Map<String, String> parameters);
+
+    /**
+     * Called when the processor contribution is removed or replaced.
+     */
+    public void release();
+
+}
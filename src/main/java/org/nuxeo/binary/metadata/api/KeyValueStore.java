@@ -0,0 +1,42 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.api;
+
+/**
+ * Key/value store shared by the nodes of a cluster, backing the shared cache of the metadata read from the stored
+ * binaries. The implementations are given by class name with
+ * {@link BinaryMetadataConstants#BINARY_METADATA_SHARED_CACHE_STORE} and must have a public no-argument constructor.
+ * <p>
+ * The store is a cache: the values may be lost at any time, and a failing store must not fail the reads.
+ *
+ * @since 7.3
+ */
+public interface KeyValueStore {
+
+    /**
+     * @return The value, {@code null} if missing or expired.
+     */
+    byte[] get(String key);
+
+    /**
+     * Sets the value of a key, removing it if the value is {@code null}.
+     *
+     * @param ttl Time to live of the value, in seconds, {@code 0} for no expiration.
+     */
+    void put(String key, byte[] value, long ttl);
+
+}
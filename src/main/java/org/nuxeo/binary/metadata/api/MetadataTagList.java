@@ -0,0 +1,64 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.api;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of metadata names, computed once per metadata mapping, carrying the matching ExifTool read
+ * arguments ({@code -Tag}). Processors receiving such a list can reuse the arguments instead of building them on
+ * each call.
+ *
+ * @since 7.3
+ */
+public class MetadataTagList extends AbstractList<String> implements RandomAccess {
+
+    protected final String[] tags;
+
+    protected final List<String> readArguments;
+
+    public MetadataTagList(List<String> tags) {
+        this.tags = tags.toArray(new String[tags.size()]);
+        String[] arguments = new String[this.tags.length];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = "-" + this.tags[i];
+        }
+        readArguments = Collections.unmodifiableList(Arrays.asList(arguments));
+    }
+
+    @Override
+    public String get(int index) {
+        return tags[index];
+    }
+
+    @Override
+    public int size() {
+        return tags.length;
+    }
+
+    /**
+     * @return The {@code -Tag} arguments, in the list order.
+     */
+    public List<String> getReadArguments() {
+        return readArguments;
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrency limit adapted to the observed latency with a gradient algorithm: the limit is multiplied by the ratio
+ * between the no load latency and the latency of each call, and increased by a queue allowance of sqrt(limit). The
+ * limit therefore grows while the latency stays flat, and shrinks as soon as the calls start queuing on the host
+ * resources (CPU, disk). The calls failing for lack of capacity, such as timeouts, decrease the limit multiplicatively.
+ * <p>
+ * The no load latency is the minimum latency of the previous window of samples, so that it follows changes of the
+ * workload.
+ *
+ * @since 7.3
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    protected static final double SMOOTHING = 0.2;
+
+    protected static final double MIN_GRADIENT = 0.5;
+
+    protected static final double FAILURE_BACKOFF = 0.9;
+
+    protected static final int RTT_WINDOW = 500;
+
+    protected final int minLimit;
+
+    protected final int maxLimit;
+
+    protected final ReentrantLock lock = new ReentrantLock();
+
+    protected final Condition available = lock.newCondition();
+
+    protected double limit;
+
+    protected int inFlight;
+
+    protected int waiting;
+
+    protected long noLoadRtt = Long.MAX_VALUE;
+
+    protected long windowMinRtt = Long.MAX_VALUE;
+
+    protected int windowSamples;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    /**
+     * Waits until the number of calls in flight is below the limit.
+     *
+     * @return The call start time, to be given to {@link #release(long, boolean)}.
+     */
+    public long acquire() {
+        lock.lock();
+        try {
+            waiting++;
+            try {
+                while (inFlight >= (int) limit) {
+                    available.await();
+                }
+            } finally {
+                waiting--;
+            }
+            inFlight++;
+            return System.nanoTime();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessorUnavailableException("Interrupted while waiting for the concurrency limit", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param start Value returned by {@link #acquire()}.
+     * @param success {@code false} if the call failed for lack of capacity, its latency is then not significant. The
+     *            other failures are to be released with {@link #release()}.
+     */
+    public void release(long start, boolean success) {
+        long rtt = System.nanoTime() - start;
+        lock.lock();
+        try {
+            if (success) {
+                update(Math.max(1, rtt));
+            } else {
+                limit = Math.max(minLimit, limit * FAILURE_BACKOFF);
+            }
+            inFlight--;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases a call without taking its latency into account, for calls not comparable to the others.
+     */
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected void update(long rtt) {
+        windowMinRtt = Math.min(windowMinRtt, rtt);
+        if (++windowSamples >= RTT_WINDOW) {
+            noLoadRtt = windowMinRtt;
+            windowMinRtt = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+        long estimate = Math.min(noLoadRtt, windowMinRtt);
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, (double) estimate / rtt));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        if (newLimit > limit && inFlight < limit / 2) {
+            // the limit is not what bounds the calls: no evidence that it can grow
+            return;
+        }
+        limit = Math.min(maxLimit, Math.max(minLimit, limit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of calls waiting for the limit.
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The no load latency estimate in milliseconds, or -1 if there is no sample yet.
+     */
+    public long getNoLoadLatency() {
+        lock.lock();
+        try {
+            long estimate = Math.min(noLoadRtt, windowMinRtt);
+            return estimate == Long.MAX_VALUE ? -1 : TimeUnit.NANOSECONDS.toMillis(estimate);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
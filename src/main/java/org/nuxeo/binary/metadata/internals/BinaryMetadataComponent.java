@@ -37,7 +37,12 @@ public class BinaryMetadataComponent extends DefaultComponent {
 
     protected static BinaryMetadataComponent self;
 
-    protected BinaryMetadataService metadataService = new BinaryMetadataServiceImpl();
+    /**
+     * @since 7.3
+     */
+    protected final BinaryMetadataServiceImpl metadataServiceImpl = new BinaryMetadataServiceImpl();
+
+    protected BinaryMetadataService metadataService = metadataServiceImpl;
 
     protected final MetadataMappingRegistry mappingRegistry = new MetadataMappingRegistry();
 
@@ -45,6 +50,11 @@ public class BinaryMetadataComponent extends DefaultComponent {
 
     protected final MetadataRuleRegistry ruleRegistry = new MetadataRuleRegistry();
 
+    /**
+     * @since 7.3
+     */
+    protected final CommandLineCache commandLineCache = new CommandLineCache();
+
     @Override
     public void activate(ComponentContext context) {
         super.activate(context);
@@ -57,6 +67,8 @@ public class BinaryMetadataComponent extends DefaultComponent {
 
     @Override
     public void deactivate(ComponentContext context) {
+        processorRegistry.releaseProcessors();
+        metadataServiceImpl.close();
         self = null;
         super.deactivate(context);
     }
@@ -72,6 +84,7 @@ public class BinaryMetadataComponent extends DefaultComponent {
         } else {
             log.error("Unknown extension point " + extensionPoint);
         }
+        commandLineCache.invalidate();
     }
 
     @Override
@@ -85,12 +98,15 @@ public class BinaryMetadataComponent extends DefaultComponent {
         } else {
             log.error("Unknown extension point " + extensionPoint);
         }
+        commandLineCache.invalidate();
     }
 
     @Override
     public void applicationStarted(ComponentContext context) {
         super.applicationStarted(context);
         ruleRegistry.handleApplicationStarted();
+        // the command line contributions are all registered at this point
+        commandLineCache.invalidate();
     }
 
     @Override
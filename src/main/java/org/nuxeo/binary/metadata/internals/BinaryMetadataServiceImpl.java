@@ -16,13 +16,22 @@
  */
 package org.nuxeo.binary.metadata.internals;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.el.ExpressionFactory;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -31,19 +40,23 @@ import org.nuxeo.binary.metadata.api.BinaryMetadataConstants;
 import org.nuxeo.binary.metadata.api.BinaryMetadataException;
 import org.nuxeo.binary.metadata.api.BinaryMetadataProcessor;
 import org.nuxeo.binary.metadata.api.BinaryMetadataService;
+import org.nuxeo.binary.metadata.api.KeyValueStore;
+import org.nuxeo.common.Environment;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
-import org.nuxeo.ecm.core.api.model.Property;
 import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
 import org.nuxeo.ecm.platform.actions.ActionContext;
 import org.nuxeo.ecm.platform.actions.ELActionContext;
 import org.nuxeo.ecm.platform.actions.ejb.ActionManager;
 import org.nuxeo.ecm.platform.el.ExpressionContext;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.metrics.MetricsService;
 
-import com.google.common.base.Predicate;
-import com.google.common.collect.Sets;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Supplier;
 
 /**
  * @since 7.1
@@ -52,6 +65,125 @@ public class BinaryMetadataServiceImpl implements BinaryMetadataService {
 
     private static final Log log = LogFactory.getLog(BinaryMetadataServiceImpl.class);
 
+    /**
+     * Shared by all the action contexts, the factory being thread-safe and expensive to create.
+     *
+     * @since 7.3
+     */
+    protected static final ExpressionFactory EXPRESSION_FACTORY = new ExpressionFactoryImpl();
+
+    /**
+     * Adaptive limits of the concurrent calls by processor id, created on the first call, {@code null} if disabled.
+     * Each processor has its own limit, the latencies of different processors not being comparable.
+     *
+     * @since 7.3
+     */
+    protected final ConcurrentMap<String, AdaptiveConcurrencyLimiter> limiters;
+
+    /**
+     * Initial, minimum and maximum limits of the processor limiters.
+     *
+     * @since 7.3
+     */
+    protected final int limiterInitial, limiterMin, limiterMax;
+
+    /**
+     * Whether the calls addressed to exifTool go through the routing processor.
+     *
+     * @since 7.3
+     */
+    protected final boolean routing;
+
+    /**
+     * Cache of the metadata read from the stored binaries, {@code null} if disabled.
+     *
+     * @since 7.3
+     */
+    protected final MetadataResultCache cache;
+
+    /**
+     * Cache of the metadata read from the stored binaries kept on the local disk, {@code null} if disabled.
+     *
+     * @since 7.3
+     */
+    protected final MetadataDiskCache diskCache;
+
+    /**
+     * Cache of the metadata read from the stored binaries shared by the nodes of the cluster, {@code null} if
+     * disabled.
+     *
+     * @since 7.3
+     */
+    protected final MetadataSharedCache sharedCache;
+
+    /**
+     * Failures and empty results of the reads of the stored binaries, {@code null} if disabled.
+     *
+     * @since 7.3
+     */
+    protected final MetadataNegativeCache negativeCache;
+
+    /**
+     * The enabled caches, looked up in order.
+     *
+     * @since 7.3
+     */
+    protected final MetadataCache[] cacheLevels;
+
+    public BinaryMetadataServiceImpl() {
+        routing = Boolean.parseBoolean(Framework.getProperty(BinaryMetadataConstants.BINARY_METADATA_ROUTING, "false"));
+        if (Boolean.parseBoolean(Framework.getProperty(BinaryMetadataConstants.BINARY_METADATA_CACHE, "true"))) {
+            cache = new MetadataResultCache(getIntProperty(BinaryMetadataConstants.BINARY_METADATA_CACHE_MAX_WEIGHT,
+                    8 * 1024 * 1024), getIntProperty(BinaryMetadataConstants.BINARY_METADATA_CACHE_TTL, 600));
+            registerCacheMetrics();
+        } else {
+            cache = null;
+        }
+        if (Boolean.parseBoolean(Framework.getProperty(BinaryMetadataConstants.BINARY_METADATA_DISK_CACHE, "false"))) {
+            diskCache = openDiskCache();
+        } else {
+            diskCache = null;
+        }
+        if (Boolean.parseBoolean(Framework.getProperty(BinaryMetadataConstants.BINARY_METADATA_SHARED_CACHE,
+                "false"))) {
+            sharedCache = createSharedCache();
+        } else {
+            sharedCache = null;
+        }
+        List<MetadataCache> levels = new ArrayList<>();
+        if (cache != null) {
+            levels.add(cache);
+        }
+        if (diskCache != null) {
+            levels.add(diskCache);
+            registerDiskCacheMetrics();
+        }
+        if (sharedCache != null) {
+            levels.add(sharedCache);
+            registerSharedCacheMetrics();
+        }
+        cacheLevels = levels.toArray(new MetadataCache[levels.size()]);
+        if (Boolean.parseBoolean(Framework.getProperty(BinaryMetadataConstants.BINARY_METADATA_NEGATIVE_CACHE,
+                "true"))) {
+            negativeCache = new MetadataNegativeCache(getIntProperty(
+                    BinaryMetadataConstants.BINARY_METADATA_NEGATIVE_CACHE_MAX_SIZE, 10000), getIntProperty(
+                    BinaryMetadataConstants.BINARY_METADATA_NEGATIVE_CACHE_TTL, 300));
+            registerNegativeCacheMetrics();
+        } else {
+            negativeCache = null;
+        }
+        if (Boolean.parseBoolean(Framework.getProperty(BinaryMetadataConstants.BINARY_METADATA_LIMITER, "true"))) {
+            int processors = Runtime.getRuntime().availableProcessors();
+            limiterInitial = getIntProperty(BinaryMetadataConstants.BINARY_METADATA_LIMITER_INITIAL, 2 * processors);
+            limiterMin = getIntProperty(BinaryMetadataConstants.BINARY_METADATA_LIMITER_MIN, 1);
+            limiterMax = getIntProperty(BinaryMetadataConstants.BINARY_METADATA_LIMITER_MAX, 16 * processors);
+            limiters = new ConcurrentHashMap<>();
+        } else {
+            limiterInitial = limiterMin = limiterMax = 0;
+            limiters = null;
+        }
+    }
+
     @Override
     public Map<String, Object> readMetadata(String processorName, Blob blob, List<String> metadataNames,
             boolean ignorePrefix) {
@@ -94,6 +226,22 @@ public class BinaryMetadataServiceImpl implements BinaryMetadataService {
         }
     }
 
+    @Override
+    public List<Map<String, Object>> readMetadata(String processorName, List<Blob> blobs, List<String> metadataNames,
+            boolean ignorePrefix) {
+        try {
+            BinaryMetadataProcessor processor = getProcessor(processorName);
+            return processor.readMetadata(blobs, metadataNames, ignorePrefix);
+        } catch (NoSuchMethodException e) {
+            throw new BinaryMetadataException(e);
+        }
+    }
+
+    @Override
+    public List<Map<String, Object>> readMetadata(List<Blob> blobs, List<String> metadataNames, boolean ignorePrefix) {
+        return readMetadata(BinaryMetadataConstants.EXIF_TOOL_CONTRIBUTION_ID, blobs, metadataNames, ignorePrefix);
+    }
+
     @Override
     public boolean writeMetadata(String processorName, Blob blob, Map<String, Object> metadata, boolean ignorePrefix) {
         try {
@@ -153,99 +301,208 @@ public class BinaryMetadataServiceImpl implements BinaryMetadataService {
     public void writeMetadata(DocumentModel doc, CoreSession session) {
         // Check if rules applying for this document.
         ActionContext actionContext = createActionContext(doc);
-        Set<MetadataRuleDescriptor> ruleDescriptors = checkFilter(actionContext);
-        List<String> mappingDescriptorIds = new ArrayList<>();
-        for (MetadataRuleDescriptor ruleDescriptor : ruleDescriptors) {
-            mappingDescriptorIds.addAll(ruleDescriptor.getMetadataMappingIdDescriptors());
-        }
-        if (mappingDescriptorIds.isEmpty()) {
+        List<MetadataMappingDescriptor> mappingDescriptors = getMappings(checkFilter(actionContext));
+        if (mappingDescriptors.isEmpty()) {
             return;
         }
-
         // For each mapping descriptors, overriding mapping document properties.
-        for (String mappingDescriptorId : mappingDescriptorIds) {
-            if (!BinaryMetadataComponent.self.mappingRegistry.getMappingDescriptorMap().containsKey(mappingDescriptorId)) {
-                log.warn("Missing binary metadata descriptor with id '" + mappingDescriptorId
-                        + "'. Or check your rule contribution with proper metadataMapping-id.");
-                continue;
-            }
-            writeMetadata(doc, session, mappingDescriptorId);
-        }
+        writeMetadata(doc, session, mappingDescriptors);
     }
 
     @Override
     public void writeMetadata(DocumentModel doc, CoreSession session, String mappingDescriptorId) {
-        // Creating mapping properties Map.
-        Map<String, String> metadataMapping = new HashMap<>();
-        List<String> blobMetadata = new ArrayList<>();
         MetadataMappingDescriptor mappingDescriptor = BinaryMetadataComponent.self.mappingRegistry.getMappingDescriptorMap().get(
                 mappingDescriptorId);
-        boolean ignorePrefix = mappingDescriptor.getIgnorePrefix();
-        // Extract blob from the contributed xpath
-        Blob blob = doc.getProperty(mappingDescriptor.getBlobXPath()).getValue(Blob.class);
-        if (blob != null && mappingDescriptor.getMetadataDescriptors() != null
-                && !mappingDescriptor.getMetadataDescriptors().isEmpty()) {
-            for (MetadataMappingDescriptor.MetadataDescriptor metadataDescriptor : mappingDescriptor.getMetadataDescriptors()) {
-                metadataMapping.put(metadataDescriptor.getName(), metadataDescriptor.getXpath());
-                blobMetadata.add(metadataDescriptor.getName());
+        writeMetadata(doc, session, Collections.singletonList(mappingDescriptor));
+    }
+
+    /**
+     * Writes the document properties from the metadata of its blobs, each blob being read once for all the mappings
+     * sharing its processor and prefix handling. The mappings are applied in order, the last ones overriding the
+     * properties mapped by the first ones, and the document is saved once if a property value changed.
+     *
+     * @since 7.3
+     */
+    protected void writeMetadata(DocumentModel doc, CoreSession session,
+            List<MetadataMappingDescriptor> mappingDescriptors) {
+        Map<MetadataMappingDescriptor, Map<String, Object>> blobMetadataOutputs = readMetadata(doc, mappingDescriptors);
+        Map<String, Serializable> previousValues = new HashMap<>();
+        for (MetadataMappingDescriptor mappingDescriptor : mappingDescriptors) {
+            Map<String, Object> blobMetadataOutput = blobMetadataOutputs.get(mappingDescriptor);
+            if (blobMetadataOutput != null) {
+                applyMetadata(doc, mappingDescriptor, blobMetadataOutput, previousValues);
             }
+        }
+        if (!isChanged(doc, previousValues)) {
+            // nothing changed, no need to fire the update events and index the document again
+            return;
+        }
+        // document should exist if id != null
+        if (doc.getId() != null && session.exists(doc.getRef())) {
+            session.saveDocument(doc);
+        }
+    }
 
+    /**
+     * Reads the blobs of the mappings, once per {@link MetadataMappingGroup}.
+     *
+     * @return The metadata read for each mapping, missing if its blob is missing or known to fail.
+     * @since 7.3
+     */
+    protected Map<MetadataMappingDescriptor, Map<String, Object>> readMetadata(DocumentModel doc,
+            List<MetadataMappingDescriptor> mappingDescriptors) {
+        Map<MetadataMappingDescriptor, Map<String, Object>> blobMetadataOutputs = new HashMap<>();
+        for (MetadataMappingGroup group : MetadataMappingGroup.group(mappingDescriptors)) {
+            // Extract blob from the contributed xpath
+            Blob blob = doc.getProperty(group.getBlobXPath()).getValue(Blob.class);
+            String processorId = group.getProcessor();
+            if (blob == null || isKnownFailure(blob, processorId)) {
+                continue;
+            }
             // Extract metadata from binary.
-            String processorId = mappingDescriptor.getProcessor();
             Map<String, Object> blobMetadataOutput;
             if (processorId != null) {
-                blobMetadataOutput = readMetadata(processorId, blob, blobMetadata, ignorePrefix);
-
+                blobMetadataOutput = readMetadata(processorId, blob, group.getTagList(), group.getIgnorePrefix());
             } else {
-                blobMetadataOutput = readMetadata(blob, blobMetadata, ignorePrefix);
+                blobMetadataOutput = readMetadata(blob, group.getTagList(), group.getIgnorePrefix());
             }
+            for (MetadataMappingDescriptor mappingDescriptor : group.getMappings()) {
+                blobMetadataOutputs.put(mappingDescriptor, blobMetadataOutput);
+            }
+        }
+        return blobMetadataOutputs;
+    }
 
-            // Write doc properties from outputs.
-            for (Object metadata : blobMetadataOutput.keySet()) {
-                doc.setPropertyValue(metadataMapping.get(metadata), blobMetadataOutput.get(metadata).toString());
+    /**
+     * Writes the document properties of the mapping from the metadata read for its group.
+     *
+     * @param previousValues The values of the properties before the first mapping, filled with the properties written.
+     * @since 7.3
+     */
+    protected void applyMetadata(DocumentModel doc, MetadataMappingDescriptor mappingDescriptor,
+            Map<String, Object> blobMetadataOutput, Map<String, Serializable> previousValues) {
+        // Creating mapping properties Map.
+        Map<String, String> metadataMapping = new HashMap<>();
+        for (MetadataMappingDescriptor.MetadataDescriptor metadataDescriptor : mappingDescriptor.getMetadataDescriptors()) {
+            metadataMapping.put(metadataDescriptor.getName(), metadataDescriptor.getXpath());
+        }
+        // Write doc properties from outputs, the metadata of the other mappings of the group being skipped.
+        for (Map.Entry<String, Object> metadata : blobMetadataOutput.entrySet()) {
+            String xpath = metadataMapping.get(metadata.getKey());
+            if (xpath != null) {
+                if (!previousValues.containsKey(xpath)) {
+                    previousValues.put(xpath, doc.getPropertyValue(xpath));
+                }
+                doc.setPropertyValue(xpath, metadata.getValue().toString());
             }
+        }
+    }
 
-            // document should exist if id != null
-            if (doc.getId() != null && session.exists(doc.getRef())) {
-                session.saveDocument(doc);
+    /**
+     * Whether a property written by the mappings has another value than before them, the values being compared once
+     * converted to the property types.
+     *
+     * @since 7.3
+     */
+    protected boolean isChanged(DocumentModel doc, Map<String, Serializable> previousValues) {
+        for (Map.Entry<String, Serializable> previousValue : previousValues.entrySet()) {
+            if (!Objects.deepEquals(previousValue.getValue(), doc.getPropertyValue(previousValue.getKey()))) {
+                return true;
             }
         }
+        return false;
+    }
+
+    /**
+     * Whether the processor failed for the blob in the last minutes, the failure being already reported: the mappings
+     * of the documents saved with this blob are skipped until the failure expires.
+     *
+     * @param processorId The processor of the mapping, {@code null} for the default one.
+     * @since 7.3
+     */
+    protected boolean isKnownFailure(Blob blob, String processorId) {
+        if (negativeCache == null || blob.getDigest() == null) {
+            return false;
+        }
+        String id = getRoutedProcessorId(processorId == null ? BinaryMetadataConstants.EXIF_TOOL_CONTRIBUTION_ID
+                : processorId);
+        String failure = negativeCache.getFailure(blob.getDigest(), id);
+        if (failure != null && log.isDebugEnabled()) {
+            log.debug("Skipping the metadata of " + blob.getDigest() + ", processor " + id + " failed: " + failure);
+        }
+        return failure != null;
     }
 
     /*--------------------- Event Service --------------------------*/
 
     @Override
     public void handleSyncUpdate(DocumentModel doc, DocumentEventContext docCtx) {
-        LinkedList<MetadataMappingDescriptor> syncMappingDescriptors = getSyncMapping(doc, docCtx);
+        // the rules are evaluated once for the sync mappings and the reads of the plan
+        final List<MetadataRuleDescriptor> ruleDescriptors = checkFilter(createActionContext(doc));
+        LinkedList<MetadataMappingDescriptor> syncMappingDescriptors = getSyncMapping(ruleDescriptors, docCtx);
         if (syncMappingDescriptors != null) {
-            handleUpdate(syncMappingDescriptors, doc, docCtx);
+            handleUpdate(MetadataUpdatePlan.compile(syncMappingDescriptors,
+                    new Supplier<List<MetadataMappingDescriptor>>() {
+
+                        @Override
+                        public List<MetadataMappingDescriptor> get() {
+                            return getMappings(ruleDescriptors);
+                        }
+
+                    }, doc), doc, docCtx);
         }
     }
 
     @Override
-    public void handleUpdate(List<MetadataMappingDescriptor> mappingDescriptors, DocumentModel doc,
+    public void handleUpdate(List<MetadataMappingDescriptor> mappingDescriptors, final DocumentModel doc,
             DocumentEventContext docCtx) {
-        for (MetadataMappingDescriptor mappingDescriptor : mappingDescriptors) {
-            Property fileProp = doc.getProperty(mappingDescriptor.getBlobXPath());
-            boolean isDirtyMapping = isDirtyMapping(mappingDescriptor, doc);
-            Blob blob = fileProp.getValue(Blob.class);
-            if (blob != null) {
-                if (fileProp.isDirty()) {
-                    if (isDirtyMapping) {
-                        // if Blob dirty and document metadata dirty, write metadata from doc to Blob
-                        writeMetadata(fileProp.getValue(Blob.class), mappingDescriptor.getId(), doc);
-                    } else {
-                        // if Blob dirty and document metadata not dirty, write metadata from Blob to doc
-                        writeMetadata(doc, docCtx.getCoreSession());
-                    }
-                } else {
-                    if (isDirtyMapping) {
-                        // if Blob not dirty and document metadata dirty, write metadata from doc to Blob
-                        writeMetadata(fileProp.getValue(Blob.class), mappingDescriptor.getId(), doc);
-                    }
-                }
+        handleUpdate(MetadataUpdatePlan.compile(mappingDescriptors, new Supplier<List<MetadataMappingDescriptor>>() {
+
+            @Override
+            public List<MetadataMappingDescriptor> get() {
+                return getMappings(checkFilter(createActionContext(doc)));
+            }
+
+        }, doc), doc, docCtx);
+    }
+
+    /**
+     * Writes each group of dirty mappings of the plan to its blob with one call, then reads the mappings of the dirty
+     * blobs to the document, saving it once.
+     *
+     * @since 7.3
+     */
+    protected void handleUpdate(MetadataUpdatePlan plan, DocumentModel doc, DocumentEventContext docCtx) {
+        if (log.isDebugEnabled()) {
+            log.debug("Updating the metadata of " + doc.getId() + ": " + plan);
+        }
+        for (MetadataMappingGroup group : plan.getWriteGroups()) {
+            // write metadata from doc to blob
+            writeMetadata(doc, group);
+        }
+        if (!plan.getReadMappings().isEmpty()) {
+            // write metadata from blob to doc
+            writeMetadata(doc, docCtx.getCoreSession(), plan.getReadMappings());
+        }
+    }
+
+    /**
+     * Writes the document properties of all the mappings of the group to its blob in one call, the last mappings
+     * overriding the metadata written by the first ones.
+     *
+     * @since 7.3
+     */
+    protected boolean writeMetadata(DocumentModel doc, MetadataMappingGroup group) {
+        Map<String, Object> metadataMapping = new HashMap<>();
+        for (MetadataMappingDescriptor mappingDescriptor : group.getMappings()) {
+            for (MetadataMappingDescriptor.MetadataDescriptor metadataDescriptor : mappingDescriptor.getMetadataDescriptors()) {
+                metadataMapping.put(metadataDescriptor.getName(), doc.getPropertyValue(metadataDescriptor.getXpath()));
             }
         }
+        Blob blob = doc.getProperty(group.getBlobXPath()).getValue(Blob.class);
+        String processorId = group.getProcessor() == null ? BinaryMetadataConstants.EXIF_TOOL_CONTRIBUTION_ID
+                : group.getProcessor();
+        return writeMetadata(processorId, blob, metadataMapping, group.getIgnorePrefix());
     }
 
     /*--------------------- Utils --------------------------*/
@@ -255,35 +512,404 @@ public class BinaryMetadataServiceImpl implements BinaryMetadataService {
      *
      * @return the list of metadata which should be processed sorted by rules order. (high to low priority)
      */
-    protected Set<MetadataRuleDescriptor> checkFilter(final ActionContext actionContext) {
-        final ActionManager actionService = Framework.getLocalService(ActionManager.class);
-        Set<MetadataRuleDescriptor> filtered = Sets.filter(BinaryMetadataComponent.self.ruleRegistry.contribs,
-                new Predicate<MetadataRuleDescriptor>() {
-
-                    @Override
-                    public boolean apply(MetadataRuleDescriptor input) {
-                        if (!input.getEnabled()) {
-                            return false;
-                        }
-                        for (String filterId : input.getFilterIds()) {
-                            if (!actionService.checkFilter(filterId, actionContext)) {
-                                return false;
-                            }
-                        }
-                        return true;
-                    }
-
-                });
+    protected List<MetadataRuleDescriptor> checkFilter(ActionContext actionContext) {
+        // the rules whose filters cannot accept the document are skipped without evaluating them
+        MetadataRuleIndex index = BinaryMetadataComponent.self.ruleRegistry.getIndex();
+        List<MetadataRuleDescriptor> candidates = index.getCandidates(actionContext.getCurrentDocument());
+        if (candidates.isEmpty()) {
+            return candidates;
+        }
+        ActionManager actionService = Framework.getLocalService(ActionManager.class);
+        List<MetadataRuleDescriptor> filtered = new ArrayList<>(candidates.size());
+        for (MetadataRuleDescriptor candidate : candidates) {
+            if (accept(candidate, index, actionService, actionContext)) {
+                filtered.add(candidate);
+            }
+        }
         return filtered;
     }
 
+    /**
+     * @return Whether the filters of the candidate rule accept the document, the exact filters being already checked
+     *         by the index.
+     * @since 7.3
+     */
+    protected boolean accept(MetadataRuleDescriptor ruleDescriptor, MetadataRuleIndex index,
+            ActionManager actionService, ActionContext actionContext) {
+        for (String filterId : ruleDescriptor.getFilterIds()) {
+            if (!index.isExact(filterId) && !actionService.checkFilter(filterId, actionContext)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     protected ActionContext createActionContext(DocumentModel doc) {
-        ActionContext actionContext = new ELActionContext(new ExpressionContext(), new ExpressionFactoryImpl());
+        ActionContext actionContext = new ELActionContext(new ExpressionContext(), EXPRESSION_FACTORY);
         actionContext.setCurrentDocument(doc);
         return actionContext;
     }
 
     protected BinaryMetadataProcessor getProcessor(String processorId) throws NoSuchMethodException {
+        return getDelegatedProcessor(getRoutedProcessorId(processorId));
+    }
+
+    /**
+     * Gives the processors delegating their calls to other ones the limiter and the caches of the processors they
+     * delegate to, without routing the calls again.
+     *
+     * @return The contributed processor under the limiter and the caches of the service, {@code null} if missing.
+     * @since 7.3
+     */
+    public BinaryMetadataProcessor getDelegatedProcessor(String processorId) {
+        BinaryMetadataProcessor processor = BinaryMetadataComponent.self.processorRegistry.getProcessor(processorId);
+        if (processor == null) {
+            return null;
+        }
+        processor = getLimitedProcessor(processorId, processor);
+        if (negativeCache != null) {
+            // outside of the limiter, the known failures don't wait for the processor calls
+            processor = new NegativeCachedBinaryMetadataProcessor(processor, processorId, negativeCache);
+        }
+        if (cacheLevels.length > 0) {
+            // outside of the limiter, the cache hits don't wait for the processor calls
+            processor = new CachedBinaryMetadataProcessor(processor, processorId, cacheLevels);
+        }
+        return processor;
+    }
+
+    /**
+     * @return The id of the processor actually serving the calls addressed to the given one.
+     * @since 7.3
+     */
+    protected String getRoutedProcessorId(String processorId) {
+        if (routing && BinaryMetadataConstants.EXIF_TOOL_CONTRIBUTION_ID.equals(processorId)
+                && BinaryMetadataComponent.self.processorRegistry.getProcessor(
+                        BinaryMetadataConstants.ROUTING_CONTRIBUTION_ID) != null) {
+            return BinaryMetadataConstants.ROUTING_CONTRIBUTION_ID;
+        }
+        return processorId;
+    }
+
+    /**
+     * Runs the calls of the given processor under the limiter of its id, except for the processors running in the JVM:
+     * their calls don't queue on an external resource and their short latencies are no signal for the limit. The
+     * routing processor applies the limiters of the processors it routes to.
+     *
+     * @since 7.3
+     */
+    protected BinaryMetadataProcessor getLimitedProcessor(String processorId, BinaryMetadataProcessor processor) {
+        if (limiters == null || processor instanceof NativeMetadataProcessor
+                || processor instanceof RoutingMetadataProcessor) {
+            return processor;
+        }
+        AdaptiveConcurrencyLimiter limiter = limiters.get(processorId);
+        if (limiter == null) {
+            limiter = new AdaptiveConcurrencyLimiter(limiterInitial, limiterMin, limiterMax);
+            AdaptiveConcurrencyLimiter previous = limiters.putIfAbsent(processorId, limiter);
+            if (previous == null) {
+                registerLimiterMetrics(processorId, limiter);
+            } else {
+                limiter = previous;
+            }
+        }
+        return new LimitedBinaryMetadataProcessor(processor, limiter);
+    }
+
+    /**
+     * @return The limiter of the given processor, {@code null} if disabled or if the processor was not called yet.
+     * @since 7.3
+     */
+    public AdaptiveConcurrencyLimiter getLimiter(String processorId) {
+        return limiters == null ? null : limiters.get(processorId);
+    }
+
+    /**
+     * @since 7.3
+     */
+    public MetadataResultCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @since 7.3
+     */
+    public MetadataDiskCache getDiskCache() {
+        return diskCache;
+    }
+
+    /**
+     * @since 7.3
+     */
+    public MetadataRuleIndex getRuleIndex() {
+        return BinaryMetadataComponent.self.ruleRegistry.getIndex();
+    }
+
+    /**
+     * @since 7.3
+     */
+    public MetadataSharedCache getSharedCache() {
+        return sharedCache;
+    }
+
+    /**
+     * @since 7.3
+     */
+    public MetadataNegativeCache getNegativeCache() {
+        return negativeCache;
+    }
+
+    /**
+     * Releases the disk cache.
+     *
+     * @since 7.3
+     */
+    public void close() {
+        if (diskCache != null) {
+            try {
+                diskCache.close();
+            } catch (IOException e) {
+                log.warn("Cannot close the binary metadata disk cache " + diskCache.getFile(), e);
+            }
+        }
+    }
+
+    /**
+     * @return The disk cache, {@code null} if it cannot be opened.
+     * @since 7.3
+     */
+    protected MetadataDiskCache openDiskCache() {
+        String dir = Framework.getProperty(BinaryMetadataConstants.BINARY_METADATA_DISK_CACHE_DIR);
+        File file = dir == null || dir.trim().isEmpty() ? new File(Environment.getDefault().getData(),
+                "binary-metadata") : new File(dir.trim());
+        long maxSize = (long) getIntProperty(BinaryMetadataConstants.BINARY_METADATA_DISK_CACHE_MAX_SIZE, 256) << 20;
+        try {
+            return new MetadataDiskCache(file, (int) Math.min(maxSize, Integer.MAX_VALUE));
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Cannot open the binary metadata disk cache in " + file + ", disabling it", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return The shared cache, {@code null} if its store cannot be created.
+     * @since 7.3
+     */
+    protected MetadataSharedCache createSharedCache() {
+        String className = Framework.getProperty(BinaryMetadataConstants.BINARY_METADATA_SHARED_CACHE_STORE,
+                MemoryKeyValueStore.class.getName());
+        KeyValueStore store;
+        try {
+            store = Class.forName(className.trim()).asSubclass(KeyValueStore.class).newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            log.warn("Cannot create the binary metadata shared cache store " + className + ", disabling it", e);
+            return null;
+        }
+        return new MetadataSharedCache(store, getIntProperty(BinaryMetadataConstants.BINARY_METADATA_SHARED_CACHE_TTL,
+                24 * 3600), getIntProperty(BinaryMetadataConstants.BINARY_METADATA_SHARED_CACHE_MAX_VALUE_SIZE,
+                64 * 1024));
+    }
+
+    /**
+     * Exposes the hits and misses of the shared cache, the results too large to be shared and the failed calls to
+     * the store.
+     *
+     * @since 7.3
+     */
+    protected void registerSharedCacheMetrics() {
+        MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+        registerGauge(registry, "sharedCache", "hits", new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return sharedCache.getHits();
+            }
+
+        });
+        registerGauge(registry, "sharedCache", "misses", new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return sharedCache.getMisses();
+            }
+
+        });
+        registerGauge(registry, "sharedCache", "rejections", new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return sharedCache.getRejections();
+            }
+
+        });
+        registerGauge(registry, "sharedCache", "errors", new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return sharedCache.getErrors();
+            }
+
+        });
+    }
+
+    /**
+     * Exposes the hits and misses of the disk cache, and the bytes in use.
+     *
+     * @since 7.3
+     */
+    protected void registerDiskCacheMetrics() {
+        MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+        registerGauge(registry, "diskCache", "hits", new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return diskCache.getHits();
+            }
+
+        });
+        registerGauge(registry, "diskCache", "misses", new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return diskCache.getMisses();
+            }
+
+        });
+        registerGauge(registry, "diskCache", "usedSize", new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return diskCache.getUsedSize();
+            }
+
+        });
+    }
+
+    /**
+     * Exposes the reads short-circuited by the negative cache, and the number of failures and empty results kept.
+     *
+     * @since 7.3
+     */
+    protected void registerNegativeCacheMetrics() {
+        MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+        registerGauge(registry, "negativeCache", "hits", new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return negativeCache.getHitCount();
+            }
+
+        });
+        registerGauge(registry, "negativeCache", "size", new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return negativeCache.size();
+            }
+
+        });
+    }
+
+    /**
+     * Exposes the hits, misses and evictions of the cache, and the number of cached results.
+     *
+     * @since 7.3
+     */
+    protected void registerCacheMetrics() {
+        MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+        registerGauge(registry, "cache", "hits", new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return cache.getStats().hitCount();
+            }
+
+        });
+        registerGauge(registry, "cache", "misses", new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return cache.getStats().missCount();
+            }
+
+        });
+        registerGauge(registry, "cache", "evictions", new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return cache.getStats().evictionCount();
+            }
+
+        });
+        registerGauge(registry, "cache", "size", new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return cache.size();
+            }
+
+        });
+    }
+
+    /**
+     * Exposes the current limit, the calls in flight and the calls waiting for the limit of a processor.
+     *
+     * @since 7.3
+     */
+    protected void registerLimiterMetrics(String processorId, final AdaptiveConcurrencyLimiter limiter) {
+        MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+        String group = MetricRegistry.name("limiter", processorId);
+        registerGauge(registry, group, "limit", new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return limiter.getLimit();
+            }
+
+        });
+        registerGauge(registry, group, "inFlight", new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return limiter.getInFlight();
+            }
+
+        });
+        registerGauge(registry, group, "queueDepth", new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return limiter.getQueueDepth();
+            }
+
+        });
+    }
+
+    protected void registerGauge(MetricRegistry registry, String group, String name, Gauge<?> gauge) {
+        String metricName = MetricRegistry.name(BinaryMetadataService.class, group, name);
+        // replace the gauge of a previous service instance
+        registry.remove(metricName);
+        registry.register(metricName, gauge);
+    }
+
+    protected static int getIntProperty(String name, int defaultValue) {
+        String value = Framework.getProperty(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value '" + value + "' for property '" + name + "', using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return The processor as contributed, without the caches and limits of the service, {@code null} if missing.
+     * @since 7.3
+     */
+    public BinaryMetadataProcessor getContributedProcessor(String processorId) {
         return BinaryMetadataComponent.self.processorRegistry.getProcessor(processorId);
     }
 
@@ -293,7 +919,15 @@ public class BinaryMetadataServiceImpl implements BinaryMetadataService {
     public LinkedList<MetadataMappingDescriptor> getSyncMapping(DocumentModel doc, DocumentEventContext docCtx) {
         // Check if rules applying for this document.
         ActionContext actionContext = createActionContext(doc);
-        Set<MetadataRuleDescriptor> ruleDescriptors = checkFilter(actionContext);
+        return getSyncMapping(checkFilter(actionContext), docCtx);
+    }
+
+    /**
+     * @param ruleDescriptors The rules applying to the document.
+     * @since 7.3
+     */
+    protected LinkedList<MetadataMappingDescriptor> getSyncMapping(List<MetadataRuleDescriptor> ruleDescriptors,
+            DocumentEventContext docCtx) {
         Set<String> syncMappingDescriptorIds = new HashSet<>();
         HashSet<String> asyncMappingDescriptorIds = new HashSet<>();
         for (MetadataRuleDescriptor ruleDescriptor : ruleDescriptors) {
@@ -316,6 +950,27 @@ public class BinaryMetadataServiceImpl implements BinaryMetadataService {
         return getMapping(syncMappingDescriptorIds);
     }
 
+    /**
+     * @return The mappings of the rules, sync and async, in the order of the rules.
+     * @since 7.3
+     */
+    protected List<MetadataMappingDescriptor> getMappings(List<MetadataRuleDescriptor> ruleDescriptors) {
+        List<MetadataMappingDescriptor> mappingDescriptors = new ArrayList<>();
+        for (MetadataRuleDescriptor ruleDescriptor : ruleDescriptors) {
+            for (String mappingDescriptorId : ruleDescriptor.getMetadataMappingIdDescriptors()) {
+                MetadataMappingDescriptor mappingDescriptor = BinaryMetadataComponent.self.mappingRegistry.getMappingDescriptorMap().get(
+                        mappingDescriptorId);
+                if (mappingDescriptor == null) {
+                    log.warn("Missing binary metadata descriptor with id '" + mappingDescriptorId
+                            + "'. Or check your rule contribution with proper metadataMapping-id.");
+                    continue;
+                }
+                mappingDescriptors.add(mappingDescriptor);
+            }
+        }
+        return mappingDescriptors;
+    }
+
     protected LinkedList<MetadataMappingDescriptor> getMapping(Set<String> mappingDescriptorIds) {
         // For each mapping descriptors, store mapping.
         LinkedList<MetadataMappingDescriptor> mappingResult = new LinkedList<>();
@@ -331,22 +986,4 @@ public class BinaryMetadataServiceImpl implements BinaryMetadataService {
         return mappingResult;
     }
 
-    /**
-     * Maps inspector only.
-     */
-    protected boolean isDirtyMapping(MetadataMappingDescriptor mappingDescriptor, DocumentModel doc) {
-        Map<String, String> mappingResult = new HashMap<>();
-        for (MetadataMappingDescriptor.MetadataDescriptor metadataDescriptor : mappingDescriptor.getMetadataDescriptors()) {
-            mappingResult.put(metadataDescriptor.getXpath(), metadataDescriptor.getName());
-        }
-        // Returning only dirty properties
-        HashMap<String, Object> resultDirtyMapping = new HashMap<>();
-        for (String metadata : mappingResult.keySet()) {
-            Property property = doc.getProperty(metadata);
-            if (property.isDirty()) {
-                resultDirtyMapping.put(mappingResult.get(metadata), doc.getPropertyValue(metadata));
-            }
-        }
-        return !resultDirtyMapping.isEmpty();
-    }
 }
@@ -74,7 +74,13 @@ public class BinaryMetadataWork extends AbstractWork {
         }
         BinaryMetadataService binaryMetadataService = Framework.getLocalService(BinaryMetadataService.class);
         DocumentModel workingDocument = session.getDocument(new IdRef(docId));
-        binaryMetadataService.handleUpdate(mappingDescriptors, workingDocument, docCtx);
+        // background quota of the processors: never takes the subprocess slots of interactive calls
+        SubprocessLimiter.setBackground(true);
+        try {
+            binaryMetadataService.handleUpdate(mappingDescriptors, workingDocument, docCtx);
+        } finally {
+            SubprocessLimiter.setBackground(false);
+        }
         setStatus("Metadata Update Done");
     }
 
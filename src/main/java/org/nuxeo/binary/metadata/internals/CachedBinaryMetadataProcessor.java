@@ -0,0 +1,147 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.nuxeo.binary.metadata.api.BinaryMetadataProcessor;
+import org.nuxeo.ecm.core.api.Blob;
+
+/**
+ * Serves the reads of a processor from levels of {@link MetadataCache}, the blobs without digest being always read.
+ * The levels are looked up in order, a result found in a level being put in the previous ones. The writes invalidate
+ * the results cached for the digest of the blob in all the levels.
+ *
+ * @since 7.3
+ */
+public class CachedBinaryMetadataProcessor implements BinaryMetadataProcessor {
+
+    protected final BinaryMetadataProcessor processor;
+
+    protected final String processorId;
+
+    protected final MetadataCache[] levels;
+
+    public CachedBinaryMetadataProcessor(BinaryMetadataProcessor processor, String processorId,
+            MetadataCache... levels) {
+        this.processor = processor;
+        this.processorId = processorId;
+        this.levels = levels;
+    }
+
+    @Override
+    public boolean writeMetadata(Blob blob, Map<String, Object> metadata, boolean ignorePrefix) {
+        String digest = getDigest(blob);
+        try {
+            return processor.writeMetadata(blob, metadata, ignorePrefix);
+        } finally {
+            if (digest != null) {
+                for (MetadataCache level : levels) {
+                    level.invalidate(digest);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Object> readMetadata(Blob blob, List<String> metadata, boolean ignorePrefix) {
+        String digest = getDigest(blob);
+        if (digest == null) {
+            return processor.readMetadata(blob, metadata, ignorePrefix);
+        }
+        Map<String, Object> result = get(digest, metadata, ignorePrefix);
+        if (result == null) {
+            result = processor.readMetadata(blob, metadata, ignorePrefix);
+            put(digest, metadata, ignorePrefix, result);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Object> readMetadata(Blob blob, boolean ignorePrefix) {
+        String digest = getDigest(blob);
+        if (digest == null) {
+            return processor.readMetadata(blob, ignorePrefix);
+        }
+        Map<String, Object> result = get(digest, null, ignorePrefix);
+        if (result == null) {
+            result = processor.readMetadata(blob, ignorePrefix);
+            put(digest, null, ignorePrefix, result);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the blobs missing from the cache in one call.
+     */
+    @Override
+    public List<Map<String, Object>> readMetadata(List<Blob> blobs, List<String> metadata, boolean ignorePrefix) {
+        List<Map<String, Object>> results = new ArrayList<>(blobs.size());
+        List<Blob> missing = new ArrayList<>();
+        List<Integer> missingIndexes = new ArrayList<>();
+        for (Blob blob : blobs) {
+            String digest = getDigest(blob);
+            Map<String, Object> result = digest == null ? null : get(digest, metadata, ignorePrefix);
+            if (result == null) {
+                missing.add(blob);
+                missingIndexes.add(Integer.valueOf(results.size()));
+            }
+            results.add(result);
+        }
+        if (!missing.isEmpty()) {
+            List<Map<String, Object>> read = processor.readMetadata(missing, metadata, ignorePrefix);
+            for (int i = 0; i < missing.size(); i++) {
+                Map<String, Object> result = read.get(i);
+                results.set(missingIndexes.get(i).intValue(), result);
+                String digest = getDigest(missing.get(i));
+                if (digest != null) {
+                    put(digest, metadata, ignorePrefix, result);
+                }
+            }
+        }
+        return results;
+    }
+
+    protected Map<String, Object> get(String digest, List<String> metadata, boolean ignorePrefix) {
+        for (int i = 0; i < levels.length; i++) {
+            Map<String, Object> result = levels[i].get(digest, processorId, metadata, ignorePrefix);
+            if (result != null) {
+                for (int j = 0; j < i; j++) {
+                    levels[j].put(digest, processorId, metadata, ignorePrefix, result);
+                }
+                return result;
+            }
+        }
+        return null;
+    }
+
+    protected void put(String digest, List<String> metadata, boolean ignorePrefix, Map<String, Object> result) {
+        for (MetadataCache level : levels) {
+            level.put(digest, processorId, metadata, ignorePrefix, result);
+        }
+    }
+
+    /**
+     * @return The digest identifying the content of the blob, {@code null} for the blobs not stored yet.
+     */
+    protected static String getDigest(Blob blob) {
+        return blob == null ? null : blob.getDigest();
+    }
+
+}
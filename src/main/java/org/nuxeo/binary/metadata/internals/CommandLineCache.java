@@ -0,0 +1,120 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.nuxeo.ecm.platform.commandline.executor.api.CommandAvailability;
+import org.nuxeo.ecm.platform.commandline.executor.api.CommandLineExecutorService;
+import org.nuxeo.ecm.platform.commandline.executor.service.CommandLineDescriptor;
+import org.nuxeo.ecm.platform.commandline.executor.service.CommandLineExecutorComponent;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Availability and compiled form of the command lines used by the processors, computed once per command contribution:
+ * they are computed again when the {@code command} contribution registered for the command changes. The cache is also
+ * invalidated by {@link BinaryMetadataComponent} when the processor contributions change.
+ *
+ * @since 7.3
+ */
+public class CommandLineCache {
+
+    /**
+     * Marks the commands which cannot be compiled, the entries not holding {@code null} values once computed.
+     */
+    protected static final CompiledCommandLine NOT_COMPILED = new CompiledCommandLine(null, new String[0]);
+
+    /**
+     * Availability and compiled form of a command, for the contribution they are computed from.
+     */
+    protected static class Entry {
+
+        protected final CommandLineDescriptor descriptor;
+
+        protected final String executable;
+
+        protected final String parameters;
+
+        protected volatile CommandAvailability availability;
+
+        protected volatile CompiledCommandLine commandLine;
+
+        protected Entry(CommandLineDescriptor descriptor) {
+            this.descriptor = descriptor;
+            executable = descriptor == null ? null : descriptor.getCommand();
+            parameters = descriptor == null ? null : descriptor.getParametersString();
+        }
+
+        /**
+         * The contribution is compared by identity, and by content in case it was merged in place.
+         */
+        protected boolean isFor(CommandLineDescriptor current) {
+            if (current != descriptor) {
+                return false;
+            }
+            return current == null || StringUtils.equals(executable, current.getCommand())
+                    && StringUtils.equals(parameters, current.getParametersString());
+        }
+
+    }
+
+    protected final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    protected Entry getEntry(String command) {
+        CommandLineDescriptor descriptor = CommandLineExecutorComponent.getCommandDescriptor(command);
+        Entry entry = entries.get(command);
+        if (entry == null || !entry.isFor(descriptor)) {
+            entry = new Entry(descriptor);
+            entries.put(command, entry);
+        }
+        return entry;
+    }
+
+    public CommandAvailability getCommandAvailability(String command) {
+        Entry entry = getEntry(command);
+        CommandAvailability availability = entry.availability;
+        if (availability == null) {
+            availability = Framework.getLocalService(CommandLineExecutorService.class).getCommandAvailability(command);
+            entry.availability = availability;
+        }
+        return availability;
+    }
+
+    /**
+     * @return The compiled command line, or {@code null} if it has to be run through the
+     *         {@link CommandLineExecutorService}.
+     */
+    public CompiledCommandLine getCommandLine(String command) {
+        Entry entry = getEntry(command);
+        CompiledCommandLine commandLine = entry.commandLine;
+        if (commandLine == null) {
+            commandLine = CompiledCommandLine.compile(entry.descriptor);
+            if (commandLine == null) {
+                commandLine = NOT_COMPILED;
+            }
+            entry.commandLine = commandLine;
+        }
+        return commandLine == NOT_COMPILED ? null : commandLine;
+    }
+
+    public void invalidate() {
+        entries.clear();
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.platform.actions.ActionFilter;
+import org.nuxeo.ecm.platform.actions.DefaultActionFilter;
+import org.nuxeo.ecm.platform.actions.FilterRule;
+
+/**
+ * Document type, facet and schema restrictions of a {@link DefaultActionFilter}, compiled once from its rules and
+ * checked without any {@link org.nuxeo.ecm.platform.actions.ActionContext}.
+ * <p>
+ * A filter whose rules have no condition, permission or group is exact: its result is the one of the filter. The
+ * other filters are only checked for the restrictions of their grant rules, one of which has to accept the document,
+ * and still have to be evaluated by the {@link org.nuxeo.ecm.platform.actions.ejb.ActionManager}.
+ *
+ * @since 7.3
+ */
+public class CompiledActionFilter {
+
+    protected static class Rule {
+
+        protected final boolean grant;
+
+        /**
+         * Whether the rule only restricts the types, facets and schemas.
+         */
+        protected final boolean exact;
+
+        protected final Set<String> types;
+
+        protected final Set<String> facets;
+
+        protected final Set<String> schemas;
+
+        protected Rule(FilterRule rule) {
+            grant = rule.grant;
+            exact = isEmpty(rule.conditions) && isEmpty(rule.permissions) && isEmpty(rule.groups);
+            types = toSet(rule.types);
+            facets = toSet(rule.facets);
+            schemas = toSet(rule.schemas);
+        }
+
+        /**
+         * @return Whether the document has one of the types, one of the facets and one of the schemas of the rule.
+         */
+        protected boolean matches(DocumentModel doc) {
+            if (types != null && !types.contains(doc.getType())) {
+                return false;
+            }
+            if (facets != null && !hasFacet(doc)) {
+                return false;
+            }
+            return schemas == null || hasSchema(doc);
+        }
+
+        protected boolean hasFacet(DocumentModel doc) {
+            for (String facet : facets) {
+                if (doc.hasFacet(facet)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        protected boolean hasSchema(DocumentModel doc) {
+            for (String schema : schemas) {
+                if (doc.hasSchema(schema)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        protected static boolean isEmpty(String[] values) {
+            return values == null || values.length == 0;
+        }
+
+        protected static Set<String> toSet(String[] values) {
+            return isEmpty(values) ? null : new HashSet<>(Arrays.asList(values));
+        }
+
+    }
+
+    protected final String id;
+
+    protected final List<Rule> rules;
+
+    protected final boolean exact;
+
+    protected CompiledActionFilter(String id, List<Rule> rules) {
+        this.id = id;
+        this.rules = rules;
+        boolean exact = true;
+        for (Rule rule : rules) {
+            exact &= rule.exact;
+        }
+        this.exact = exact;
+    }
+
+    /**
+     * @return The compiled filter, {@code null} if the filter is not a {@link DefaultActionFilter}.
+     */
+    public static CompiledActionFilter compile(String id, ActionFilter filter) {
+        if (!(filter instanceof DefaultActionFilter)) {
+            return null;
+        }
+        List<Rule> rules = new ArrayList<>();
+        FilterRule[] filterRules = ((DefaultActionFilter) filter).getRules();
+        if (filterRules != null) {
+            for (FilterRule filterRule : filterRules) {
+                rules.add(new Rule(filterRule));
+            }
+        }
+        return new CompiledActionFilter(id, rules);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return Whether {@link #accept(DocumentModel)} gives the result of the filter.
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * Evaluates the rules as {@link DefaultActionFilter} does: a deny rule applying rejects the document, otherwise the
+     * document is accepted if a grant rule applies or if there is no grant rule. For a filter which is not exact, the
+     * rules having conditions, permissions or groups are assumed to apply when granting and not to apply when denying.
+     *
+     * @return {@code false} if the filter rejects the document.
+     */
+    public boolean accept(DocumentModel doc) {
+        boolean grantRule = false;
+        boolean granted = false;
+        for (Rule rule : rules) {
+            if (!rule.grant) {
+                if (rule.exact && rule.matches(doc)) {
+                    return false;
+                }
+                continue;
+            }
+            grantRule = true;
+            granted = granted || rule.matches(doc);
+        }
+        return !grantRule || granted;
+    }
+
+    /**
+     * @return The document types the filter may accept, {@code null} if not restricted.
+     */
+    public Set<String> getTypes() {
+        Set<String> types = new HashSet<>();
+        for (Rule rule : rules) {
+            if (rule.grant) {
+                if (rule.types == null) {
+                    return null;
+                }
+                types.addAll(rule.types);
+            }
+        }
+        // without grant rule, the filter accepts all the documents not denied
+        return types.isEmpty() ? null : types;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + id + ", " + rules.size() + " rules" + (exact ? ", exact)" : ")");
+    }
+
+}
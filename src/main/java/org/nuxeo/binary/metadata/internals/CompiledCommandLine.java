@@ -0,0 +1,225 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.SystemUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.binary.metadata.api.BinaryMetadataException;
+import org.nuxeo.ecm.platform.commandline.executor.api.ExecResult;
+import org.nuxeo.ecm.platform.commandline.executor.service.CommandLineDescriptor;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Immutable argument vector compiled once from a command line contribution. The file and tag parameters are the only
+ * arguments added on each call, and the process is started directly, without going through a shell.
+ * <p>
+ * Only the parameter strings made of whitespace separated literals and whole {@code #{inFilePath}},
+ * {@code #{argFile}} or {@code #{tagList}} placeholders can be compiled. Nothing is compiled on Windows, where the
+ * {@code winCommand}, the executable lookup and the quoting of the arguments are left to the
+ * {@link org.nuxeo.ecm.platform.commandline.executor.api.CommandLineExecutorService CommandLineExecutorService}.
+ *
+ * @since 7.3
+ */
+public class CompiledCommandLine {
+
+    private static final Log log = LogFactory.getLog(CompiledCommandLine.class);
+
+    protected static final String[] FILE_PARAMETERS = { "inFilePath", "argFile" };
+
+    protected static final String TAGS_PARAMETER = "tagList";
+
+    protected static final String FILE_PLACEHOLDER = "#{file}";
+
+    protected static final String TAGS_PLACEHOLDER = "#{tags}";
+
+    protected static final ExecutorService errorReaders = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("binary-metadata-command-stderr-%d").setDaemon(true).build());
+
+    protected final String name;
+
+    /**
+     * Executable followed by the literal arguments and the {@link #FILE_PLACEHOLDER} / {@link #TAGS_PLACEHOLDER}
+     * placeholders, compared by identity.
+     */
+    protected final String[] template;
+
+    protected CompiledCommandLine(String name, String[] template) {
+        this.name = name;
+        this.template = template;
+    }
+
+    /**
+     * @return The compiled command, or {@code null} if the contribution is disabled or cannot be compiled.
+     */
+    public static CompiledCommandLine compile(CommandLineDescriptor descriptor) {
+        if (SystemUtils.IS_OS_WINDOWS) {
+            return null;
+        }
+        if (descriptor == null || !descriptor.isEnabled() || StringUtils.isBlank(descriptor.getCommand())) {
+            return null;
+        }
+        List<String> template = new ArrayList<>();
+        template.add(descriptor.getCommand().trim());
+        String parameters = descriptor.getParametersString();
+        if (parameters != null) {
+            for (String token : parameters.trim().split("\\s+")) {
+                if (token.isEmpty()) {
+                    continue;
+                }
+                if (token.startsWith("#{") && token.endsWith("}") && token.indexOf('#', 1) < 0) {
+                    String parameter = token.substring(2, token.length() - 1);
+                    if (TAGS_PARAMETER.equals(parameter)) {
+                        template.add(TAGS_PLACEHOLDER);
+                    } else if (Arrays.asList(FILE_PARAMETERS).contains(parameter)) {
+                        template.add(FILE_PLACEHOLDER);
+                    } else {
+                        log.debug("Unknown parameter " + token + " in command " + descriptor.getName());
+                        return null;
+                    }
+                } else if (token.contains("#{") || token.indexOf('"') >= 0 || token.indexOf('\'') >= 0) {
+                    // embedded placeholders and quoting need the platform parser
+                    return null;
+                } else {
+                    template.add(token);
+                }
+            }
+        }
+        return new CompiledCommandLine(descriptor.getName(), template.toArray(new String[template.size()]));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean hasFileParameter() {
+        for (String token : template) {
+            if (token == FILE_PLACEHOLDER) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param file Value of the file parameter.
+     * @param tags Arguments of the tag list parameter, one per entry, possibly {@code null}.
+     */
+    public List<String> getArguments(File file, List<String> tags) {
+        return getArguments(file.getAbsolutePath(), tags);
+    }
+
+    /**
+     * @param fileArgument Value of the file parameter, such as {@code -} for the standard input.
+     * @param tags Arguments of the tag list parameter, one per entry, possibly {@code null}.
+     */
+    public List<String> getArguments(String fileArgument, List<String> tags) {
+        List<String> arguments = new ArrayList<>(template.length + (tags == null ? 0 : tags.size()));
+        for (String token : template) {
+            if (token == FILE_PLACEHOLDER) {
+                arguments.add(fileArgument);
+            } else if (token == TAGS_PLACEHOLDER) {
+                if (tags != null) {
+                    arguments.addAll(tags);
+                }
+            } else {
+                arguments.add(token);
+            }
+        }
+        return arguments;
+    }
+
+    /**
+     * Runs the command. The result output is the standard output, or the error stream if the command failed without
+     * any output.
+     *
+     * @param timeoutMillis Time after which the process is killed, no timeout if not positive.
+     */
+    public ExecResult execute(File file, List<String> tags, long timeoutMillis) throws IOException {
+        List<String> arguments = getArguments(file, tags);
+        String commandLine = StringUtils.join(arguments, " ");
+        long start = System.currentTimeMillis();
+        Process process = new ProcessBuilder(arguments).start();
+        try (ProcessWatchdog watchdog = ProcessWatchdog.watch(process, timeoutMillis)) {
+            Future<List<String>> errors = readErrors(process);
+            List<String> output = readLines(process.getInputStream());
+            int exitCode = process.waitFor();
+            if (watchdog.isExpired()) {
+                throw new ProcessorTimeoutException("Command killed after " + timeoutMillis + "ms: " + commandLine);
+            }
+            List<String> errorLines = errors.get();
+            if (exitCode != 0 && output.isEmpty()) {
+                output = errorLines;
+            } else if (!errorLines.isEmpty() && log.isDebugEnabled()) {
+                log.debug(commandLine + ": " + errorLines);
+            }
+            return new ExecResult(commandLine, output, System.currentTimeMillis() - start, exitCode);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ExecResult(commandLine, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to read the error stream of " + commandLine, e.getCause());
+        } finally {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Reads the error stream of the process while its output is read, so that neither of them fills up and blocks
+     * the process.
+     */
+    public static Future<List<String>> readErrors(Process process) {
+        final InputStream errorStream = process.getErrorStream();
+        return errorReaders.submit(new Callable<List<String>>() {
+
+            @Override
+            public List<String> call() throws IOException {
+                return readLines(errorStream);
+            }
+
+        });
+    }
+
+    protected static List<String> readLines(InputStream in) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.time.FastDateFormat;
+import org.nuxeo.binary.metadata.api.MetadataTagList;
+
+/**
+ * Builds the ExifTool tag arguments, one argument vector entry per tag or value, without any shell escaping.
+ *
+ * @since 7.3
+ */
+public final class ExifToolArguments {
+
+    /**
+     * ExifTool date/time format.
+     */
+    protected static final FastDateFormat DATE_FORMAT = FastDateFormat.getInstance("yyyy:MM:dd HH:mm:ssZZ");
+
+    private ExifToolArguments() {
+        // utility class
+    }
+
+    /**
+     * @return The {@code -Tag} arguments, shared if the tags come from a {@link MetadataTagList}.
+     */
+    public static List<String> getReadArguments(List<String> tags) {
+        if (tags instanceof MetadataTagList) {
+            return ((MetadataTagList) tags).getReadArguments();
+        }
+        List<String> arguments = new ArrayList<>(tags.size());
+        for (String tag : tags) {
+            arguments.add("-" + tag);
+        }
+        return arguments;
+    }
+
+    /**
+     * @return The {@code -Tag=value} arguments. The items of an array or collection value are passed as separate
+     *         assignments of the same tag, which ExifTool adds to list tags. A {@code null} value deletes the tag.
+     */
+    public static List<String> getWriteArguments(Map<String, Object> metadata) {
+        List<String> arguments = new ArrayList<>(metadata.size());
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Object[]) {
+                addAssignments(arguments, entry.getKey(), Arrays.asList((Object[]) value));
+            } else if (value instanceof Collection) {
+                addAssignments(arguments, entry.getKey(), (Collection<?>) value);
+            } else {
+                arguments.add(assignment(entry.getKey(), value));
+            }
+        }
+        return arguments;
+    }
+
+    protected static void addAssignments(List<String> arguments, String tag, Collection<?> values) {
+        if (values.isEmpty()) {
+            arguments.add(assignment(tag, null));
+        }
+        for (Object value : values) {
+            arguments.add(assignment(tag, value));
+        }
+    }
+
+    protected static String assignment(String tag, Object value) {
+        String text = encode(value);
+        StringBuilder sb = new StringBuilder(tag.length() + text.length() + 2);
+        return sb.append('-').append(tag).append('=').append(text).toString();
+    }
+
+    protected static String encode(Object value) {
+        if (value == null) {
+            return "";
+        } else if (value instanceof Calendar) {
+            return DATE_FORMAT.format((Calendar) value);
+        } else if (value instanceof Date) {
+            return DATE_FORMAT.format((Date) value);
+        }
+        return value.toString();
+    }
+
+    /**
+     * Joins the arguments for the command line parser of the command line executor, escaping the spaces and
+     * dropping the quotes in one pass.
+     */
+    public static String toCommandLine(List<String> arguments) {
+        int length = 0;
+        for (String argument : arguments) {
+            length += argument.length() + 1;
+        }
+        StringBuilder sb = new StringBuilder(length + length / 8);
+        for (String argument : arguments) {
+            for (int i = 0; i < argument.length(); i++) {
+                char c = argument.charAt(i);
+                if (c == ' ') {
+                    sb.append('\\');
+                } else if (c == '\'') {
+                    continue;
+                }
+                sb.append(c);
+            }
+            sb.append(' ');
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Token stream reader of the ExifTool {@code -json} output. Only the requested tags are materialized: the values of
+ * the other tags are skipped by the parser without being built.
+ * <p>
+ * The tags are matched by name, ignoring the group and the case, as ExifTool may report a tag under another group
+ * than the requested one (e.g. 'XMP:Title' for 'XMP-dc:Title'). The 'SourceFile', 'Error' and 'Warning' entries are
+ * always kept. No projection is done if a requested tag is a wildcard or 'All'.
+ *
+ * @since 7.3
+ */
+public class ExifToolJsonReader {
+
+    protected static final Set<String> ALWAYS_READ = new HashSet<>(Arrays.asList("sourcefile", "error", "warning"));
+
+    protected final ObjectMapper mapper;
+
+    /**
+     * Lower case names of the tags to read, {@code null} to read all of them.
+     */
+    protected final Set<String> names;
+
+    /**
+     * @param mapper Mapper used for the array and object values only.
+     * @param tags Requested tags, {@code null} to read all of them.
+     */
+    public ExifToolJsonReader(ObjectMapper mapper, List<String> tags) {
+        this.mapper = mapper;
+        names = getNames(tags);
+    }
+
+    protected static Set<String> getNames(List<String> tags) {
+        if (tags == null) {
+            return null;
+        }
+        Set<String> names = new HashSet<>(ALWAYS_READ);
+        for (String tag : tags) {
+            String name = tag.substring(tag.lastIndexOf(':') + 1).toLowerCase(Locale.ENGLISH);
+            if (name.endsWith("#")) {
+                // numerical value flag
+                name = name.substring(0, name.length() - 1);
+            }
+            if (name.indexOf('*') >= 0 || name.indexOf('?') >= 0 || "all".equals(name)) {
+                return null;
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * @return One map per file reported by ExifTool.
+     */
+    public List<Map<String, Object>> read(InputStream in) throws IOException {
+        try (JsonParser parser = mapper.getJsonFactory().createJsonParser(in)) {
+            return read(parser);
+        }
+    }
+
+    /**
+     * @param lines ExifTool output lines.
+     * @return One map per file reported by ExifTool.
+     */
+    public List<Map<String, Object>> read(List<String> lines) throws IOException {
+        try (JsonParser parser = mapper.getJsonFactory().createJsonParser(new LinesReader(lines))) {
+            return read(parser);
+        }
+    }
+
+    protected List<Map<String, Object>> read(JsonParser parser) throws IOException {
+        List<Map<String, Object>> results = new ArrayList<>();
+        JsonToken token = parser.nextToken();
+        if (token == null) {
+            return results;
+        }
+        if (token != JsonToken.START_ARRAY) {
+            throw new JsonParseException("Expected an array of files in ExifTool output", parser.getCurrentLocation());
+        }
+        while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+            results.add(readFile(parser));
+        }
+        if (token != JsonToken.END_ARRAY) {
+            throw new JsonParseException("Expected an object per file in ExifTool output", parser.getCurrentLocation());
+        }
+        return results;
+    }
+
+    protected Map<String, Object> readFile(JsonParser parser) throws IOException {
+        Map<String, Object> result = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (isRead(key)) {
+                result.put(key, readValue(parser, token));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return result;
+    }
+
+    protected boolean isRead(String key) {
+        return names == null || names.contains(key.substring(key.lastIndexOf(':') + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Returns the same types as an {@link ObjectMapper} mapping to {@link Object}.
+     */
+    protected Object readValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+        case VALUE_STRING:
+            return parser.getText();
+        case VALUE_NUMBER_INT:
+        case VALUE_NUMBER_FLOAT:
+            return parser.getNumberValue();
+        case VALUE_TRUE:
+            return Boolean.TRUE;
+        case VALUE_FALSE:
+            return Boolean.FALSE;
+        case VALUE_NULL:
+            return null;
+        default:
+            return mapper.readValue(parser, Object.class);
+        }
+    }
+
+    /**
+     * Reads output lines as one stream, without joining them.
+     */
+    protected static class LinesReader extends Reader {
+
+        protected final Iterator<String> lines;
+
+        protected String line;
+
+        protected int position;
+
+        public LinesReader(List<String> lines) {
+            this.lines = lines.iterator();
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            while (line == null || position > line.length()) {
+                if (!lines.hasNext()) {
+                    return -1;
+                }
+                line = lines.next();
+                position = 0;
+            }
+            if (position == line.length()) {
+                // line separator, JSON strings cannot span lines
+                buffer[offset] = '\n';
+                position++;
+                return 1;
+            }
+            int n = Math.min(length, line.length() - position);
+            line.getChars(position, position + n, buffer, offset);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
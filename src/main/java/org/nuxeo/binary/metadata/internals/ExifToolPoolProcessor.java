@@ -0,0 +1,256 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.binary.metadata.api.BinaryMetadataException;
+import org.nuxeo.binary.metadata.api.ConfigurableBinaryMetadataProcessor;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CloseableFile;
+
+/**
+ * ExifTool processor running the requests through a pool of long-lived {@code exiftool -stay_open} processes instead
+ * of starting a new process for each call.
+ *
+ * @since 7.3
+ */
+public class ExifToolPoolProcessor extends ExifToolProcessor implements ConfigurableBinaryMetadataProcessor {
+
+    private static final Log log = LogFactory.getLog(ExifToolPoolProcessor.class);
+
+    /**
+     * ExifTool executable.
+     */
+    public static final String COMMAND_PARAMETER = "command";
+
+    /**
+     * Maximum number of ExifTool processes.
+     */
+    public static final String POOL_SIZE_PARAMETER = "poolSize";
+
+    /**
+     * Idle time in seconds after which an ExifTool process is stopped.
+     */
+    public static final String IDLE_TIMEOUT_PARAMETER = "idleTimeout";
+
+    /**
+     * Number of requests after which an ExifTool process is recycled.
+     */
+    public static final String MAX_REQUESTS_PARAMETER = "maxRequestsPerWorker";
+
+    /**
+     * Maximum time in seconds to wait for an ExifTool process when the pool is exhausted.
+     */
+    public static final String BORROW_TIMEOUT_PARAMETER = "borrowTimeout";
+
+    protected static final String DEFAULT_COMMAND = "exiftool";
+
+    protected static final int DEFAULT_POOL_SIZE = 4;
+
+    protected static final int DEFAULT_IDLE_TIMEOUT = 60;
+
+    protected static final int DEFAULT_MAX_REQUESTS = 1000;
+
+    protected static final int DEFAULT_BORROW_TIMEOUT = 60;
+
+    protected ExifToolWorkerPool pool;
+
+    @Override
+    public void init(Map<String, String> parameters) {
+        super.init(parameters);
+        String command = parameters.get(COMMAND_PARAMETER);
+        pool = new ExifToolWorkerPool(StringUtils.isBlank(command) ? DEFAULT_COMMAND : command.trim(),
+                getIntParameter(parameters, POOL_SIZE_PARAMETER, DEFAULT_POOL_SIZE),
+                getIntParameter(parameters, IDLE_TIMEOUT_PARAMETER, DEFAULT_IDLE_TIMEOUT) * 1000L,
+                getIntParameter(parameters, MAX_REQUESTS_PARAMETER, DEFAULT_MAX_REQUESTS),
+                getIntParameter(parameters, BORROW_TIMEOUT_PARAMETER, DEFAULT_BORROW_TIMEOUT) * 1000L);
+    }
+
+    @Override
+    public void release() {
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+        super.release();
+    }
+
+    @Override
+    public boolean writeMetadata(Blob blob, Map<String, Object> metadata, boolean ignorePrefix) {
+        List<String> arguments = new ArrayList<>();
+        if (!ignorePrefix) {
+            arguments.add("-G");
+        }
+        arguments.addAll(getTagArguments(metadata));
+        ExifToolWorker.Result result = execute(blob, arguments);
+        if (!result.isSuccessful()) {
+            log.error("There was an error writing metadata with ExifTool: " + result.getErrors());
+        }
+        return result.isSuccessful();
+    }
+
+    @Override
+    public Map<String, Object> readMetadata(Blob blob, List<String> metadata, boolean ignorePrefix) {
+        List<String> arguments = new ArrayList<>();
+        if (!ignorePrefix) {
+            arguments.add("-G");
+        }
+        arguments.add("-json");
+        arguments.addAll(getTagArguments(metadata));
+        return returnResultMap(execute(blob, arguments), metadata);
+    }
+
+    @Override
+    public Map<String, Object> readMetadata(Blob blob, boolean ignorePrefix) {
+        List<String> arguments = new ArrayList<>();
+        if (!ignorePrefix) {
+            arguments.add("-G");
+        }
+        arguments.add("-json");
+        return returnResultMap(execute(blob, arguments), null);
+    }
+
+    /**
+     * Reads up to {@link #BATCH_SIZE} blobs per pooled ExifTool request.
+     */
+    @Override
+    public List<Map<String, Object>> readMetadata(List<Blob> blobs, List<String> metadata, boolean ignorePrefix) {
+        if (blobs.contains(null)) {
+            throw new BinaryMetadataException("ExifTool cannot be executed with a null blob");
+        }
+        List<Map<String, Object>> results = new ArrayList<>(blobs.size());
+        for (int start = 0; start < blobs.size(); start += BATCH_SIZE) {
+            List<Blob> chunk = blobs.subList(start, Math.min(start + BATCH_SIZE, blobs.size()));
+            results.addAll(readMetadataChunk(chunk, metadata, ignorePrefix));
+        }
+        return results;
+    }
+
+    protected List<Map<String, Object>> readMetadataChunk(List<Blob> blobs, List<String> metadata,
+            boolean ignorePrefix) {
+        List<CloseableFile> sources = new ArrayList<>(blobs.size());
+        try {
+            List<String> arguments = new ArrayList<>();
+            if (!ignorePrefix) {
+                arguments.add("-G");
+            }
+            arguments.add("-json");
+            arguments.addAll(getTagArguments(metadata));
+            List<String> paths = new ArrayList<>(blobs.size());
+            for (Blob blob : blobs) {
+                CloseableFile source = blob.getCloseableFile();
+                sources.add(source);
+                String path = source.getFile().getAbsolutePath();
+                paths.add(path);
+                arguments.add(path);
+            }
+            ExifToolWorker.Result result = execute(arguments);
+            Map<String, Map<String, Object>> resultsByPath = new HashMap<>();
+            if (!result.getOutput().isEmpty()) {
+                for (Map<String, Object> map : returnResultList(result.getOutput(), metadata)) {
+                    Object sourceFile = map.remove(META_NON_USED_SOURCE_FILE);
+                    if (sourceFile != null) {
+                        resultsByPath.put(normalizePath(sourceFile.toString()), map);
+                    }
+                }
+            }
+            List<Map<String, Object>> results = new ArrayList<>(blobs.size());
+            for (String path : paths) {
+                Map<String, Object> map = resultsByPath.get(normalizePath(path));
+                results.add(map == null ? new HashMap<String, Object>() : map);
+            }
+            return results;
+        } catch (IOException e) {
+            throw new BinaryMetadataException(e);
+        } finally {
+            for (CloseableFile source : sources) {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    log.debug("Unable to close " + source.getFile(), e);
+                }
+            }
+        }
+    }
+
+    /*--------------------------- Utils ------------------------*/
+
+    /**
+     * Runs the given arguments, followed by the blob file path, on a pooled ExifTool process.
+     */
+    protected ExifToolWorker.Result execute(Blob blob, List<String> arguments) {
+        if (blob == null) {
+            throw new BinaryMetadataException("ExifTool cannot be executed with a null blob");
+        }
+        try (CloseableFile source = blob.getCloseableFile()) {
+            arguments.add(source.getFile().getAbsolutePath());
+            return execute(arguments);
+        } catch (IOException e) {
+            throw new BinaryMetadataException(e);
+        }
+    }
+
+    protected ExifToolWorker.Result execute(List<String> arguments) throws IOException {
+        if (pool == null) {
+            throw new ProcessorUnavailableException("ExifTool worker pool is not initialized");
+        }
+        Semaphore quota = subprocessLimiter.acquire();
+        try {
+            ExifToolWorker worker = pool.borrow();
+            boolean broken = true;
+            try (ProcessWatchdog watchdog = ProcessWatchdog.watch(worker.process, timeoutMillis)) {
+                ExifToolWorker.Result result;
+                try {
+                    result = worker.execute(arguments);
+                } catch (IOException e) {
+                    if (watchdog.isExpired()) {
+                        throw new ProcessorTimeoutException("ExifTool worker killed after " + timeoutMillis + "ms");
+                    }
+                    throw e;
+                }
+                broken = false;
+                return result;
+            } finally {
+                pool.release(worker, broken);
+            }
+        } finally {
+            subprocessLimiter.release(quota);
+        }
+    }
+
+    protected Map<String, Object> returnResultMap(ExifToolWorker.Result result, List<String> metadata) {
+        if (result.getOutput().isEmpty()) {
+            throw new InvalidBinaryException("There was an error reading metadata with ExifTool: "
+                    + result.getErrors());
+        }
+        try {
+            return returnResultMap(result.getOutput(), metadata);
+        } catch (IOException e) {
+            throw new BinaryMetadataException(e);
+        }
+    }
+
+}
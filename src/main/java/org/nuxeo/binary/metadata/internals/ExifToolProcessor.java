@@ -16,19 +16,35 @@
  */
 package org.nuxeo.binary.metadata.internals;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.JsonProcessingException;
 import org.codehaus.jackson.map.ObjectMapper;
-import org.codehaus.jackson.type.TypeReference;
 import org.nuxeo.binary.metadata.api.BinaryMetadataConstants;
 import org.nuxeo.binary.metadata.api.BinaryMetadataException;
-import org.nuxeo.binary.metadata.api.BinaryMetadataProcessor;
+import org.nuxeo.binary.metadata.api.BlobRangeReader;
+import org.nuxeo.binary.metadata.api.ConfigurableBinaryMetadataProcessor;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.CloseableFile;
 import org.nuxeo.ecm.platform.commandline.executor.api.CmdParameters;
@@ -37,16 +53,127 @@ import org.nuxeo.ecm.platform.commandline.executor.api
         .CommandLineExecutorService;
 import org.nuxeo.ecm.platform.commandline.executor.api.CommandNotAvailable;
 import org.nuxeo.ecm.platform.commandline.executor.api.ExecResult;
+import org.nuxeo.ecm.platform.commandline.executor.service.CommandLineDescriptor;
+import org.nuxeo.ecm.platform.commandline.executor.service.CommandLineExecutorComponent;
 import org.nuxeo.runtime.api.Framework;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
+ * ExifTool processor starting a new process for each call.
+ * <p>
+ * Since 7.3, with the {@value #STREAMING_PARAMETER} parameter set to true, the metadata of blobs which are not backed by
+ * a local file are read by piping the blob stream to ExifTool standard input instead of copying the blob to a temporary
+ * file. ExifTool is run with {@code -fast}, and the stream stops being fed as soon as ExifTool has read what it needs
+ * and exits. File backed blobs are always read from their file.
+ * <p>
+ * Since 7.3, with {@value RangedReadPolicy#RANGE_PARAMETER_PREFIX}&lt;mimeType&gt; parameters (see
+ * {@link RangedReadPolicy}) and a {@value #RANGE_READER_PARAMETER} parameter giving a {@link BlobRangeReader} class,
+ * the tags of the blobs are first read from a sparse copy of their head and tail only, the full binary being read when
+ * some tags are missing from these ranges. Only the ranges are fetched from the binary store.
+ *
  * @since 7.1
  */
-public class ExifToolProcessor implements BinaryMetadataProcessor {
+public class ExifToolProcessor implements ConfigurableBinaryMetadataProcessor {
 
     private static final Log log = LogFactory.getLog(ExifToolProcessor.class);
 
-    private static final String META_NON_USED_SOURCE_FILE = "SourceFile";
+    protected static final String META_NON_USED_SOURCE_FILE = "SourceFile";
+
+    /**
+     * Maximum number of files read by one ExifTool process.
+     *
+     * @since 7.3
+     */
+    protected static final int BATCH_SIZE = 500;
+
+    /**
+     * Processor parameter enabling blob streaming to ExifTool standard input.
+     *
+     * @since 7.3
+     */
+    public static final String STREAMING_PARAMETER = "streaming";
+
+    /**
+     * Processor parameter: class of the {@link BlobRangeReader} fetching the ranges of the binaries, the ranged reads
+     * being disabled without it.
+     *
+     * @since 7.3
+     */
+    public static final String RANGE_READER_PARAMETER = "rangeReader";
+
+    protected static final String DEFAULT_EXIFTOOL_COMMAND = "exiftool";
+
+    /**
+     * File argument making ExifTool read its standard input.
+     *
+     * @since 7.3
+     */
+    protected static final String STDIN_ARGUMENT = "-";
+
+    protected static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    protected static final String FILE_PARAMETER = "inFilePath";
+
+    protected static final String ARG_FILE_PARAMETER = "argFile";
+
+    protected static final String TAG_LIST_PARAMETER = "tagList";
+
+    /**
+     * Processor parameter: time in seconds after which an ExifTool process is killed, 0 for no timeout.
+     *
+     * @since 7.3
+     */
+    public static final String TIMEOUT_PARAMETER = "timeout";
+
+    /**
+     * Processor parameter: maximum number of concurrent ExifTool processes for interactive calls.
+     *
+     * @since 7.3
+     */
+    public static final String MAX_PROCESSES_PARAMETER = "maxProcesses";
+
+    /**
+     * Processor parameter: maximum number of concurrent ExifTool processes for {@link BinaryMetadataWork} calls.
+     *
+     * @since 7.3
+     */
+    public static final String MAX_BACKGROUND_PROCESSES_PARAMETER = "maxBackgroundProcesses";
+
+    protected static final int DEFAULT_TIMEOUT = 120;
+
+    protected static final int DEFAULT_MAX_PROCESSES = Runtime.getRuntime().availableProcessors();
+
+    protected static final int DEFAULT_MAX_BACKGROUND_PROCESSES = Math.max(1, DEFAULT_MAX_PROCESSES / 2);
+
+    protected static final ExecutorService streamFeeders = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("binary-metadata-exiftool-feeder-%d").setDaemon(true).build());
+
+    protected boolean streaming;
+
+    /**
+     * Range policy built from the {@value RangedReadPolicy#RANGE_PARAMETER_PREFIX}* parameters, {@code null} if ranged
+     * reads are disabled.
+     *
+     * @since 7.3
+     */
+    protected RangedReadPolicy rangedReadPolicy;
+
+    /**
+     * @since 7.3
+     */
+    protected BlobRangeReader rangeReader;
+
+    /**
+     * @since 7.3
+     */
+    protected long timeoutMillis = DEFAULT_TIMEOUT * 1000L;
+
+    /**
+     * @since 7.3
+     */
+    protected SubprocessLimiter subprocessLimiter = new SubprocessLimiter(DEFAULT_MAX_PROCESSES,
+            DEFAULT_MAX_BACKGROUND_PROCESSES, timeoutMillis);
 
     protected final ObjectMapper jacksonMapper;
 
@@ -57,13 +184,35 @@ public class ExifToolProcessor implements BinaryMetadataProcessor {
         this.commandLineService = Framework.getLocalService(CommandLineExecutorService.class);
     }
 
+    /**
+     * @since 7.3
+     */
+    @Override
+    public void init(Map<String, String> parameters) {
+        streaming = Boolean.parseBoolean(parameters.get(STREAMING_PARAMETER));
+        RangedReadPolicy policy = new RangedReadPolicy(parameters);
+        rangeReader = policy.isEmpty() ? null : createRangeReader(parameters.get(RANGE_READER_PARAMETER));
+        rangedReadPolicy = rangeReader == null ? null : policy;
+        timeoutMillis = getIntParameter(parameters, TIMEOUT_PARAMETER, DEFAULT_TIMEOUT) * 1000L;
+        subprocessLimiter = new SubprocessLimiter(getIntParameter(parameters, MAX_PROCESSES_PARAMETER,
+                DEFAULT_MAX_PROCESSES), getIntParameter(parameters, MAX_BACKGROUND_PROCESSES_PARAMETER,
+                DEFAULT_MAX_BACKGROUND_PROCESSES), timeoutMillis);
+    }
+
+    /**
+     * @since 7.3
+     */
+    @Override
+    public void release() {
+    }
+
     @Override
     public boolean writeMetadata(Blob blob, Map<String, Object> metadata, boolean ignorePrefix) {
         String command = ignorePrefix ? BinaryMetadataConstants.EXIFTOOL_WRITE_NOPREFIX
                 : BinaryMetadataConstants.EXIFTOOL_WRITE;
-        CommandAvailability ca = commandLineService.getCommandAvailability(command);
+        CommandAvailability ca = getCommandLineCache().getCommandAvailability(command);
         if (!ca.isAvailable()) {
-            throw new BinaryMetadataException("Command '" + command + "' is not available.");
+            throw new ProcessorUnavailableException("Command '" + command + "' is not available.");
         }
         if (blob == null) {
             throw new BinaryMetadataException("The following command " + ca + " cannot be executed with a null blob");
@@ -71,19 +220,16 @@ public class ExifToolProcessor implements BinaryMetadataProcessor {
         try {
             ExecResult er;
             try (CloseableFile source = blob.getCloseableFile()) {
-                CmdParameters params = new CmdParameters();
-                params.addNamedParameter("inFilePath", source.getFile(), true);
-                params.addNamedParameter("tagList", getCommandTags(metadata), false);
-                er = commandLineService.execCommand(command, params);
+                er = execCommand(command, FILE_PARAMETER, source.getFile(), getTagArguments(metadata));
             }
             boolean success = er.isSuccessful();
             if (!success) {
                 log.error("There was an error executing " + "the following command: " + er.getCommandLine() + ". \n"
-                        + er.getOutput().get(0));
+                        + (er.getOutput().isEmpty() ? er.getError() : er.getOutput().get(0)));
             }
             return success;
         } catch (CommandNotAvailable commandNotAvailable) {
-            throw new BinaryMetadataException("Command '" + command + "' is not available.", commandNotAvailable);
+            throw new ProcessorUnavailableException("Command '" + command + "' is not available.", commandNotAvailable);
         } catch (IOException ioException) {
             throw new BinaryMetadataException(ioException);
         }
@@ -93,76 +239,596 @@ public class ExifToolProcessor implements BinaryMetadataProcessor {
     public Map<String, Object> readMetadata(Blob blob, List<String> metadata, boolean ignorePrefix) {
         String command = ignorePrefix ? BinaryMetadataConstants.EXIFTOOL_READ_TAGLIST_NOPREFIX
                 : BinaryMetadataConstants.EXIFTOOL_READ_TAGLIST;
-        CommandAvailability ca = commandLineService.getCommandAvailability(command);
+        CommandAvailability ca = getCommandLineCache().getCommandAvailability(command);
         if (!ca.isAvailable()) {
-            throw new BinaryMetadataException("Command '" + command + "' is not available.");
+            throw new ProcessorUnavailableException("Command '" + command + "' is not available.");
         }
         if (blob == null) {
             throw new BinaryMetadataException("The following command " + ca + " cannot be executed with a null blob");
         }
-        try {
-            ExecResult er;
-            try (CloseableFile source = blob.getCloseableFile()) {
-                CmdParameters params = new CmdParameters();
-                params.addNamedParameter("inFilePath", source.getFile(), true);
-                params.addNamedParameter("tagList", getCommandTags(metadata), false);
-                er = commandLineService.execCommand(command, params);
+        if (rangedReadPolicy != null) {
+            Map<String, Object> result = readMetadataFromRanges(command, blob, metadata);
+            if (result != null) {
+                return result;
             }
-            return returnResultMap(er);
-        } catch (CommandNotAvailable commandNotAvailable) {
-            throw new RuntimeException("Command '" + command + "' is not available.", commandNotAvailable);
+        }
+        if (isStreamed(blob)) {
+            return readMetadataFromStream(command, blob, metadata, ignorePrefix);
+        }
+        try (CloseableFile source = blob.getCloseableFile()) {
+            return readMetadataFromFile(command, source.getFile(), metadata);
         } catch (IOException ioException) {
             throw new BinaryMetadataException(ioException);
         }
     }
 
+    /**
+     * @since 7.3
+     */
+    protected Map<String, Object> readMetadataFromFile(String command, File file, List<String> metadata)
+            throws IOException {
+        try {
+            ExecResult er = execCommand(command, FILE_PARAMETER, file, getTagArguments(metadata));
+            return returnResultMap(er, metadata);
+        } catch (CommandNotAvailable commandNotAvailable) {
+            throw new ProcessorUnavailableException("Command '" + command + "' is not available.", commandNotAvailable);
+        }
+    }
+
     @Override
     public Map<String, Object> readMetadata(Blob blob, boolean ignorePrefix) {
         String command = ignorePrefix ? BinaryMetadataConstants.EXIFTOOL_READ_NOPREFIX
                 : BinaryMetadataConstants.EXIFTOOL_READ;
-        CommandAvailability ca = commandLineService.getCommandAvailability(command);
+        CommandAvailability ca = getCommandLineCache().getCommandAvailability(command);
         if (!ca.isAvailable()) {
-            throw new BinaryMetadataException("Command '" + command + "' is not available.");
+            throw new ProcessorUnavailableException("Command '" + command + "' is not available.");
         }
         if (blob == null) {
             throw new BinaryMetadataException("The following command " + ca + " cannot be executed with a null blob");
         }
+        if (isStreamed(blob)) {
+            return readMetadataFromStream(command, blob, null, ignorePrefix);
+        }
         try {
             ExecResult er;
             try (CloseableFile source = blob.getCloseableFile()) {
-                CmdParameters params = new CmdParameters();
-                params.addNamedParameter("inFilePath", source.getFile(), true);
-                er = commandLineService.execCommand(command, params);
+                er = execCommand(command, FILE_PARAMETER, source.getFile(), null);
             }
             return returnResultMap(er);
         } catch (CommandNotAvailable commandNotAvailable) {
-            throw new RuntimeException("Command '" + command + "' is not available.", commandNotAvailable);
+            throw new ProcessorUnavailableException("Command '" + command + "' is not available.", commandNotAvailable);
         } catch (IOException ioException) {
             throw new BinaryMetadataException(ioException);
         }
     }
 
+    /**
+     * Reads all the blobs in one ExifTool process per {@link #BATCH_SIZE} blobs, the files and tags being passed
+     * through an argument file.
+     *
+     * @since 7.3
+     */
+    @Override
+    public List<Map<String, Object>> readMetadata(List<Blob> blobs, List<String> metadata, boolean ignorePrefix) {
+        String command = ignorePrefix ? BinaryMetadataConstants.EXIFTOOL_READ_TAGLIST_BATCH_NOPREFIX
+                : BinaryMetadataConstants.EXIFTOOL_READ_TAGLIST_BATCH;
+        CommandAvailability ca = getCommandLineCache().getCommandAvailability(command);
+        if (!ca.isAvailable()) {
+            throw new ProcessorUnavailableException("Command '" + command + "' is not available.");
+        }
+        if (blobs.contains(null)) {
+            throw new BinaryMetadataException("The following command " + ca + " cannot be executed with a null blob");
+        }
+        List<Map<String, Object>> results = new ArrayList<>(blobs.size());
+        for (int start = 0; start < blobs.size(); start += BATCH_SIZE) {
+            List<Blob> chunk = blobs.subList(start, Math.min(start + BATCH_SIZE, blobs.size()));
+            results.addAll(readMetadataChunk(command, chunk, metadata));
+        }
+        return results;
+    }
+
+    protected List<Map<String, Object>> readMetadataChunk(String command, List<Blob> blobs, List<String> metadata) {
+        List<CloseableFile> sources = new ArrayList<>(blobs.size());
+        File argFile = null;
+        try {
+            List<String> arguments = new ArrayList<>(metadata.size() + blobs.size());
+            arguments.addAll(getTagArguments(metadata));
+            List<String> paths = new ArrayList<>(blobs.size());
+            for (Blob blob : blobs) {
+                CloseableFile source = blob.getCloseableFile();
+                sources.add(source);
+                String path = source.getFile().getAbsolutePath();
+                paths.add(path);
+                arguments.add(path);
+            }
+            argFile = File.createTempFile("nxbinarymetadata-", ".args");
+            Files.write(argFile.toPath(), arguments, StandardCharsets.UTF_8);
+            ExecResult er = execCommand(command, ARG_FILE_PARAMETER, argFile, null);
+            // a non zero exit code is returned as soon as one of the files fails: keep the others
+            if (!er.isSuccessful() && er.getOutput().isEmpty()) {
+                throw new BinaryMetadataException("There was an error executing " + "the following command: "
+                        + er.getCommandLine(), er.getError());
+            }
+            Map<String, Map<String, Object>> resultsByPath = new HashMap<>();
+            for (Map<String, Object> result : returnResultList(er.getOutput(), metadata)) {
+                Object sourceFile = result.remove(META_NON_USED_SOURCE_FILE);
+                if (sourceFile != null) {
+                    resultsByPath.put(normalizePath(sourceFile.toString()), result);
+                }
+            }
+            List<Map<String, Object>> results = new ArrayList<>(blobs.size());
+            for (String path : paths) {
+                Map<String, Object> result = resultsByPath.get(normalizePath(path));
+                results.add(result == null ? new HashMap<String, Object>() : result);
+            }
+            return results;
+        } catch (CommandNotAvailable commandNotAvailable) {
+            throw new ProcessorUnavailableException("Command '" + command + "' is not available.", commandNotAvailable);
+        } catch (IOException ioException) {
+            throw new BinaryMetadataException(ioException);
+        } finally {
+            for (CloseableFile source : sources) {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    log.debug("Unable to close " + source.getFile(), e);
+                }
+            }
+            if (argFile != null) {
+                argFile.delete();
+            }
+        }
+    }
+
+    /*--------------------------- Ranged reads ------------------------*/
+
+    /**
+     * @return The range policy, {@code null} if ranged reads are disabled.
+     * @since 7.3
+     */
+    public RangedReadPolicy getRangedReadPolicy() {
+        return rangedReadPolicy;
+    }
+
+    /**
+     * @return The range reader of the given class, {@code null} if missing or invalid.
+     * @since 7.3
+     */
+    protected static BlobRangeReader createRangeReader(String className) {
+        if (StringUtils.isBlank(className)) {
+            log.warn("No " + RANGE_READER_PARAMETER + " parameter, the ranged reads are disabled");
+            return null;
+        }
+        try {
+            return Class.forName(className.trim()).asSubclass(BlobRangeReader.class).newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            log.warn("Cannot create the range reader " + className + ", the ranged reads are disabled", e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the given tags from a sparse local view of the blob holding only the ranges defined by the policy for the
+     * blob MIME type, fetched through the range reader.
+     *
+     * @return The metadata, or {@code null} if the blob has no range policy, if its binary cannot be read by ranges or
+     *         if some tags were not found in the ranges, in which case the full binary has to be read.
+     * @since 7.3
+     */
+    protected Map<String, Object> readMetadataFromRanges(String command, Blob blob, List<String> metadata) {
+        RangedReadPolicy.Range range = rangedReadPolicy.getRange(blob.getMimeType());
+        if (range == null) {
+            return null;
+        }
+        File view = null;
+        try {
+            try (SeekableByteChannel channel = rangeReader.open(blob)) {
+                if (channel == null || !range.isPartial(channel.size())) {
+                    return null;
+                }
+                view = File.createTempFile("nxbinarymetadata-", getExtension(blob));
+                view.delete();
+                range.copyTo(channel, channel.size(), view);
+            }
+            Map<String, Object> result;
+            try {
+                result = readMetadataFromFile(command, view, metadata);
+            } catch (BinaryMetadataException e) {
+                log.debug("Ranged read failed for " + blob.getFilename() + ", reading the full binary", e);
+                rangedReadPolicy.fallback();
+                return null;
+            }
+            if (!isComplete(result, metadata)) {
+                log.debug("Ranged read incomplete for " + blob.getFilename() + ", reading the full binary");
+                rangedReadPolicy.fallback();
+                return null;
+            }
+            rangedReadPolicy.rangedRead();
+            return result;
+        } catch (IOException e) {
+            throw new BinaryMetadataException(e);
+        } finally {
+            if (view != null) {
+                view.delete();
+            }
+        }
+    }
+
+    /**
+     * A ranged result is complete if ExifTool reported no error and found every requested tag, whatever the group
+     * reported in the key.
+     *
+     * @since 7.3
+     */
+    protected boolean isComplete(Map<String, Object> result, List<String> metadata) {
+        Set<String> names = new HashSet<>();
+        for (String key : result.keySet()) {
+            String name = key.substring(key.lastIndexOf(':') + 1).toLowerCase(Locale.ENGLISH);
+            if ("error".equals(name)) {
+                return false;
+            }
+            names.add(name);
+        }
+        for (String tag : metadata) {
+            if (!names.contains(tag.substring(tag.lastIndexOf(':') + 1).toLowerCase(Locale.ENGLISH))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * ExifTool partly relies on the file extension to detect the format.
+     *
+     * @since 7.3
+     */
+    protected String getExtension(Blob blob) {
+        String filename = blob.getFilename();
+        if (filename == null || filename.lastIndexOf('.') < 0) {
+            return ".tmp";
+        }
+        return filename.substring(filename.lastIndexOf('.'));
+    }
+
+    /*--------------------------- Streaming ------------------------*/
+
+    /**
+     * Only blobs without a local file are streamed: a file is given to ExifTool as is, without any copy.
+     *
+     * @since 7.3
+     */
+    protected boolean isStreamed(Blob blob) {
+        return streaming && blob.getFile() == null;
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected List<String> getReadArguments(boolean ignorePrefix) {
+        List<String> arguments = new ArrayList<>();
+        if (!ignorePrefix) {
+            arguments.add("-G");
+        }
+        arguments.add("-json");
+        arguments.add("-fast");
+        return arguments;
+    }
+
+    /**
+     * The compiled command with {@code -fast} and the standard input as file. A parameter string that cannot be
+     * compiled, or without file parameter, is replaced by the {@link #getReadArguments(boolean) default arguments},
+     * the executable of the contribution being kept.
+     *
+     * @param metadata Tags to read, {@code null} to read all of them.
+     * @since 7.3
+     */
+    protected List<String> getStreamCommandLine(String command, List<String> metadata, boolean ignorePrefix) {
+        List<String> tagArguments = metadata == null ? null : getTagArguments(metadata);
+        CompiledCommandLine compiled = getCommandLineCache().getCommandLine(command);
+        if (compiled != null && compiled.hasFileParameter()) {
+            List<String> commandLine = compiled.getArguments(STDIN_ARGUMENT, tagArguments);
+            commandLine.add(1, "-fast");
+            return commandLine;
+        }
+        CommandLineDescriptor descriptor = CommandLineExecutorComponent.getCommandDescriptor(command);
+        List<String> commandLine = new ArrayList<>();
+        commandLine.add(descriptor == null ? DEFAULT_EXIFTOOL_COMMAND : descriptor.getCommand());
+        commandLine.addAll(getReadArguments(ignorePrefix));
+        if (tagArguments != null) {
+            commandLine.addAll(tagArguments);
+        }
+        commandLine.add(STDIN_ARGUMENT);
+        return commandLine;
+    }
+
+    /**
+     * Runs the given command, ExifTool reading the blob from its standard input. The output is parsed as it is
+     * produced, while the error stream is read apart.
+     *
+     * @param metadata Tags to keep from the output, {@code null} to keep all of them.
+     * @since 7.3
+     */
+    protected Map<String, Object> readMetadataFromStream(String command, Blob blob, List<String> metadata,
+            boolean ignorePrefix) {
+        List<String> commandLine = getStreamCommandLine(command, metadata, ignorePrefix);
+        Process process = null;
+        StreamFeeder streamFeeder = null;
+        Future<?> feeder = null;
+        ProcessWatchdog watchdog = null;
+        Semaphore quota = subprocessLimiter.acquire();
+        try {
+            process = new ProcessBuilder(commandLine).start();
+            watchdog = ProcessWatchdog.watch(process, timeoutMillis);
+            streamFeeder = new StreamFeeder(blob, process.getOutputStream());
+            feeder = streamFeeders.submit(streamFeeder);
+            Future<List<String>> errors = CompiledCommandLine.readErrors(process);
+            List<Map<String, Object>> results;
+            try {
+                results = new ExifToolJsonReader(jacksonMapper, metadata).read(process.getInputStream());
+            } catch (IOException e) {
+                if (watchdog.isExpired()) {
+                    throw new ProcessorTimeoutException("Command killed after " + timeoutMillis + "ms: "
+                            + commandLine);
+                }
+                if (e instanceof JsonProcessingException) {
+                    throw new InvalidBinaryException(e);
+                }
+                throw e;
+            }
+            int exitCode = process.waitFor();
+            if (watchdog.isExpired()) {
+                throw new ProcessorTimeoutException("Command killed after " + timeoutMillis + "ms: " + commandLine);
+            }
+            if (exitCode != 0 || results.isEmpty()) {
+                // the error is the binary's only if ExifTool was given all it asked for
+                IOException blobFailure = streamFeeder.awaitBlobFailure(feeder);
+                if (blobFailure != null) {
+                    throw new BinaryMetadataException("Cannot read " + blob.getFilename(), blobFailure);
+                }
+                throw new InvalidBinaryException("There was an error executing the following command: "
+                        + commandLine + ". \n" + errors.get());
+            }
+            Map<String, Object> result = results.get(0);
+            result.remove(META_NON_USED_SOURCE_FILE);
+            return result;
+        } catch (IOException e) {
+            throw new BinaryMetadataException(e);
+        } catch (ExecutionException e) {
+            throw new BinaryMetadataException("Unable to read the error stream of " + commandLine, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BinaryMetadataException(e);
+        } finally {
+            if (watchdog != null) {
+                watchdog.close();
+            }
+            if (process != null) {
+                process.destroy();
+            }
+            if (feeder != null) {
+                feeder.cancel(true);
+            }
+            subprocessLimiter.release(quota);
+        }
+    }
+
+    /**
+     * Copies a blob to ExifTool standard input. ExifTool closes its input once it has read what it needs: the
+     * resulting write error only means the rest of the blob is not needed.
+     *
+     * @since 7.3
+     */
+    protected static class StreamFeeder implements Runnable {
+
+        protected final Blob blob;
+
+        protected final OutputStream out;
+
+        public StreamFeeder(Blob blob, OutputStream out) {
+            this.blob = blob;
+            this.out = out;
+        }
+
+        protected volatile IOException blobFailure;
+
+        @Override
+        public void run() {
+            try (OutputStream target = out) {
+                try (InputStream in = blob.getStream()) {
+                    byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+                    int n;
+                    while ((n = in.read(buffer)) != -1 && !Thread.currentThread().isInterrupted()) {
+                        try {
+                            target.write(buffer, 0, n);
+                        } catch (IOException e) {
+                            log.trace("ExifTool stopped reading " + blob.getFilename(), e);
+                            return;
+                        }
+                    }
+                } catch (IOException e) {
+                    blobFailure = e;
+                }
+            } catch (IOException e) {
+                log.trace("ExifTool stopped reading " + blob.getFilename(), e);
+            }
+        }
+
+        /**
+         * Waits for the copy to end, ExifTool having exited.
+         *
+         * @return The failure to read the blob, if any.
+         */
+        public IOException awaitBlobFailure(Future<?> copy) throws InterruptedException {
+            try {
+                copy.get();
+            } catch (ExecutionException e) {
+                return new IOException(e.getCause());
+            }
+            return blobFailure;
+        }
+
+    }
+
     /*--------------------------- Utils ------------------------*/
 
+    /**
+     * @since 7.3
+     */
+    protected CommandLineCache getCommandLineCache() {
+        return BinaryMetadataComponent.self.commandLineCache;
+    }
+
+    /**
+     * Runs the compiled form of the command, or the command through the {@link CommandLineExecutorService} if it
+     * cannot be compiled. The number of concurrent commands is bounded by the {@link SubprocessLimiter} of the
+     * processor, and compiled commands are killed after the processor timeout.
+     *
+     * @param fileParameter Name of the file parameter in the command contribution.
+     * @param tagArguments Tag arguments, one per entry, or {@code null} if the command has no tag list.
+     * @since 7.3
+     */
+    protected ExecResult execCommand(String command, String fileParameter, File file, List<String> tagArguments)
+            throws CommandNotAvailable, IOException {
+        Semaphore quota = subprocessLimiter.acquire();
+        try {
+            CompiledCommandLine commandLine = getCommandLineCache().getCommandLine(command);
+            if (commandLine != null) {
+                return commandLine.execute(file, tagArguments, timeoutMillis);
+            }
+            CmdParameters params = new CmdParameters();
+            params.addNamedParameter(fileParameter, file, true);
+            if (tagArguments != null) {
+                params.addNamedParameter(TAG_LIST_PARAMETER, getCommandTagList(tagArguments), false);
+            }
+            return commandLineService.execCommand(command, params);
+        } finally {
+            subprocessLimiter.release(quota);
+        }
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected static int getIntParameter(Map<String, String> parameters, String name, int defaultValue) {
+        String value = parameters.get(name);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value '" + value + "' for parameter '" + name + "', using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return The read arguments, precomputed for the tag lists of the metadata mappings.
+     * @see ExifToolArguments#getReadArguments(List)
+     * @since 7.3
+     */
+    protected List<String> getTagArguments(List<String> metadataList) {
+        return ExifToolArguments.getReadArguments(metadataList);
+    }
+
+    /**
+     * @see ExifToolArguments#getWriteArguments(Map)
+     * @since 7.3
+     */
+    protected List<String> getTagArguments(Map<String, Object> metadataMap) {
+        return ExifToolArguments.getWriteArguments(metadataMap);
+    }
+
+    /**
+     * Joins the tag arguments for the command line parser of the {@link CommandLineExecutorService}.
+     *
+     * @since 7.3
+     */
+    protected String getCommandTagList(List<String> tagArguments) {
+        return ExifToolArguments.toCommandLine(tagArguments);
+    }
+
     protected Map<String, Object> returnResultMap(ExecResult er) throws IOException {
+        return returnResultMap(er, null);
+    }
+
+    /**
+     * @param metadata Tags to keep from the output, {@code null} to keep all of them.
+     * @since 7.3
+     */
+    protected Map<String, Object> returnResultMap(ExecResult er, List<String> metadata) throws IOException {
         if (!er.isSuccessful()) {
+            if (er.getError() == null) {
+                // ExifTool ran and reported an error for the file
+                throw new InvalidBinaryException("There was an error executing " + "the following command: "
+                        + er.getCommandLine() + ". \n" + er.getOutput());
+            }
             throw new BinaryMetadataException("There was an error executing " + "the following command: "
                     + er.getCommandLine(), er.getError());
         }
-        StringBuilder sb = new StringBuilder();
-        for (String line : er.getOutput()) {
-            sb.append(line);
+        return returnResultMap(er.getOutput(), metadata);
+    }
+
+    /**
+     * @return One map per file read, including the 'SourceFile' entry.
+     * @since 7.3
+     */
+    protected List<Map<String, Object>> returnResultList(List<String> output) throws IOException {
+        return returnResultList(output, null);
+    }
+
+    /**
+     * Parses the output as a token stream, only the given tags being materialized.
+     *
+     * @param metadata Tags to keep from the output, {@code null} to keep all of them.
+     * @return One map per file read, including the 'SourceFile' entry.
+     * @since 7.3
+     */
+    protected List<Map<String, Object>> returnResultList(List<String> output, List<String> metadata)
+            throws IOException {
+        return new ExifToolJsonReader(jacksonMapper, metadata).read(output);
+    }
+
+    /**
+     * ExifTool reports the 'SourceFile' with forward slashes whatever the platform.
+     *
+     * @since 7.3
+     */
+    protected String normalizePath(String path) {
+        return path.replace('\\', '/');
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected Map<String, Object> returnResultMap(List<String> output) throws IOException {
+        return returnResultMap(output, null);
+    }
+
+    /**
+     * @param metadata Tags to keep from the output, {@code null} to keep all of them.
+     * @since 7.3
+     */
+    protected Map<String, Object> returnResultMap(List<String> output, List<String> metadata) throws IOException {
+        List<Map<String, Object>> resultList;
+        try {
+            resultList = returnResultList(output, metadata);
+        } catch (JsonProcessingException e) {
+            throw new InvalidBinaryException(e);
+        }
+        if (resultList.isEmpty()) {
+            throw new InvalidBinaryException("No metadata found in ExifTool output");
         }
-        String jsonOutput = sb.toString();
-        List<Map<String, Object>> resultList = jacksonMapper.readValue(jsonOutput,
-                new TypeReference<List<HashMap<String, Object>>>() {
-                });
         Map<String, Object> resultMap = resultList.get(0);
         // Remove the SourceFile metadata injected automatically by ExifTool.
         resultMap.remove(META_NON_USED_SOURCE_FILE);
         return resultMap;
     }
 
+    /**
+     * @deprecated since 7.3, use {@link #getTagArguments(List)}
+     */
+    @Deprecated
     protected String getCommandTags(List<String> metadataList) {
         StringBuilder sb = new StringBuilder();
         for (String metadata : metadataList) {
@@ -171,6 +837,10 @@ public class ExifToolProcessor implements BinaryMetadataProcessor {
         return sb.toString();
     }
 
+    /**
+     * @deprecated since 7.3, use {@link #getTagArguments(Map)}
+     */
+    @Deprecated
     protected String getCommandTags(Map<String, Object> metadataMap) {
         StringBuilder sb = new StringBuilder();
         for (String metadata : metadataMap.keySet()) {
@@ -0,0 +1,219 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Long-lived ExifTool process started with {@code -stay_open True -@ -}. Each request is written on the process
+ * standard input as an argument block terminated by {@code -execute<n>}, and its response is read until the
+ * {@code {ready<n>}} marker. The same marker is echoed on the error stream (through {@code -echo4}) to delimit the
+ * error messages of each request, the error stream being read concurrently with the output.
+ * <p>
+ * A worker is not thread safe: it is used by one thread at a time through {@link ExifToolWorkerPool}.
+ *
+ * @since 7.3
+ */
+public class ExifToolWorker {
+
+    private static final Log log = LogFactory.getLog(ExifToolWorker.class);
+
+    protected static final String READY_MARKER = "{ready";
+
+    protected static final ExecutorService errorReaders = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("binary-metadata-exiftool-stderr-%d").setDaemon(true).build());
+
+    protected final Process process;
+
+    protected final BufferedWriter input;
+
+    protected final BufferedReader output;
+
+    protected final BufferedReader error;
+
+    protected int requests;
+
+    /**
+     * Written by the requesting threads, read by the idle worker evictor.
+     */
+    protected volatile long lastUsed;
+
+    public ExifToolWorker(String command) throws IOException {
+        process = new ProcessBuilder(command, "-stay_open", "True", "-@", "-").start();
+        input = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        error = new BufferedReader(new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8));
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Runs one ExifTool command with the given arguments (one argument per entry, without shell escaping).
+     */
+    public Result execute(List<String> arguments) throws IOException {
+        int id = ++requests;
+        final String marker = READY_MARKER + id + "}";
+        for (String argument : arguments) {
+            input.write(toArgumentLine(argument));
+            input.newLine();
+        }
+        input.write("-echo4");
+        input.newLine();
+        input.write(marker);
+        input.newLine();
+        input.write("-execute" + id);
+        input.newLine();
+        input.flush();
+        // drained while the output is read, a request filling the error pipe would block ExifTool otherwise
+        Future<List<String>> errorLines = errorReaders.submit(new Callable<List<String>>() {
+
+            @Override
+            public List<String> call() throws IOException {
+                return readUntil(error, marker);
+            }
+
+        });
+        try {
+            List<String> outputLines = readUntil(output, marker);
+            Result result = new Result(outputLines, errorLines.get());
+            lastUsed = System.currentTimeMillis();
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the ExifTool errors");
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to read the error stream of ExifTool", e.getCause());
+        } finally {
+            // the worker is closed by the caller on failure, which ends the read
+            errorLines.cancel(true);
+        }
+    }
+
+    public boolean isAlive() {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    public int getRequests() {
+        return requests;
+    }
+
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    /**
+     * Asks ExifTool to terminate, and kills it if it does not within a few seconds.
+     */
+    public void close() {
+        try {
+            input.write("-stay_open");
+            input.newLine();
+            input.write("False");
+            input.newLine();
+            input.flush();
+            process.waitFor(5, TimeUnit.SECONDS);
+        } catch (IOException e) {
+            log.debug("Unable to stop ExifTool worker gracefully", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            process.destroy();
+        }
+    }
+
+    /**
+     * ExifTool reads one argument per line: line breaks inside an argument would split it.
+     */
+    protected String toArgumentLine(String argument) {
+        if (argument.indexOf('\n') < 0 && argument.indexOf('\r') < 0) {
+            return argument;
+        }
+        return argument.replace("\r\n", " ").replace('\n', ' ').replace('\r', ' ');
+    }
+
+    protected List<String> readUntil(BufferedReader reader, String marker) throws IOException {
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.equals(marker)) {
+                return lines;
+            }
+            lines.add(line);
+        }
+        throw new EOFException("ExifTool worker terminated before answering");
+    }
+
+    /**
+     * Output and error lines of one ExifTool request.
+     */
+    public static class Result {
+
+        protected final List<String> output;
+
+        protected final List<String> errors;
+
+        public Result(List<String> output, List<String> errors) {
+            this.output = output;
+            this.errors = errors;
+        }
+
+        public List<String> getOutput() {
+            return output;
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        /**
+         * ExifTool reports failures with lines starting with 'Error', warnings do not fail the request.
+         */
+        public boolean isSuccessful() {
+            for (String line : errors) {
+                if (line.startsWith("Error")) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
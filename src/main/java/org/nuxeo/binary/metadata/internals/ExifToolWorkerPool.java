@@ -0,0 +1,175 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Bounded pool of {@link ExifToolWorker}. Idle workers are reused most recently used first, so that the least used
+ * ones reach the idle timeout and get evicted. A worker is recycled once it has served the maximum number of
+ * requests.
+ *
+ * @since 7.3
+ */
+public class ExifToolWorkerPool {
+
+    protected final String command;
+
+    protected final int maxRequestsPerWorker;
+
+    protected final long idleTimeoutMillis;
+
+    protected final long borrowTimeoutMillis;
+
+    protected final Semaphore permits;
+
+    protected final LinkedBlockingDeque<ExifToolWorker> idle = new LinkedBlockingDeque<>();
+
+    protected final AtomicInteger created = new AtomicInteger();
+
+    protected final ScheduledExecutorService evictor;
+
+    protected volatile boolean closed;
+
+    public ExifToolWorkerPool(String command, int poolSize, long idleTimeoutMillis, int maxRequestsPerWorker,
+            long borrowTimeoutMillis) {
+        this.command = command;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxRequestsPerWorker = maxRequestsPerWorker;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        permits = new Semaphore(poolSize, true);
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat(
+                "binary-metadata-exiftool-evictor-%d").setDaemon(true).build());
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                evictIdleWorkers();
+            }
+
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns an alive worker, waiting for one to be released if the pool is exhausted. The worker must be given back
+     * with {@link #release(ExifToolWorker, boolean)}.
+     */
+    public ExifToolWorker borrow() throws IOException {
+        if (closed) {
+            throw new ProcessorUnavailableException("ExifTool worker pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new ProcessorUnavailableException("No ExifTool worker available after " + borrowTimeoutMillis
+                        + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessorUnavailableException("Interrupted while waiting for an ExifTool worker", e);
+        }
+        try {
+            ExifToolWorker worker;
+            while ((worker = idle.pollFirst()) != null) {
+                if (worker.isAlive()) {
+                    return worker;
+                }
+                worker.close();
+            }
+            worker = new ExifToolWorker(command);
+            created.incrementAndGet();
+            return worker;
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives a worker back to the pool.
+     *
+     * @param broken {@code true} if the worker failed and should not be reused.
+     */
+    public void release(ExifToolWorker worker, boolean broken) {
+        try {
+            if (broken || worker.getRequests() >= maxRequestsPerWorker || !worker.isAlive() || !offerIdle(worker)) {
+                worker.close();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * @return the number of workers started since the pool creation.
+     */
+    public int getCreatedCount() {
+        return created.get();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return {@code false} if the pool is closed, the worker being left to the caller.
+     */
+    protected synchronized boolean offerIdle(ExifToolWorker worker) {
+        return !closed && idle.offerFirst(worker);
+    }
+
+    public void close() {
+        synchronized (this) {
+            // no worker is made idle after this point
+            closed = true;
+        }
+        evictor.shutdownNow();
+        closeIdleWorkers();
+    }
+
+    protected void evictIdleWorkers() {
+        long limit = System.currentTimeMillis() - idleTimeoutMillis;
+        // least recently used workers are at the end of the deque
+        Iterator<ExifToolWorker> it = idle.descendingIterator();
+        while (it.hasNext()) {
+            ExifToolWorker worker = it.next();
+            if (worker.getLastUsed() > limit) {
+                break;
+            }
+            if (idle.removeLastOccurrence(worker)) {
+                worker.close();
+            }
+        }
+    }
+
+    protected void closeIdleWorkers() {
+        ExifToolWorker worker;
+        while ((worker = idle.pollFirst()) != null) {
+            worker.close();
+        }
+    }
+
+}
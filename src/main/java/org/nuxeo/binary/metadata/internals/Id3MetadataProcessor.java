@@ -0,0 +1,65 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.nuxeo.binary.metadata.internals.readers.Id3Reader;
+import org.nuxeo.binary.metadata.internals.readers.TagValues;
+
+/**
+ * Reads the ID3v2 and ID3v1 tags of MP3 files, the head and the last 128 bytes of the file only being read. The MPEG
+ * audio frames are not read, only the header of the first one is checked to recognize the file.
+ *
+ * @since 7.3
+ */
+public class Id3MetadataProcessor extends NativeMetadataProcessor {
+
+    protected static final String FILE = "File";
+
+    @Override
+    protected boolean readTags(FileChannel channel, Map<String, Object> tags) throws IOException {
+        Id3Reader reader = new Id3Reader(channel);
+        Map<String, Object> id3 = new LinkedHashMap<>();
+        boolean v2 = reader.readV2(id3);
+        if (!isMpegFrame(channel, reader.getAudioStart()) || !(reader.readV1(id3) || v2)) {
+            // other audio formats carrying ID3 tags have other metadata, left to the fallback processor
+            return false;
+        }
+        TagValues.put(tags, FILE, "FileType", "MP3");
+        TagValues.put(tags, FILE, "FileTypeExtension", "mp3");
+        TagValues.put(tags, FILE, "MIMEType", "audio/mpeg");
+        tags.putAll(id3);
+        return true;
+    }
+
+    /**
+     * @return {@code true} if an MPEG audio frame header starts at the given position.
+     */
+    protected boolean isMpegFrame(FileChannel channel, long position) throws IOException {
+        if (position + 4 > channel.size()) {
+            return false;
+        }
+        ByteBuffer header = TagValues.read(channel, position, 4);
+        return (header.get(0) & 0xff) == 0xff && (header.get(1) & 0xe0) == 0xe0 && (header.get(1) & 0x06) != 0;
+    }
+
+}
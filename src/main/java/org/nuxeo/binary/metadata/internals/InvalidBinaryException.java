@@ -0,0 +1,39 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import org.nuxeo.binary.metadata.api.BinaryMetadataException;
+
+/**
+ * The processor failed on the binary itself: ExifTool reported an error for the file, or its output could not be
+ * parsed. The failure is the same on each call for the same binary.
+ *
+ * @since 7.3
+ */
+public class InvalidBinaryException extends BinaryMetadataException {
+
+    private static final long serialVersionUID = 1L;
+
+    public InvalidBinaryException(String message) {
+        super(message);
+    }
+
+    public InvalidBinaryException(Throwable cause) {
+        super(cause);
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.nuxeo.binary.metadata.internals.readers.IptcReader;
+import org.nuxeo.binary.metadata.internals.readers.TagValues;
+import org.nuxeo.binary.metadata.internals.readers.TiffReader;
+
+/**
+ * Reads the IPTC IIM datasets of the Photoshop APP13 segment of JPEG files and of the IPTC-NAA entry of TIFF files,
+ * along with the metadata read by {@link JpegMetadataProcessor}.
+ *
+ * @since 7.3
+ */
+public class IptcMetadataProcessor extends JpegMetadataProcessor {
+
+    protected static final int APP13 = 0xed;
+
+    protected static final byte[] PHOTOSHOP_HEADER = "Photoshop 3.0\0".getBytes(StandardCharsets.ISO_8859_1);
+
+    protected static final byte[] RESOURCE_SIGNATURE = "8BIM".getBytes(StandardCharsets.ISO_8859_1);
+
+    @Override
+    protected void readSegment(FileChannel channel, int code, long position, int length, Map<String, Object> file,
+            Map<String, Object> metadata) throws IOException {
+        if (code == APP13 && length > PHOTOSHOP_HEADER.length) {
+            ByteBuffer payload = TagValues.read(channel, position, length);
+            if (startsWith(payload, PHOTOSHOP_HEADER)) {
+                payload.position(PHOTOSHOP_HEADER.length);
+                IptcReader.readResources(payload, metadata);
+            }
+        } else {
+            super.readSegment(channel, code, position, length, file, metadata);
+        }
+    }
+
+    @Override
+    protected void readTiffBlocks(TiffReader reader, Map<String, Object> tags) {
+        super.readTiffBlocks(reader, tags);
+        ByteBuffer iptc = reader.getIptc();
+        if (iptc != null) {
+            if (startsWith(iptc, RESOURCE_SIGNATURE)) {
+                IptcReader.readResources(iptc, tags);
+            } else {
+                IptcReader.read(iptc, tags);
+            }
+        }
+    }
+
+}
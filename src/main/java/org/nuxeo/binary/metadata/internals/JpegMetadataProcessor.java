@@ -0,0 +1,423 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.nuxeo.binary.metadata.internals.readers.TagValues;
+import org.nuxeo.binary.metadata.internals.readers.TiffReader;
+import org.nuxeo.binary.metadata.internals.readers.XmpReader;
+import org.nuxeo.binary.metadata.internals.writers.XmpWriter;
+
+/**
+ * Reads the JFIF, EXIF and XMP metadata of JPEG files from their header segments, and the EXIF and XMP metadata of
+ * TIFF files from their directories, without reading the image data.
+ * <p>
+ * Writes the common XMP properties of JPEG files, as listed by {@link XmpWriter}, by rewriting the XMP segment only:
+ * in place when its padding leaves room for the new packet, otherwise by copying the other segments and the image
+ * data as is to a new file through {@link FileChannel#transferTo}.
+ *
+ * @since 7.3
+ */
+public class JpegMetadataProcessor extends NativeMetadataProcessor {
+
+    protected static final String FILE = "File";
+
+    protected static final String JFIF = "JFIF";
+
+    protected static final int SOI = 0xffd8;
+
+    protected static final int APP0 = 0xe0;
+
+    protected static final int APP1 = 0xe1;
+
+    protected static final int SOS = 0xda;
+
+    protected static final int EOI = 0xd9;
+
+    protected static final int COM = 0xfe;
+
+    protected static final byte[] EXIF_HEADER = "Exif\0\0".getBytes(StandardCharsets.ISO_8859_1);
+
+    protected static final byte[] XMP_HEADER = "http://ns.adobe.com/xap/1.0/\0".getBytes(StandardCharsets.ISO_8859_1);
+
+    protected static final byte[] EXTENDED_XMP_HEADER = "http://ns.adobe.com/xmp/extension/\0".getBytes(
+            StandardCharsets.ISO_8859_1);
+
+    /**
+     * Maximum payload of a JPEG segment.
+     */
+    protected static final int MAX_SEGMENT_LENGTH = 0xffff - 2;
+
+    /**
+     * Padding of the XMP packets written in a new segment, for the next updates to be done in place.
+     */
+    protected static final int XMP_PADDING = 2048;
+
+    protected static final byte[] JFIF_HEADER = "JFIF\0".getBytes(StandardCharsets.ISO_8859_1);
+
+    protected static final String[] ENCODING_PROCESSES = { "Baseline DCT, Huffman coding",
+            "Extended sequential DCT, Huffman coding", "Progressive DCT, Huffman coding", "Lossless, Huffman coding",
+            null, "Sequential DCT, differential Huffman coding", "Progressive DCT, differential Huffman coding",
+            "Lossless, Differential Huffman coding", null, "Extended sequential DCT, arithmetic coding",
+            "Progressive DCT, arithmetic coding", "Lossless, arithmetic coding", null,
+            "Sequential DCT, differential arithmetic coding", "Progressive DCT, differential arithmetic coding",
+            "Lossless, differential arithmetic coding" };
+
+    protected static final String[] JFIF_UNITS = { "None", "inches", "cm" };
+
+    @Override
+    protected boolean readTags(FileChannel channel, Map<String, Object> tags) throws IOException {
+        long size = channel.size();
+        if (size < 8) {
+            return false;
+        }
+        ByteBuffer head = TagValues.read(channel, 0, 8);
+        if ((head.getShort(0) & 0xffff) == SOI) {
+            readJpeg(channel, size, tags);
+            return true;
+        } else if (TiffReader.isTiff(head) && size <= Integer.MAX_VALUE) {
+            readTiff(channel, size, tags);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected boolean writeTags(File file, Map<String, Object> metadata, boolean ignorePrefix) throws IOException {
+        if (ignorePrefix || metadata.isEmpty() || !XmpWriter.canWrite(metadata)) {
+            return false;
+        }
+        File rewritten;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size < 4 || (TagValues.read(channel, 0, 2).getShort(0) & 0xffff) != SOI) {
+                return false;
+            }
+            // locate the XMP segment, or the end of the leading APP0 and APP1 segments to insert one there
+            long xmpPosition = -1;
+            int xmpLength = 0;
+            long insertPosition = 2;
+            boolean leading = true;
+            long position = 2;
+            while (position + 4 <= size) {
+                ByteBuffer marker = TagValues.read(channel, position, 4);
+                if ((marker.get(0) & 0xff) != 0xff) {
+                    throw new IllegalStateException("Invalid JPEG marker at " + position);
+                }
+                int code = marker.get(1) & 0xff;
+                if (code == 0xff) {
+                    position++;
+                    continue;
+                } else if (code == SOS || code == EOI) {
+                    break;
+                } else if (code == 0x01 || (code >= 0xd0 && code <= 0xd7)) {
+                    position += 2;
+                    continue;
+                }
+                int length = marker.getShort(2) & 0xffff;
+                if (length < 2) {
+                    throw new IllegalStateException("Invalid JPEG segment length at " + position);
+                }
+                if (code == APP1 && length - 2 > XMP_HEADER.length) {
+                    ByteBuffer header = TagValues.read(channel, position + 4,
+                            Math.min(length - 2, EXTENDED_XMP_HEADER.length));
+                    if (startsWith(header, EXTENDED_XMP_HEADER)) {
+                        return false;
+                    } else if (startsWith(header, XMP_HEADER)) {
+                        if (xmpPosition >= 0) {
+                            return false;
+                        }
+                        xmpPosition = position;
+                        xmpLength = length - 2;
+                    }
+                }
+                leading &= code == APP0 || code == APP1;
+                if (leading) {
+                    insertPosition = position + 2 + length;
+                }
+                position += 2 + length;
+            }
+            byte[] packet = null;
+            int packetLength = xmpLength - XMP_HEADER.length;
+            if (xmpPosition >= 0) {
+                packet = TagValues.read(channel, xmpPosition + 4 + XMP_HEADER.length, packetLength).array();
+            }
+            XmpWriter writer = new XmpWriter(packet);
+            writer.set(metadata);
+            byte[] xml = writer.serialize();
+            int minimumLength = XmpWriter.getPacketLength(xml) + 1;
+            if (xmpPosition >= 0 && minimumLength <= packetLength) {
+                // the padding leaves room for the new packet, the rest of the file is not touched
+                write(channel, ByteBuffer.wrap(XmpWriter.toPacket(xml, packetLength)),
+                        xmpPosition + 4 + XMP_HEADER.length);
+                return true;
+            }
+            int length = Math.min(minimumLength + XMP_PADDING, MAX_SEGMENT_LENGTH - XMP_HEADER.length);
+            if (minimumLength > length) {
+                // extended XMP
+                return false;
+            }
+            ByteBuffer segment = ByteBuffer.allocate(4 + XMP_HEADER.length + length);
+            segment.putShort((short) (0xff00 | APP1));
+            segment.putShort((short) (2 + XMP_HEADER.length + length));
+            segment.put(XMP_HEADER);
+            segment.put(XmpWriter.toPacket(xml, length));
+            segment.flip();
+            long before = xmpPosition >= 0 ? xmpPosition : insertPosition;
+            long after = xmpPosition >= 0 ? xmpPosition + 4 + xmpLength : insertPosition;
+            rewritten = rewrite(file, channel, before, segment, after);
+        }
+        try {
+            Files.move(rewritten.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(rewritten.toPath());
+        }
+        return true;
+    }
+
+    /**
+     * Copies the file to a temporary file of the same directory, replacing the bytes between {@code before} and
+     * {@code after} with the segment.
+     */
+    protected File rewrite(File file, FileChannel channel, long before, ByteBuffer segment, long after)
+            throws IOException {
+        File rewritten = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        boolean success = false;
+        try {
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                Files.setPosixFilePermissions(rewritten.toPath(), Files.getPosixFilePermissions(file.toPath()));
+            }
+            try (FileChannel target = FileChannel.open(rewritten.toPath(), StandardOpenOption.WRITE)) {
+                transfer(channel, 0, before, target);
+                while (segment.hasRemaining()) {
+                    target.write(segment);
+                }
+                transfer(channel, after, channel.size() - after, target);
+            }
+            success = true;
+            return rewritten;
+        } finally {
+            if (!success) {
+                Files.deleteIfExists(rewritten.toPath());
+            }
+        }
+    }
+
+    protected static void transfer(FileChannel source, long position, long count, FileChannel target)
+            throws IOException {
+        while (count > 0) {
+            long transferred = source.transferTo(position, count, target);
+            if (transferred <= 0) {
+                throw new EOFException("Unexpected end of file at " + position);
+            }
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    protected static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * Walks the segments up to the start of the scan, reading the payload of the metadata segments only.
+     */
+    protected void readJpeg(FileChannel channel, long size, Map<String, Object> tags) throws IOException {
+        Map<String, Object> file = new LinkedHashMap<>();
+        TagValues.put(file, FILE, "FileType", "JPEG");
+        TagValues.put(file, FILE, "FileTypeExtension", "jpg");
+        TagValues.put(file, FILE, "MIMEType", "image/jpeg");
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        long position = 2;
+        while (position + 4 <= size) {
+            ByteBuffer marker = TagValues.read(channel, position, 4);
+            if ((marker.get(0) & 0xff) != 0xff) {
+                throw new IllegalStateException("Invalid JPEG marker at " + position);
+            }
+            int code = marker.get(1) & 0xff;
+            if (code == 0xff) {
+                // fill byte
+                position++;
+                continue;
+            } else if (code == SOS || code == EOI) {
+                break;
+            } else if (code == 0x01 || (code >= 0xd0 && code <= 0xd7)) {
+                // standalone markers
+                position += 2;
+                continue;
+            }
+            int length = marker.getShort(2) & 0xffff;
+            if (length < 2) {
+                throw new IllegalStateException("Invalid JPEG segment length at " + position);
+            }
+            readSegment(channel, code, position + 4, length - 2, file, metadata);
+            position += 2 + length;
+        }
+        tags.putAll(file);
+        tags.putAll(metadata);
+        TagValues.putImageSize(tags, file.get("File:ImageWidth"), file.get("File:ImageHeight"));
+    }
+
+    /**
+     * @param file Receives the {@code File:} tags.
+     * @param metadata Receives the other tags.
+     */
+    protected void readSegment(FileChannel channel, int code, long position, int length, Map<String, Object> file,
+            Map<String, Object> metadata) throws IOException {
+        if (code == APP1 && length > EXIF_HEADER.length) {
+            ByteBuffer payload = TagValues.read(channel, position, length);
+            if (startsWith(payload, EXIF_HEADER)) {
+                payload.position(EXIF_HEADER.length);
+                if (TiffReader.isTiff(payload) && !file.containsKey("File:ExifByteOrder")) {
+                    TiffReader reader = new TiffReader(payload);
+                    TagValues.put(file, FILE, "ExifByteOrder", reader.getByteOrderLabel());
+                    reader.read(metadata);
+                }
+            } else if (startsWith(payload, XMP_HEADER)) {
+                payload.position(XMP_HEADER.length);
+                readXmp(payload, metadata);
+            }
+        } else if (code == APP0 && length >= 14) {
+            ByteBuffer payload = TagValues.read(channel, position, 14);
+            if (startsWith(payload, JFIF_HEADER)) {
+                TagValues.put(metadata, JFIF, "JFIFVersion",
+                        TagValues.toJson(TagValues.format("%d.%02d", payload.get(5) & 0xff, payload.get(6) & 0xff)));
+                int units = payload.get(7) & 0xff;
+                TagValues.put(metadata, JFIF, "ResolutionUnit",
+                        units < JFIF_UNITS.length ? JFIF_UNITS[units] : "Unknown (" + units + ")");
+                TagValues.put(metadata, JFIF, "XResolution", Integer.valueOf(payload.getShort(8) & 0xffff));
+                TagValues.put(metadata, JFIF, "YResolution", Integer.valueOf(payload.getShort(10) & 0xffff));
+            }
+        } else if (isStartOfFrame(code) && length >= 6) {
+            ByteBuffer payload = TagValues.read(channel, position, Math.min(length, 9));
+            int components = payload.get(5) & 0xff;
+            TagValues.put(file, FILE, "ImageWidth", Integer.valueOf(payload.getShort(3) & 0xffff));
+            TagValues.put(file, FILE, "ImageHeight", Integer.valueOf(payload.getShort(1) & 0xffff));
+            String process = ENCODING_PROCESSES[code - 0xc0];
+            TagValues.put(file, FILE, "EncodingProcess", process);
+            TagValues.put(file, FILE, "BitsPerSample", Integer.valueOf(payload.get(0) & 0xff));
+            TagValues.put(file, FILE, "ColorComponents", Integer.valueOf(components));
+            if (components == 3 && payload.limit() >= 9) {
+                int sampling = payload.get(7) & 0xff;
+                TagValues.put(file, FILE, "YCbCrSubSampling", getSubSampling(sampling >> 4, sampling & 0x0f));
+            }
+        } else if (code == COM && length > 0) {
+            ByteBuffer payload = TagValues.read(channel, position, length);
+            TagValues.put(file, FILE, "Comment",
+                    TagValues.trim(new String(payload.array(), 0, length, StandardCharsets.UTF_8)));
+        }
+    }
+
+    protected void readTiff(FileChannel channel, long size, Map<String, Object> tags) throws IOException {
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        TiffReader reader = new TiffReader(buffer);
+        TagValues.put(tags, FILE, "FileType", "TIFF");
+        TagValues.put(tags, FILE, "FileTypeExtension", "tif");
+        TagValues.put(tags, FILE, "MIMEType", "image/tiff");
+        TagValues.put(tags, FILE, "ExifByteOrder", reader.getByteOrderLabel());
+        reader.read(tags);
+        readTiffBlocks(reader, tags);
+        TagValues.putImageSize(tags, tags.get("EXIF:ImageWidth"), tags.get("EXIF:ImageHeight"));
+    }
+
+    /**
+     * Reads the metadata blocks embedded in the TIFF directories.
+     */
+    protected void readTiffBlocks(TiffReader reader, Map<String, Object> tags) {
+        if (reader.getXmp() != null) {
+            readXmp(reader.getXmp(), tags);
+        }
+    }
+
+    protected void readXmp(ByteBuffer packet, Map<String, Object> tags) {
+        try {
+            XmpReader.read(packet, tags);
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("Invalid XMP packet", e);
+        }
+    }
+
+    protected static boolean isStartOfFrame(int code) {
+        return code >= 0xc0 && code <= 0xcf && code != 0xc4 && code != 0xc8 && code != 0xcc;
+    }
+
+    /**
+     * ExifTool label of the luminance sampling factors, the chrominance being sampled once.
+     */
+    protected static String getSubSampling(int horizontal, int vertical) {
+        String ratio;
+        switch (horizontal * 10 + vertical) {
+        case 11:
+            ratio = "4:4:4";
+            break;
+        case 12:
+            ratio = "4:4:0";
+            break;
+        case 14:
+            ratio = "4:4:1";
+            break;
+        case 21:
+            ratio = "4:2:2";
+            break;
+        case 22:
+            ratio = "4:2:0";
+            break;
+        case 24:
+            ratio = "4:2:1";
+            break;
+        case 41:
+            ratio = "4:1:1";
+            break;
+        case 42:
+            ratio = "4:1:0";
+            break;
+        default:
+            return horizontal + " " + vertical;
+        }
+        return "YCbCr" + ratio + " (" + horizontal + " " + vertical + ")";
+    }
+
+    protected static boolean startsWith(ByteBuffer buffer, byte[] prefix) {
+        if (buffer.remaining() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(buffer.position() + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.util.List;
+import java.util.Map;
+
+import org.nuxeo.binary.metadata.api.BinaryMetadataProcessor;
+import org.nuxeo.ecm.core.api.Blob;
+
+/**
+ * Runs the calls of a processor under an {@link AdaptiveConcurrencyLimiter}.
+ *
+ * @since 7.3
+ */
+public class LimitedBinaryMetadataProcessor implements BinaryMetadataProcessor {
+
+    protected final BinaryMetadataProcessor processor;
+
+    protected final AdaptiveConcurrencyLimiter limiter;
+
+    public LimitedBinaryMetadataProcessor(BinaryMetadataProcessor processor, AdaptiveConcurrencyLimiter limiter) {
+        this.processor = processor;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public boolean writeMetadata(Blob blob, Map<String, Object> metadata, boolean ignorePrefix) {
+        long start = limiter.acquire();
+        boolean success = false;
+        boolean overloaded = false;
+        try {
+            boolean result = processor.writeMetadata(blob, metadata, ignorePrefix);
+            success = true;
+            return result;
+        } catch (ProcessorUnavailableException e) {
+            overloaded = true;
+            throw e;
+        } finally {
+            release(start, success, overloaded);
+        }
+    }
+
+    @Override
+    public Map<String, Object> readMetadata(Blob blob, List<String> metadata, boolean ignorePrefix) {
+        long start = limiter.acquire();
+        boolean success = false;
+        boolean overloaded = false;
+        try {
+            Map<String, Object> result = processor.readMetadata(blob, metadata, ignorePrefix);
+            success = true;
+            return result;
+        } catch (ProcessorUnavailableException e) {
+            overloaded = true;
+            throw e;
+        } finally {
+            release(start, success, overloaded);
+        }
+    }
+
+    @Override
+    public Map<String, Object> readMetadata(Blob blob, boolean ignorePrefix) {
+        long start = limiter.acquire();
+        boolean success = false;
+        boolean overloaded = false;
+        try {
+            Map<String, Object> result = processor.readMetadata(blob, ignorePrefix);
+            success = true;
+            return result;
+        } catch (ProcessorUnavailableException e) {
+            overloaded = true;
+            throw e;
+        } finally {
+            release(start, success, overloaded);
+        }
+    }
+
+    /**
+     * Only the calls failing for lack of processor capacity decrease the limit: the other failures come from the blobs,
+     * such as corrupt files, and are neutral.
+     */
+    protected void release(long start, boolean success, boolean overloaded) {
+        if (success || overloaded) {
+            limiter.release(start, success);
+        } else {
+            limiter.release();
+        }
+    }
+
+    /**
+     * The latency of a batch depends on its size: it is not used to adapt the limit.
+     */
+    @Override
+    public List<Map<String, Object>> readMetadata(List<Blob> blobs, List<String> metadata, boolean ignorePrefix) {
+        limiter.acquire();
+        try {
+            return processor.readMetadata(blobs, metadata, ignorePrefix);
+        } finally {
+            limiter.release();
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.nuxeo.binary.metadata.api.BlobRangeReader;
+import org.nuxeo.ecm.core.api.Blob;
+
+/**
+ * Reads the ranges of the blobs backed by a local file, for example a network mount of the binary store.
+ *
+ * @since 7.3
+ */
+public class LocalFileRangeReader implements BlobRangeReader {
+
+    @Override
+    public SeekableByteChannel open(Blob blob) throws IOException {
+        File file = blob.getFile();
+        if (file == null) {
+            return null;
+        }
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.binary.metadata.api.KeyValueStore;
+
+/**
+ * Key/value store held in memory, for the tests and the single node setups: the values are not shared between
+ * nodes. The expired values are removed when read.
+ *
+ * @since 7.3
+ */
+public class MemoryKeyValueStore implements KeyValueStore {
+
+    protected static class Entry {
+
+        protected final byte[] value;
+
+        /**
+         * Expiration time, in milliseconds since the epoch.
+         */
+        protected final long expiration;
+
+        protected Entry(byte[] value, long expiration) {
+            this.value = value;
+            this.expiration = expiration;
+        }
+
+    }
+
+    protected final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    @Override
+    public byte[] get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= entry.expiration) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.value.clone();
+    }
+
+    @Override
+    public void put(String key, byte[] value, long ttl) {
+        if (value == null) {
+            entries.remove(key);
+        } else {
+            long expiration = ttl == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttl);
+            entries.put(key, new Entry(value.clone(), expiration));
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Level of cache of the metadata read from the binaries, keyed by binary digest, processor, requested tags and prefix
+ * handling.
+ *
+ * @since 7.3
+ */
+public interface MetadataCache {
+
+    /**
+     * @param tags The requested tags, {@code null} for all of them.
+     * @return A result the caller is free to modify, {@code null} if missing.
+     */
+    Map<String, Object> get(String digest, String processorId, List<String> tags, boolean ignorePrefix);
+
+    void put(String digest, String processorId, List<String> tags, boolean ignorePrefix, Map<String, Object> result);
+
+    /**
+     * Removes the results of all the processors for the binary.
+     */
+    void invalidate(String digest);
+
+}
@@ -0,0 +1,489 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Metadata read from the binaries kept on the local disk across restarts, in an append-only log mapped in memory.
+ * <p>
+ * Each record holds a key, made of the binary digest, the processor, the prefix handling and the requested tags, along
+ * with the result serialized as JSON. Invalidating a digest appends a tombstone hiding the results logged before it.
+ * The results are indexed in memory by an open addressing table of their offsets, rebuilt by scanning the log when the
+ * cache is opened. When the log is full, the live results are moved to its beginning, the oldest ones being dropped so
+ * that they fill at most half of the log.
+ * <p>
+ * The records are checksummed along with the generation of the log, bumped by each compaction, so that the scan stops
+ * at a record torn by a crash or left over by a previous generation. The numbers of the results are read back as
+ * integers, longs or doubles.
+ *
+ * @since 7.3
+ */
+public class MetadataDiskCache implements MetadataCache, Closeable {
+
+    private static final Log log = LogFactory.getLog(MetadataDiskCache.class);
+
+    public static final String LOG_FILE_NAME = "metadata.log";
+
+    protected static final int MAGIC = 0x4e58424d; // NXBM
+
+    protected static final int VERSION = 1;
+
+    /**
+     * Magic, version and generation.
+     */
+    protected static final int HEADER_LENGTH = 12;
+
+    protected static final int GENERATION_OFFSET = 8;
+
+    /**
+     * Length, checksum, type and key length, the length counting the bytes following it.
+     */
+    protected static final int RECORD_HEADER_LENGTH = 13;
+
+    protected static final byte ENTRY = 1;
+
+    protected static final byte TOMBSTONE = 2;
+
+    protected static final int INITIAL_SLOTS = 1024;
+
+    protected static final byte[] NO_VALUE = new byte[0];
+
+    protected final ObjectMapper mapper = new ObjectMapper();
+
+    protected final File file;
+
+    protected final int capacity;
+
+    protected final FileChannel channel;
+
+    protected final FileLock lock;
+
+    protected final MappedByteBuffer buffer;
+
+    protected int generation;
+
+    /**
+     * Offset of the end of the log.
+     */
+    protected int end;
+
+    /**
+     * Open addressing table of the results, holding the hash of the key in the high 32 bits and the offset of the
+     * record in the low ones, 0 for the free slots.
+     */
+    protected long[] slots;
+
+    protected int count;
+
+    /**
+     * Offset of the latest tombstone of the digests.
+     */
+    protected final Map<String, Integer> tombstones = new HashMap<>();
+
+    protected long hits;
+
+    protected long misses;
+
+    /**
+     * Opens the cache kept in the directory, starting with an empty one if it was written with another size or
+     * format.
+     *
+     * @param maxSize Size of the log, in bytes.
+     * @throws IOException If the log cannot be mapped or is already opened.
+     */
+    public MetadataDiskCache(File dir, int maxSize) throws IOException {
+        if (maxSize < HEADER_LENGTH + 2 * RECORD_HEADER_LENGTH) {
+            throw new IllegalArgumentException("Invalid size: " + maxSize);
+        }
+        dir.mkdirs();
+        file = new File(dir, LOG_FILE_NAME);
+        capacity = maxSize;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                throw new IOException("Already opened: " + file, e);
+            }
+            if (lock == null) {
+                throw new IOException("Already opened by another process: " + file);
+            }
+            boolean resized = channel.size() != capacity;
+            if (resized) {
+                channel.truncate(0);
+            }
+            // sparse file, the log being written as the results come
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            if (resized || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                reset();
+            } else {
+                generation = buffer.getInt(GENERATION_OFFSET);
+                scan();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized Map<String, Object> get(String digest, String processorId, List<String> tags,
+            boolean ignorePrefix) {
+        String key = getKey(digest, processorId, tags, ignorePrefix);
+        int offset = find(key);
+        if (offset < 0 || isInvalidated(digest, offset)) {
+            misses++;
+            return null;
+        }
+        try {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> result = mapper.readValue(readValue(offset), LinkedHashMap.class);
+            hits++;
+            return result;
+        } catch (IOException e) {
+            log.debug("Cannot read the result cached for " + digest, e);
+            misses++;
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void put(String digest, String processorId, List<String> tags, boolean ignorePrefix,
+            Map<String, Object> result) {
+        if (result == null) {
+            return;
+        }
+        byte[] value;
+        try {
+            value = mapper.writeValueAsBytes(result);
+        } catch (IOException e) {
+            log.debug("Cannot serialize the result read for " + digest, e);
+            return;
+        }
+        String key = getKey(digest, processorId, tags, ignorePrefix);
+        int offset = append(ENTRY, key, value);
+        if (offset > 0) {
+            index(key, offset);
+        }
+    }
+
+    @Override
+    public synchronized void invalidate(String digest) {
+        int offset = append(TOMBSTONE, digest, NO_VALUE);
+        if (offset > 0) {
+            tombstones.put(digest, Integer.valueOf(offset));
+        }
+    }
+
+    /**
+     * Releases the log, which is flushed to the disk.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            buffer.force();
+            lock.release();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return The number of indexed results, including the invalidated ones until the next compaction.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @return The number of bytes of the log in use.
+     */
+    public synchronized long getUsedSize() {
+        return end;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    protected static String getKey(String digest, String processorId, List<String> tags, boolean ignorePrefix) {
+        StringBuilder key = new StringBuilder(digest).append('\n').append(processorId).append('\n').append(
+                ignorePrefix ? '1' : '0');
+        if (tags != null) {
+            key.append("\n[");
+            for (String tag : tags) {
+                key.append('\n').append(tag);
+            }
+        }
+        return key.toString();
+    }
+
+    protected static String getDigest(String key) {
+        int index = key.indexOf('\n');
+        return index < 0 ? key : key.substring(0, index);
+    }
+
+    protected boolean isInvalidated(String digest, int offset) {
+        Integer tombstone = tombstones.get(digest);
+        return tombstone != null && tombstone.intValue() > offset;
+    }
+
+    /**
+     * Empties the log, starting a new generation.
+     */
+    protected void reset() {
+        generation++;
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(GENERATION_OFFSET, generation);
+        buffer.putInt(HEADER_LENGTH, 0);
+        buffer.force();
+        scan();
+    }
+
+    /**
+     * Indexes the records of the log, up to the first invalid one.
+     */
+    protected void scan() {
+        slots = new long[INITIAL_SLOTS];
+        count = 0;
+        tombstones.clear();
+        int offset = HEADER_LENGTH;
+        int length;
+        while ((length = checkRecord(offset)) > 0) {
+            String key = readKey(offset);
+            if (buffer.get(offset + 8) == ENTRY) {
+                index(key, offset);
+            } else {
+                tombstones.put(key, Integer.valueOf(offset));
+            }
+            offset += 4 + length;
+        }
+        end = offset;
+    }
+
+    /**
+     * @return The length of the record, -1 if there is none at this offset.
+     */
+    protected int checkRecord(int offset) {
+        if (offset > capacity - RECORD_HEADER_LENGTH) {
+            return -1;
+        }
+        int length = buffer.getInt(offset);
+        if (length < RECORD_HEADER_LENGTH - 4 || length > capacity - offset - 4) {
+            return -1;
+        }
+        byte type = buffer.get(offset + 8);
+        int keyLength = buffer.getInt(offset + 9);
+        if ((type != ENTRY && type != TOMBSTONE) || keyLength < 0 || keyLength > length + 4 - RECORD_HEADER_LENGTH) {
+            return -1;
+        }
+        return buffer.getInt(offset + 4) == checksum(offset + 8, length - 4) ? length : -1;
+    }
+
+    protected int checksum(int offset, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer bytes = buffer.duplicate();
+        crc.update(generation >>> 24);
+        crc.update(generation >>> 16);
+        crc.update(generation >>> 8);
+        crc.update(generation);
+        bytes.limit(offset + length).position(offset);
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    protected String readKey(int offset) {
+        byte[] bytes = new byte[buffer.getInt(offset + 9)];
+        read(offset + RECORD_HEADER_LENGTH, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    protected byte[] readValue(int offset) {
+        int keyLength = buffer.getInt(offset + 9);
+        byte[] bytes = new byte[buffer.getInt(offset) + 4 - RECORD_HEADER_LENGTH - keyLength];
+        read(offset + RECORD_HEADER_LENGTH + keyLength, bytes);
+        return bytes;
+    }
+
+    protected void read(int offset, byte[] bytes) {
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        source.get(bytes);
+    }
+
+    protected void write(int offset, byte[] bytes) {
+        ByteBuffer target = buffer.duplicate();
+        target.position(offset);
+        target.put(bytes);
+    }
+
+    /**
+     * Appends a record, the log being compacted if full. The length of the record is written last, once the record
+     * and the end marker following it are written.
+     *
+     * @return The offset of the record, -1 if larger than half of the log.
+     */
+    protected int append(byte type, String key, byte[] value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long size = (long) RECORD_HEADER_LENGTH + keyBytes.length + value.length;
+        if (size > (capacity - HEADER_LENGTH) / 2) {
+            log.debug("Result too large to be cached: " + size + " bytes");
+            return -1;
+        }
+        if (end + size > capacity) {
+            compact();
+        }
+        int offset = end;
+        int length = (int) size;
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset + 8);
+        record.put(type).putInt(keyBytes.length).put(keyBytes).put(value);
+        buffer.putInt(offset + 4, checksum(offset + 8, length - 8));
+        end = offset + length;
+        if (end <= capacity - 4) {
+            buffer.putInt(end, 0);
+        }
+        buffer.putInt(offset, length - 4);
+        return offset;
+    }
+
+    /**
+     * Moves the live results to the beginning of the log, dropping the invalidated ones, the tombstones and the oldest
+     * results not fitting in half of the log.
+     */
+    protected void compact() {
+        int[] live = new int[count];
+        int n = 0;
+        for (long slot : slots) {
+            int offset = (int) slot;
+            if (slot != 0 && !isInvalidated(getDigest(readKey(offset)), offset)) {
+                live[n++] = offset;
+            }
+        }
+        Arrays.sort(live, 0, n);
+        int first = n;
+        long kept = 0;
+        while (first > 0 && kept + 4 + buffer.getInt(live[first - 1]) <= (capacity - HEADER_LENGTH) / 2) {
+            kept += 4 + buffer.getInt(live[--first]);
+        }
+        // the records of the previous generation are invalid from now on
+        generation++;
+        buffer.putInt(GENERATION_OFFSET, generation);
+        buffer.force();
+        int target = HEADER_LENGTH;
+        for (int i = first; i < n; i++) {
+            int length = 4 + buffer.getInt(live[i]);
+            if (live[i] != target) {
+                byte[] record = new byte[length];
+                read(live[i], record);
+                write(target, record);
+            }
+            buffer.putInt(target + 4, checksum(target + 8, length - 8));
+            target += length;
+        }
+        if (target <= capacity - 4) {
+            buffer.putInt(target, 0);
+        }
+        buffer.force();
+        if (log.isDebugEnabled()) {
+            log.debug("Compacted " + file + ", kept " + (n - first) + " of the " + n + " live results");
+        }
+        scan();
+    }
+
+    /**
+     * @return The offset of the latest result logged for the key, -1 if missing.
+     */
+    protected int find(String key) {
+        int hash = key.hashCode();
+        int mask = slots.length - 1;
+        for (int i = hash & mask; slots[i] != 0; i = (i + 1) & mask) {
+            int offset = (int) slots[i];
+            if ((int) (slots[i] >>> 32) == hash && key.equals(readKey(offset))) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    protected void index(String key, int offset) {
+        if (2 * (count + 1) > slots.length) {
+            long[] previous = slots;
+            slots = new long[2 * previous.length];
+            for (long slot : previous) {
+                if (slot != 0) {
+                    insert(slot);
+                }
+            }
+        }
+        int hash = key.hashCode();
+        long slot = ((long) hash << 32) | offset;
+        int mask = slots.length - 1;
+        for (int i = hash & mask; slots[i] != 0; i = (i + 1) & mask) {
+            if ((int) (slots[i] >>> 32) == hash && key.equals(readKey((int) slots[i]))) {
+                // newer result for the same key
+                slots[i] = slot;
+                return;
+            }
+        }
+        insert(slot);
+        count++;
+    }
+
+    protected void insert(long slot) {
+        int mask = slots.length - 1;
+        int i = (int) (slot >>> 32) & mask;
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = slot;
+    }
+
+}
@@ -19,6 +19,7 @@ package org.nuxeo.binary.metadata.internals;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.nuxeo.binary.metadata.api.MetadataTagList;
 import org.nuxeo.common.xmap.annotation.XNode;
 import org.nuxeo.common.xmap.annotation.XNodeList;
 import org.nuxeo.common.xmap.annotation.XObject;
@@ -44,10 +45,39 @@ public class MetadataMappingDescriptor {
     @XNodeList(value = "metadata", componentType = MetadataDescriptor.class, type = ArrayList.class)
     protected List<MetadataDescriptor> metadataDescriptors;
 
+    /**
+     * @since 7.3
+     */
+    protected MetadataTagList tagList;
+
     public List<MetadataDescriptor> getMetadataDescriptors() {
         return metadataDescriptors;
     }
 
+    /**
+     * @return The names of the mapped metadata, with their precomputed read arguments.
+     * @since 7.3
+     */
+    public MetadataTagList getTagList() {
+        if (tagList == null) {
+            tagList = computeTagList();
+        }
+        return tagList;
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected MetadataTagList computeTagList() {
+        List<String> names = new ArrayList<>();
+        if (metadataDescriptors != null) {
+            for (MetadataDescriptor metadataDescriptor : metadataDescriptors) {
+                names.add(metadataDescriptor.getName());
+            }
+        }
+        return new MetadataTagList(names);
+    }
+
     @XObject("metadata")
     public static class MetadataDescriptor {
 
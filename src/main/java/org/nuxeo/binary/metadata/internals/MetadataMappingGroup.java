@@ -0,0 +1,123 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.nuxeo.binary.metadata.api.MetadataTagList;
+
+/**
+ * Metadata mappings reading the same blob with the same processor and prefix handling, served by a single read of
+ * the union of their tags.
+ *
+ * @since 7.3
+ */
+public class MetadataMappingGroup {
+
+    protected final String blobXPath;
+
+    protected final String processor;
+
+    protected final boolean ignorePrefix;
+
+    protected final List<MetadataMappingDescriptor> mappings = new ArrayList<>();
+
+    protected MetadataTagList tagList;
+
+    protected MetadataMappingGroup(String blobXPath, String processor, boolean ignorePrefix) {
+        this.blobXPath = blobXPath;
+        this.processor = processor;
+        this.ignorePrefix = ignorePrefix;
+    }
+
+    /**
+     * Groups the mappings by blob, processor and prefix handling, in the order of their first mapping. The mappings
+     * without metadata are left out.
+     */
+    public static List<MetadataMappingGroup> group(List<MetadataMappingDescriptor> mappings) {
+        Map<List<Object>, MetadataMappingGroup> groups = new LinkedHashMap<>();
+        for (MetadataMappingDescriptor mapping : mappings) {
+            if (mapping.getMetadataDescriptors() == null || mapping.getMetadataDescriptors().isEmpty()) {
+                continue;
+            }
+            boolean ignorePrefix = mapping.getIgnorePrefix();
+            List<Object> key = Arrays.<Object> asList(mapping.getBlobXPath(), mapping.getProcessor(),
+                    Boolean.valueOf(ignorePrefix));
+            MetadataMappingGroup group = groups.get(key);
+            if (group == null) {
+                group = new MetadataMappingGroup(mapping.getBlobXPath(), mapping.getProcessor(), ignorePrefix);
+                groups.put(key, group);
+            }
+            if (!group.mappings.contains(mapping)) {
+                group.mappings.add(mapping);
+            }
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    public String getBlobXPath() {
+        return blobXPath;
+    }
+
+    /**
+     * @return The processor of the mappings, {@code null} for the default one.
+     */
+    public String getProcessor() {
+        return processor;
+    }
+
+    public boolean getIgnorePrefix() {
+        return ignorePrefix;
+    }
+
+    public List<MetadataMappingDescriptor> getMappings() {
+        return Collections.unmodifiableList(mappings);
+    }
+
+    /**
+     * @return The union of the tags of the mappings, in the order of the mappings.
+     */
+    public MetadataTagList getTagList() {
+        if (tagList == null) {
+            if (mappings.size() == 1) {
+                tagList = mappings.get(0).getTagList();
+            } else {
+                Set<String> tags = new LinkedHashSet<>();
+                for (MetadataMappingDescriptor mapping : mappings) {
+                    tags.addAll(mapping.getTagList());
+                }
+                tagList = new MetadataTagList(new ArrayList<>(tags));
+            }
+        }
+        return tagList;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + blobXPath + ", " + Objects.toString(processor, "default") + ", "
+                + ignorePrefix + ", " + mappings.size() + " mappings)";
+    }
+
+}
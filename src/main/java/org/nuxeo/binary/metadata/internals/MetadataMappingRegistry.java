@@ -32,6 +32,18 @@ public class MetadataMappingRegistry extends SimpleContributionRegistry<Metadata
         return metadataMappingDescriptor.getId();
     }
 
+    /**
+     * Computes the tag list of the mapping once, as the metadata of a registered mapping do not change.
+     *
+     * @since 7.3
+     */
+    @Override
+    public void contributionUpdated(String id, MetadataMappingDescriptor contrib,
+            MetadataMappingDescriptor newOrigContrib) {
+        contrib.tagList = contrib.computeTagList();
+        super.contributionUpdated(id, contrib, newOrigContrib);
+    }
+
     public Map<String, MetadataMappingDescriptor> getMappingDescriptorMap() {
         return currentContribs;
     }
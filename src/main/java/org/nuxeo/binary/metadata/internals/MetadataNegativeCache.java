@@ -0,0 +1,105 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Outcomes of the reads bringing nothing, kept for a given time so that they are not retried at each save of the
+ * documents: the failures of a processor for a binary, and the empty results of a processor for a binary, requested
+ * tags and prefix handling.
+ *
+ * @since 7.3
+ */
+public class MetadataNegativeCache {
+
+    protected final Cache<MetadataResultCache.Key, String> failures;
+
+    protected final Cache<MetadataResultCache.Key, Boolean> empties;
+
+    /**
+     * @param maxSize Maximum number of failures, and of empty results.
+     * @param ttl Time to live of the outcomes, in seconds.
+     */
+    public MetadataNegativeCache(long maxSize, long ttl) {
+        failures = CacheBuilder.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl, TimeUnit.SECONDS).recordStats()
+                .build();
+        empties = CacheBuilder.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl, TimeUnit.SECONDS).recordStats()
+                .build();
+    }
+
+    /**
+     * @return The message of the failure of the processor for the binary, {@code null} if none.
+     */
+    public String getFailure(String digest, String processorId) {
+        return failures.getIfPresent(new MetadataResultCache.Key(digest, processorId, null, false));
+    }
+
+    public void putFailure(String digest, String processorId, String message) {
+        failures.put(new MetadataResultCache.Key(digest, processorId, null, false), String.valueOf(message));
+    }
+
+    /**
+     * @param tags The requested tags, {@code null} for all of them.
+     */
+    public boolean isEmpty(String digest, String processorId, List<String> tags, boolean ignorePrefix) {
+        return empties.getIfPresent(new MetadataResultCache.Key(digest, processorId, tags, ignorePrefix)) != null;
+    }
+
+    public void putEmpty(String digest, String processorId, List<String> tags, boolean ignorePrefix) {
+        empties.put(new MetadataResultCache.Key(digest, processorId, tags, ignorePrefix), Boolean.TRUE);
+    }
+
+    /**
+     * Removes the outcomes of all the processors for the binary.
+     */
+    public void invalidate(String digest) {
+        invalidate(failures, digest);
+        invalidate(empties, digest);
+    }
+
+    protected static void invalidate(Cache<MetadataResultCache.Key, ?> cache, String digest) {
+        Iterator<MetadataResultCache.Key> keys = cache.asMap().keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().digest.equals(digest)) {
+                keys.remove();
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        failures.invalidateAll();
+        empties.invalidateAll();
+    }
+
+    public long size() {
+        return failures.size() + empties.size();
+    }
+
+    /**
+     * @return The number of reads short-circuited.
+     */
+    public long getHitCount() {
+        return failures.stats().hitCount() + empties.stats().hitCount();
+    }
+
+}
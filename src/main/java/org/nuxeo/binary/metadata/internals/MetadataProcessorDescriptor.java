@@ -16,8 +16,13 @@
  */
 package org.nuxeo.binary.metadata.internals;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.nuxeo.binary.metadata.api.BinaryMetadataProcessor;
+import org.nuxeo.binary.metadata.api.ConfigurableBinaryMetadataProcessor;
 import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XNodeMap;
 import org.nuxeo.common.xmap.annotation.XObject;
 
 @XObject("processor")
@@ -26,6 +31,12 @@ public class MetadataProcessorDescriptor {
     @XNode("@id")
     protected String id;
 
+    /**
+     * @since 7.3
+     */
+    @XNodeMap(value = "parameters/parameter", key = "@name", type = HashMap.class, componentType = String.class)
+    protected Map<String, String> parameters = new HashMap<>();
+
     protected BinaryMetadataProcessor processor;
 
     @XNode("@class")
@@ -37,4 +48,29 @@ public class MetadataProcessorDescriptor {
     public String getId() {
         return id;
     }
+
+    /**
+     * @since 7.3
+     */
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected void initProcessor() {
+        if (processor instanceof ConfigurableBinaryMetadataProcessor) {
+            ((ConfigurableBinaryMetadataProcessor) processor).init(parameters);
+        }
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected void releaseProcessor() {
+        if (processor instanceof ConfigurableBinaryMetadataProcessor) {
+            ((ConfigurableBinaryMetadataProcessor) processor).release();
+        }
+    }
 }
@@ -40,7 +40,42 @@ public class MetadataProcessorRegistry extends SimpleContributionRegistry<Metada
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public void contributionUpdated(String id, MetadataProcessorDescriptor contrib,
+            MetadataProcessorDescriptor newOrigContrib) {
+        MetadataProcessorDescriptor previous = currentContribs.get(id);
+        super.contributionUpdated(id, contrib, newOrigContrib);
+        if (previous != null && previous != contrib) {
+            previous.releaseProcessor();
+        }
+        contrib.initProcessor();
+    }
+
+    @Override
+    public void contributionRemoved(String id, MetadataProcessorDescriptor origContrib) {
+        MetadataProcessorDescriptor previous = currentContribs.get(id);
+        super.contributionRemoved(id, origContrib);
+        if (previous != null) {
+            previous.releaseProcessor();
+        }
+    }
+
+    /**
+     * @return The processor, {@code null} if none is registered with this id (since 7.3).
+     */
     public BinaryMetadataProcessor getProcessor(String processorId) {
-        return currentContribs.get(processorId).processor;
+        MetadataProcessorDescriptor descriptor = currentContribs.get(processorId);
+        return descriptor == null ? null : descriptor.processor;
+    }
+
+    /**
+     * Releases the resources held by all registered processors.
+     *
+     * @since 7.3
+     */
+    protected void releaseProcessors() {
+        for (MetadataProcessorDescriptor descriptor : currentContribs.values()) {
+            descriptor.releaseProcessor();
+        }
     }
 }
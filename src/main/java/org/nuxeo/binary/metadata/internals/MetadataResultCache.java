@@ -0,0 +1,164 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * Metadata read from the binaries, keyed by binary digest, processor, requested tags and prefix handling.
+ * <p>
+ * The cache is bounded by the approximate number of characters of the cached tags, evicting the least recently used
+ * results first, and the results expire after a given time. The maps are copied in and out, callers being free to
+ * modify the returned maps.
+ *
+ * @since 7.3
+ */
+public class MetadataResultCache implements MetadataCache {
+
+    /**
+     * Weight of a result besides its tags.
+     */
+    protected static final int ENTRY_WEIGHT = 64;
+
+    /**
+     * Weight of a value which is neither a string nor a collection.
+     */
+    protected static final int VALUE_WEIGHT = 16;
+
+    protected static class Key {
+
+        protected final String digest;
+
+        protected final String processorId;
+
+        protected final List<String> tags;
+
+        protected final boolean ignorePrefix;
+
+        protected Key(String digest, String processorId, List<String> tags, boolean ignorePrefix) {
+            this.digest = digest;
+            this.processorId = processorId;
+            this.tags = tags == null ? null : new ArrayList<>(tags);
+            this.ignorePrefix = ignorePrefix;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(digest, processorId, tags, Boolean.valueOf(ignorePrefix));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return ignorePrefix == other.ignorePrefix && digest.equals(other.digest)
+                    && processorId.equals(other.processorId) && Objects.equals(tags, other.tags);
+        }
+
+    }
+
+    protected final Cache<Key, Map<String, Object>> cache;
+
+    /**
+     * @param maxWeight Maximum number of characters of the cached tags, names and values.
+     * @param ttl Time to live of the results, in seconds.
+     */
+    public MetadataResultCache(long maxWeight, long ttl) {
+        cache = CacheBuilder.newBuilder().maximumWeight(maxWeight).weigher(new Weigher<Key, Map<String, Object>>() {
+
+            @Override
+            public int weigh(Key key, Map<String, Object> value) {
+                long weight = ENTRY_WEIGHT;
+                for (Map.Entry<String, Object> entry : value.entrySet()) {
+                    weight += entry.getKey().length() + weigh(entry.getValue());
+                }
+                return (int) Math.min(weight, Integer.MAX_VALUE);
+            }
+
+            protected long weigh(Object value) {
+                if (value instanceof CharSequence) {
+                    return ((CharSequence) value).length();
+                } else if (value instanceof Collection) {
+                    long weight = 0;
+                    for (Object item : (Collection<?>) value) {
+                        weight += weigh(item);
+                    }
+                    return weight;
+                }
+                return VALUE_WEIGHT;
+            }
+
+        }).expireAfterWrite(ttl, TimeUnit.SECONDS).recordStats().build();
+    }
+
+    /**
+     * @return A copy of the cached result, {@code null} if missing.
+     */
+    @Override
+    public Map<String, Object> get(String digest, String processorId, List<String> tags, boolean ignorePrefix) {
+        Map<String, Object> result = cache.getIfPresent(new Key(digest, processorId, tags, ignorePrefix));
+        return result == null ? null : new LinkedHashMap<>(result);
+    }
+
+    @Override
+    public void put(String digest, String processorId, List<String> tags, boolean ignorePrefix,
+            Map<String, Object> result) {
+        if (result != null) {
+            cache.put(new Key(digest, processorId, tags, ignorePrefix), new LinkedHashMap<>(result));
+        }
+    }
+
+    @Override
+    public void invalidate(String digest) {
+        Iterator<Key> keys = cache.asMap().keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().digest.equals(digest)) {
+                keys.remove();
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+}
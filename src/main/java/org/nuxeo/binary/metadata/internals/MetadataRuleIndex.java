@@ -0,0 +1,196 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.platform.actions.ejb.ActionManager;
+
+/**
+ * Enabled rules indexed by the document types, facets and schemas accepted by their filters, so that the documents
+ * matching no rule are rejected without evaluating any filter.
+ * <p>
+ * The filters of the rules are compiled once into {@link CompiledActionFilter}s. The rules are put in the buckets of
+ * the types accepted by all their filters, the rules without such restriction being candidates for all the types,
+ * then the candidates are checked against their compiled filters. The filters which are not exact still have to be
+ * evaluated by the {@link ActionManager}.
+ *
+ * @since 7.3
+ */
+public class MetadataRuleIndex {
+
+    private static final Log log = LogFactory.getLog(MetadataRuleIndex.class);
+
+    /**
+     * A rule with its compiled filters.
+     */
+    protected static class Entry {
+
+        protected final int position;
+
+        protected final MetadataRuleDescriptor rule;
+
+        protected final List<CompiledActionFilter> filters;
+
+        protected Entry(int position, MetadataRuleDescriptor rule, List<CompiledActionFilter> filters) {
+            this.position = position;
+            this.rule = rule;
+            this.filters = filters;
+        }
+
+        protected boolean accept(DocumentModel doc) {
+            for (CompiledActionFilter filter : filters) {
+                if (!filter.accept(doc)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+    /**
+     * The compiled filters by id, the filters which cannot be compiled being missing.
+     */
+    protected final Map<String, CompiledActionFilter> filters = new HashMap<>();
+
+    protected final Map<String, List<Entry>> entriesByType = new HashMap<>();
+
+    protected final List<Entry> anyTypeEntries = new ArrayList<>();
+
+    protected final int size;
+
+    /**
+     * @param rules The rules in order.
+     * @param actionManager Provides the definition of the filters, the filters it misses being evaluated for all the
+     *            documents.
+     */
+    public MetadataRuleIndex(Collection<MetadataRuleDescriptor> rules, ActionManager actionManager) {
+        int position = 0;
+        for (MetadataRuleDescriptor rule : rules) {
+            if (!rule.getEnabled()) {
+                continue;
+            }
+            List<CompiledActionFilter> ruleFilters = new ArrayList<>();
+            Set<String> types = null;
+            for (String filterId : rule.getFilterIds()) {
+                CompiledActionFilter filter = getFilter(actionManager, filterId);
+                if (filter == null) {
+                    continue;
+                }
+                ruleFilters.add(filter);
+                Set<String> filterTypes = filter.getTypes();
+                if (filterTypes != null) {
+                    if (types == null) {
+                        types = new HashSet<>(filterTypes);
+                    } else {
+                        types.retainAll(filterTypes);
+                    }
+                }
+            }
+            Entry entry = new Entry(position++, rule, ruleFilters);
+            if (types == null) {
+                anyTypeEntries.add(entry);
+                continue;
+            }
+            if (types.isEmpty() && log.isDebugEnabled()) {
+                log.debug("The filters of the binary metadata rule " + rule.getId() + " accept no document type");
+            }
+            for (String type : types) {
+                List<Entry> entries = entriesByType.get(type);
+                if (entries == null) {
+                    entries = new ArrayList<>();
+                    entriesByType.put(type, entries);
+                }
+                entries.add(entry);
+            }
+        }
+        size = position;
+    }
+
+    /**
+     * @return The filter compiled once for all the rules, {@code null} if it cannot be compiled.
+     */
+    protected CompiledActionFilter getFilter(ActionManager actionManager, String filterId) {
+        if (!filters.containsKey(filterId)) {
+            CompiledActionFilter filter = actionManager == null ? null : CompiledActionFilter.compile(filterId,
+                    actionManager.getFilter(filterId));
+            if (log.isDebugEnabled()) {
+                log.debug("Compiled the filter " + filterId + " of the binary metadata rules: " + filter);
+            }
+            filters.put(filterId, filter);
+        }
+        return filters.get(filterId);
+    }
+
+    /**
+     * @return The rules which may apply to the document, in order, their filters which are not exact being still to
+     *         evaluate.
+     */
+    public List<MetadataRuleDescriptor> getCandidates(DocumentModel doc) {
+        List<Entry> typeEntries = entriesByType.get(doc.getType());
+        if (typeEntries == null) {
+            typeEntries = Collections.emptyList();
+        }
+        if (typeEntries.isEmpty() && anyTypeEntries.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // merge the rules of the type and the ones of all the types, both sorted by position
+        List<MetadataRuleDescriptor> candidates = new ArrayList<>(typeEntries.size() + anyTypeEntries.size());
+        int i = 0;
+        int j = 0;
+        while (i < typeEntries.size() || j < anyTypeEntries.size()) {
+            Entry entry;
+            if (j == anyTypeEntries.size()
+                    || i < typeEntries.size() && typeEntries.get(i).position < anyTypeEntries.get(j).position) {
+                entry = typeEntries.get(i++);
+            } else {
+                entry = anyTypeEntries.get(j++);
+            }
+            if (entry.accept(doc)) {
+                candidates.add(entry.rule);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @return Whether the filter is exact, the candidates being already accepted by it.
+     */
+    public boolean isExact(String filterId) {
+        CompiledActionFilter filter = filters.get(filterId);
+        return filter != null && filter.isExact();
+    }
+
+    /**
+     * @return The number of enabled rules.
+     */
+    public int size() {
+        return size;
+    }
+
+}
@@ -20,6 +20,8 @@ import java.util.Comparator;
 import java.util.Set;
 import java.util.TreeSet;
 
+import org.nuxeo.ecm.platform.actions.ejb.ActionManager;
+import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.model.SimpleContributionRegistry;
 
 /**
@@ -47,8 +49,28 @@ public class MetadataRuleRegistry extends SimpleContributionRegistry<MetadataRul
         return metadataRuleDescriptor.getId();
     }
 
+    /**
+     * @since 7.3
+     */
+    protected volatile MetadataRuleIndex index;
+
     protected void handleApplicationStarted() {
         contribs.addAll(currentContribs.values());
+        // the filters of the rules are all registered at this point
+        index = null;
+    }
+
+    /**
+     * @return The index of the rules, built on first use once the application is started.
+     * @since 7.3
+     */
+    public MetadataRuleIndex getIndex() {
+        MetadataRuleIndex index = this.index;
+        if (index == null) {
+            index = new MetadataRuleIndex(contribs, Framework.getLocalService(ActionManager.class));
+            this.index = index;
+        }
+        return index;
     }
 
 }
@@ -0,0 +1,254 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.nuxeo.binary.metadata.api.KeyValueStore;
+import org.nuxeo.binary.metadata.internals.readers.TagValues;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * Metadata read from the binaries shared by the nodes of a cluster through a {@link KeyValueStore}.
+ * <p>
+ * Each result is kept under its own key, as deflated JSON, so that the nodes putting the results of a binary
+ * concurrently don't overwrite each other. The keys of the results include the generation of the binary, kept under
+ * its digest: invalidating a digest writes a new generation, and the results of the previous generations are no
+ * longer reachable, even when put concurrently with the invalidation. A result larger than the limit is not shared.
+ * The failures of the store are logged and counted, the reads then being misses.
+ *
+ * @since 7.3
+ */
+public class MetadataSharedCache implements MetadataCache {
+
+    private static final Log log = LogFactory.getLog(MetadataSharedCache.class);
+
+    public static final String KEY_PREFIX = "binary-metadata:";
+
+    /**
+     * Format of the values: deflated JSON object of the result by processor, prefix handling and tags.
+     */
+    protected static final byte FORMAT = 1;
+
+    /**
+     * Generation of the binaries never invalidated, not stored.
+     */
+    protected static final String INITIAL_GENERATION = "0";
+
+    protected static final int MAX_INFLATED_LENGTH = 16 * 1024 * 1024;
+
+    protected final ObjectMapper mapper = new ObjectMapper();
+
+    protected final KeyValueStore store;
+
+    protected final long ttl;
+
+    protected final int maxValueSize;
+
+    protected final AtomicLong hits = new AtomicLong();
+
+    protected final AtomicLong misses = new AtomicLong();
+
+    protected final AtomicLong rejections = new AtomicLong();
+
+    protected final AtomicLong errors = new AtomicLong();
+
+    protected final Random random = new SecureRandom();
+
+    /**
+     * @param ttl Time to live of the results, in seconds.
+     * @param maxValueSize Maximum size of an encoded result, in bytes.
+     */
+    public MetadataSharedCache(KeyValueStore store, long ttl, int maxValueSize) {
+        this.store = store;
+        this.ttl = ttl;
+        this.maxValueSize = maxValueSize;
+    }
+
+    @Override
+    public Map<String, Object> get(String digest, String processorId, List<String> tags, boolean ignorePrefix) {
+        String generation = readGeneration(digest);
+        String entryKey = getEntryKey(processorId, tags, ignorePrefix);
+        Map<String, Object> results = generation == null ? null : read(getKey(digest, generation, entryKey));
+        // the entry key is kept in the value, its hash in the key
+        Object result = results == null ? null : results.get(entryKey);
+        if (!(result instanceof Map)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        @SuppressWarnings("unchecked")
+        Map<String, Object> map = (Map<String, Object>) result;
+        return map;
+    }
+
+    @Override
+    public void put(String digest, String processorId, List<String> tags, boolean ignorePrefix,
+            Map<String, Object> result) {
+        if (result == null) {
+            return;
+        }
+        String entryKey = getEntryKey(processorId, tags, ignorePrefix);
+        byte[] value = encode(Collections.<String, Object> singletonMap(entryKey, result));
+        if (value == null || value.length > maxValueSize) {
+            rejections.incrementAndGet();
+            return;
+        }
+        String generation = readGeneration(digest);
+        if (generation == null) {
+            // unknown generation, the result could outlive an invalidation
+            return;
+        }
+        write(getKey(digest, generation, entryKey), value);
+    }
+
+    /**
+     * Writes a new generation for the binary, the results put under the previous ones expiring unread.
+     */
+    @Override
+    public void invalidate(String digest) {
+        String generation = Long.toString(random.nextLong() & Long.MAX_VALUE, Character.MAX_RADIX);
+        write(KEY_PREFIX + digest, generation.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of results not shared for being too large.
+     */
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    /**
+     * @return The number of failed calls to the store.
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    protected static String getEntryKey(String processorId, List<String> tags, boolean ignorePrefix) {
+        StringBuilder key = new StringBuilder(processorId).append('\n').append(ignorePrefix ? '1' : '0');
+        if (tags != null) {
+            key.append("\n[");
+            for (String tag : tags) {
+                key.append('\n').append(tag);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return The key of a result, the entry key being hashed to keep the keys short and free of separators.
+     */
+    protected static String getKey(String digest, String generation, String entryKey) {
+        String hash = Hashing.sha1().hashString(entryKey, StandardCharsets.UTF_8).toString();
+        return KEY_PREFIX + digest + ':' + generation + ':' + hash;
+    }
+
+    /**
+     * @return The current generation of the binary, {@code null} if the store fails.
+     */
+    protected String readGeneration(String digest) {
+        byte[] value;
+        try {
+            value = store.get(KEY_PREFIX + digest);
+        } catch (RuntimeException e) {
+            errors.incrementAndGet();
+            log.debug("Cannot read the shared metadata generation of " + digest, e);
+            return null;
+        }
+        return value == null ? INITIAL_GENERATION : new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The result under the key, by entry key, {@code null} if missing or unreadable.
+     */
+    protected Map<String, Object> read(String key) {
+        byte[] value;
+        try {
+            value = store.get(key);
+        } catch (RuntimeException e) {
+            errors.incrementAndGet();
+            log.debug("Cannot read the shared metadata " + key, e);
+            return null;
+        }
+        if (value == null) {
+            return null;
+        }
+        try {
+            if (value.length == 0 || value[0] != FORMAT) {
+                throw new IOException("Unknown format");
+            }
+            byte[] json = TagValues.inflate(Arrays.copyOfRange(value, 1, value.length), MAX_INFLATED_LENGTH);
+            @SuppressWarnings("unchecked")
+            Map<String, Object> results = mapper.readValue(json, LinkedHashMap.class);
+            return results;
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Cannot decode the shared metadata " + key, e);
+            return null;
+        }
+    }
+
+    protected void write(String key, byte[] value) {
+        try {
+            store.put(key, value, ttl);
+        } catch (RuntimeException e) {
+            errors.incrementAndGet();
+            log.debug("Cannot write the shared metadata " + key, e);
+        }
+    }
+
+    /**
+     * @return The encoded results, {@code null} if they cannot be serialized.
+     */
+    protected byte[] encode(Map<String, Object> results) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(FORMAT);
+            try (DeflaterOutputStream deflater = new DeflaterOutputStream(out)) {
+                deflater.write(mapper.writeValueAsBytes(results));
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            log.debug("Cannot encode the metadata", e);
+            return null;
+        }
+    }
+
+}
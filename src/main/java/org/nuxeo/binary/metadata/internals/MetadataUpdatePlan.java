@@ -0,0 +1,149 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.model.Property;
+
+import com.google.common.base.Supplier;
+
+/**
+ * What an update of a document does with the metadata of its blobs, decided once from the dirtiness of the blobs and
+ * of the mapped properties:
+ * <ul>
+ * <li>the handled mappings having a dirty property are written from the document to their blob,</li>
+ * <li>when a handled mapping has a dirty blob and no dirty property, the mappings of the rules applying to the
+ * document having a dirty blob and no dirty property are read from their blob to the document.</li>
+ * </ul>
+ * The writes are grouped by {@link MetadataMappingGroup} and the reads are grouped the same way when executed, so that
+ * each blob is written at most once and read at most once per processor and prefix handling.
+ *
+ * @since 7.3
+ */
+public class MetadataUpdatePlan {
+
+    protected final List<MetadataMappingDescriptor> readMappings;
+
+    protected final List<MetadataMappingGroup> writeGroups;
+
+    protected MetadataUpdatePlan(List<MetadataMappingDescriptor> readMappings, List<MetadataMappingGroup> writeGroups) {
+        this.readMappings = Collections.unmodifiableList(readMappings);
+        this.writeGroups = Collections.unmodifiableList(writeGroups);
+    }
+
+    /**
+     * Decides the reads and writes for the current state of the document, the mappings without blob being left out.
+     *
+     * @param mappings The mappings handled by the update.
+     * @param ruleMappings The mappings of all the rules applying to the document, only got if a read is needed.
+     */
+    public static MetadataUpdatePlan compile(List<MetadataMappingDescriptor> mappings,
+            Supplier<List<MetadataMappingDescriptor>> ruleMappings, DocumentModel doc) {
+        Map<String, Boolean> dirtyBlobs = new HashMap<>();
+        Map<String, Boolean> dirtyProperties = new HashMap<>();
+        List<MetadataMappingDescriptor> writeMappings = new ArrayList<>();
+        boolean read = false;
+        for (MetadataMappingDescriptor mapping : mappings) {
+            Boolean dirtyBlob = isDirtyBlob(mapping, doc, dirtyBlobs);
+            if (dirtyBlob == null) {
+                continue;
+            }
+            if (isDirty(mapping, doc, dirtyProperties)) {
+                // write metadata from doc to blob, whether the blob is dirty or not
+                writeMappings.add(mapping);
+            } else if (dirtyBlob.booleanValue()) {
+                // write metadata from blob to doc
+                read = true;
+            }
+        }
+        List<MetadataMappingDescriptor> readMappings = new ArrayList<>();
+        if (read) {
+            for (MetadataMappingDescriptor mapping : ruleMappings.get()) {
+                Boolean dirtyBlob = isDirtyBlob(mapping, doc, dirtyBlobs);
+                if (Boolean.TRUE.equals(dirtyBlob) && !isDirty(mapping, doc, dirtyProperties)
+                        && !readMappings.contains(mapping)) {
+                    readMappings.add(mapping);
+                }
+            }
+        }
+        return new MetadataUpdatePlan(readMappings, MetadataMappingGroup.group(writeMappings));
+    }
+
+    /**
+     * @return Whether the blob of the mapping is dirty, {@code null} if the mapping has no blob.
+     */
+    protected static Boolean isDirtyBlob(MetadataMappingDescriptor mapping, DocumentModel doc,
+            Map<String, Boolean> dirtyBlobs) {
+        String blobXPath = mapping.getBlobXPath();
+        if (!dirtyBlobs.containsKey(blobXPath)) {
+            Property blobProperty = doc.getProperty(blobXPath);
+            dirtyBlobs.put(blobXPath, blobProperty.getValue(Blob.class) == null ? null
+                    : Boolean.valueOf(blobProperty.isDirty()));
+        }
+        return dirtyBlobs.get(blobXPath);
+    }
+
+    /**
+     * @return Whether a property of the mapping is dirty.
+     */
+    protected static boolean isDirty(MetadataMappingDescriptor mapping, DocumentModel doc,
+            Map<String, Boolean> dirtyProperties) {
+        boolean dirty = false;
+        for (MetadataMappingDescriptor.MetadataDescriptor metadataDescriptor : mapping.getMetadataDescriptors()) {
+            String xpath = metadataDescriptor.getXpath();
+            Boolean dirtyProperty = dirtyProperties.get(xpath);
+            if (dirtyProperty == null) {
+                dirtyProperty = Boolean.valueOf(doc.getProperty(xpath).isDirty());
+                dirtyProperties.put(xpath, dirtyProperty);
+            }
+            dirty |= dirtyProperty.booleanValue();
+        }
+        return dirty;
+    }
+
+    /**
+     * @return The mappings to read from their blob to the document, in order.
+     */
+    public List<MetadataMappingDescriptor> getReadMappings() {
+        return readMappings;
+    }
+
+    /**
+     * @return The groups of mappings to write from the document to their blob.
+     */
+    public List<MetadataMappingGroup> getWriteGroups() {
+        return writeGroups;
+    }
+
+    public boolean isEmpty() {
+        return readMappings.isEmpty() && writeGroups.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(read " + readMappings.size() + " mappings, write " + writeGroups
+                + ")";
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.binary.metadata.api.BinaryMetadataConstants;
+import org.nuxeo.binary.metadata.api.BinaryMetadataException;
+import org.nuxeo.binary.metadata.api.BinaryMetadataProcessor;
+import org.nuxeo.binary.metadata.api.ConfigurableBinaryMetadataProcessor;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CloseableFile;
+
+/**
+ * Processor reading the metadata of a binary format in the JVM, through positional reads of the file, and returning
+ * the keys and values ExifTool returns for the same tags.
+ * <p>
+ * The reads of the binaries which are not in the format of the processor or cannot be parsed, and the writes the
+ * processor does not handle, are delegated to the processor contributed with the id given by the
+ * {@value #FALLBACK_PARAMETER} parameter, {@value BinaryMetadataConstants#EXIF_TOOL_CONTRIBUTION_ID} by default.
+ *
+ * @since 7.3
+ */
+public abstract class NativeMetadataProcessor implements ConfigurableBinaryMetadataProcessor {
+
+    private static final Log log = LogFactory.getLog(NativeMetadataProcessor.class);
+
+    public static final String FALLBACK_PARAMETER = "fallback";
+
+    protected static final Set<String> ALL_TAGS = new HashSet<>(Arrays.asList("all", "*", "all:all"));
+
+    protected String fallback = BinaryMetadataConstants.EXIF_TOOL_CONTRIBUTION_ID;
+
+    @Override
+    public void init(Map<String, String> parameters) {
+        if (StringUtils.isNotBlank(parameters.get(FALLBACK_PARAMETER))) {
+            fallback = parameters.get(FALLBACK_PARAMETER).trim();
+        }
+    }
+
+    @Override
+    public void release() {
+    }
+
+    /**
+     * Reads the tags of the binary.
+     *
+     * @param channel Channel on the binary, read through positional reads or mapped.
+     * @param tags Receives the tags keyed by ExifTool family 0 group and name, such as {@code EXIF:Make}, in the
+     *            ExifTool order.
+     * @return {@code false} if the binary is not in the format of the processor.
+     */
+    protected abstract boolean readTags(FileChannel channel, Map<String, Object> tags) throws IOException;
+
+    /**
+     * Writes the tags in the binary, which has to be left untouched when returning {@code false}.
+     *
+     * @param file The binary file, updated in place or replaced.
+     * @param metadata The tags keyed by ExifTool group and name, or by name only if {@code ignorePrefix} is set.
+     * @return {@code false} if the tags have to be written by the fallback processor.
+     * @since 7.3
+     */
+    protected boolean writeTags(File file, Map<String, Object> metadata, boolean ignorePrefix) throws IOException {
+        return false;
+    }
+
+    /**
+     * @return The fallback processor, under its limiter and its caches.
+     */
+    protected BinaryMetadataProcessor getFallback() {
+        BinaryMetadataProcessor processor = BinaryMetadataComponent.self.metadataServiceImpl.getDelegatedProcessor(
+                fallback);
+        if (processor == null) {
+            throw new BinaryMetadataException("Unknown fallback processor: " + fallback);
+        }
+        return processor;
+    }
+
+    @Override
+    public boolean writeMetadata(Blob blob, Map<String, Object> metadata, boolean ignorePrefix) {
+        if (blob == null) {
+            throw new BinaryMetadataException("Cannot write the metadata of a null blob");
+        }
+        try (CloseableFile source = blob.getCloseableFile()) {
+            if (writeTags(source.getFile(), metadata, ignorePrefix)) {
+                return true;
+            }
+        } catch (EOFException | RuntimeException e) {
+            // the binary is left untouched when it cannot be parsed
+            if (log.isDebugEnabled()) {
+                log.debug("Unable to write " + blob.getFilename() + " natively, falling back to " + fallback, e);
+            }
+        } catch (IOException e) {
+            throw new BinaryMetadataException(e);
+        }
+        return getFallback().writeMetadata(blob, metadata, ignorePrefix);
+    }
+
+    @Override
+    public Map<String, Object> readMetadata(Blob blob, List<String> metadata, boolean ignorePrefix) {
+        Map<String, Object> tags = readTags(blob);
+        if (tags == null) {
+            return getFallback().readMetadata(blob, metadata, ignorePrefix);
+        }
+        return select(tags, metadata, ignorePrefix);
+    }
+
+    @Override
+    public Map<String, Object> readMetadata(Blob blob, boolean ignorePrefix) {
+        Map<String, Object> tags = readTags(blob);
+        if (tags == null) {
+            return getFallback().readMetadata(blob, ignorePrefix);
+        }
+        return select(tags, null, ignorePrefix);
+    }
+
+    /**
+     * @return The tags of the binary, {@code null} if they have to be read by the fallback processor.
+     */
+    protected Map<String, Object> readTags(Blob blob) {
+        if (blob == null) {
+            throw new BinaryMetadataException("Cannot read the metadata of a null blob");
+        }
+        try (CloseableFile source = blob.getCloseableFile();
+                FileChannel channel = FileChannel.open(source.getFile().toPath(), StandardOpenOption.READ)) {
+            Map<String, Object> tags = new LinkedHashMap<>();
+            try {
+                if (readTags(channel, tags)) {
+                    return tags;
+                }
+            } catch (EOFException | RuntimeException e) {
+                // truncated or corrupted structure, let ExifTool do its best
+                if (log.isDebugEnabled()) {
+                    log.debug("Unable to read " + blob.getFilename() + " natively, falling back to " + fallback, e);
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            throw new BinaryMetadataException(e);
+        }
+    }
+
+    /**
+     * Keeps the requested tags as ExifTool does: a tag is requested by its name, or by its group and name, or by its
+     * group with the {@code all} or {@code *} name. Without prefix, the first tag of a given name wins.
+     *
+     * @param metadata Requested tags, {@code null} for all of them.
+     */
+    protected Map<String, Object> select(Map<String, Object> tags, List<String> metadata, boolean ignorePrefix) {
+        Set<String> keys = null;
+        Set<String> names = null;
+        Set<String> groups = null;
+        if (metadata != null) {
+            keys = new HashSet<>();
+            names = new HashSet<>();
+            groups = new HashSet<>();
+            for (String tag : metadata) {
+                String lower = tag.toLowerCase(Locale.ENGLISH);
+                if (ALL_TAGS.contains(lower)) {
+                    keys = null;
+                    break;
+                }
+                int colon = lower.lastIndexOf(':');
+                String group = colon < 0 ? "all" : lower.substring(0, colon);
+                String name = lower.substring(colon + 1);
+                if ("all".equals(name) || "*".equals(name)) {
+                    groups.add(group);
+                } else if ("all".equals(group) || "*".equals(group)) {
+                    names.add(name);
+                } else {
+                    keys.add(lower);
+                }
+            }
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : tags.entrySet()) {
+            String key = entry.getKey();
+            int colon = key.indexOf(':');
+            if (keys != null) {
+                String lower = key.toLowerCase(Locale.ENGLISH);
+                if (!keys.contains(lower) && !names.contains(lower.substring(colon + 1))
+                        && !groups.contains(lower.substring(0, colon))) {
+                    continue;
+                }
+            }
+            String resultKey = ignorePrefix ? key.substring(colon + 1) : key;
+            if (!result.containsKey(resultKey)) {
+                result.put(resultKey, entry.getValue());
+            }
+        }
+        return result;
+    }
+
+}
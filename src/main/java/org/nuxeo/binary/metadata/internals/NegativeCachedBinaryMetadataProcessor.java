@@ -0,0 +1,167 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.binary.metadata.api.BinaryMetadataException;
+import org.nuxeo.binary.metadata.api.BinaryMetadataProcessor;
+import org.nuxeo.ecm.core.api.Blob;
+
+/**
+ * Short-circuits the reads of a processor known to bring nothing from a {@link MetadataNegativeCache}: a failure of
+ * the processor for the binary is thrown again, and an empty result returned again, without calling the processor.
+ * Only the {@link InvalidBinaryException} failures, the same on each call, are kept: a timeout, an unavailable
+ * processor or an I/O error say nothing about the binary. The blobs without digest are always read, and the writes
+ * invalidate the outcomes kept for the digest of the blob.
+ *
+ * @since 7.3
+ */
+public class NegativeCachedBinaryMetadataProcessor implements BinaryMetadataProcessor {
+
+    private static final Log log = LogFactory.getLog(NegativeCachedBinaryMetadataProcessor.class);
+
+    protected final BinaryMetadataProcessor processor;
+
+    protected final String processorId;
+
+    protected final MetadataNegativeCache cache;
+
+    public NegativeCachedBinaryMetadataProcessor(BinaryMetadataProcessor processor, String processorId,
+            MetadataNegativeCache cache) {
+        this.processor = processor;
+        this.processorId = processorId;
+        this.cache = cache;
+    }
+
+    @Override
+    public boolean writeMetadata(Blob blob, Map<String, Object> metadata, boolean ignorePrefix) {
+        String digest = CachedBinaryMetadataProcessor.getDigest(blob);
+        try {
+            return processor.writeMetadata(blob, metadata, ignorePrefix);
+        } finally {
+            if (digest != null) {
+                cache.invalidate(digest);
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Object> readMetadata(Blob blob, List<String> metadata, boolean ignorePrefix) {
+        String digest = CachedBinaryMetadataProcessor.getDigest(blob);
+        if (digest == null) {
+            return processor.readMetadata(blob, metadata, ignorePrefix);
+        }
+        checkFailure(digest);
+        if (cache.isEmpty(digest, processorId, metadata, ignorePrefix)) {
+            return new LinkedHashMap<>();
+        }
+        try {
+            Map<String, Object> result = processor.readMetadata(blob, metadata, ignorePrefix);
+            putIfEmpty(digest, metadata, ignorePrefix, result);
+            return result;
+        } catch (BinaryMetadataException e) {
+            putFailure(digest, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public Map<String, Object> readMetadata(Blob blob, boolean ignorePrefix) {
+        String digest = CachedBinaryMetadataProcessor.getDigest(blob);
+        if (digest == null) {
+            return processor.readMetadata(blob, ignorePrefix);
+        }
+        checkFailure(digest);
+        if (cache.isEmpty(digest, processorId, null, ignorePrefix)) {
+            return new LinkedHashMap<>();
+        }
+        try {
+            Map<String, Object> result = processor.readMetadata(blob, ignorePrefix);
+            putIfEmpty(digest, null, ignorePrefix, result);
+            return result;
+        } catch (BinaryMetadataException e) {
+            putFailure(digest, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the blobs not known to give an empty result in one call. The failures are neither thrown again nor kept, as
+     * the failure of a batch cannot be attributed to one of its blobs.
+     */
+    @Override
+    public List<Map<String, Object>> readMetadata(List<Blob> blobs, List<String> metadata, boolean ignorePrefix) {
+        List<Map<String, Object>> results = new ArrayList<>(blobs.size());
+        List<Blob> missing = new ArrayList<>();
+        List<Integer> missingIndexes = new ArrayList<>();
+        for (Blob blob : blobs) {
+            String digest = CachedBinaryMetadataProcessor.getDigest(blob);
+            if (digest != null && cache.isEmpty(digest, processorId, metadata, ignorePrefix)) {
+                results.add(new LinkedHashMap<String, Object>());
+            } else {
+                missing.add(blob);
+                missingIndexes.add(Integer.valueOf(results.size()));
+                results.add(null);
+            }
+        }
+        if (!missing.isEmpty()) {
+            List<Map<String, Object>> read = processor.readMetadata(missing, metadata, ignorePrefix);
+            for (int i = 0; i < missing.size(); i++) {
+                Map<String, Object> result = read.get(i);
+                results.set(missingIndexes.get(i).intValue(), result);
+                String digest = CachedBinaryMetadataProcessor.getDigest(missing.get(i));
+                if (digest != null) {
+                    putIfEmpty(digest, metadata, ignorePrefix, result);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @throws InvalidBinaryException The failure of the processor for the binary, if any.
+     */
+    protected void checkFailure(String digest) {
+        String failure = cache.getFailure(digest, processorId);
+        if (failure != null) {
+            throw new InvalidBinaryException(failure);
+        }
+    }
+
+    protected void putIfEmpty(String digest, List<String> metadata, boolean ignorePrefix, Map<String, Object> result) {
+        if (result == null || result.isEmpty()) {
+            cache.putEmpty(digest, processorId, metadata, ignorePrefix);
+        }
+    }
+
+    protected void putFailure(String digest, BinaryMetadataException e) {
+        if (!(e instanceof InvalidBinaryException)) {
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Processor " + processorId + " failed for " + digest + ", not retried for a while", e);
+        }
+        cache.putFailure(digest, processorId, e.getMessage());
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+import org.nuxeo.binary.metadata.internals.readers.PdfReader;
+import org.nuxeo.binary.metadata.internals.readers.TagValues;
+
+/**
+ * Reads the document information, language, page count and XMP metadata of PDF files. The file is memory-mapped and
+ * only the cross-reference sections and the objects holding these metadata are parsed. Encrypted files go to the
+ * fallback processor.
+ *
+ * @since 7.3
+ */
+public class PdfMetadataProcessor extends NativeMetadataProcessor {
+
+    protected static final String FILE = "File";
+
+    @Override
+    protected boolean readTags(FileChannel channel, Map<String, Object> tags) throws IOException {
+        long size = channel.size();
+        if (size < 16 || size > Integer.MAX_VALUE || !PdfReader.isPdf(TagValues.read(channel, 0, 8))) {
+            return false;
+        }
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        PdfReader reader = new PdfReader(buffer);
+        reader.readCrossReferences();
+        if (reader.isEncrypted()) {
+            return false;
+        }
+        TagValues.put(tags, FILE, "FileType", "PDF");
+        TagValues.put(tags, FILE, "FileTypeExtension", "pdf");
+        TagValues.put(tags, FILE, "MIMEType", "application/pdf");
+        reader.read(tags);
+        return true;
+    }
+
+}
@@ -0,0 +1,331 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.nuxeo.binary.metadata.internals.readers.IptcReader;
+import org.nuxeo.binary.metadata.internals.readers.TagValues;
+import org.nuxeo.binary.metadata.internals.readers.TiffReader;
+import org.nuxeo.binary.metadata.internals.readers.XmpReader;
+
+/**
+ * Reads the header, textual and EXIF chunks of PNG files. Only the chunk headers are read for the image data chunks,
+ * which are skipped, and only the compressed textual chunks are inflated.
+ *
+ * @since 7.3
+ */
+public class PngMetadataProcessor extends NativeMetadataProcessor {
+
+    protected static final String FILE = "File";
+
+    protected static final String PNG = "PNG";
+
+    protected static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+
+    protected static final byte[] EXIF_HEADER = "Exif\0\0".getBytes(StandardCharsets.ISO_8859_1);
+
+    protected static final String XMP_KEYWORD = "XML:com.adobe.xmp";
+
+    protected static final String RAW_PROFILE_KEYWORD = "Raw profile type ";
+
+    /**
+     * Maximum size of an inflated textual chunk.
+     */
+    protected static final int MAX_TEXT_LENGTH = 16 * 1024 * 1024;
+
+    protected static final String[] COLOR_TYPES = { "Grayscale", null, "RGB", "Palette", "Grayscale with Alpha",
+            null, "RGB with Alpha" };
+
+    protected static final String[] RENDERING_INTENTS = { "Perceptual", "Relative Colorimetric", "Saturation",
+            "Absolute Colorimetric" };
+
+    /**
+     * ExifTool names of the textual keywords which are not named after the keyword.
+     */
+    protected static final Map<String, String> KEYWORDS = new HashMap<>();
+
+    static {
+        KEYWORDS.put("Creation Time", "CreationTime");
+        KEYWORDS.put("create-date", "CreateDate");
+        KEYWORDS.put("modify-date", "ModDate");
+    }
+
+    @Override
+    protected boolean readTags(FileChannel channel, Map<String, Object> tags) throws IOException {
+        long size = channel.size();
+        if (size < SIGNATURE.length + 8
+                || !JpegMetadataProcessor.startsWith(TagValues.read(channel, 0, SIGNATURE.length), SIGNATURE)) {
+            return false;
+        }
+        Map<String, Object> file = new LinkedHashMap<>();
+        TagValues.put(file, FILE, "FileType", "PNG");
+        TagValues.put(file, FILE, "FileTypeExtension", "png");
+        TagValues.put(file, FILE, "MIMEType", "image/png");
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        long position = SIGNATURE.length;
+        while (position + 8 <= size) {
+            ByteBuffer header = TagValues.read(channel, position, 8);
+            long length = header.getInt(0) & 0xffffffffL;
+            String type = new String(header.array(), 4, 4, StandardCharsets.ISO_8859_1);
+            if (position + 12 + length > size) {
+                throw new IllegalStateException("Truncated PNG chunk " + type);
+            }
+            if ("IEND".equals(type)) {
+                break;
+            } else if (!"IDAT".equals(type)) {
+                readChunk(channel, type, position + 8, (int) length, metadata);
+            }
+            // the data and CRC are skipped
+            position += 12 + length;
+        }
+        tags.putAll(file);
+        tags.putAll(metadata);
+        TagValues.putImageSize(tags, tags.get("PNG:ImageWidth"), tags.get("PNG:ImageHeight"));
+        return true;
+    }
+
+    protected void readChunk(FileChannel channel, String type, long position, int length, Map<String, Object> tags)
+            throws IOException {
+        switch (type) {
+        case "IHDR":
+            if (length >= 13) {
+                readHeader(TagValues.read(channel, position, 13), tags);
+            }
+            break;
+        case "tEXt": {
+            byte[] data = TagValues.read(channel, position, length).array();
+            int nul = indexOf(data, 0);
+            if (nul > 0) {
+                readText(getString(data, 0, nul), null, getString(data, nul + 1, data.length), tags);
+            }
+            break;
+        }
+        case "zTXt": {
+            byte[] data = TagValues.read(channel, position, length).array();
+            int nul = indexOf(data, 0);
+            if (nul > 0 && nul + 2 <= data.length) {
+                byte[] text = TagValues.inflate(Arrays.copyOfRange(data, nul + 2, data.length), MAX_TEXT_LENGTH);
+                readText(getString(data, 0, nul), null, getString(text, 0, text.length), tags);
+            }
+            break;
+        }
+        case "iTXt":
+            readInternationalText(TagValues.read(channel, position, length).array(), tags);
+            break;
+        case "eXIf":
+            readExif(TagValues.read(channel, position, length), tags);
+            break;
+        case "pHYs":
+            if (length >= 9) {
+                ByteBuffer data = TagValues.read(channel, position, 9);
+                TagValues.put(tags, PNG, "PixelsPerUnitX",
+                        TagValues.toJson(Long.toString(data.getInt(0) & 0xffffffffL)));
+                TagValues.put(tags, PNG, "PixelsPerUnitY",
+                        TagValues.toJson(Long.toString(data.getInt(4) & 0xffffffffL)));
+                int unit = data.get(8) & 0xff;
+                TagValues.put(tags, PNG, "PixelUnits", unit == 0 ? "Unknown" : unit == 1 ? "meters" : "Unknown ("
+                        + unit + ")");
+            }
+            break;
+        case "gAMA":
+            if (length >= 4) {
+                double gamma = (TagValues.read(channel, position, 4).getInt(0) & 0xffffffffL) / 100000.0;
+                if (gamma != 0) {
+                    TagValues.put(tags, PNG, "Gamma",
+                            TagValues.toJson(TagValues.formatNumber(Math.floor(1 / gamma * 1e6 + 0.5) / 1e6)));
+                }
+            }
+            break;
+        case "sRGB":
+            if (length >= 1) {
+                int intent = TagValues.read(channel, position, 1).get(0) & 0xff;
+                TagValues.put(tags, PNG, "SRGBRendering",
+                        intent < RENDERING_INTENTS.length ? RENDERING_INTENTS[intent] : "Unknown (" + intent + ")");
+            }
+            break;
+        case "tIME":
+            if (length >= 7) {
+                ByteBuffer data = TagValues.read(channel, position, 7);
+                TagValues.put(tags, PNG, "ModifyDate", TagValues.format("%04d:%02d:%02d %02d:%02d:%02d",
+                        data.getShort(0) & 0xffff, data.get(2) & 0xff, data.get(3) & 0xff, data.get(4) & 0xff,
+                        data.get(5) & 0xff, data.get(6) & 0xff));
+            }
+            break;
+        case "iCCP": {
+            byte[] data = TagValues.read(channel, position, Math.min(length, 80)).array();
+            int nul = indexOf(data, 0);
+            if (nul > 0) {
+                TagValues.put(tags, PNG, "ProfileName", getString(data, 0, nul));
+            }
+            break;
+        }
+        default:
+            // other chunks hold no metadata
+        }
+    }
+
+    protected void readHeader(ByteBuffer data, Map<String, Object> tags) {
+        TagValues.put(tags, PNG, "ImageWidth", Integer.valueOf(data.getInt(0)));
+        TagValues.put(tags, PNG, "ImageHeight", Integer.valueOf(data.getInt(4)));
+        TagValues.put(tags, PNG, "BitDepth", Integer.valueOf(data.get(8) & 0xff));
+        int colorType = data.get(9) & 0xff;
+        String label = colorType < COLOR_TYPES.length ? COLOR_TYPES[colorType] : null;
+        TagValues.put(tags, PNG, "ColorType", label != null ? label : "Unknown (" + colorType + ")");
+        int compression = data.get(10) & 0xff;
+        TagValues.put(tags, PNG, "Compression", compression == 0 ? "Deflate/Inflate" : "Unknown (" + compression
+                + ")");
+        int filter = data.get(11) & 0xff;
+        TagValues.put(tags, PNG, "Filter", filter == 0 ? "Adaptive" : "Unknown (" + filter + ")");
+        int interlace = data.get(12) & 0xff;
+        TagValues.put(tags, PNG, "Interlace", interlace == 0 ? "Noninterlaced" : interlace == 1 ? "Adam7 Interlace"
+                : "Unknown (" + interlace + ")");
+    }
+
+    /**
+     * Reads an iTXt chunk: keyword, compression flag and method, language, translated keyword and UTF-8 text.
+     */
+    protected void readInternationalText(byte[] data, Map<String, Object> tags) {
+        int keywordEnd = indexOf(data, 0);
+        if (keywordEnd <= 0 || keywordEnd + 3 > data.length) {
+            return;
+        }
+        boolean compressed = data[keywordEnd + 1] != 0;
+        int languageEnd = indexOf(data, keywordEnd + 3);
+        int translatedEnd = languageEnd < 0 ? -1 : indexOf(data, languageEnd + 1);
+        if (translatedEnd < 0) {
+            return;
+        }
+        byte[] text = Arrays.copyOfRange(data, translatedEnd + 1, data.length);
+        if (compressed) {
+            text = TagValues.inflate(text, MAX_TEXT_LENGTH);
+        }
+        String language = getString(data, keywordEnd + 3, languageEnd);
+        readText(getString(data, 0, keywordEnd), language, new String(text, StandardCharsets.UTF_8), tags);
+    }
+
+    protected void readText(String keyword, String language, String text, Map<String, Object> tags) {
+        if (XMP_KEYWORD.equals(keyword)) {
+            try {
+                XmpReader.read(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), tags);
+            } catch (XMLStreamException e) {
+                throw new IllegalArgumentException("Invalid XMP packet", e);
+            }
+            return;
+        } else if (keyword.startsWith(RAW_PROFILE_KEYWORD)) {
+            readRawProfile(keyword.substring(RAW_PROFILE_KEYWORD.length()), text, tags);
+            return;
+        }
+        String name = KEYWORDS.get(keyword);
+        if (name == null) {
+            StringBuilder sb = new StringBuilder(keyword.length());
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = keyword.charAt(i);
+                if (Character.isLetterOrDigit(c) || c == '-' || c == '_') {
+                    sb.append(sb.length() == 0 ? Character.toUpperCase(c) : c);
+                }
+            }
+            if (sb.length() == 0) {
+                return;
+            }
+            name = sb.toString();
+        }
+        if (language != null && !language.isEmpty() && !"x-default".equalsIgnoreCase(language)) {
+            name = name + "-" + language;
+        }
+        TagValues.put(tags, PNG, name, TagValues.toJson(text));
+    }
+
+    /**
+     * Reads the hex encoded profiles written by ImageMagick: a line with the profile type, a line with the length and
+     * the hex digits.
+     */
+    protected void readRawProfile(String type, String text, Map<String, Object> tags) {
+        String[] lines = text.trim().split("\\s+", 3);
+        if (lines.length < 3) {
+            return;
+        }
+        int length;
+        try {
+            length = Integer.parseInt(lines[1]);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        String hex = lines[2].replaceAll("\\s", "");
+        if (length < 0 || hex.length() < 2 * length) {
+            return;
+        }
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        if ("exif".equalsIgnoreCase(type) || "APP1".equals(type)) {
+            readExif(ByteBuffer.wrap(data), tags);
+        } else if ("xmp".equalsIgnoreCase(type)) {
+            try {
+                XmpReader.read(ByteBuffer.wrap(data), tags);
+            } catch (XMLStreamException e) {
+                throw new IllegalArgumentException("Invalid XMP packet", e);
+            }
+        } else if ("iptc".equalsIgnoreCase(type) || "8bim".equalsIgnoreCase(type)) {
+            readIptc(ByteBuffer.wrap(data), tags);
+        }
+    }
+
+    /**
+     * Reads a Photoshop image resource block, or the bare IIM datasets some writers store instead.
+     */
+    protected void readIptc(ByteBuffer data, Map<String, Object> tags) {
+        if (JpegMetadataProcessor.startsWith(data, IptcMetadataProcessor.RESOURCE_SIGNATURE)) {
+            IptcReader.readResources(data, tags);
+        } else {
+            IptcReader.read(data, tags);
+        }
+    }
+
+    protected void readExif(ByteBuffer data, Map<String, Object> tags) {
+        if (JpegMetadataProcessor.startsWith(data, EXIF_HEADER)) {
+            data.position(EXIF_HEADER.length);
+        }
+        if (TiffReader.isTiff(data)) {
+            new TiffReader(data).read(tags);
+        }
+    }
+
+    protected static int indexOf(byte[] data, int from) {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    protected static String getString(byte[] data, int from, int to) {
+        return new String(data, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Kills a process which is still running after a timeout. The watch must be closed once the process has completed.
+ *
+ * @since 7.3
+ */
+public class ProcessWatchdog implements AutoCloseable {
+
+    protected static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("binary-metadata-watchdog-%d").setDaemon(true).build());
+
+    protected final Process process;
+
+    protected ScheduledFuture<?> future;
+
+    protected volatile boolean expired;
+
+    protected ProcessWatchdog(Process process) {
+        this.process = process;
+    }
+
+    /**
+     * @param timeoutMillis Timeout in milliseconds, the process is not watched if not positive.
+     */
+    public static ProcessWatchdog watch(Process process, long timeoutMillis) {
+        final ProcessWatchdog watchdog = new ProcessWatchdog(process);
+        if (timeoutMillis > 0) {
+            watchdog.future = timer.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    watchdog.expire();
+                }
+
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        return watchdog;
+    }
+
+    protected void expire() {
+        expired = true;
+        process.destroyForcibly();
+    }
+
+    /**
+     * @return {@code true} if the process was killed because of the timeout.
+     */
+    public boolean isExpired() {
+        return expired;
+    }
+
+    @Override
+    public void close() {
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+}
@@ -0,0 +1,33 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+/**
+ * The processor call was killed after the processor timeout: a sign that the processor is overloaded rather than of a
+ * bad blob.
+ *
+ * @since 7.3
+ */
+public class ProcessorTimeoutException extends ProcessorUnavailableException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ProcessorTimeoutException(String message) {
+        super(message);
+    }
+
+}
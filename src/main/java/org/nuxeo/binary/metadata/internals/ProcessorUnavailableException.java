@@ -0,0 +1,38 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import org.nuxeo.binary.metadata.api.BinaryMetadataException;
+
+/**
+ * The processor could not be called, for lack of command, worker or slot: the failure says nothing about the blob.
+ *
+ * @since 7.3
+ */
+public class ProcessorUnavailableException extends BinaryMetadataException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ProcessorUnavailableException(String message) {
+        super(message);
+    }
+
+    public ProcessorUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Per MIME type policy of the byte ranges holding the metadata of a binary, contributed as processor parameters:
+ *
+ * <pre>
+ * &lt;parameter name="range.image/jpeg"&gt;512k,64k&lt;/parameter&gt;
+ * &lt;parameter name="range.audio/*"&gt;256k,128&lt;/parameter&gt;
+ * </pre>
+ *
+ * The value is the size of the head range followed by the size of the tail range, in bytes or with a 'k' or 'm'
+ * suffix. Only these ranges are fetched through a {@link org.nuxeo.binary.metadata.api.BlobRangeReader} and copied into
+ * a sparse local file having the size of the binary.
+ *
+ * @since 7.3
+ */
+public class RangedReadPolicy {
+
+    private static final Log log = LogFactory.getLog(RangedReadPolicy.class);
+
+    public static final String RANGE_PARAMETER_PREFIX = "range.";
+
+    protected final Map<String, Range> ranges = new HashMap<>();
+
+    protected final AtomicLong rangedReads = new AtomicLong();
+
+    protected final AtomicLong fallbacks = new AtomicLong();
+
+    public RangedReadPolicy(Map<String, String> parameters) {
+        for (Map.Entry<String, String> entry : parameters.entrySet()) {
+            if (!entry.getKey().startsWith(RANGE_PARAMETER_PREFIX)) {
+                continue;
+            }
+            String mimeType = entry.getKey().substring(RANGE_PARAMETER_PREFIX.length()).toLowerCase(Locale.ENGLISH);
+            try {
+                String[] sizes = entry.getValue().split(",");
+                long head = parseSize(sizes[0]);
+                long tail = sizes.length > 1 ? parseSize(sizes[1]) : 0;
+                ranges.put(mimeType, new Range(head, tail));
+            } catch (IllegalArgumentException e) {
+                log.warn("Invalid range '" + entry.getValue() + "' for MIME type " + mimeType, e);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return ranges.isEmpty();
+    }
+
+    /**
+     * Counts a read served from the ranges.
+     */
+    public void rangedRead() {
+        rangedReads.incrementAndGet();
+    }
+
+    /**
+     * Counts a ranged read which could not be served from the ranges, the full binary being read.
+     */
+    public void fallback() {
+        fallbacks.incrementAndGet();
+    }
+
+    public long getRangedReads() {
+        return rangedReads.get();
+    }
+
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    /**
+     * @return The range for the given MIME type, or its 'type/*' wildcard, or {@code null}.
+     */
+    public Range getRange(String mimeType) {
+        if (StringUtils.isBlank(mimeType)) {
+            return null;
+        }
+        String type = mimeType.toLowerCase(Locale.ENGLISH);
+        int parameters = type.indexOf(';');
+        if (parameters > 0) {
+            type = type.substring(0, parameters).trim();
+        }
+        Range range = ranges.get(type);
+        if (range == null && type.indexOf('/') > 0) {
+            range = ranges.get(type.substring(0, type.indexOf('/')) + "/*");
+        }
+        return range;
+    }
+
+    protected static long parseSize(String value) {
+        String size = value.trim().toLowerCase(Locale.ENGLISH);
+        long unit = 1;
+        if (size.endsWith("k")) {
+            unit = 1024;
+        } else if (size.endsWith("m")) {
+            unit = 1024 * 1024;
+        }
+        if (unit > 1) {
+            size = size.substring(0, size.length() - 1).trim();
+        }
+        return Long.parseLong(size) * unit;
+    }
+
+    /**
+     * Head and tail sizes of a binary.
+     */
+    public static class Range {
+
+        protected final long head;
+
+        protected final long tail;
+
+        public Range(long head, long tail) {
+            this.head = head;
+            this.tail = tail;
+        }
+
+        public long getHead() {
+            return head;
+        }
+
+        public long getTail() {
+            return tail;
+        }
+
+        /**
+         * @return {@code true} if the ranges leave a gap in a binary of the given size.
+         */
+        public boolean isPartial(long size) {
+            return head + tail < size;
+        }
+
+        /**
+         * Writes the head and tail ranges of the source into the given file, leaving the rest of the file as a hole.
+         * Only the bytes of the ranges are read from the source.
+         *
+         * @param source Binary channel.
+         * @param size Binary size.
+         * @param target File to write.
+         */
+        public void copyTo(SeekableByteChannel source, long size, File target) throws IOException {
+            try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE, StandardOpenOption.SPARSE)) {
+                // give the view the size of the binary first
+                out.write(ByteBuffer.wrap(new byte[1]), size - 1);
+                long headSize = Math.min(head, size);
+                copy(source, 0, headSize, out);
+                long tailStart = Math.max(head, size - tail);
+                copy(source, tailStart, size - tailStart, out);
+            }
+        }
+
+        protected void copy(SeekableByteChannel source, long position, long count, FileChannel out)
+                throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, 64 * 1024));
+            source.position(position);
+            long copied = 0;
+            while (copied < count) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), count - copied));
+                int n = source.read(buffer);
+                if (n < 0) {
+                    throw new EOFException("Binary shorter than its length: " + (position + copied));
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer, position + copied + buffer.position());
+                }
+                copied += n;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Range [head=" + head + ", tail=" + tail + "]";
+        }
+    }
+
+}
@@ -0,0 +1,335 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.binary.metadata.api.BinaryMetadataConstants;
+import org.nuxeo.binary.metadata.api.BinaryMetadataException;
+import org.nuxeo.binary.metadata.api.BinaryMetadataProcessor;
+import org.nuxeo.binary.metadata.api.BinaryMetadataService;
+import org.nuxeo.binary.metadata.api.ConfigurableBinaryMetadataProcessor;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.runtime.metrics.MetricsService;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+
+/**
+ * Processor delegating each blob to the processor routed for its MIME type, such as the processors reading the
+ * metadata in the JVM, and the other blobs and the writes to a default processor.
+ * <p>
+ * The routes are given by the {@code route.<processor id>} parameters, listing the MIME types of the processor, such
+ * as {@code image/jpeg, image/tiff} or {@code image/*}. The blobs without MIME type, or with a generic one, are routed
+ * on the magic bytes of their content. The tags requested explicitly and missing from the result of a route are read
+ * through the {@value #DEFAULT_PARAMETER} processor, {@value BinaryMetadataConstants#EXIF_TOOL_CONTRIBUTION_ID} by
+ * default.
+ * <p>
+ * The hits and fallbacks of each route are counted by the {@code routing.<processor id>.hits} and
+ * {@code routing.<processor id>.fallbacks} metrics.
+ *
+ * @since 7.3
+ */
+public class RoutingMetadataProcessor implements ConfigurableBinaryMetadataProcessor {
+
+    private static final Log log = LogFactory.getLog(RoutingMetadataProcessor.class);
+
+    public static final String ROUTE_PARAMETER_PREFIX = "route.";
+
+    public static final String DEFAULT_PARAMETER = "default";
+
+    protected static final String GENERIC_MIME_TYPE = "application/octet-stream";
+
+    protected static final int SNIFF_LENGTH = 8;
+
+    protected static final Set<String> ALL_TAGS = new HashSet<>(Arrays.asList("all", "*"));
+
+    protected String defaultProcessor = BinaryMetadataConstants.EXIF_TOOL_CONTRIBUTION_ID;
+
+    /**
+     * Processor id by MIME type, the wildcards being registered by main type, such as {@code image/*}.
+     */
+    protected final Map<String, String> routes = new HashMap<>();
+
+    protected final Map<String, Counter> hits = new HashMap<>();
+
+    protected final Map<String, Counter> fallbacks = new HashMap<>();
+
+    @Override
+    public void init(Map<String, String> parameters) {
+        MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            String name = parameter.getKey();
+            if (DEFAULT_PARAMETER.equals(name) && StringUtils.isNotBlank(parameter.getValue())) {
+                defaultProcessor = parameter.getValue().trim();
+            } else if (name.startsWith(ROUTE_PARAMETER_PREFIX)) {
+                String processorId = name.substring(ROUTE_PARAMETER_PREFIX.length());
+                for (String mimeType : StringUtils.split(parameter.getValue(), ", \t\r\n")) {
+                    routes.put(mimeType.toLowerCase(Locale.ENGLISH), processorId);
+                }
+                hits.put(processorId, registry.counter(getMetricName(processorId, "hits")));
+                fallbacks.put(processorId, registry.counter(getMetricName(processorId, "fallbacks")));
+            }
+        }
+        hits.put(defaultProcessor, registry.counter(getMetricName(defaultProcessor, "hits")));
+    }
+
+    @Override
+    public void release() {
+    }
+
+    protected static String getMetricName(String processorId, String name) {
+        return MetricRegistry.name(BinaryMetadataService.class, "routing", processorId, name);
+    }
+
+    /**
+     * @return The number of blobs read through each route, the default processor included.
+     */
+    public Map<String, Long> getHits() {
+        Map<String, Long> counts = new HashMap<>();
+        for (Map.Entry<String, Counter> entry : hits.entrySet()) {
+            counts.put(entry.getKey(), Long.valueOf(entry.getValue().getCount()));
+        }
+        return counts;
+    }
+
+    /**
+     * @return The number of blobs for which some requested tags were read through the default processor, by route.
+     */
+    public Map<String, Long> getFallbacks() {
+        Map<String, Long> counts = new HashMap<>();
+        for (Map.Entry<String, Counter> entry : fallbacks.entrySet()) {
+            counts.put(entry.getKey(), Long.valueOf(entry.getValue().getCount()));
+        }
+        return counts;
+    }
+
+    @Override
+    public boolean writeMetadata(Blob blob, Map<String, Object> metadata, boolean ignorePrefix) {
+        return getProcessor(defaultProcessor).writeMetadata(blob, metadata, ignorePrefix);
+    }
+
+    @Override
+    public Map<String, Object> readMetadata(Blob blob, List<String> metadata, boolean ignorePrefix) {
+        String route = getRoute(blob);
+        hits.get(route).inc();
+        Map<String, Object> result = getProcessor(route).readMetadata(blob, metadata, ignorePrefix);
+        return complete(route, blob, result, metadata, ignorePrefix);
+    }
+
+    @Override
+    public Map<String, Object> readMetadata(Blob blob, boolean ignorePrefix) {
+        String route = getRoute(blob);
+        hits.get(route).inc();
+        return getProcessor(route).readMetadata(blob, ignorePrefix);
+    }
+
+    /**
+     * Reads the blobs of each route together, so that the default processor reads its blobs in one batch.
+     */
+    @Override
+    public List<Map<String, Object>> readMetadata(List<Blob> blobs, List<String> metadata, boolean ignorePrefix) {
+        Map<String, List<Integer>> indexesByRoute = new LinkedHashMap<>();
+        for (int i = 0; i < blobs.size(); i++) {
+            String route = getRoute(blobs.get(i));
+            List<Integer> indexes = indexesByRoute.get(route);
+            if (indexes == null) {
+                indexes = new ArrayList<>();
+                indexesByRoute.put(route, indexes);
+            }
+            indexes.add(Integer.valueOf(i));
+        }
+        List<Map<String, Object>> results = new ArrayList<>(Collections.nCopies(blobs.size(),
+                (Map<String, Object>) null));
+        for (Map.Entry<String, List<Integer>> entry : indexesByRoute.entrySet()) {
+            String route = entry.getKey();
+            List<Blob> routeBlobs = new ArrayList<>(entry.getValue().size());
+            for (Integer index : entry.getValue()) {
+                routeBlobs.add(blobs.get(index.intValue()));
+            }
+            hits.get(route).inc(routeBlobs.size());
+            List<Map<String, Object>> routeResults = getProcessor(route).readMetadata(routeBlobs, metadata,
+                    ignorePrefix);
+            for (int i = 0; i < routeBlobs.size(); i++) {
+                results.set(entry.getValue().get(i).intValue(),
+                        complete(route, routeBlobs.get(i), routeResults.get(i), metadata, ignorePrefix));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Reads the requested tags missing from the result of a route through the default processor.
+     */
+    protected Map<String, Object> complete(String route, Blob blob, Map<String, Object> result,
+            List<String> metadata, boolean ignorePrefix) {
+        if (route.equals(defaultProcessor) || metadata == null) {
+            return result;
+        }
+        List<String> missing = getMissingTags(result, metadata);
+        if (missing.isEmpty()) {
+            return result;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Reading " + missing + " of " + blob.getFilename() + " through " + defaultProcessor);
+        }
+        fallbacks.get(route).inc();
+        Map<String, Object> completed = new LinkedHashMap<>(result);
+        for (Map.Entry<String, Object> entry : getProcessor(defaultProcessor).readMetadata(blob, missing,
+                ignorePrefix).entrySet()) {
+            if (!completed.containsKey(entry.getKey())) {
+                completed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * @return The requested tags which are not in the result, the tags requested through a wildcard being considered
+     *         as found.
+     */
+    protected static List<String> getMissingTags(Map<String, Object> result, List<String> metadata) {
+        Set<String> keys = new HashSet<>();
+        for (String key : result.keySet()) {
+            keys.add(key.toLowerCase(Locale.ENGLISH));
+        }
+        List<String> missing = new ArrayList<>();
+        for (String tag : metadata) {
+            String lower = tag.toLowerCase(Locale.ENGLISH);
+            int colon = lower.lastIndexOf(':');
+            String name = lower.substring(colon + 1);
+            String group = colon < 0 ? null : lower.substring(0, colon);
+            if (ALL_TAGS.contains(name)) {
+                continue;
+            }
+            if (!isGroupFound(keys, group == null || ALL_TAGS.contains(group) ? null : group, name)) {
+                missing.add(tag);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * @return {@code true} if a key has the name, with a group which is the requested one or its family 0 group (such
+     *         as {@code XMP} for {@code XMP-dc}), or with any group if none is requested.
+     */
+    protected static boolean isGroupFound(Set<String> keys, String group, String name) {
+        for (String key : keys) {
+            int colon = key.indexOf(':');
+            if (!key.substring(colon + 1).equals(name)) {
+                continue;
+            }
+            if (group == null || colon < 0 || group.startsWith(key.substring(0, colon))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The id of the processor routed for the MIME type of the blob, or for its magic bytes.
+     */
+    protected String getRoute(Blob blob) {
+        if (blob == null) {
+            throw new BinaryMetadataException("Cannot read the metadata of a null blob");
+        }
+        String mimeType = blob.getMimeType();
+        if (StringUtils.isBlank(mimeType) || GENERIC_MIME_TYPE.equalsIgnoreCase(mimeType.trim())) {
+            mimeType = sniffMimeType(blob);
+        }
+        String route = null;
+        if (mimeType != null) {
+            mimeType = mimeType.toLowerCase(Locale.ENGLISH);
+            int semicolon = mimeType.indexOf(';');
+            if (semicolon >= 0) {
+                mimeType = mimeType.substring(0, semicolon);
+            }
+            mimeType = mimeType.trim();
+            route = routes.get(mimeType);
+            if (route == null && mimeType.indexOf('/') > 0) {
+                route = routes.get(mimeType.substring(0, mimeType.indexOf('/')) + "/*");
+            }
+        }
+        return route == null ? defaultProcessor : route;
+    }
+
+    /**
+     * @return The MIME type of the formats read in the JVM, recognized from the first bytes of the blob, {@code null}
+     *         for the other formats.
+     */
+    protected String sniffMimeType(Blob blob) {
+        byte[] head = new byte[SNIFF_LENGTH];
+        int length = 0;
+        try (InputStream in = blob.getStream()) {
+            int count;
+            while (length < head.length && (count = in.read(head, length, head.length - length)) > 0) {
+                length += count;
+            }
+        } catch (IOException e) {
+            throw new BinaryMetadataException(e);
+        }
+        return sniffMimeType(head, length);
+    }
+
+    protected static String sniffMimeType(byte[] head, int length) {
+        if (length >= 3 && (head[0] & 0xff) == 0xff && (head[1] & 0xff) == 0xd8 && (head[2] & 0xff) == 0xff) {
+            return "image/jpeg";
+        } else if (length >= 8 && (head[0] & 0xff) == 0x89 && head[1] == 'P' && head[2] == 'N' && head[3] == 'G') {
+            return "image/png";
+        } else if (length >= 5 && head[0] == '%' && head[1] == 'P' && head[2] == 'D' && head[3] == 'F'
+                && head[4] == '-') {
+            return "application/pdf";
+        } else if (length >= 4 && ((head[0] == 'I' && head[1] == 'I' && head[2] == 42 && head[3] == 0)
+                || (head[0] == 'M' && head[1] == 'M' && head[2] == 0 && head[3] == 42))) {
+            return "image/tiff";
+        } else if (length >= 3 && head[0] == 'I' && head[1] == 'D' && head[2] == '3') {
+            return "audio/mpeg";
+        } else if (length >= 2 && (head[0] & 0xff) == 0xff && (head[1] & 0xe0) == 0xe0 && (head[1] & 0x06) != 0) {
+            return "audio/mpeg";
+        }
+        return null;
+    }
+
+    protected BinaryMetadataProcessor getProcessor(String processorId) {
+        if (BinaryMetadataComponent.self.processorRegistry.getProcessor(processorId) == this) {
+            throw new BinaryMetadataException("Invalid routed processor: " + processorId);
+        }
+        // the routed calls go through the limiter and the caches of the processor serving them
+        BinaryMetadataProcessor processor = BinaryMetadataComponent.self.metadataServiceImpl.getDelegatedProcessor(
+                processorId);
+        if (processor == null) {
+            throw new BinaryMetadataException("Unknown routed processor: " + processorId);
+        }
+        return processor;
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps the number of concurrent subprocesses of a processor, with separate fair quotas for interactive calls (sync
+ * listener, operations) and for background calls made by {@link BinaryMetadataWork}, so that background work never
+ * takes the permits of interactive calls.
+ *
+ * @since 7.3
+ */
+public class SubprocessLimiter {
+
+    protected static final ThreadLocal<Boolean> BACKGROUND = new ThreadLocal<>();
+
+    protected final Semaphore interactive;
+
+    protected final Semaphore background;
+
+    protected final long waitMillis;
+
+    /**
+     * @param waitMillis Maximum time to wait for a permit, forever if not positive.
+     */
+    public SubprocessLimiter(int maxInteractive, int maxBackground, long waitMillis) {
+        interactive = new Semaphore(Math.max(1, maxInteractive), true);
+        background = new Semaphore(Math.max(1, maxBackground), true);
+        this.waitMillis = waitMillis;
+    }
+
+    /**
+     * Marks the calls made by the current thread as background calls.
+     */
+    public static void setBackground(boolean value) {
+        if (value) {
+            BACKGROUND.set(Boolean.TRUE);
+        } else {
+            BACKGROUND.remove();
+        }
+    }
+
+    public static boolean isBackground() {
+        return BACKGROUND.get() != null;
+    }
+
+    /**
+     * Takes a permit from the quota of the current thread, to be given back with {@link #release(Semaphore)}.
+     *
+     * @return The quota the permit was taken from.
+     */
+    public Semaphore acquire() {
+        Semaphore quota = isBackground() ? background : interactive;
+        try {
+            if (waitMillis <= 0) {
+                quota.acquire();
+            } else if (!quota.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+                throw new ProcessorUnavailableException("No subprocess slot available after " + waitMillis + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessorUnavailableException("Interrupted while waiting for a subprocess slot", e);
+        }
+        return quota;
+    }
+
+    public void release(Semaphore quota) {
+        quota.release();
+    }
+
+    public int getAvailableInteractive() {
+        return interactive.availablePermits();
+    }
+
+    public int getAvailableBackground() {
+        return background.availablePermits();
+    }
+
+}
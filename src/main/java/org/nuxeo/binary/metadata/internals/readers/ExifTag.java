@@ -0,0 +1,280 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals.readers;
+
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * TIFF/EXIF tag definition: the ExifTool tag name and the conversion applied by ExifTool to print the value.
+ *
+ * @since 7.3
+ */
+public class ExifTag {
+
+    public enum Conversion {
+        /** The value itself, or its label if the tag has labels. */
+        NONE,
+        /** Seconds, such as 1/60. */
+        EXPOSURE_TIME,
+        /** Such as 2.8. */
+        F_NUMBER,
+        /** APEX shutter speed, printed as an exposure time. */
+        SHUTTER_SPEED,
+        /** APEX aperture, printed as a f-number. */
+        APERTURE,
+        /** Such as 4.0 mm. */
+        FOCAL_LENGTH,
+        /** Such as 28 mm. */
+        MILLIMETERS,
+        /** Such as +1/3. */
+        FRACTION,
+        /** Such as 1.5 m. */
+        METERS,
+        /** Such as 120.5 m. */
+        ALTITUDE,
+        /** Undefined bytes holding ASCII characters, such as the EXIF version. */
+        ASCII,
+        /** Y, Cb, Cr, - */
+        COMPONENTS,
+        /** 2.2.0.0 */
+        VERSION,
+        /** Such as 48 deg 51' 29.98" */
+        COORDINATE,
+        /** Such as 12:30:05 */
+        TIME,
+        /** Undefined bytes prefixed with their character code. */
+        ENCODED_TEXT,
+        /** UTF-16LE bytes (Windows XP tags). */
+        UCS2_TEXT,
+        /** Such as 24-70mm f/2.8 */
+        LENS_INFO,
+        /** Not extracted, only its length is printed. */
+        BINARY
+    }
+
+    protected static final String[] COMPONENTS = { "-", "Y", "Cb", "Cr", "R", "G", "B" };
+
+    protected static final Charset JIS = Charset.isSupported("Shift_JIS") ? Charset.forName("Shift_JIS")
+            : StandardCharsets.ISO_8859_1;
+
+    protected final int id;
+
+    protected final String name;
+
+    protected final Conversion conversion;
+
+    /**
+     * Labels of the values, {@code null} if the value is printed as is.
+     */
+    protected final Map<String, String> labels;
+
+    public ExifTag(int id, String name, Conversion conversion, Map<String, String> labels) {
+        this.id = id;
+        this.name = name;
+        this.conversion = conversion;
+        this.labels = labels;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The value as printed by ExifTool, {@code null} if the value is not supported.
+     */
+    public String print(TiffValue value) {
+        if (value.getCount() == 0) {
+            return null;
+        }
+        switch (conversion) {
+        case EXPOSURE_TIME:
+            return TagValues.formatExposureTime(first(value));
+        case F_NUMBER:
+            return TagValues.formatFNumber(first(value));
+        case SHUTTER_SPEED:
+            double apex = first(value);
+            return TagValues.formatExposureTime(Math.abs(apex) < 100 ? Math.pow(2, -apex) : 0);
+        case APERTURE:
+            return TagValues.formatFNumber(Math.pow(2, first(value) / 2));
+        case FOCAL_LENGTH:
+            return TagValues.format("%.1f mm", first(value));
+        case MILLIMETERS:
+            return TagValues.formatNumber(first(value)) + " mm";
+        case FRACTION:
+            return TagValues.formatFraction(first(value));
+        case METERS:
+            return withUnit(first(value), " m");
+        case ALTITUDE:
+            double altitude = first(value);
+            return withUnit(Double.isInfinite(altitude) ? altitude : (long) (altitude * 10) / 10.0, " m");
+        case ASCII:
+            return TagValues.trim(new String(value.getBytes(), StandardCharsets.ISO_8859_1));
+        case COMPONENTS:
+            return printComponents(value.getBytes());
+        case VERSION:
+            return value.getNumbersString().replace(' ', '.');
+        case COORDINATE:
+            return printCoordinate(value.getNumbers());
+        case TIME:
+            return printTime(value.getNumbers());
+        case ENCODED_TEXT:
+            return printEncodedText(value.getBytes(), value.getByteOrder());
+        case UCS2_TEXT:
+            return TagValues.trim(new String(value.getBytes(), StandardCharsets.UTF_16LE));
+        case LENS_INFO:
+            return printLensInfo(value.getNumbers());
+        case BINARY:
+            return TagValues.binary((long) value.getCount() * TiffValue.getSize(value.getType()));
+        default:
+            return printValue(value);
+        }
+    }
+
+    protected String printValue(TiffValue value) {
+        String raw;
+        if (value.getType() == TiffValue.ASCII) {
+            raw = value.getString();
+        } else if (value.getType() == TiffValue.UNDEFINED) {
+            if (labels == null) {
+                return null;
+            }
+            raw = Integer.toString(value.getBytes()[0] & 0xff);
+        } else {
+            raw = value.getNumbersString();
+        }
+        if (labels == null) {
+            return raw;
+        }
+        String label = labels.get(raw);
+        return label == null ? "Unknown (" + raw + ")" : label;
+    }
+
+    protected static double first(TiffValue value) {
+        double[] numbers = value.getNumbers();
+        return numbers.length == 0 ? Double.NaN : numbers[0];
+    }
+
+    protected static String withUnit(double value, String unit) {
+        String text = TagValues.formatNumber(value);
+        return Double.isNaN(value) || Double.isInfinite(value) ? text : text + unit;
+    }
+
+    protected static String printComponents(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            int component = b & 0xff;
+            sb.append(component < COMPONENTS.length ? COMPONENTS[component] : Integer.toString(component));
+        }
+        return sb.toString();
+    }
+
+    protected static String printCoordinate(double[] numbers) {
+        double degrees = 0;
+        double divisor = 1;
+        for (double number : numbers) {
+            degrees += number / divisor;
+            divisor *= 60;
+        }
+        return formatDegrees(degrees);
+    }
+
+    /**
+     * ExifTool degrees, minutes and seconds, such as 48 deg 51' 29.98"
+     */
+    public static String formatDegrees(double degrees) {
+        degrees = Math.abs(degrees);
+        long deg = (long) degrees;
+        double minutes = (degrees - deg) * 60;
+        long min = (long) minutes;
+        String sec = TagValues.format("%.2f", (minutes - min) * 60);
+        if (sec.startsWith("60")) {
+            sec = "0.00";
+            if (++min == 60) {
+                min = 0;
+                deg++;
+            }
+        }
+        return deg + " deg " + min + "' " + sec + "\"";
+    }
+
+    protected static String printTime(double[] numbers) {
+        double seconds = 0;
+        for (int i = 0; i < Math.min(3, numbers.length); i++) {
+            seconds = seconds * 60 + numbers[i];
+        }
+        for (int i = numbers.length; i < 3; i++) {
+            seconds *= 60;
+        }
+        long hours = (long) (seconds / 3600);
+        seconds -= hours * 3600;
+        long minutes = (long) (seconds / 60);
+        seconds -= minutes * 60;
+        String sec = TagValues.formatNumber(Math.rint(seconds * 1000000) / 1000000);
+        return TagValues.format("%02d:%02d:", hours, minutes) + (seconds < 10 ? "0" : "") + sec;
+    }
+
+    protected static String printEncodedText(byte[] bytes, ByteOrder order) {
+        if (bytes.length < 8) {
+            return TagValues.trim(new String(bytes, StandardCharsets.ISO_8859_1));
+        }
+        String code = new String(bytes, 0, 8, StandardCharsets.ISO_8859_1);
+        byte[] text = Arrays.copyOfRange(bytes, 8, bytes.length);
+        Charset charset;
+        if (code.startsWith("UNICODE")) {
+            charset = order == ByteOrder.LITTLE_ENDIAN ? StandardCharsets.UTF_16LE : StandardCharsets.UTF_16BE;
+        } else if (code.startsWith("JIS")) {
+            charset = JIS;
+        } else if (code.startsWith("ASCII")) {
+            charset = StandardCharsets.ISO_8859_1;
+        } else {
+            charset = StandardCharsets.UTF_8;
+        }
+        return TagValues.trim(new String(text, charset));
+    }
+
+    protected static String printLensInfo(double[] numbers) {
+        if (numbers.length != 4) {
+            return null;
+        }
+        String[] values = new String[4];
+        for (int i = 0; i < 4; i++) {
+            values[i] = Double.isNaN(numbers[i]) || Double.isInfinite(numbers[i]) ? "?"
+                    : TagValues.formatNumber(numbers[i]);
+        }
+        StringBuilder sb = new StringBuilder(values[0]);
+        if (numbers[1] != 0 && !values[1].equals(values[0])) {
+            sb.append('-').append(values[1]);
+        }
+        sb.append("mm f/").append(values[2]);
+        if (numbers[3] != 0 && !values[3].equals(values[2])) {
+            sb.append('-').append(values[3]);
+        }
+        return sb.toString();
+    }
+
+}
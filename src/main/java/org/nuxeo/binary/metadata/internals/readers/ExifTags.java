@@ -0,0 +1,271 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals.readers;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.nuxeo.binary.metadata.internals.readers.ExifTag.Conversion;
+
+/**
+ * The TIFF, EXIF, GPS and interoperability tags read natively, with the ExifTool names and print conversions. The
+ * other tags, maker notes included, are only available through ExifTool.
+ *
+ * @since 7.3
+ */
+public final class ExifTags {
+
+    public static final int EXIF_IFD_POINTER = 0x8769;
+
+    public static final int GPS_IFD_POINTER = 0x8825;
+
+    public static final int INTEROP_IFD_POINTER = 0xa005;
+
+    public static final int THUMBNAIL_OFFSET = 0x0201;
+
+    public static final int THUMBNAIL_LENGTH = 0x0202;
+
+    public static final int XMP = 0x02bc;
+
+    public static final int IPTC = 0x83bb;
+
+    /**
+     * IFD0 and IFD1 tags.
+     */
+    public static final Map<Integer, ExifTag> IFD;
+
+    public static final Map<Integer, ExifTag> EXIF;
+
+    public static final Map<Integer, ExifTag> GPS;
+
+    public static final Map<Integer, ExifTag> INTEROP;
+
+    private ExifTags() {
+        // constants class
+    }
+
+    static {
+        Map<Integer, ExifTag> ifd = new HashMap<>();
+        add(ifd, 0x00fe, "SubfileType", "0", "Full-resolution image", "1", "Reduced-resolution image", "2",
+                "Single page of multi-page image", "3", "Single page of multi-page reduced-resolution image", "4",
+                "Transparency mask");
+        add(ifd, 0x0100, "ImageWidth");
+        add(ifd, 0x0101, "ImageHeight");
+        add(ifd, 0x0102, "BitsPerSample");
+        add(ifd, 0x0103, "Compression", "1", "Uncompressed", "2", "CCITT 1D", "3", "T4/Group 3 Fax", "4",
+                "T6/Group 4 Fax", "5", "LZW", "6", "JPEG (old-style)", "7", "JPEG", "8", "Adobe Deflate", "32773",
+                "PackBits", "32946", "Deflate", "34712", "JPEG 2000");
+        add(ifd, 0x0106, "PhotometricInterpretation", "0", "WhiteIsZero", "1", "BlackIsZero", "2", "RGB", "3",
+                "RGB Palette", "4", "Transparency Mask", "5", "CMYK", "6", "YCbCr", "8", "CIELab", "9", "ICCLab",
+                "10", "ITULab");
+        add(ifd, 0x010d, "DocumentName");
+        add(ifd, 0x010e, "ImageDescription");
+        add(ifd, 0x010f, "Make");
+        add(ifd, 0x0110, "Model");
+        add(ifd, 0x0112, "Orientation", "1", "Horizontal (normal)", "2", "Mirror horizontal", "3", "Rotate 180", "4",
+                "Mirror vertical", "5", "Mirror horizontal and rotate 270 CW", "6", "Rotate 90 CW", "7",
+                "Mirror horizontal and rotate 90 CW", "8", "Rotate 270 CW");
+        add(ifd, 0x0115, "SamplesPerPixel");
+        add(ifd, 0x0116, "RowsPerStrip");
+        add(ifd, 0x011a, "XResolution");
+        add(ifd, 0x011b, "YResolution");
+        add(ifd, 0x011c, "PlanarConfiguration", "1", "Chunky", "2", "Planar");
+        add(ifd, 0x011d, "PageName");
+        add(ifd, 0x0128, "ResolutionUnit", "1", "None", "2", "inches", "3", "cm");
+        add(ifd, 0x0131, "Software");
+        add(ifd, 0x0132, "ModifyDate");
+        add(ifd, 0x013b, "Artist");
+        add(ifd, 0x013c, "HostComputer");
+        add(ifd, 0x013d, "Predictor", "1", "None", "2", "Horizontal differencing");
+        add(ifd, 0x013e, "WhitePoint");
+        add(ifd, 0x013f, "PrimaryChromaticities");
+        add(ifd, THUMBNAIL_OFFSET, "ThumbnailOffset");
+        add(ifd, THUMBNAIL_LENGTH, "ThumbnailLength");
+        add(ifd, 0x0211, "YCbCrCoefficients");
+        add(ifd, 0x0212, "YCbCrSubSampling", "1 1", "YCbCr4:4:4 (1 1)", "1 2", "YCbCr4:4:0 (1 2)", "1 4",
+                "YCbCr4:4:1 (1 4)", "2 1", "YCbCr4:2:2 (2 1)", "2 2", "YCbCr4:2:0 (2 2)", "2 4", "YCbCr4:2:1 (2 4)",
+                "4 1", "YCbCr4:1:1 (4 1)", "4 2", "YCbCr4:1:0 (4 2)");
+        add(ifd, 0x0213, "YCbCrPositioning", "1", "Centered", "2", "Co-sited");
+        add(ifd, 0x0214, "ReferenceBlackWhite");
+        add(ifd, 0x4746, "Rating");
+        add(ifd, 0x4749, "RatingPercent");
+        add(ifd, 0x8298, "Copyright");
+        add(ifd, 0x9c9b, "XPTitle", Conversion.UCS2_TEXT);
+        add(ifd, 0x9c9c, "XPComment", Conversion.UCS2_TEXT);
+        add(ifd, 0x9c9d, "XPAuthor", Conversion.UCS2_TEXT);
+        add(ifd, 0x9c9e, "XPKeywords", Conversion.UCS2_TEXT);
+        add(ifd, 0x9c9f, "XPSubject", Conversion.UCS2_TEXT);
+        IFD = Collections.unmodifiableMap(ifd);
+
+        Map<Integer, ExifTag> exif = new HashMap<>();
+        add(exif, 0x829a, "ExposureTime", Conversion.EXPOSURE_TIME);
+        add(exif, 0x829d, "FNumber", Conversion.F_NUMBER);
+        add(exif, 0x8822, "ExposureProgram", "0", "Not Defined", "1", "Manual", "2", "Program AE", "3",
+                "Aperture-priority AE", "4", "Shutter speed priority AE", "5", "Creative (Slow speed)", "6",
+                "Action (High speed)", "7", "Portrait", "8", "Landscape", "9", "Bulb");
+        add(exif, 0x8824, "SpectralSensitivity");
+        add(exif, 0x8827, "ISO");
+        add(exif, 0x8830, "SensitivityType", "0", "Unknown", "1", "Standard Output Sensitivity", "2",
+                "Recommended Exposure Index", "3", "ISO Speed", "4",
+                "Standard Output Sensitivity and Recommended Exposure Index", "5",
+                "Standard Output Sensitivity and ISO Speed", "6", "Recommended Exposure Index and ISO Speed", "7",
+                "Standard Output Sensitivity, Recommended Exposure Index and ISO Speed");
+        add(exif, 0x8832, "RecommendedExposureIndex");
+        add(exif, 0x9000, "ExifVersion", Conversion.ASCII);
+        add(exif, 0x9003, "DateTimeOriginal");
+        add(exif, 0x9004, "CreateDate");
+        add(exif, 0x9010, "OffsetTime");
+        add(exif, 0x9011, "OffsetTimeOriginal");
+        add(exif, 0x9012, "OffsetTimeDigitized");
+        add(exif, 0x9101, "ComponentsConfiguration", Conversion.COMPONENTS);
+        add(exif, 0x9102, "CompressedBitsPerPixel");
+        add(exif, 0x9201, "ShutterSpeedValue", Conversion.SHUTTER_SPEED);
+        add(exif, 0x9202, "ApertureValue", Conversion.APERTURE);
+        add(exif, 0x9203, "BrightnessValue");
+        add(exif, 0x9204, "ExposureCompensation", Conversion.FRACTION);
+        add(exif, 0x9205, "MaxApertureValue", Conversion.APERTURE);
+        add(exif, 0x9206, "SubjectDistance", Conversion.METERS);
+        add(exif, 0x9207, "MeteringMode", "0", "Unknown", "1", "Average", "2", "Center-weighted average", "3",
+                "Spot", "4", "Multi-spot", "5", "Multi-segment", "6", "Partial", "255", "Other");
+        add(exif, 0x9208, "LightSource", "0", "Unknown", "1", "Daylight", "2", "Fluorescent", "3",
+                "Tungsten (Incandescent)", "4", "Flash", "9", "Fine Weather", "10", "Cloudy", "11", "Shade", "12",
+                "Daylight Fluorescent", "13", "Day White Fluorescent", "14", "Cool White Fluorescent", "15",
+                "White Fluorescent", "16", "Warm White Fluorescent", "17", "Standard Light A", "18",
+                "Standard Light B", "19", "Standard Light C", "20", "D55", "21", "D65", "22", "D75", "23", "D50",
+                "24", "ISO Studio Tungsten", "255", "Other");
+        add(exif, 0x9209, "Flash", "0", "No Flash", "1", "Fired", "5", "Fired, Return not detected", "7",
+                "Fired, Return detected", "8", "On, Did not fire", "9", "On, Fired", "13",
+                "On, Return not detected", "15", "On, Return detected", "16", "Off, Did not fire", "20",
+                "Off, Did not fire, Return not detected", "24", "Auto, Did not fire", "25", "Auto, Fired", "29",
+                "Auto, Fired, Return not detected", "31", "Auto, Fired, Return detected", "32", "No flash function",
+                "48", "Off, No flash function", "65", "Fired, Red-eye reduction", "69",
+                "Fired, Red-eye reduction, Return not detected", "71", "Fired, Red-eye reduction, Return detected",
+                "73", "On, Red-eye reduction", "77", "On, Red-eye reduction, Return not detected", "79",
+                "On, Red-eye reduction, Return detected", "80", "Off, Red-eye reduction", "88",
+                "Auto, Did not fire, Red-eye reduction", "89", "Auto, Fired, Red-eye reduction", "93",
+                "Auto, Fired, Red-eye reduction, Return not detected", "95",
+                "Auto, Fired, Red-eye reduction, Return detected");
+        add(exif, 0x920a, "FocalLength", Conversion.FOCAL_LENGTH);
+        add(exif, 0x9214, "SubjectArea");
+        add(exif, 0x9286, "UserComment", Conversion.ENCODED_TEXT);
+        add(exif, 0x9290, "SubSecTime");
+        add(exif, 0x9291, "SubSecTimeOriginal");
+        add(exif, 0x9292, "SubSecTimeDigitized");
+        add(exif, 0xa000, "FlashpixVersion", Conversion.ASCII);
+        add(exif, 0xa001, "ColorSpace", "1", "sRGB", "2", "Adobe RGB", "65533", "Wide Gamut RGB", "65534", "ICC Profile",
+                "65535", "Uncalibrated");
+        add(exif, 0xa002, "ExifImageWidth");
+        add(exif, 0xa003, "ExifImageHeight");
+        add(exif, 0xa004, "RelatedSoundFile");
+        add(exif, 0xa20b, "FlashEnergy");
+        add(exif, 0xa20e, "FocalPlaneXResolution");
+        add(exif, 0xa20f, "FocalPlaneYResolution");
+        add(exif, 0xa210, "FocalPlaneResolutionUnit", "1", "None", "2", "inches", "3", "cm", "4", "mm", "5", "um");
+        add(exif, 0xa214, "SubjectLocation");
+        add(exif, 0xa215, "ExposureIndex");
+        add(exif, 0xa217, "SensingMethod", "1", "Not defined", "2", "One-chip color area", "3",
+                "Two-chip color area", "4", "Three-chip color area", "5", "Color sequential area", "7",
+                "Trilinear", "8", "Color sequential linear");
+        add(exif, 0xa300, "FileSource", "1", "Film Scanner", "2", "Reflection Print Scanner", "3", "Digital Camera");
+        add(exif, 0xa301, "SceneType", "1", "Directly photographed");
+        add(exif, 0xa401, "CustomRendered", "0", "Normal", "1", "Custom");
+        add(exif, 0xa402, "ExposureMode", "0", "Auto", "1", "Manual", "2", "Auto bracket");
+        add(exif, 0xa403, "WhiteBalance", "0", "Auto", "1", "Manual");
+        add(exif, 0xa404, "DigitalZoomRatio");
+        add(exif, 0xa405, "FocalLengthIn35mmFormat", Conversion.MILLIMETERS);
+        add(exif, 0xa406, "SceneCaptureType", "0", "Standard", "1", "Landscape", "2", "Portrait", "3", "Night");
+        add(exif, 0xa407, "GainControl", "0", "None", "1", "Low gain up", "2", "High gain up", "3", "Low gain down",
+                "4", "High gain down");
+        add(exif, 0xa408, "Contrast", "0", "Normal", "1", "Low", "2", "High");
+        add(exif, 0xa409, "Saturation", "0", "Normal", "1", "Low", "2", "High");
+        add(exif, 0xa40a, "Sharpness", "0", "Normal", "1", "Soft", "2", "Hard");
+        add(exif, 0xa40c, "SubjectDistanceRange", "0", "Unknown", "1", "Macro", "2", "Close", "3", "Distant");
+        add(exif, 0xa420, "ImageUniqueID");
+        add(exif, 0xa430, "OwnerName");
+        add(exif, 0xa431, "SerialNumber");
+        add(exif, 0xa432, "LensInfo", Conversion.LENS_INFO);
+        add(exif, 0xa433, "LensMake");
+        add(exif, 0xa434, "LensModel");
+        add(exif, 0xa435, "LensSerialNumber");
+        add(exif, 0xa500, "Gamma");
+        EXIF = Collections.unmodifiableMap(exif);
+
+        Map<Integer, ExifTag> gps = new HashMap<>();
+        add(gps, 0x0000, "GPSVersionID", Conversion.VERSION);
+        add(gps, 0x0001, "GPSLatitudeRef", "N", "North", "S", "South");
+        add(gps, 0x0002, "GPSLatitude", Conversion.COORDINATE);
+        add(gps, 0x0003, "GPSLongitudeRef", "E", "East", "W", "West");
+        add(gps, 0x0004, "GPSLongitude", Conversion.COORDINATE);
+        add(gps, 0x0005, "GPSAltitudeRef", "0", "Above Sea Level", "1", "Below Sea Level");
+        add(gps, 0x0006, "GPSAltitude", Conversion.ALTITUDE);
+        add(gps, 0x0007, "GPSTimeStamp", Conversion.TIME);
+        add(gps, 0x0008, "GPSSatellites");
+        add(gps, 0x0009, "GPSStatus", "A", "Measurement Active", "V", "Measurement Void");
+        add(gps, 0x000a, "GPSMeasureMode", "2", "2-Dimensional Measurement", "3", "3-Dimensional Measurement");
+        add(gps, 0x000b, "GPSDOP");
+        add(gps, 0x000c, "GPSSpeedRef", "K", "km/h", "M", "mph", "N", "knots");
+        add(gps, 0x000d, "GPSSpeed");
+        add(gps, 0x000e, "GPSTrackRef", "M", "Magnetic North", "T", "True North");
+        add(gps, 0x000f, "GPSTrack");
+        add(gps, 0x0010, "GPSImgDirectionRef", "M", "Magnetic North", "T", "True North");
+        add(gps, 0x0011, "GPSImgDirection");
+        add(gps, 0x0012, "GPSMapDatum");
+        add(gps, 0x0013, "GPSDestLatitudeRef", "N", "North", "S", "South");
+        add(gps, 0x0014, "GPSDestLatitude", Conversion.COORDINATE);
+        add(gps, 0x0015, "GPSDestLongitudeRef", "E", "East", "W", "West");
+        add(gps, 0x0016, "GPSDestLongitude", Conversion.COORDINATE);
+        add(gps, 0x0017, "GPSDestBearingRef", "M", "Magnetic North", "T", "True North");
+        add(gps, 0x0018, "GPSDestBearing");
+        add(gps, 0x0019, "GPSDestDistanceRef", "K", "Kilometers", "M", "Miles", "N", "Nautical Miles");
+        add(gps, 0x001a, "GPSDestDistance");
+        add(gps, 0x001b, "GPSProcessingMethod", Conversion.ENCODED_TEXT);
+        add(gps, 0x001c, "GPSAreaInformation", Conversion.ENCODED_TEXT);
+        add(gps, 0x001d, "GPSDateStamp");
+        add(gps, 0x001e, "GPSDifferential", "0", "No Correction", "1", "Differential Corrected");
+        add(gps, 0x001f, "GPSHPositioningError", Conversion.METERS);
+        GPS = Collections.unmodifiableMap(gps);
+
+        Map<Integer, ExifTag> interop = new HashMap<>();
+        add(interop, 0x0001, "InteropIndex", "R03", "R03 - DCF option file (Adobe RGB)", "R98",
+                "R98 - DCF basic file (sRGB)", "THM", "THM - DCF thumbnail file");
+        add(interop, 0x0002, "InteropVersion", Conversion.ASCII);
+        add(interop, 0x1000, "RelatedImageFileFormat");
+        add(interop, 0x1001, "RelatedImageWidth");
+        add(interop, 0x1002, "RelatedImageHeight");
+        INTEROP = Collections.unmodifiableMap(interop);
+    }
+
+    protected static void add(Map<Integer, ExifTag> table, int id, String name, Conversion conversion) {
+        table.put(Integer.valueOf(id), new ExifTag(id, name, conversion, null));
+    }
+
+    /**
+     * @param labels Alternating values and labels.
+     */
+    protected static void add(Map<Integer, ExifTag> table, int id, String name, String... labels) {
+        Map<String, String> map = null;
+        if (labels.length > 0) {
+            map = new HashMap<>();
+            for (int i = 0; i + 1 < labels.length; i += 2) {
+                map.put(labels[i], labels[i + 1]);
+            }
+        }
+        table.put(Integer.valueOf(id), new ExifTag(id, name, Conversion.NONE, map));
+    }
+
+}
@@ -0,0 +1,657 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals.readers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Reads the ID3v2.2, ID3v2.3 and ID3v2.4 frames at the head of a file and the ID3v1 tag in its last 128 bytes into
+ * ExifTool {@code ID3:} tags, through positional reads of the tags only.
+ * <p>
+ * Malformed tags are reported as {@link IllegalStateException}.
+ *
+ * @since 7.3
+ */
+public class Id3Reader {
+
+    /**
+     * ExifTool family 0 group of the ID3v1 and ID3v2 tags.
+     */
+    public static final String GROUP = "ID3";
+
+    protected static final int HEADER_LENGTH = 10;
+
+    protected static final int V1_LENGTH = 128;
+
+    /**
+     * Maximum size of an unsynchronised tag or of a compressed frame, decoded in memory.
+     */
+    protected static final int MAX_DECODED_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * Bytes read from a picture frame, enough for its MIME type and description.
+     */
+    protected static final int PICTURE_HEADER_LENGTH = 4096;
+
+    protected static final Pattern GENRE_REFERENCE = Pattern.compile("\\((\\d+)\\)");
+
+    protected static final Pattern GENRE_NUMBER = Pattern.compile("(^|/)(\\d+)(?=/|$)");
+
+    protected static final Pattern GENRE_CLEANUP = Pattern.compile("^\\(([^)]+)\\)\\1?$");
+
+    protected static final Pattern LANGUAGE = Pattern.compile("[a-zA-Z]{3}");
+
+    /**
+     * ExifTool names of the ID3v2 frames, by frame id.
+     */
+    protected static final Map<String, String> FRAMES = new HashMap<>();
+
+    protected static final Map<String, String> PRIVATE_FRAMES = new HashMap<>();
+
+    protected static final String[] GENRES = { "Blues", "Classic Rock", "Country", "Dance", "Disco", "Funk",
+            "Grunge", "Hip-Hop", "Jazz", "Metal", "New Age", "Oldies", "Other", "Pop", "R&B", "Rap", "Reggae", "Rock",
+            "Techno", "Industrial", "Alternative", "Ska", "Death Metal", "Pranks", "Soundtrack", "Euro-Techno",
+            "Ambient", "Trip-Hop", "Vocal", "Jazz+Funk", "Fusion", "Trance", "Classical", "Instrumental", "Acid",
+            "House", "Game", "Sound Clip", "Gospel", "Noise", "Alt. Rock", "Bass", "Soul", "Punk", "Space",
+            "Meditative", "Instrumental Pop", "Instrumental Rock", "Ethnic", "Gothic", "Darkwave",
+            "Techno-Industrial", "Electronic", "Pop-Folk", "Eurodance", "Dream", "Southern Rock", "Comedy", "Cult",
+            "Gangsta Rap", "Top 40", "Christian Rap", "Pop/Funk", "Jungle", "Native American", "Cabaret", "New Wave",
+            "Psychedelic", "Rave", "Showtunes", "Trailer", "Lo-Fi", "Tribal", "Acid Punk", "Acid Jazz", "Polka",
+            "Retro", "Musical", "Rock & Roll", "Hard Rock", "Folk", "Folk-Rock", "National Folk", "Swing",
+            "Fast-Fusion", "Bebop", "Latin", "Revival", "Celtic", "Bluegrass", "Avantgarde", "Gothic Rock",
+            "Progressive Rock", "Psychedelic Rock", "Symphonic Rock", "Slow Rock", "Big Band", "Chorus",
+            "Easy Listening", "Acoustic", "Humour", "Speech", "Chanson", "Opera", "Chamber Music", "Sonata",
+            "Symphony", "Booty Bass", "Primus", "Porn Groove", "Satire", "Slow Jam", "Club", "Tango", "Samba",
+            "Folklore", "Ballad", "Power Ballad", "Rhythmic Soul", "Freestyle", "Duet", "Punk Rock", "Drum Solo",
+            "A Cappella", "Euro-House", "Dance Hall", "Goa", "Drum & Bass", "Club-House", "Hardcore", "Terror",
+            "Indie", "BritPop", "Afro-Punk", "Polsk Punk", "Beat", "Christian Gangsta Rap", "Heavy Metal",
+            "Black Metal", "Crossover", "Contemporary Christian", "Christian Rock", "Merengue", "Salsa",
+            "Thrash Metal", "Anime", "JPop", "Synthpop", "Abstract", "Art Rock", "Baroque", "Bhangra", "Big Beat",
+            "Breakbeat", "Chillout", "Downtempo", "Dub", "EBM", "Eclectic", "Electro", "Electroclash", "Emo",
+            "Experimental", "Garage", "Global", "IDM", "Illbient", "Industro-Goth", "Jam Band", "Krautrock",
+            "Leftfield", "Lounge", "Math Rock", "New Romantic", "Nu-Breakz", "Post-Punk", "Post-Rock", "Psytrance",
+            "Shoegaze", "Space Rock", "Trop Rock", "World Music", "Neoclassical", "Audiobook", "Audio Theatre",
+            "Neue Deutsche Welle", "Podcast", "Indie Rock", "G-Funk", "Dubstep", "Garage Rock", "Psybient" };
+
+    protected static final String[] PICTURE_TYPES = { "Other", "32x32 PNG Icon", "Other Icon", "Front Cover",
+            "Back Cover", "Leaflet", "Media", "Lead Artist", "Artist", "Conductor", "Band", "Composer", "Lyricist",
+            "Recording Studio or Location", "Recording Session", "Performance", "Capture from Movie or Video",
+            "Bright(ly) Colored Fish", "Illustration", "Band Logo", "Publisher Logo" };
+
+    static {
+        addFrames("TALB", "TAL", "Album");
+        addFrames("TBPM", "TBP", "BeatsPerMinute");
+        addFrames("TCMP", "TCP", "Compilation");
+        addFrames("TCOM", "TCM", "Composer");
+        addFrames("TCON", "TCO", "Genre");
+        addFrames("TCOP", "TCR", "Copyright");
+        addFrames("TDAT", "TDA", "Date");
+        addFrames("TDLY", "TDY", "PlaylistDelay");
+        addFrames("TENC", "TEN", "EncodedBy");
+        addFrames("TEXT", "TXT", "Lyricist");
+        addFrames("TFLT", "TFT", "FileType");
+        addFrames("TIME", "TIM", "Time");
+        addFrames("TIT1", "TT1", "Grouping");
+        addFrames("TIT2", "TT2", "Title");
+        addFrames("TIT3", "TT3", "Subtitle");
+        addFrames("TKEY", "TKE", "InitialKey");
+        addFrames("TLAN", "TLA", "Language");
+        addFrames("TLEN", "TLE", "Length");
+        addFrames("TMED", "TMT", "Media");
+        addFrames("TOAL", "TOT", "OriginalAlbum");
+        addFrames("TOFN", "TOF", "OriginalFileName");
+        addFrames("TOLY", "TOL", "OriginalLyricist");
+        addFrames("TOPE", "TOA", "OriginalArtist");
+        addFrames("TORY", "TOR", "OriginalReleaseYear");
+        addFrames("TOWN", null, "FileOwner");
+        addFrames("TPE1", "TP1", "Artist");
+        addFrames("TPE2", "TP2", "Band");
+        addFrames("TPE3", "TP3", "Conductor");
+        addFrames("TPE4", "TP4", "InterpretedBy");
+        addFrames("TPOS", "TPA", "PartOfSet");
+        addFrames("TPUB", "TPB", "Publisher");
+        addFrames("TRCK", "TRK", "Track");
+        addFrames("TRDA", "TRD", "RecordingDates");
+        addFrames("TRSN", null, "InternetRadioStationName");
+        addFrames("TRSO", null, "InternetRadioStationOwner");
+        addFrames("TSIZ", "TSI", "Size");
+        addFrames("TSO2", "TS2", "AlbumArtistSortOrder");
+        addFrames("TSOC", "TSC", "ComposerSortOrder");
+        addFrames("TSRC", "TRC", "ISRC");
+        addFrames("TSSE", "TSS", "EncoderSettings");
+        addFrames("TYER", "TYE", "Year");
+        addFrames("TXXX", "TXX", "UserDefinedText");
+        // ID3v2.4
+        addFrames("TDEN", null, "EncodingTime");
+        addFrames("TDOR", null, "OriginalReleaseTime");
+        addFrames("TDRC", null, "RecordingTime");
+        addFrames("TDRL", null, "ReleaseTime");
+        addFrames("TDTG", null, "TaggingTime");
+        addFrames("TIPL", null, "InvolvedPeople");
+        addFrames("TMCL", null, "MusicianCredits");
+        addFrames("TMOO", null, "Mood");
+        addFrames("TPRO", null, "ProducedNotice");
+        addFrames("TSOA", null, "AlbumSortOrder");
+        addFrames("TSOP", null, "PerformerSortOrder");
+        addFrames("TSOT", null, "TitleSortOrder");
+        addFrames("TSST", null, "SetSubtitle");
+        addFrames("IPLS", "IPL", "InvolvedPeople");
+        // URLs
+        addFrames("WCOM", "WCM", "CommercialURL");
+        addFrames("WCOP", "WCP", "CopyrightURL");
+        addFrames("WOAF", "WAF", "FileURL");
+        addFrames("WOAR", "WAR", "ArtistURL");
+        addFrames("WOAS", "WAS", "SourceURL");
+        addFrames("WORS", null, "InternetRadioStationURL");
+        addFrames("WPAY", null, "PaymentURL");
+        addFrames("WPUB", "WPB", "PublisherURL");
+        addFrames("WXXX", "WXX", "UserDefinedURL");
+        // other frames
+        addFrames("COMM", "COM", "Comment");
+        addFrames("USLT", "ULT", "Lyrics");
+        addFrames("APIC", "PIC", "Picture");
+        addFrames("PCNT", "CNT", "PlayCounter");
+        addFrames("POPM", "POP", "Popularimeter");
+        addFrames("PRIV", null, "Private");
+        addFrames("MCDI", "MCI", "MusicCDIdentifier");
+        addFrames("SYLT", "SLT", "SynLyrics");
+        addFrames("GEOB", "GEO", "GeneralEncapsulatedObject");
+        addFrames("OWNE", null, "Ownership");
+
+        PRIVATE_FRAMES.put("PeakValue", "PeakValue");
+        PRIVATE_FRAMES.put("AverageLevel", "AverageLevel");
+        PRIVATE_FRAMES.put("WM/WMContentID", "WM_ContentID");
+        PRIVATE_FRAMES.put("WM/WMCollectionID", "WM_CollectionID");
+        PRIVATE_FRAMES.put("WM/WMCollectionGroupID", "WM_CollectionGroupID");
+        PRIVATE_FRAMES.put("WM/MediaClassPrimaryID", "WM_MediaClassPrimaryID");
+        PRIVATE_FRAMES.put("WM/MediaClassSecondaryID", "WM_MediaClassSecondaryID");
+        PRIVATE_FRAMES.put("WM/Provider", "WM_Provider");
+        PRIVATE_FRAMES.put("WM/UniqueFileIdentifier", "WM_UniqueFileIdentifier");
+    }
+
+    protected static void addFrames(String id, String id22, String name) {
+        FRAMES.put(id, name);
+        if (id22 != null) {
+            FRAMES.put(id22, name);
+        }
+    }
+
+    protected final FileChannel channel;
+
+    protected int version;
+
+    /**
+     * The whole tag once unsynchronised, {@code null} if the frames are read from the channel.
+     */
+    protected ByteBuffer tag;
+
+    protected long audioStart;
+
+    public Id3Reader(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * @return The position following the ID3v2 tag, once read.
+     */
+    public long getAudioStart() {
+        return audioStart;
+    }
+
+    /**
+     * Reads the ID3v2 tag at the head of the file.
+     *
+     * @return {@code false} if the file does not start with an ID3v2 tag.
+     */
+    public boolean readV2(Map<String, Object> tags) throws IOException {
+        if (channel.size() < HEADER_LENGTH) {
+            return false;
+        }
+        ByteBuffer header = TagValues.read(channel, 0, HEADER_LENGTH);
+        if (header.get(0) != 'I' || header.get(1) != 'D' || header.get(2) != '3') {
+            return false;
+        }
+        version = header.get(3);
+        int flags = header.get(5) & 0xff;
+        int length = getSynchsafeInt(header, 6);
+        audioStart = HEADER_LENGTH + length + (version == 4 && (flags & 0x10) != 0 ? HEADER_LENGTH : 0);
+        if (version < 2 || version > 4 || (version == 2 && (flags & 0x40) != 0)) {
+            // unknown version or ID3v2.2 compression, which has no defined scheme
+            return true;
+        }
+        if ((flags & 0x80) != 0 && version < 4) {
+            if (length > MAX_DECODED_LENGTH) {
+                throw new IllegalStateException("ID3 tag too large: " + length);
+            }
+            tag = unsynchronise(TagValues.read(channel, HEADER_LENGTH, length));
+            length = tag.limit();
+        }
+        int position = 0;
+        if ((flags & 0x40) != 0) {
+            ByteBuffer extended = readTag(position, 4);
+            position += version == 3 ? 4 + extended.getInt(0) : getSynchsafeInt(extended, 0);
+        }
+        int frameHeaderLength = version == 2 ? 6 : 10;
+        while (position >= 0 && position + frameHeaderLength <= length) {
+            ByteBuffer frameHeader = readTag(position, frameHeaderLength);
+            if (frameHeader.get(0) == 0) {
+                // padding
+                break;
+            }
+            String id;
+            int size;
+            int frameFlags = 0;
+            if (version == 2) {
+                id = new String(getBytes(frameHeader, 0, 3), StandardCharsets.ISO_8859_1);
+                size = ((frameHeader.get(3) & 0xff) << 16) | ((frameHeader.get(4) & 0xff) << 8)
+                        | (frameHeader.get(5) & 0xff);
+            } else {
+                id = new String(getBytes(frameHeader, 0, 4), StandardCharsets.ISO_8859_1);
+                size = version == 4 ? getSynchsafeInt(frameHeader, 4) : frameHeader.getInt(4);
+                frameFlags = frameHeader.getShort(8) & 0xffff;
+            }
+            position += frameHeaderLength;
+            if (size < 0 || position + size > length) {
+                throw new IllegalStateException("Invalid ID3 frame size for " + id);
+            }
+            if (size > 0 && FRAMES.containsKey(id)) {
+                readFrame(id, position, size, frameFlags, tags);
+            }
+            position += size;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the ID3v1 tag in the last 128 bytes of the file, the ID3v2 tags winning over it.
+     *
+     * @return {@code false} if the file does not end with an ID3v1 tag.
+     */
+    public boolean readV1(Map<String, Object> tags) throws IOException {
+        long size = channel.size();
+        if (size < audioStart + V1_LENGTH) {
+            return false;
+        }
+        ByteBuffer v1 = TagValues.read(channel, size - V1_LENGTH, V1_LENGTH);
+        if (v1.get(0) != 'T' || v1.get(1) != 'A' || v1.get(2) != 'G') {
+            return false;
+        }
+        TagValues.put(tags, GROUP, "Title", getV1String(v1, 3, 30));
+        TagValues.put(tags, GROUP, "Artist", getV1String(v1, 33, 30));
+        TagValues.put(tags, GROUP, "Album", getV1String(v1, 63, 30));
+        TagValues.put(tags, GROUP, "Year", TagValues.toJson(getV1String(v1, 93, 4)));
+        TagValues.put(tags, GROUP, "Comment", TagValues.toJson(getV1String(v1, 97, 30)));
+        if (v1.get(125) == 0 && v1.get(126) != 0) {
+            // ID3v1.1 track number, in the last byte of the comment
+            TagValues.put(tags, GROUP, "Track", Integer.valueOf(v1.get(126) & 0xff));
+        }
+        TagValues.put(tags, GROUP, "Genre", getGenre(v1.get(127) & 0xff));
+        return true;
+    }
+
+    protected static String getV1String(ByteBuffer buffer, int offset, int length) {
+        String value = TagValues.trim(new String(getBytes(buffer, offset, length), StandardCharsets.ISO_8859_1));
+        int end = value.length();
+        while (end > 0 && value.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return value.substring(0, end);
+    }
+
+    protected static String getGenre(int code) {
+        if (code < GENRES.length) {
+            return GENRES[code];
+        }
+        return code == 255 ? "None" : "Unknown (" + code + ")";
+    }
+
+    /**
+     * Replaces the genre numbers of an ID3v2 genre, such as {@code (9)}, by their names.
+     */
+    protected static String convertGenre(String value) {
+        StringBuffer sb = new StringBuffer();
+        Matcher matcher = GENRE_REFERENCE.matcher(value);
+        while (matcher.find()) {
+            matcher.appendReplacement(sb,
+                    Matcher.quoteReplacement("(" + getGenre(Integer.parseInt(matcher.group(1))) + ")"));
+        }
+        matcher.appendTail(sb);
+        matcher = GENRE_NUMBER.matcher(sb.toString());
+        sb = new StringBuffer();
+        while (matcher.find()) {
+            matcher.appendReplacement(sb,
+                    Matcher.quoteReplacement(matcher.group(1) + getGenre(Integer.parseInt(matcher.group(2)))));
+        }
+        matcher.appendTail(sb);
+        matcher = GENRE_CLEANUP.matcher(sb.toString());
+        return matcher.matches() ? matcher.group(1) : sb.toString();
+    }
+
+    protected ByteBuffer readTag(int position, int length) throws IOException {
+        if (tag == null) {
+            return TagValues.read(channel, HEADER_LENGTH + position, length);
+        }
+        ByteBuffer buffer = tag.duplicate();
+        buffer.position(position);
+        buffer.limit(position + length);
+        return buffer.slice();
+    }
+
+    protected void readFrame(String id, int position, int size, int flags, Map<String, Object> tags)
+            throws IOException {
+        boolean compressed;
+        boolean unsynchronised = false;
+        int skipped = 0;
+        if (version == 3) {
+            compressed = (flags & 0x0080) != 0;
+            if ((flags & 0x0040) != 0) {
+                // encrypted
+                return;
+            }
+            skipped = (compressed ? 4 : 0) + ((flags & 0x0020) != 0 ? 1 : 0);
+        } else if (version == 4) {
+            compressed = (flags & 0x0008) != 0;
+            if ((flags & 0x0004) != 0) {
+                return;
+            }
+            unsynchronised = (flags & 0x0002) != 0;
+            skipped = ((flags & 0x0040) != 0 ? 1 : 0) + ((flags & 0x0001) != 0 ? 4 : 0);
+        } else {
+            compressed = false;
+        }
+        if (skipped >= size) {
+            return;
+        }
+        int length = size - skipped;
+        boolean partial = !compressed && !unsynchronised && (id.equals("APIC") || id.equals("PIC"))
+                && length > PICTURE_HEADER_LENGTH;
+        ByteBuffer data = readTag(position + skipped, partial ? PICTURE_HEADER_LENGTH : length);
+        if (unsynchronised) {
+            data = unsynchronise(data);
+        }
+        if (compressed) {
+            data = ByteBuffer.wrap(TagValues.inflate(getBytes(data, 0, data.limit()), MAX_DECODED_LENGTH));
+        }
+        readFrame(id, data, partial ? length : data.limit(), tags);
+    }
+
+    /**
+     * @param length Length of the whole frame data, the buffer holding only the head of the large pictures.
+     */
+    protected void readFrame(String id, ByteBuffer data, int length, Map<String, Object> tags) throws IOException {
+        String name = FRAMES.get(id);
+        int size = data.limit();
+        if (id.equals("TXXX") || id.equals("TXX") || id.equals("WXXX") || id.equals("WXX")) {
+            List<String> values = decodeStrings(data.get(0), getBytes(data, 1, size - 1));
+            putDescribed(tags, name, values);
+        } else if (id.charAt(0) == 'T' || id.equals("IPLS") || id.equals("IPL")) {
+            String value = join(decodeStrings(data.get(0), getBytes(data, 1, size - 1)));
+            if ("Genre".equals(name)) {
+                TagValues.put(tags, GROUP, name, convertGenre(value));
+            } else if ("Length".equals(name)) {
+                try {
+                    TagValues.put(tags, GROUP, name,
+                            TagValues.formatNumber(Double.parseDouble(value.trim()) / 1000) + " s");
+                } catch (NumberFormatException e) {
+                    TagValues.put(tags, GROUP, name, value);
+                }
+            } else if (id.startsWith("TD") && id.length() == 4 && !id.equals("TDAT") && !id.equals("TDLY")) {
+                TagValues.put(tags, GROUP, name, TagValues.toJson(value.replace('-', ':').replace('T', ' ')));
+            } else {
+                TagValues.put(tags, GROUP, name, TagValues.toJson(value));
+            }
+        } else if (id.charAt(0) == 'W') {
+            TagValues.put(tags, GROUP, name, TagValues.trim(new String(getBytes(data, 0, size),
+                    StandardCharsets.ISO_8859_1)));
+        } else if (id.equals("COMM") || id.equals("COM") || id.equals("USLT") || id.equals("ULT")) {
+            if (size < 4) {
+                return;
+            }
+            String language = new String(getBytes(data, 1, 3), StandardCharsets.ISO_8859_1);
+            if (LANGUAGE.matcher(language).matches() && !"eng".equalsIgnoreCase(language)) {
+                name = name + "-" + language.toLowerCase();
+            }
+            putDescribed(tags, name, decodeStrings(data.get(0), getBytes(data, 4, size - 4)));
+        } else if (id.equals("APIC") || id.equals("PIC")) {
+            readPicture(id, data, length, tags);
+        } else if (id.equals("PCNT") || id.equals("CNT")) {
+            TagValues.put(tags, GROUP, name, TagValues.toJson(Long.toString(getUnsigned(data, 0, size))));
+        } else if (id.equals("POPM") || id.equals("POP")) {
+            int end = indexOf(data, 0, (byte) 0);
+            if (end >= 0 && end < size - 1) {
+                String email = new String(getBytes(data, 0, end), StandardCharsets.ISO_8859_1);
+                int rating = data.get(end + 1) & 0xff;
+                long count = getUnsigned(data, end + 2, size - end - 2);
+                TagValues.put(tags, GROUP, name, email + " Rating=" + rating + " Count=" + count);
+            }
+        } else if (id.equals("PRIV")) {
+            readPrivate(data, tags);
+        } else {
+            TagValues.put(tags, GROUP, name, TagValues.binary(length));
+        }
+    }
+
+    /**
+     * Puts a value preceded by its description, as {@code (description) value}.
+     */
+    protected void putDescribed(Map<String, Object> tags, String name, List<String> values) {
+        String description = values.isEmpty() ? "" : values.get(0);
+        String value = values.size() < 2 ? "" : values.get(1);
+        TagValues.put(tags, GROUP, name, TagValues.toJson(description.isEmpty() ? value
+                : "(" + description + ") " + value));
+    }
+
+    protected void readPicture(String id, ByteBuffer data, int length, Map<String, Object> tags) {
+        int size = data.limit();
+        byte encoding = data.get(0);
+        int position;
+        if (id.equals("PIC")) {
+            TagValues.put(tags, GROUP, "PictureFormat", TagValues.trim(new String(getBytes(data, 1, 3),
+                    StandardCharsets.ISO_8859_1)));
+            position = 4;
+        } else {
+            int end = indexOf(data, 1, (byte) 0);
+            if (end < 0) {
+                return;
+            }
+            TagValues.put(tags, GROUP, "PictureMIMEType", new String(getBytes(data, 1, end - 1),
+                    StandardCharsets.ISO_8859_1));
+            position = end + 1;
+        }
+        if (position >= size) {
+            return;
+        }
+        int type = data.get(position++) & 0xff;
+        TagValues.put(tags, GROUP, "PictureType", type < PICTURE_TYPES.length ? PICTURE_TYPES[type] : "Unknown ("
+                + type + ")");
+        int end = findTerminator(data, position, encoding);
+        if (end < 0) {
+            return;
+        }
+        TagValues.put(tags, GROUP, "PictureDescription", TagValues.toJson(decodeString(encoding,
+                getBytes(data, position, end - position))));
+        position = end + (isWide(encoding) ? 2 : 1);
+        TagValues.put(tags, GROUP, "Picture", TagValues.binary(length - position));
+    }
+
+    protected void readPrivate(ByteBuffer data, Map<String, Object> tags) throws IOException {
+        int end = indexOf(data, 0, (byte) 0);
+        if (end < 0) {
+            return;
+        }
+        String owner = new String(getBytes(data, 0, end), StandardCharsets.ISO_8859_1);
+        byte[] value = getBytes(data, end + 1, data.limit() - end - 1);
+        if ("XMP".equals(owner)) {
+            try {
+                XmpReader.read(ByteBuffer.wrap(value), tags);
+            } catch (XMLStreamException e) {
+                throw new IllegalStateException("Invalid XMP in ID3 tag", e);
+            }
+            return;
+        }
+        String name = PRIVATE_FRAMES.get(owner);
+        if (name == null) {
+            return;
+        }
+        if (name.equals("PeakValue") || name.equals("AverageLevel")) {
+            if (value.length == 4) {
+                long level = ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN).getInt() & 0xffffffffL;
+                TagValues.put(tags, GROUP, name, TagValues.toJson(Long.toString(level)));
+            }
+        } else if (name.endsWith("ID") && value.length == 16) {
+            ByteBuffer guid = ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN);
+            TagValues.put(tags, GROUP, name, TagValues.format("%08X-%04X-%04X-%02X%02X-%02X%02X%02X%02X%02X%02X",
+                    Integer.valueOf(guid.getInt(0)), Integer.valueOf(guid.getShort(4) & 0xffff),
+                    Integer.valueOf(guid.getShort(6) & 0xffff), Byte.valueOf(value[8]), Byte.valueOf(value[9]),
+                    Byte.valueOf(value[10]), Byte.valueOf(value[11]), Byte.valueOf(value[12]),
+                    Byte.valueOf(value[13]), Byte.valueOf(value[14]), Byte.valueOf(value[15])));
+        } else if (!name.endsWith("ID")) {
+            TagValues.put(tags, GROUP, name,
+                    TagValues.toJson(TagValues.trim(new String(value, StandardCharsets.UTF_16LE))));
+        }
+    }
+
+    /*--------------------------- Decoding ------------------------*/
+
+    protected static boolean isWide(byte encoding) {
+        return encoding == 1 || encoding == 2;
+    }
+
+    protected static Charset getCharset(byte encoding) {
+        switch (encoding) {
+        case 1:
+            return StandardCharsets.UTF_16;
+        case 2:
+            return StandardCharsets.UTF_16BE;
+        case 3:
+            return StandardCharsets.UTF_8;
+        default:
+            return StandardCharsets.ISO_8859_1;
+        }
+    }
+
+    protected static String decodeString(byte encoding, byte[] bytes) {
+        return new String(bytes, getCharset(encoding));
+    }
+
+    /**
+     * @return The NUL separated strings, without the trailing empty ones.
+     */
+    protected static List<String> decodeStrings(byte encoding, byte[] bytes) {
+        List<String> values = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int position = 0;
+        while (position < bytes.length) {
+            int end = findTerminator(buffer, position, encoding);
+            if (end < 0) {
+                end = bytes.length;
+            }
+            values.add(decodeString(encoding, getBytes(buffer, position, end - position)));
+            position = end + (isWide(encoding) ? 2 : 1);
+        }
+        while (!values.isEmpty() && values.get(values.size() - 1).isEmpty()) {
+            values.remove(values.size() - 1);
+        }
+        return values;
+    }
+
+    protected static String join(List<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return The position of the NUL terminator of a string in the given encoding, -1 if none.
+     */
+    protected static int findTerminator(ByteBuffer data, int from, byte encoding) {
+        if (!isWide(encoding)) {
+            return indexOf(data, from, (byte) 0);
+        }
+        for (int i = from; i + 1 < data.limit(); i += 2) {
+            if (data.get(i) == 0 && data.get(i + 1) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    protected static int indexOf(ByteBuffer data, int from, byte value) {
+        for (int i = from; i < data.limit(); i++) {
+            if (data.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    protected static byte[] getBytes(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[Math.max(0, Math.min(length, buffer.limit() - offset))];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return bytes;
+    }
+
+    protected static long getUnsigned(ByteBuffer data, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length && i < data.limit(); i++) {
+            value = (value << 8) | (data.get(i) & 0xff);
+        }
+        return value;
+    }
+
+    protected static int getSynchsafeInt(ByteBuffer buffer, int offset) {
+        return ((buffer.get(offset) & 0x7f) << 21) | ((buffer.get(offset + 1) & 0x7f) << 14)
+                | ((buffer.get(offset + 2) & 0x7f) << 7) | (buffer.get(offset + 3) & 0x7f);
+    }
+
+    /**
+     * Removes the zero bytes inserted after the 0xff bytes.
+     */
+    protected static ByteBuffer unsynchronise(ByteBuffer data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.limit());
+        for (int i = 0; i < data.limit(); i++) {
+            byte b = data.get(i);
+            out.write(b);
+            if (b == (byte) 0xff && i + 1 < data.limit() && data.get(i + 1) == 0) {
+                i++;
+            }
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+}
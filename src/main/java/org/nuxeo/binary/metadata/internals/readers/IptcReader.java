@@ -0,0 +1,446 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals.readers;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the IPTC IIM datasets of a Photoshop image resource block, as found in the APP13 segment of JPEG files, or of
+ * a raw IIM block, as found in the IPTC-NAA directory entry of TIFF files, into ExifTool {@code IPTC:} tags.
+ * <p>
+ * Repeatable datasets are returned as lists, and text is decoded as UTF-8 when the 1:90 dataset selects it, as
+ * Windows Latin 1 otherwise. Malformed blocks are reported as {@link IllegalStateException}.
+ *
+ * @since 7.3
+ */
+public class IptcReader {
+
+    /**
+     * ExifTool family 0 group of the IIM datasets.
+     */
+    public static final String GROUP = "IPTC";
+
+    public static final String PHOTOSHOP = "Photoshop";
+
+    protected static final int TAG_MARKER = 0x1c;
+
+    protected static final int IPTC_RESOURCE = 0x0404;
+
+    protected static final int IPTC_DIGEST_RESOURCE = 0x0425;
+
+    protected static final byte[] RESOURCE_SIGNATURE = "8BIM".getBytes(StandardCharsets.ISO_8859_1);
+
+    protected static final byte[] UTF8_ESCAPE = { 0x1b, '%', 'G' };
+
+    protected static final Charset LATIN = Charset.forName("windows-1252");
+
+    protected static final int ENVELOPE = 1;
+
+    protected static final int APPLICATION = 2;
+
+    protected static final int CODED_CHARACTER_SET = 90;
+
+    /**
+     * ExifTool names of the datasets, by record number times 256 plus dataset number.
+     */
+    protected static final Map<Integer, String> DATASETS = new HashMap<>();
+
+    protected static final Set<Integer> LISTS = new HashSet<>();
+
+    protected static final Set<Integer> NUMBERS = new HashSet<>();
+
+    protected static final Set<Integer> DATES = new HashSet<>();
+
+    protected static final Set<Integer> TIMES = new HashSet<>();
+
+    protected static final Map<String, String> URGENCIES = new HashMap<>();
+
+    protected static final Map<String, String> OBJECT_CYCLES = new HashMap<>();
+
+    protected static final Map<String, String> IMAGE_ORIENTATIONS = new HashMap<>();
+
+    protected static final String[] FILE_FORMATS = { "No ObjectData", "IPTC-NAA Digital Newsphoto Parameter Record",
+            "IPTC7901 Recommended Message Format", "Tagged Image File Format (Adobe/Aldus Image data)",
+            "Illustrator (Adobe Graphics data)", "AppleSingle (Apple Computer Inc)", "NAA 89-3 (ANPA 1312)",
+            "MacBinary II", "IPTC Unstructured Character Oriented File Format (UCOFF)",
+            "United Press International ANPA 1312 variant", "United Press International Down-Load Message",
+            "JPEG File Interchange (JFIF)", "Photo-CD Image-Pac (Eastman Kodak)",
+            "Bit Mapped Graphics File [.BMP] (Microsoft)", "Digital Audio File [.WAV] (Microsoft & Creative Labs)",
+            "Audio plus Moving Video [.AVI] (Microsoft)", "PC DOS/Windows Executable Files [.COM][.EXE]",
+            "Compressed Binary File [.ZIP] (PKWare Inc)", "Audio Interchange File Format AIFF (Apple Computer Inc)",
+            "RIFF Wave (Microsoft Corporation)", "Freehand (Macromedia/Aldus)",
+            "Hypertext Markup Language [.HTML] (The Internet Society)", "MPEG 2 Audio Layer 2 (Musicom), ISO/IEC",
+            "MPEG 2 Audio Layer 3, ISO/IEC", "Portable Document File [.PDF] Adobe",
+            "News Industry Text Format (NITF)", "Tape Archive [.TAR]",
+            "Tidningarnas Telegrambyra NITF version (TTNITF DTD)", "Ritzaus Bureau NITF version (RBNITF DTD)",
+            "Corel Draw [.CDR]" };
+
+    static {
+        addDataset(ENVELOPE, 0, "EnvelopeRecordVersion");
+        NUMBERS.add(Integer.valueOf(ENVELOPE << 8));
+        addDataset(ENVELOPE, 5, "Destination");
+        LISTS.add(Integer.valueOf(ENVELOPE << 8 | 5));
+        addDataset(ENVELOPE, 20, "FileFormat");
+        NUMBERS.add(Integer.valueOf(ENVELOPE << 8 | 20));
+        addDataset(ENVELOPE, 22, "FileVersion");
+        NUMBERS.add(Integer.valueOf(ENVELOPE << 8 | 22));
+        addDataset(ENVELOPE, 30, "ServiceIdentifier");
+        addDataset(ENVELOPE, 40, "EnvelopeNumber");
+        addDataset(ENVELOPE, 50, "ProductID");
+        LISTS.add(Integer.valueOf(ENVELOPE << 8 | 50));
+        addDataset(ENVELOPE, 60, "EnvelopePriority");
+        addDataset(ENVELOPE, 70, "DateSent");
+        DATES.add(Integer.valueOf(ENVELOPE << 8 | 70));
+        addDataset(ENVELOPE, 80, "TimeSent");
+        TIMES.add(Integer.valueOf(ENVELOPE << 8 | 80));
+        addDataset(ENVELOPE, CODED_CHARACTER_SET, "CodedCharacterSet");
+        addDataset(ENVELOPE, 100, "UniqueObjectName");
+        addDataset(ENVELOPE, 120, "ARMIdentifier");
+        NUMBERS.add(Integer.valueOf(ENVELOPE << 8 | 120));
+        addDataset(ENVELOPE, 122, "ARMVersion");
+        NUMBERS.add(Integer.valueOf(ENVELOPE << 8 | 122));
+
+        addDataset(APPLICATION, 0, "ApplicationRecordVersion");
+        NUMBERS.add(Integer.valueOf(APPLICATION << 8));
+        addDataset(APPLICATION, 3, "ObjectTypeReference");
+        addDataset(APPLICATION, 4, "ObjectAttributeReference");
+        LISTS.add(Integer.valueOf(APPLICATION << 8 | 4));
+        addDataset(APPLICATION, 5, "ObjectName");
+        addDataset(APPLICATION, 7, "EditStatus");
+        addDataset(APPLICATION, 8, "EditorialUpdate");
+        addDataset(APPLICATION, 10, "Urgency");
+        addDataset(APPLICATION, 12, "SubjectReference");
+        LISTS.add(Integer.valueOf(APPLICATION << 8 | 12));
+        addDataset(APPLICATION, 15, "Category");
+        addDataset(APPLICATION, 20, "SupplementalCategories");
+        LISTS.add(Integer.valueOf(APPLICATION << 8 | 20));
+        addDataset(APPLICATION, 22, "FixtureIdentifier");
+        addDataset(APPLICATION, 25, "Keywords");
+        LISTS.add(Integer.valueOf(APPLICATION << 8 | 25));
+        addDataset(APPLICATION, 26, "ContentLocationCode");
+        LISTS.add(Integer.valueOf(APPLICATION << 8 | 26));
+        addDataset(APPLICATION, 27, "ContentLocationName");
+        LISTS.add(Integer.valueOf(APPLICATION << 8 | 27));
+        addDataset(APPLICATION, 30, "ReleaseDate");
+        DATES.add(Integer.valueOf(APPLICATION << 8 | 30));
+        addDataset(APPLICATION, 35, "ReleaseTime");
+        TIMES.add(Integer.valueOf(APPLICATION << 8 | 35));
+        addDataset(APPLICATION, 37, "ExpirationDate");
+        DATES.add(Integer.valueOf(APPLICATION << 8 | 37));
+        addDataset(APPLICATION, 38, "ExpirationTime");
+        TIMES.add(Integer.valueOf(APPLICATION << 8 | 38));
+        addDataset(APPLICATION, 40, "SpecialInstructions");
+        addDataset(APPLICATION, 42, "ActionAdvised");
+        addDataset(APPLICATION, 45, "ReferenceService");
+        LISTS.add(Integer.valueOf(APPLICATION << 8 | 45));
+        addDataset(APPLICATION, 47, "ReferenceDate");
+        LISTS.add(Integer.valueOf(APPLICATION << 8 | 47));
+        DATES.add(Integer.valueOf(APPLICATION << 8 | 47));
+        addDataset(APPLICATION, 50, "ReferenceNumber");
+        LISTS.add(Integer.valueOf(APPLICATION << 8 | 50));
+        addDataset(APPLICATION, 55, "DateCreated");
+        DATES.add(Integer.valueOf(APPLICATION << 8 | 55));
+        addDataset(APPLICATION, 60, "TimeCreated");
+        TIMES.add(Integer.valueOf(APPLICATION << 8 | 60));
+        addDataset(APPLICATION, 62, "DigitalCreationDate");
+        DATES.add(Integer.valueOf(APPLICATION << 8 | 62));
+        addDataset(APPLICATION, 63, "DigitalCreationTime");
+        TIMES.add(Integer.valueOf(APPLICATION << 8 | 63));
+        addDataset(APPLICATION, 65, "OriginatingProgram");
+        addDataset(APPLICATION, 70, "ProgramVersion");
+        addDataset(APPLICATION, 75, "ObjectCycle");
+        addDataset(APPLICATION, 80, "By-line");
+        LISTS.add(Integer.valueOf(APPLICATION << 8 | 80));
+        addDataset(APPLICATION, 85, "By-lineTitle");
+        LISTS.add(Integer.valueOf(APPLICATION << 8 | 85));
+        addDataset(APPLICATION, 90, "City");
+        addDataset(APPLICATION, 92, "Sub-location");
+        addDataset(APPLICATION, 95, "Province-State");
+        addDataset(APPLICATION, 100, "Country-PrimaryLocationCode");
+        addDataset(APPLICATION, 101, "Country-PrimaryLocationName");
+        addDataset(APPLICATION, 103, "OriginalTransmissionReference");
+        addDataset(APPLICATION, 105, "Headline");
+        addDataset(APPLICATION, 110, "Credit");
+        addDataset(APPLICATION, 115, "Source");
+        addDataset(APPLICATION, 116, "CopyrightNotice");
+        addDataset(APPLICATION, 118, "Contact");
+        LISTS.add(Integer.valueOf(APPLICATION << 8 | 118));
+        addDataset(APPLICATION, 120, "Caption-Abstract");
+        addDataset(APPLICATION, 121, "LocalCaption");
+        addDataset(APPLICATION, 122, "Writer-Editor");
+        LISTS.add(Integer.valueOf(APPLICATION << 8 | 122));
+        addDataset(APPLICATION, 130, "ImageType");
+        addDataset(APPLICATION, 131, "ImageOrientation");
+        addDataset(APPLICATION, 135, "LanguageIdentifier");
+        addDataset(APPLICATION, 150, "AudioType");
+        addDataset(APPLICATION, 151, "AudioSamplingRate");
+        addDataset(APPLICATION, 152, "AudioSamplingResolution");
+        addDataset(APPLICATION, 153, "AudioDuration");
+        addDataset(APPLICATION, 154, "AudioOutcue");
+        addDataset(APPLICATION, 184, "JobID");
+        addDataset(APPLICATION, 185, "MasterDocumentID");
+        addDataset(APPLICATION, 186, "ShortDocumentID");
+        addDataset(APPLICATION, 187, "UniqueDocumentID");
+        addDataset(APPLICATION, 188, "OwnerID");
+        addDataset(APPLICATION, 200, "ObjectPreviewFileFormat");
+        NUMBERS.add(Integer.valueOf(APPLICATION << 8 | 200));
+        addDataset(APPLICATION, 201, "ObjectPreviewFileVersion");
+        NUMBERS.add(Integer.valueOf(APPLICATION << 8 | 201));
+        addDataset(APPLICATION, 221, "Prefs");
+        addDataset(APPLICATION, 225, "ClassifyState");
+        addDataset(APPLICATION, 228, "SimilarityIndex");
+        addDataset(APPLICATION, 230, "DocumentNotes");
+        addDataset(APPLICATION, 231, "DocumentHistory");
+        addDataset(APPLICATION, 232, "ExifCameraInfo");
+        addDataset(APPLICATION, 255, "CatalogSets");
+        LISTS.add(Integer.valueOf(APPLICATION << 8 | 255));
+
+        URGENCIES.put("0", "0 (reserved)");
+        URGENCIES.put("1", "1 (most urgent)");
+        URGENCIES.put("5", "5 (normal urgency)");
+        URGENCIES.put("8", "8 (least urgent)");
+        URGENCIES.put("9", "9 (user-defined priority)");
+        OBJECT_CYCLES.put("a", "Morning");
+        OBJECT_CYCLES.put("p", "Evening");
+        OBJECT_CYCLES.put("b", "Both Morning and Evening");
+        IMAGE_ORIENTATIONS.put("P", "Portrait");
+        IMAGE_ORIENTATIONS.put("L", "Landscape");
+        IMAGE_ORIENTATIONS.put("S", "Square");
+    }
+
+    protected static void addDataset(int record, int dataset, String name) {
+        DATASETS.put(Integer.valueOf(record << 8 | dataset), name);
+    }
+
+    private IptcReader() {
+        // utility class
+    }
+
+    /**
+     * Reads the IIM block of the image resource block, and the {@code Photoshop:IPTCDigest} stored along with it.
+     *
+     * @param resources The sequence of {@code 8BIM} resources, positioned on the first one.
+     * @return {@code true} if the block holds an IIM resource.
+     */
+    public static boolean readResources(ByteBuffer resources, Map<String, Object> tags) {
+        boolean found = false;
+        int position = resources.position();
+        while (position + 12 <= resources.limit()) {
+            for (int i = 0; i < RESOURCE_SIGNATURE.length; i++) {
+                if (resources.get(position + i) != RESOURCE_SIGNATURE[i]) {
+                    throw new IllegalStateException("Invalid image resource at " + position);
+                }
+            }
+            int id = resources.getShort(position + 4) & 0xffff;
+            // the name is a Pascal string padded to an even length
+            int nameLength = (resources.get(position + 6) & 0xff) + 1;
+            position += 6 + nameLength + (nameLength & 1);
+            if (position + 4 > resources.limit()) {
+                throw new IllegalStateException("Truncated image resource");
+            }
+            long length = resources.getInt(position) & 0xffffffffL;
+            position += 4;
+            if (position + length > resources.limit()) {
+                throw new IllegalStateException("Truncated image resource");
+            }
+            if (id == IPTC_RESOURCE && !found) {
+                read(slice(resources, position, (int) length), tags);
+                found = true;
+            } else if (id == IPTC_DIGEST_RESOURCE && length == 16) {
+                TagValues.put(tags, PHOTOSHOP, "IPTCDigest", toHex(slice(resources, position, 16)));
+            }
+            position += length + (length & 1);
+        }
+        return found;
+    }
+
+    /**
+     * Reads the IIM datasets, along with the {@code File:CurrentIPTCDigest} of the block and the {@code Composite:}
+     * date and time tags.
+     */
+    public static void read(ByteBuffer iim, Map<String, Object> tags) {
+        Map<Integer, List<String>> values = new LinkedHashMap<>();
+        Charset charset = LATIN;
+        int position = iim.position();
+        int start = position;
+        while (position + 5 <= iim.limit() && (iim.get(position) & 0xff) == TAG_MARKER) {
+            int record = iim.get(position + 1) & 0xff;
+            int dataset = iim.get(position + 2) & 0xff;
+            long length = iim.getShort(position + 3) & 0xffff;
+            position += 5;
+            if ((length & 0x8000) != 0) {
+                // extended dataset, the length being stored in the next bytes
+                int count = (int) (length & 0x7fff);
+                if (count > 4 || position + count > iim.limit()) {
+                    throw new IllegalStateException("Invalid IIM dataset length at " + position);
+                }
+                length = 0;
+                for (int i = 0; i < count; i++) {
+                    length = length << 8 | (iim.get(position++) & 0xff);
+                }
+            }
+            if (position + length > iim.limit()) {
+                throw new IllegalStateException("Truncated IIM dataset " + record + ":" + dataset);
+            }
+            byte[] data = new byte[(int) length];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = iim.get(position + i);
+            }
+            position += length;
+            Integer key = Integer.valueOf(record << 8 | dataset);
+            if (record == ENVELOPE && dataset == CODED_CHARACTER_SET) {
+                charset = Arrays.equals(data, UTF8_ESCAPE) ? StandardCharsets.UTF_8 : LATIN;
+            }
+            if (!DATASETS.containsKey(key)) {
+                continue;
+            }
+            List<String> list = values.get(key);
+            if (list == null) {
+                list = new ArrayList<>();
+                values.put(key, list);
+            } else if (!LISTS.contains(key)) {
+                continue;
+            }
+            list.add(decode(key, data, charset));
+        }
+        if (values.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<Integer, List<String>> entry : values.entrySet()) {
+            Integer key = entry.getKey();
+            Object value;
+            if (LISTS.contains(key)) {
+                value = TagValues.toJson(entry.getValue());
+            } else {
+                value = TagValues.toJson(entry.getValue().get(0));
+            }
+            TagValues.put(tags, GROUP, DATASETS.get(key), value);
+        }
+        TagValues.put(tags, "File", "CurrentIPTCDigest", toHex(md5(slice(iim, start, position - start))));
+        putDateTime(tags, "DateTimeCreated", values, APPLICATION << 8 | 55, APPLICATION << 8 | 60);
+        putDateTime(tags, "DigitalCreationDateTime", values, APPLICATION << 8 | 62, APPLICATION << 8 | 63);
+    }
+
+    /**
+     * @return The ExifTool print conversion of the dataset value.
+     */
+    protected static String decode(Integer key, byte[] data, Charset charset) {
+        int id = key.intValue();
+        if (NUMBERS.contains(key) && data.length <= 4) {
+            long number = 0;
+            for (byte b : data) {
+                number = number << 8 | (b & 0xff);
+            }
+            if (id == (ENVELOPE << 8 | 20) && number < FILE_FORMATS.length) {
+                return FILE_FORMATS[(int) number];
+            }
+            return Long.toString(number);
+        }
+        if (id == (ENVELOPE << 8 | CODED_CHARACTER_SET)) {
+            return Arrays.equals(data, UTF8_ESCAPE) ? "UTF8" : new String(data, StandardCharsets.ISO_8859_1);
+        }
+        String value = new String(data, charset);
+        if (DATES.contains(key)) {
+            return formatDate(value);
+        } else if (TIMES.contains(key)) {
+            return formatTime(value);
+        } else if (id == (APPLICATION << 8 | 10)) {
+            return get(URGENCIES, value);
+        } else if (id == (APPLICATION << 8 | 75)) {
+            return get(OBJECT_CYCLES, value);
+        } else if (id == (APPLICATION << 8 | 131)) {
+            return get(IMAGE_ORIENTATIONS, value);
+        }
+        return value;
+    }
+
+    /**
+     * Formats a {@code CCYYMMDD} date as {@code CCYY:MM:DD}.
+     */
+    protected static String formatDate(String value) {
+        if (value.length() != 8) {
+            return value;
+        }
+        return value.substring(0, 4) + ":" + value.substring(4, 6) + ":" + value.substring(6);
+    }
+
+    /**
+     * Formats a {@code HHMMSS+HHMM} time as {@code HH:MM:SS+HH:MM}.
+     */
+    protected static String formatTime(String value) {
+        if (value.length() < 6) {
+            return value;
+        }
+        String time = value.substring(0, 2) + ":" + value.substring(2, 4) + ":" + value.substring(4, 6);
+        if (value.length() == 11) {
+            time += value.substring(6, 9) + ":" + value.substring(9);
+        }
+        return time;
+    }
+
+    protected static void putDateTime(Map<String, Object> tags, String name, Map<Integer, List<String>> values,
+            int date, int time) {
+        List<String> dates = values.get(Integer.valueOf(date));
+        List<String> times = values.get(Integer.valueOf(time));
+        if (dates != null && times != null) {
+            TagValues.put(tags, "Composite", name, dates.get(0) + " " + times.get(0));
+        }
+    }
+
+    protected static String get(Map<String, String> labels, String value) {
+        String label = labels.get(value);
+        return label == null ? value : label;
+    }
+
+    protected static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(position);
+        slice.limit(position + length);
+        return slice.slice();
+    }
+
+    protected static ByteBuffer md5(ByteBuffer data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(data.duplicate());
+            return ByteBuffer.wrap(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    protected static String toHex(ByteBuffer data) {
+        StringBuilder hex = new StringBuilder(data.remaining() * 2);
+        for (int i = data.position(); i < data.limit(); i++) {
+            hex.append(String.format("%02x", Integer.valueOf(data.get(i) & 0xff)));
+        }
+        return hex.toString();
+    }
+
+}
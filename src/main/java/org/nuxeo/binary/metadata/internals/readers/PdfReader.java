@@ -0,0 +1,1003 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals.readers;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Reads the document information dictionary, the catalog language and page count, and the XMP metadata stream of a
+ * PDF file into ExifTool {@code PDF:} and {@code XMP:} tags. Starting from {@code startxref}, only the cross-reference
+ * sections (tables or streams) and the objects leading to these metadata are parsed, so that only a few pages of a
+ * mapped file are actually read.
+ * <p>
+ * Malformed structures are reported as {@link IllegalStateException}.
+ *
+ * @since 7.3
+ */
+public class PdfReader {
+
+    /**
+     * ExifTool family 0 group of the document information tags.
+     */
+    public static final String GROUP = "PDF";
+
+    protected static final byte[] HEADER = "%PDF-".getBytes(StandardCharsets.ISO_8859_1);
+
+    protected static final byte[] STARTXREF = "startxref".getBytes(StandardCharsets.ISO_8859_1);
+
+    protected static final int TAIL_LENGTH = 1024;
+
+    /**
+     * Maximum size of a decoded stream.
+     */
+    protected static final int MAX_DECODED_LENGTH = 64 * 1024 * 1024;
+
+    protected static final Pattern DATE = Pattern.compile(
+            "\\s*D:\\s*(\\d{4})(\\d{2})?(\\d{2})?(\\d{2})?(\\d{2})?(\\d{2})?(?:([-+])(\\d{2})'?(\\d{2})?|(Z))?.*");
+
+    /**
+     * ExifTool names of the document information entries which are not named after the entry.
+     */
+    protected static final Map<String, String> INFO_NAMES = new HashMap<>();
+
+    /**
+     * PDFDocEncoding characters which differ from ISO-8859-1, for the codes 0x18 to 0x1f and 0x80 to 0xa0.
+     */
+    protected static final char[] DOC_ENCODING_LOW = { '\u02d8', '\u02c7', '\u02c6', '\u02d9', '\u02dd', '\u02db',
+            '\u02da', '\u02dc' };
+
+    protected static final char[] DOC_ENCODING_HIGH = { '\u2022', '\u2020', '\u2021', '\u2026', '\u2014', '\u2013',
+            '\u0192', '\u2044', '\u2039', '\u203a', '\u2212', '\u2030', '\u201e', '\u201c', '\u201d', '\u2018',
+            '\u2019', '\u201a', '\u2122', '\ufb01', '\ufb02', '\u0141', '\u0152', '\u0160', '\u0178', '\u017d',
+            '\u0131', '\u0142', '\u0153', '\u0161', '\u017e', '\ufffd', '\u20ac' };
+
+    static {
+        INFO_NAMES.put("CreationDate", "CreateDate");
+        INFO_NAMES.put("ModDate", "ModifyDate");
+    }
+
+    /**
+     * PDF name object.
+     */
+    public static final class Name {
+
+        protected final String value;
+
+        public Name(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Name && value.equals(((Name) obj).value);
+        }
+
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+
+    }
+
+    /**
+     * Indirect object reference.
+     */
+    public static final class Reference {
+
+        protected final int number;
+
+        protected final int generation;
+
+        public Reference(int number, int generation) {
+            this.number = number;
+            this.generation = generation;
+        }
+
+        @Override
+        public String toString() {
+            return number + " " + generation + " R";
+        }
+
+    }
+
+    /**
+     * Stream object, its data being decoded on demand.
+     */
+    public static final class Stream {
+
+        protected final Map<String, Object> dictionary;
+
+        protected final ByteBuffer buffer;
+
+        protected final int start;
+
+        public Stream(Map<String, Object> dictionary, ByteBuffer buffer, int start) {
+            this.dictionary = dictionary;
+            this.buffer = buffer;
+            this.start = start;
+        }
+
+    }
+
+    /**
+     * Keywords other than {@code true}, {@code false} and {@code null}.
+     */
+    protected static final class Keyword {
+
+        protected final String value;
+
+        protected Keyword(String value) {
+            this.value = value;
+        }
+
+    }
+
+    protected final ByteBuffer buffer;
+
+    /**
+     * Offsets of the uncompressed objects, by object number.
+     */
+    protected final Map<Integer, Long> offsets = new HashMap<>();
+
+    /**
+     * Object stream number and index of the compressed objects, by object number.
+     */
+    protected final Map<Integer, int[]> compressed = new HashMap<>();
+
+    /**
+     * The trailer entries, the most recent update winning.
+     */
+    protected final Map<String, Object> trailer = new HashMap<>();
+
+    protected final Map<Integer, Object> objects = new HashMap<>();
+
+    protected final Set<Integer> resolving = new HashSet<>();
+
+    /**
+     * @param buffer The whole file, typically mapped.
+     */
+    public PdfReader(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+    }
+
+    public static boolean isPdf(ByteBuffer head) {
+        if (head.remaining() < HEADER.length) {
+            return false;
+        }
+        for (int i = 0; i < HEADER.length; i++) {
+            if (head.get(head.position() + i) != HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the cross-reference sections and trailers, from the last one to the first one.
+     */
+    public void readCrossReferences() {
+        long offset = findStartXref();
+        Set<Long> visited = new HashSet<>();
+        while (offset > 0 && offset < buffer.limit() && visited.add(Long.valueOf(offset))) {
+            Lexer lexer = new Lexer(buffer, (int) offset);
+            Map<String, Object> sectionTrailer;
+            if (lexer.skipKeyword("xref")) {
+                sectionTrailer = readXrefTable(lexer);
+                Object xrefStream = sectionTrailer.get("XRefStm");
+                if (xrefStream instanceof Number && visited.add(Long.valueOf(((Number) xrefStream).longValue()))) {
+                    // hybrid file: the stream holds the compressed objects of the same update
+                    readXrefStream(((Number) xrefStream).intValue());
+                }
+            } else {
+                sectionTrailer = readXrefStream((int) offset);
+            }
+            for (Map.Entry<String, Object> entry : sectionTrailer.entrySet()) {
+                if (!trailer.containsKey(entry.getKey())) {
+                    trailer.put(entry.getKey(), entry.getValue());
+                }
+            }
+            Object previous = sectionTrailer.get("Prev");
+            offset = previous instanceof Number ? ((Number) previous).longValue() : 0;
+        }
+        if (!trailer.containsKey("Root")) {
+            throw new IllegalStateException("No PDF trailer found");
+        }
+    }
+
+    public boolean isEncrypted() {
+        return trailer.get("Encrypt") != null;
+    }
+
+    /**
+     * Reads the tags, once the cross-reference sections are read.
+     */
+    public void read(Map<String, Object> tags) {
+        TagValues.put(tags, GROUP, "PDFVersion", TagValues.toJson(getVersion()));
+        TagValues.put(tags, GROUP, "Linearized", isLinearized() ? "Yes" : "No");
+        Object info = resolve(trailer.get("Info"));
+        if (info instanceof Map) {
+            for (Map.Entry<String, Object> entry : asDictionary(info).entrySet()) {
+                String name = getInfoName(entry.getKey());
+                if (name != null) {
+                    TagValues.put(tags, GROUP, name, toTagValue(entry.getKey(), resolve(entry.getValue())));
+                }
+            }
+        }
+        Object root = resolve(trailer.get("Root"));
+        if (!(root instanceof Map)) {
+            return;
+        }
+        Map<String, Object> catalog = asDictionary(root);
+        Object pages = resolve(catalog.get("Pages"));
+        if (pages instanceof Map) {
+            Object count = resolve(asDictionary(pages).get("Count"));
+            if (count instanceof Number) {
+                TagValues.put(tags, GROUP, "PageCount", Integer.valueOf(((Number) count).intValue()));
+            }
+        }
+        Object language = resolve(catalog.get("Lang"));
+        if (language instanceof byte[]) {
+            TagValues.put(tags, GROUP, "Language", TagValues.toJson(decodeText((byte[]) language)));
+        }
+        Object metadata = resolve(catalog.get("Metadata"));
+        if (metadata instanceof Stream) {
+            try {
+                XmpReader.read(ByteBuffer.wrap(decode((Stream) metadata)), tags);
+            } catch (XMLStreamException e) {
+                throw new IllegalStateException("Invalid XMP metadata stream", e);
+            }
+        }
+    }
+
+    protected String getVersion() {
+        Lexer lexer = new Lexer(buffer, HEADER.length);
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = lexer.peek()) >= 0 && (Character.isDigit(c) || c == '.') && sb.length() < 8) {
+            sb.append((char) c);
+            lexer.pos++;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A linearized file starts with a linearization dictionary giving the file length.
+     */
+    protected boolean isLinearized() {
+        try {
+            Lexer lexer = new Lexer(buffer, HEADER.length);
+            lexer.skipLine();
+            Object object = lexer.readIndirectObject();
+            if (!(object instanceof Map)) {
+                return false;
+            }
+            Map<String, Object> dictionary = asDictionary(object);
+            Object length = dictionary.get("L");
+            return dictionary.containsKey("Linearized") && length instanceof Number
+                    && ((Number) length).longValue() == buffer.limit();
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
+
+    protected static String getInfoName(String key) {
+        String name = INFO_NAMES.get(key);
+        if (name != null) {
+            return name;
+        }
+        StringBuilder sb = new StringBuilder(key.length());
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (Character.isLetterOrDigit(c) || c == '-' || c == '_') {
+                sb.append(sb.length() == 0 ? Character.toUpperCase(c) : c);
+            }
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    protected Object toTagValue(String key, Object value) {
+        if (value instanceof byte[]) {
+            String text = decodeText((byte[]) value);
+            if (INFO_NAMES.containsKey(key)) {
+                text = convertDate(text);
+            }
+            return TagValues.toJson(text);
+        } else if (value instanceof Name) {
+            return value.toString();
+        } else if (value instanceof Number) {
+            return TagValues.toJson(TagValues.formatNumber(((Number) value).doubleValue()));
+        } else if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue() ? "true" : "false";
+        }
+        return null;
+    }
+
+    /**
+     * ExifTool date format, such as 2010:10:26 15:48:33+02:00.
+     */
+    protected static String convertDate(String date) {
+        Matcher matcher = DATE.matcher(date);
+        if (!matcher.matches()) {
+            return date;
+        }
+        StringBuilder sb = new StringBuilder(25);
+        sb.append(matcher.group(1)).append(':');
+        sb.append(matcher.group(2) == null ? "01" : matcher.group(2)).append(':');
+        sb.append(matcher.group(3) == null ? "01" : matcher.group(3)).append(' ');
+        sb.append(matcher.group(4) == null ? "00" : matcher.group(4)).append(':');
+        sb.append(matcher.group(5) == null ? "00" : matcher.group(5)).append(':');
+        sb.append(matcher.group(6) == null ? "00" : matcher.group(6));
+        if (matcher.group(7) != null) {
+            sb.append(matcher.group(7)).append(matcher.group(8)).append(':');
+            sb.append(matcher.group(9) == null ? "00" : matcher.group(9));
+        } else if (matcher.group(10) != null) {
+            sb.append('Z');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Decodes a text string, in UTF-16BE or UTF-8 with a byte order mark, in PDFDocEncoding otherwise.
+     */
+    public static String decodeText(byte[] bytes) {
+        if (bytes.length >= 2 && (bytes[0] & 0xff) == 0xfe && (bytes[1] & 0xff) == 0xff) {
+            return new String(bytes, 2, bytes.length - 2, StandardCharsets.UTF_16BE);
+        } else if (bytes.length >= 3 && (bytes[0] & 0xff) == 0xef && (bytes[1] & 0xff) == 0xbb
+                && (bytes[2] & 0xff) == 0xbf) {
+            return new String(bytes, 3, bytes.length - 3, StandardCharsets.UTF_8);
+        }
+        char[] chars = new char[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xff;
+            if (b >= 0x18 && b <= 0x1f) {
+                chars[i] = DOC_ENCODING_LOW[b - 0x18];
+            } else if (b >= 0x80 && b <= 0xa0) {
+                chars[i] = DOC_ENCODING_HIGH[b - 0x80];
+            } else {
+                chars[i] = (char) b;
+            }
+        }
+        return new String(chars);
+    }
+
+    /*--------------------------- Cross-references ------------------------*/
+
+    protected long findStartXref() {
+        int limit = buffer.limit();
+        int from = Math.max(0, limit - TAIL_LENGTH);
+        for (int i = limit - STARTXREF.length; i >= from; i--) {
+            if (matches(i, STARTXREF)) {
+                Lexer lexer = new Lexer(buffer, i + STARTXREF.length);
+                Object offset = lexer.readObject();
+                if (offset instanceof Number) {
+                    return ((Number) offset).longValue();
+                }
+                break;
+            }
+        }
+        throw new IllegalStateException("No startxref found");
+    }
+
+    protected boolean matches(int position, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(position + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the subsections of a cross-reference table, the {@code xref} keyword being read, up to the trailer.
+     */
+    protected Map<String, Object> readXrefTable(Lexer lexer) {
+        while (true) {
+            if (lexer.skipKeyword("trailer")) {
+                Object dictionary = lexer.readObject();
+                if (!(dictionary instanceof Map)) {
+                    throw new IllegalStateException("Invalid PDF trailer");
+                }
+                return asDictionary(dictionary);
+            }
+            int first = lexer.readInt();
+            int count = lexer.readInt();
+            for (int i = 0; i < count; i++) {
+                long offset = lexer.readLong();
+                lexer.readInt();
+                Object type = lexer.readObject();
+                Integer number = Integer.valueOf(first + i);
+                if (type instanceof Keyword && "n".equals(((Keyword) type).value) && !isKnown(number)) {
+                    offsets.put(number, Long.valueOf(offset));
+                } else if (!isKnown(number)) {
+                    // free entry, hiding the older definitions
+                    offsets.put(number, Long.valueOf(0));
+                }
+            }
+        }
+    }
+
+    protected boolean isKnown(Integer number) {
+        return offsets.containsKey(number) || compressed.containsKey(number);
+    }
+
+    protected Map<String, Object> readXrefStream(int offset) {
+        Object object = new Lexer(buffer, offset).readIndirectObject();
+        if (!(object instanceof Stream)) {
+            throw new IllegalStateException("Invalid PDF cross-reference stream at " + offset);
+        }
+        Stream stream = (Stream) object;
+        List<Object> widths = asArray(stream.dictionary.get("W"));
+        int[] w = new int[3];
+        for (int i = 0; i < 3; i++) {
+            w[i] = ((Number) widths.get(i)).intValue();
+        }
+        List<Object> index = stream.dictionary.containsKey("Index") ? asArray(stream.dictionary.get("Index"))
+                : null;
+        if (index == null) {
+            index = new ArrayList<>();
+            index.add(Long.valueOf(0));
+            index.add(stream.dictionary.get("Size"));
+        }
+        byte[] data = decode(stream);
+        int entryLength = w[0] + w[1] + w[2];
+        int position = 0;
+        for (int i = 0; i + 1 < index.size(); i += 2) {
+            int first = ((Number) index.get(i)).intValue();
+            int count = ((Number) index.get(i + 1)).intValue();
+            for (int j = 0; j < count && position + entryLength <= data.length; j++) {
+                long type = w[0] == 0 ? 1 : getField(data, position, w[0]);
+                long field2 = getField(data, position + w[0], w[1]);
+                long field3 = getField(data, position + w[0] + w[1], w[2]);
+                position += entryLength;
+                Integer number = Integer.valueOf(first + j);
+                if (isKnown(number)) {
+                    continue;
+                }
+                if (type == 1) {
+                    offsets.put(number, Long.valueOf(field2));
+                } else if (type == 2) {
+                    compressed.put(number, new int[] { (int) field2, (int) field3 });
+                } else {
+                    offsets.put(number, Long.valueOf(0));
+                }
+            }
+        }
+        return stream.dictionary;
+    }
+
+    protected static long getField(byte[] data, int position, int length) {
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (data[position + i] & 0xff);
+        }
+        return value;
+    }
+
+    /*--------------------------- Objects ------------------------*/
+
+    /**
+     * @return The object, resolved if it is a reference, {@code null} if the reference is unknown.
+     */
+    protected Object resolve(Object object) {
+        if (!(object instanceof Reference)) {
+            return object;
+        }
+        Integer number = Integer.valueOf(((Reference) object).number);
+        if (objects.containsKey(number)) {
+            return objects.get(number);
+        }
+        if (!resolving.add(number)) {
+            throw new IllegalStateException("Circular reference to object " + number);
+        }
+        try {
+            Object resolved = null;
+            Long offset = offsets.get(number);
+            int[] location = compressed.get(number);
+            if (offset != null && offset.longValue() > 0 && offset.longValue() < buffer.limit()) {
+                resolved = new Lexer(buffer, offset.intValue()).readIndirectObject();
+            } else if (location != null) {
+                resolved = readCompressedObject(location[0], location[1]);
+            }
+            objects.put(number, resolved);
+            return resolved;
+        } finally {
+            resolving.remove(number);
+        }
+    }
+
+    protected Object readCompressedObject(int streamNumber, int index) {
+        Object object = resolve(new Reference(streamNumber, 0));
+        if (!(object instanceof Stream)) {
+            throw new IllegalStateException("Invalid PDF object stream " + streamNumber);
+        }
+        Stream stream = (Stream) object;
+        int count = ((Number) resolve(stream.dictionary.get("N"))).intValue();
+        int first = ((Number) resolve(stream.dictionary.get("First"))).intValue();
+        if (index >= count) {
+            return null;
+        }
+        ByteBuffer data = ByteBuffer.wrap(decode(stream));
+        Lexer lexer = new Lexer(data, 0);
+        int offset = -1;
+        for (int i = 0; i <= index; i++) {
+            lexer.readInt();
+            offset = lexer.readInt();
+        }
+        return new Lexer(data, first + offset).readObject();
+    }
+
+    /**
+     * @return The decoded data of the stream, only the FlateDecode filter being supported.
+     */
+    protected byte[] decode(Stream stream) {
+        Object lengthObject = resolve(stream.dictionary.get("Length"));
+        if (!(lengthObject instanceof Number)) {
+            throw new IllegalStateException("Invalid PDF stream length");
+        }
+        int length = ((Number) lengthObject).intValue();
+        if (length < 0 || stream.start + length > stream.buffer.limit()) {
+            throw new IllegalStateException("Invalid PDF stream length: " + length);
+        }
+        byte[] data = new byte[length];
+        ByteBuffer source = stream.buffer.duplicate();
+        source.position(stream.start);
+        source.get(data);
+        Object filter = resolve(stream.dictionary.get("Filter"));
+        Object parameters = resolve(stream.dictionary.get("DecodeParms"));
+        if (filter instanceof List) {
+            List<Object> filters = asArray(filter);
+            if (filters.size() > 1) {
+                throw new IllegalStateException("Unsupported PDF filters " + filters);
+            }
+            filter = filters.isEmpty() ? null : filters.get(0);
+            if (parameters instanceof List) {
+                List<Object> list = asArray(parameters);
+                parameters = list.isEmpty() ? null : resolve(list.get(0));
+            }
+        }
+        if (filter == null) {
+            return data;
+        } else if (!"FlateDecode".equals(filter.toString())) {
+            throw new IllegalStateException("Unsupported PDF filter " + filter);
+        }
+        data = TagValues.inflate(data, MAX_DECODED_LENGTH);
+        if (parameters instanceof Map) {
+            Map<String, Object> decodeParameters = asDictionary(parameters);
+            Object predictor = decodeParameters.get("Predictor");
+            if (predictor instanceof Number && ((Number) predictor).intValue() >= 10) {
+                data = unpredict(data, getInt(decodeParameters, "Columns", 1) * getInt(decodeParameters, "Colors", 1)
+                        * getInt(decodeParameters, "BitsPerComponent", 8) / 8,
+                        Math.max(1, getInt(decodeParameters, "Colors", 1)
+                                * getInt(decodeParameters, "BitsPerComponent", 8) / 8));
+            } else if (predictor instanceof Number && ((Number) predictor).intValue() > 1) {
+                throw new IllegalStateException("Unsupported PDF predictor " + predictor);
+            }
+        }
+        return data;
+    }
+
+    protected int getInt(Map<String, Object> dictionary, String key, int defaultValue) {
+        Object value = resolve(dictionary.get(key));
+        return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+    }
+
+    /**
+     * Reverts the PNG predictors, each row starting with its predictor type.
+     */
+    protected static byte[] unpredict(byte[] data, int columns, int bytesPerPixel) {
+        int rowLength = columns + 1;
+        int rows = data.length / rowLength;
+        byte[] result = new byte[rows * columns];
+        byte[] previous = new byte[columns];
+        for (int row = 0; row < rows; row++) {
+            int type = data[row * rowLength] & 0xff;
+            int offset = row * rowLength + 1;
+            int out = row * columns;
+            for (int i = 0; i < columns; i++) {
+                int raw = data[offset + i] & 0xff;
+                int left = i >= bytesPerPixel ? result[out + i - bytesPerPixel] & 0xff : 0;
+                int up = previous[i] & 0xff;
+                int upLeft = i >= bytesPerPixel ? previous[i - bytesPerPixel] & 0xff : 0;
+                int value;
+                switch (type) {
+                case 1:
+                    value = raw + left;
+                    break;
+                case 2:
+                    value = raw + up;
+                    break;
+                case 3:
+                    value = raw + (left + up) / 2;
+                    break;
+                case 4:
+                    value = raw + paeth(left, up, upLeft);
+                    break;
+                default:
+                    value = raw;
+                }
+                result[out + i] = (byte) value;
+            }
+            System.arraycopy(result, out, previous, 0, columns);
+        }
+        return result;
+    }
+
+    protected static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static Map<String, Object> asDictionary(Object object) {
+        return (Map<String, Object>) object;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected List<Object> asArray(Object object) {
+        object = resolve(object);
+        if (!(object instanceof List)) {
+            throw new IllegalStateException("PDF array expected instead of " + object);
+        }
+        return (List<Object>) object;
+    }
+
+    /**
+     * Parses PDF objects from a buffer: dictionaries as maps keyed by name, arrays as lists, strings as bytes, numbers
+     * as {@link Long} or {@link Double}, and {@link Name}, {@link Reference} and {@link Stream} objects.
+     */
+    protected static class Lexer {
+
+        protected final ByteBuffer buffer;
+
+        protected int pos;
+
+        protected Lexer(ByteBuffer buffer, int pos) {
+            this.buffer = buffer;
+            this.pos = pos;
+        }
+
+        protected int peek() {
+            return pos < buffer.limit() ? buffer.get(pos) & 0xff : -1;
+        }
+
+        protected int peek(int offset) {
+            return pos + offset < buffer.limit() ? buffer.get(pos + offset) & 0xff : -1;
+        }
+
+        protected static boolean isWhitespace(int c) {
+            return c == 0 || c == 9 || c == 10 || c == 12 || c == 13 || c == 32;
+        }
+
+        protected static boolean isDelimiter(int c) {
+            return c == '(' || c == ')' || c == '<' || c == '>' || c == '[' || c == ']' || c == '{' || c == '}'
+                    || c == '/' || c == '%';
+        }
+
+        protected static boolean isRegular(int c) {
+            return c >= 0 && !isWhitespace(c) && !isDelimiter(c);
+        }
+
+        protected void skipWhitespace() {
+            int c;
+            while ((c = peek()) >= 0) {
+                if (isWhitespace(c)) {
+                    pos++;
+                } else if (c == '%') {
+                    skipLine();
+                } else {
+                    break;
+                }
+            }
+        }
+
+        protected void skipLine() {
+            int c;
+            while ((c = peek()) >= 0 && c != 10 && c != 13) {
+                pos++;
+            }
+        }
+
+        /**
+         * Skips the keyword if it is the next token.
+         */
+        protected boolean skipKeyword(String keyword) {
+            skipWhitespace();
+            for (int i = 0; i < keyword.length(); i++) {
+                if (peek(i) != keyword.charAt(i)) {
+                    return false;
+                }
+            }
+            if (isRegular(peek(keyword.length()))) {
+                return false;
+            }
+            pos += keyword.length();
+            return true;
+        }
+
+        protected int readInt() {
+            return (int) readLong();
+        }
+
+        protected long readLong() {
+            Object number = readObject();
+            if (!(number instanceof Long)) {
+                throw new IllegalStateException("PDF integer expected at " + pos);
+            }
+            return ((Long) number).longValue();
+        }
+
+        /**
+         * Reads {@code n g obj} followed by the object, which is a {@link Stream} if followed by a stream.
+         */
+        protected Object readIndirectObject() {
+            readInt();
+            readInt();
+            if (!skipKeyword("obj")) {
+                throw new IllegalStateException("PDF object expected at " + pos);
+            }
+            Object object = readObject();
+            if (object instanceof Map && skipKeyword("stream")) {
+                if (peek() == 13) {
+                    pos++;
+                }
+                if (peek() == 10) {
+                    pos++;
+                }
+                return new Stream(asDictionary(object), buffer, pos);
+            }
+            return object;
+        }
+
+        protected Object readObject() {
+            skipWhitespace();
+            int c = peek();
+            if (c < 0) {
+                throw new IllegalStateException("Unexpected end of PDF data");
+            } else if (c == '/') {
+                pos++;
+                return new Name(readName());
+            } else if (c == '(') {
+                pos++;
+                return readLiteralString();
+            } else if (c == '<' && peek(1) == '<') {
+                pos += 2;
+                return readDictionary();
+            } else if (c == '<') {
+                pos++;
+                return readHexString();
+            } else if (c == '[') {
+                pos++;
+                return readArray();
+            } else if (Character.isDigit(c) || c == '+' || c == '-' || c == '.') {
+                return readNumberOrReference();
+            } else if (isRegular(c)) {
+                String keyword = readRegular();
+                if ("true".equals(keyword)) {
+                    return Boolean.TRUE;
+                } else if ("false".equals(keyword)) {
+                    return Boolean.FALSE;
+                } else if ("null".equals(keyword)) {
+                    return null;
+                }
+                return new Keyword(keyword);
+            }
+            throw new IllegalStateException("Unexpected PDF character '" + (char) c + "' at " + pos);
+        }
+
+        protected String readRegular() {
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while (isRegular(c = peek())) {
+                sb.append((char) c);
+                pos++;
+            }
+            return sb.toString();
+        }
+
+        protected String readName() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int c;
+            while (isRegular(c = peek())) {
+                pos++;
+                if (c == '#' && isHex(peek()) && isHex(peek(1))) {
+                    c = Integer.parseInt("" + (char) peek() + (char) peek(1), 16);
+                    pos += 2;
+                }
+                bytes.write(c);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        protected static boolean isHex(int c) {
+            return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+        }
+
+        protected Object readNumberOrReference() {
+            String token = readRegular();
+            Object number;
+            try {
+                if (token.indexOf('.') >= 0) {
+                    number = Double.valueOf(token);
+                } else {
+                    number = Long.valueOf(token);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalStateException("Invalid PDF number " + token);
+            }
+            if (!(number instanceof Long) || ((Long) number).longValue() < 0) {
+                return number;
+            }
+            // look ahead for a "n g R" reference
+            int mark = pos;
+            skipWhitespace();
+            if (Character.isDigit(peek())) {
+                String generation = readRegular();
+                skipWhitespace();
+                if (peek() == 'R' && !isRegular(peek(1)) && generation.matches("\\d{1,5}")) {
+                    pos++;
+                    return new Reference(((Long) number).intValue(), Integer.parseInt(generation));
+                }
+            }
+            pos = mark;
+            return number;
+        }
+
+        protected byte[] readLiteralString() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int depth = 1;
+            while (true) {
+                int c = peek();
+                if (c < 0) {
+                    throw new IllegalStateException("Unterminated PDF string");
+                }
+                pos++;
+                if (c == '\\') {
+                    c = peek();
+                    pos++;
+                    switch (c) {
+                    case 'n':
+                        bytes.write('\n');
+                        break;
+                    case 'r':
+                        bytes.write('\r');
+                        break;
+                    case 't':
+                        bytes.write('\t');
+                        break;
+                    case 'b':
+                        bytes.write('\b');
+                        break;
+                    case 'f':
+                        bytes.write('\f');
+                        break;
+                    case 13:
+                        if (peek() == 10) {
+                            pos++;
+                        }
+                        break;
+                    case 10:
+                        break;
+                    default:
+                        if (c >= '0' && c <= '7') {
+                            int value = c - '0';
+                            for (int i = 0; i < 2 && peek() >= '0' && peek() <= '7'; i++) {
+                                value = value * 8 + peek() - '0';
+                                pos++;
+                            }
+                            bytes.write(value);
+                        } else if (c >= 0) {
+                            bytes.write(c);
+                        }
+                    }
+                } else if (c == '(') {
+                    depth++;
+                    bytes.write(c);
+                } else if (c == ')') {
+                    if (--depth == 0) {
+                        return bytes.toByteArray();
+                    }
+                    bytes.write(c);
+                } else {
+                    bytes.write(c);
+                }
+            }
+        }
+
+        protected byte[] readHexString() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int high = -1;
+            while (true) {
+                int c = peek();
+                if (c < 0) {
+                    throw new IllegalStateException("Unterminated PDF hex string");
+                }
+                pos++;
+                if (c == '>') {
+                    break;
+                } else if (isHex(c)) {
+                    int digit = Character.digit(c, 16);
+                    if (high < 0) {
+                        high = digit;
+                    } else {
+                        bytes.write(high * 16 + digit);
+                        high = -1;
+                    }
+                }
+            }
+            if (high >= 0) {
+                bytes.write(high * 16);
+            }
+            return bytes.toByteArray();
+        }
+
+        protected List<Object> readArray() {
+            List<Object> array = new ArrayList<>();
+            while (true) {
+                skipWhitespace();
+                if (peek() == ']') {
+                    pos++;
+                    return array;
+                }
+                array.add(readObject());
+            }
+        }
+
+        protected Map<String, Object> readDictionary() {
+            Map<String, Object> dictionary = new HashMap<>();
+            while (true) {
+                skipWhitespace();
+                if (peek() == '>' && peek(1) == '>') {
+                    pos += 2;
+                    return dictionary;
+                }
+                Object key = readObject();
+                if (!(key instanceof Name)) {
+                    throw new IllegalStateException("PDF name expected as dictionary key at " + pos);
+                }
+                Object value = readObject();
+                if (value != null) {
+                    dictionary.put(key.toString(), value);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,235 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals.readers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Conversions shared by the native readers, producing the values ExifTool prints in its JSON output.
+ *
+ * @since 7.3
+ */
+public final class TagValues {
+
+    /**
+     * Values printed unquoted by ExifTool, and so read as numbers from its JSON output.
+     */
+    protected static final Pattern JSON_NUMBER = Pattern.compile(
+            "-?(\\d|[1-9]\\d{1,14})(\\.\\d{1,16})?(e[-+]?\\d{1,3})?");
+
+    protected static final MathContext PRECISION = new MathContext(15);
+
+    private TagValues() {
+        // utility class
+    }
+
+    /**
+     * @return The value as read from the ExifTool JSON output: an {@link Integer}, {@link Long} or {@link Double} if
+     *         ExifTool prints it as a number, the string otherwise.
+     */
+    public static Object toJson(String value) {
+        if (value == null || !JSON_NUMBER.matcher(value).matches()) {
+            return value;
+        }
+        if (value.indexOf('.') < 0 && value.indexOf('e') < 0) {
+            long number = Long.parseLong(value);
+            if (number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE) {
+                return Integer.valueOf((int) number);
+            }
+            return Long.valueOf(number);
+        }
+        return Double.valueOf(value);
+    }
+
+    /**
+     * @return The JSON value of a list tag: the single value itself, or the list of values.
+     */
+    public static Object toJson(List<String> values) {
+        if (values.size() == 1) {
+            return toJson(values.get(0));
+        }
+        List<Object> list = new ArrayList<>(values.size());
+        for (String value : values) {
+            list.add(toJson(value));
+        }
+        return list;
+    }
+
+    /**
+     * Formats a number the way Perl does, with at most 15 significant digits.
+     */
+    public static String formatNumber(double value) {
+        if (Double.isNaN(value)) {
+            return "undef";
+        } else if (Double.isInfinite(value)) {
+            return value > 0 ? "inf" : "-inf";
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return new BigDecimal(value).round(PRECISION).stripTrailingZeros().toPlainString();
+    }
+
+    public static String format(String format, Object... arguments) {
+        return String.format(Locale.ENGLISH, format, arguments);
+    }
+
+    /**
+     * ExifTool exposure time, such as {@code 1/60} or {@code 2.5}.
+     */
+    public static String formatExposureTime(double seconds) {
+        if (seconds > 0 && seconds < 0.25001) {
+            return "1/" + (long) (0.5 + 1 / seconds);
+        }
+        return stripZeroDecimal(format("%.1f", seconds));
+    }
+
+    /**
+     * ExifTool f-number, such as {@code 2.8}.
+     */
+    public static String formatFNumber(double value) {
+        if (value > 0 && !Double.isInfinite(value)) {
+            return format(value < 1 ? "%.2f" : "%.1f", value);
+        }
+        return formatNumber(value);
+    }
+
+    /**
+     * ExifTool fraction, such as {@code +1/3} or {@code -2}.
+     */
+    public static String formatFraction(double value) {
+        value *= 1.00001;
+        if (value == 0) {
+            return "0";
+        } else if ((long) value / value > 0.999) {
+            return format("%+d", (long) value);
+        } else if ((long) (value * 2) / (value * 2) > 0.999) {
+            return format("%+d/2", (long) (value * 2));
+        } else if ((long) (value * 3) / (value * 3) > 0.999) {
+            return format("%+d/3", (long) (value * 3));
+        }
+        return format("%+.3g", value);
+    }
+
+    public static String stripZeroDecimal(String value) {
+        return value.endsWith(".0") ? value.substring(0, value.length() - 2) : value;
+    }
+
+    /**
+     * Removes the trailing null characters and spaces of a fixed length string.
+     */
+    public static String trim(String value) {
+        int end = value.length();
+        while (end > 0 && (value.charAt(end - 1) == 0 || value.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        int nul = value.indexOf(0);
+        return value.substring(0, nul >= 0 && nul < end ? nul : end);
+    }
+
+    /**
+     * ExifTool's text for binary values which are not extracted.
+     */
+    public static String binary(long length) {
+        return "(Binary data " + length + " bytes, use -b option to extract)";
+    }
+
+    /**
+     * Adds a tag unless ExifTool would have reported an earlier one with the same group and name.
+     */
+    public static void put(Map<String, Object> tags, String group, String name, Object value) {
+        if (value != null) {
+            String key = group + ':' + name;
+            if (!tags.containsKey(key)) {
+                tags.put(key, value);
+            }
+        }
+    }
+
+    /**
+     * Adds the ExifTool {@code Composite:ImageSize} and {@code Composite:Megapixels} tags.
+     */
+    public static void putImageSize(Map<String, Object> tags, Object width, Object height) {
+        if (width instanceof Number && height instanceof Number) {
+            long w = ((Number) width).longValue();
+            long h = ((Number) height).longValue();
+            put(tags, "Composite", "ImageSize", w + "x" + h);
+            double megapixels = w * h / 1e6;
+            put(tags, "Composite", "Megapixels",
+                    toJson(format(megapixels >= 1 ? "%.1f" : megapixels >= 0.001 ? "%.3f" : "%.6f", megapixels)));
+        }
+    }
+
+    /**
+     * Reads {@code length} bytes at the given position, without moving the channel position.
+     *
+     * @throws EOFException If the channel ends before.
+     */
+    public static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of file at " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Inflates zlib data, such as compressed text chunks or streams.
+     *
+     * @param maxLength Maximum length of the inflated data.
+     * @throws IllegalStateException If the data is invalid or inflates to more than the maximum length.
+     */
+    public static byte[] inflate(byte[] data, int maxLength) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, Math.min(maxLength, data.length * 4)));
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(chunk);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                out.write(chunk, 0, count);
+                if (out.size() > maxLength) {
+                    throw new IllegalStateException("Inflated data larger than " + maxLength + " bytes");
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Invalid compressed data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals.readers;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the IFD0, EXIF, GPS, interoperability and IFD1 directories of a TIFF structure (a TIFF file or the EXIF block
+ * of a JPEG file) into {@code EXIF:} tags, in the ExifTool order. The directories are read in place from the given
+ * buffer, without copying the values which are not printed.
+ *
+ * @since 7.3
+ */
+public class TiffReader {
+
+    /**
+     * ExifTool family 0 group of the TIFF, EXIF and GPS tags.
+     */
+    public static final String GROUP = "EXIF";
+
+    protected final ByteBuffer buffer;
+
+    protected final Set<Long> directories = new HashSet<>();
+
+    protected ByteBuffer xmp;
+
+    protected ByteBuffer iptc;
+
+    /**
+     * @param tiff Buffer starting with the TIFF header.
+     */
+    public TiffReader(ByteBuffer tiff) {
+        if (!isTiff(tiff)) {
+            throw new IllegalArgumentException("Not a TIFF header");
+        }
+        buffer = tiff.slice().order(tiff.get(tiff.position()) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * @return Whether the buffer starts with a little-endian or big-endian TIFF header.
+     */
+    public static boolean isTiff(ByteBuffer buffer) {
+        if (buffer.remaining() < 8) {
+            return false;
+        }
+        int p = buffer.position();
+        byte b0 = buffer.get(p);
+        byte b1 = buffer.get(p + 1);
+        byte b2 = buffer.get(p + 2);
+        byte b3 = buffer.get(p + 3);
+        return (b0 == 'I' && b1 == 'I' && b2 == 42 && b3 == 0) || (b0 == 'M' && b1 == 'M' && b2 == 0 && b3 == 42);
+    }
+
+    public ByteOrder getByteOrder() {
+        return buffer.order();
+    }
+
+    /**
+     * @return The ExifTool {@code ExifByteOrder} label.
+     */
+    public String getByteOrderLabel() {
+        return buffer.order() == ByteOrder.LITTLE_ENDIAN ? "Little-endian (Intel, II)" : "Big-endian (Motorola, MM)";
+    }
+
+    /**
+     * @return The XMP packet of the IFD0 directory, {@code null} if none. Available once read.
+     */
+    public ByteBuffer getXmp() {
+        return xmp;
+    }
+
+    /**
+     * @return The IPTC block of the IFD0 directory, {@code null} if none. Available once read.
+     */
+    public ByteBuffer getIptc() {
+        return iptc;
+    }
+
+    /**
+     * @param tags Receives the {@code EXIF:} tags, the ones already present being kept.
+     */
+    public void read(Map<String, Object> tags) {
+        long ifd1 = readDirectory(getLong(4), ExifTags.IFD, tags);
+        if (ifd1 > 0) {
+            readDirectory(ifd1, ExifTags.IFD, tags);
+        }
+    }
+
+    /**
+     * @return The offset of the next directory, 0 if none.
+     */
+    protected long readDirectory(long offset, Map<Integer, ExifTag> table, Map<String, Object> tags) {
+        int limit = buffer.limit();
+        if (offset < 8 || offset + 2 > limit || !directories.add(Long.valueOf(offset))) {
+            return 0;
+        }
+        int start = (int) offset;
+        int count = buffer.getShort(start) & 0xffff;
+        long thumbnailOffset = 0;
+        long thumbnailLength = 0;
+        for (int i = 0; i < count; i++) {
+            int entry = start + 2 + 12 * i;
+            if (entry + 12 > limit) {
+                break;
+            }
+            int id = buffer.getShort(entry) & 0xffff;
+            int type = buffer.getShort(entry + 2) & 0xffff;
+            long length = getLong(entry + 4) * TiffValue.getSize(type);
+            if (length == 0) {
+                continue;
+            }
+            long position = length <= 4 ? entry + 8 : getLong(entry + 8);
+            if (position + length > limit) {
+                continue;
+            }
+            if (table == ExifTags.IFD && id == ExifTags.EXIF_IFD_POINTER) {
+                readDirectory(getLong(entry + 8), ExifTags.EXIF, tags);
+                continue;
+            } else if (table == ExifTags.IFD && id == ExifTags.GPS_IFD_POINTER) {
+                readDirectory(getLong(entry + 8), ExifTags.GPS, tags);
+                continue;
+            } else if (table == ExifTags.EXIF && id == ExifTags.INTEROP_IFD_POINTER) {
+                readDirectory(getLong(entry + 8), ExifTags.INTEROP, tags);
+                continue;
+            }
+            ByteBuffer data = slice((int) position, (int) length);
+            if (table == ExifTags.IFD && id == ExifTags.XMP && xmp == null) {
+                xmp = data;
+                continue;
+            } else if (table == ExifTags.IFD && id == ExifTags.IPTC && iptc == null) {
+                iptc = data;
+                continue;
+            }
+            ExifTag tag = table.get(Integer.valueOf(id));
+            if (tag == null) {
+                continue;
+            }
+            TiffValue value = new TiffValue(type, (int) (length / TiffValue.getSize(type)), data);
+            if (id == ExifTags.THUMBNAIL_OFFSET && value.isNumeric()) {
+                thumbnailOffset = (long) value.getNumbers()[0];
+            } else if (id == ExifTags.THUMBNAIL_LENGTH && value.isNumeric()) {
+                thumbnailLength = (long) value.getNumbers()[0];
+            }
+            TagValues.put(tags, GROUP, tag.getName(), TagValues.toJson(tag.print(value)));
+        }
+        if (thumbnailOffset > 0 && thumbnailLength > 0 && thumbnailOffset + thumbnailLength <= limit) {
+            TagValues.put(tags, GROUP, "ThumbnailImage", TagValues.binary(thumbnailLength));
+        }
+        int next = start + 2 + 12 * count;
+        return next + 4 <= limit ? getLong(next) : 0;
+    }
+
+    protected long getLong(int position) {
+        return buffer.getInt(position) & 0xffffffffL;
+    }
+
+    protected ByteBuffer slice(int position, int length) {
+        ByteBuffer data = buffer.duplicate();
+        data.limit(position + length).position(position);
+        return data.slice().order(buffer.order());
+    }
+
+}
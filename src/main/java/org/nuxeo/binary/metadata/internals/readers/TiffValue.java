@@ -0,0 +1,175 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals.readers;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Raw value of a TIFF directory entry, decoded on demand.
+ *
+ * @since 7.3
+ */
+public class TiffValue {
+
+    public static final int BYTE = 1;
+
+    public static final int ASCII = 2;
+
+    public static final int SHORT = 3;
+
+    public static final int LONG = 4;
+
+    public static final int RATIONAL = 5;
+
+    public static final int SBYTE = 6;
+
+    public static final int UNDEFINED = 7;
+
+    public static final int SSHORT = 8;
+
+    public static final int SLONG = 9;
+
+    public static final int SRATIONAL = 10;
+
+    public static final int FLOAT = 11;
+
+    public static final int DOUBLE = 12;
+
+    public static final int IFD = 13;
+
+    protected static final int[] SIZES = { 0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8, 4 };
+
+    protected final int type;
+
+    protected final int count;
+
+    /**
+     * The value bytes, in the TIFF byte order.
+     */
+    protected final ByteBuffer data;
+
+    public TiffValue(int type, int count, ByteBuffer data) {
+        this.type = type;
+        this.count = count;
+        this.data = data;
+    }
+
+    /**
+     * @return The size of one value of the type, 0 if the type is unknown.
+     */
+    public static int getSize(int type) {
+        return type > 0 && type < SIZES.length ? SIZES[type] : 0;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public ByteOrder getByteOrder() {
+        return data.order();
+    }
+
+    public boolean isNumeric() {
+        return type != ASCII && type != UNDEFINED;
+    }
+
+    public byte[] getBytes() {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return The value as a string, without its trailing null characters and spaces.
+     */
+    public String getString() {
+        return TagValues.trim(new String(getBytes(), StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * @return The numeric values, rationals being divided, {@code NaN} for 0/0 and infinite for n/0.
+     */
+    public double[] getNumbers() {
+        int size = getSize(type);
+        double[] numbers = new double[size == 0 ? 0 : data.remaining() / size];
+        int base = data.position();
+        for (int i = 0; i < numbers.length; i++) {
+            int offset = base + i * size;
+            switch (type) {
+            case SBYTE:
+                numbers[i] = data.get(offset);
+                break;
+            case SHORT:
+                numbers[i] = data.getShort(offset) & 0xffff;
+                break;
+            case SSHORT:
+                numbers[i] = data.getShort(offset);
+                break;
+            case LONG:
+            case IFD:
+                numbers[i] = data.getInt(offset) & 0xffffffffL;
+                break;
+            case SLONG:
+                numbers[i] = data.getInt(offset);
+                break;
+            case RATIONAL:
+                numbers[i] = divide(data.getInt(offset) & 0xffffffffL, data.getInt(offset + 4) & 0xffffffffL);
+                break;
+            case SRATIONAL:
+                numbers[i] = divide(data.getInt(offset), data.getInt(offset + 4));
+                break;
+            case FLOAT:
+                numbers[i] = data.getFloat(offset);
+                break;
+            case DOUBLE:
+                numbers[i] = data.getDouble(offset);
+                break;
+            default:
+                numbers[i] = data.get(offset) & 0xff;
+            }
+        }
+        return numbers;
+    }
+
+    protected static double divide(long numerator, long denominator) {
+        if (denominator == 0) {
+            return numerator == 0 ? Double.NaN : numerator > 0 ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+        }
+        return (double) numerator / denominator;
+    }
+
+    /**
+     * @return The numeric values formatted as ExifTool does, separated with spaces.
+     */
+    public String getNumbersString() {
+        StringBuilder sb = new StringBuilder();
+        for (double number : getNumbers()) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(TagValues.formatNumber(number));
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals.readers;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads an XMP packet into {@code XMP:} tags named as ExifTool does: the property name with an upper case first
+ * letter, structure fields flattened into their parent name, alternative languages suffixed with the language and
+ * multi-valued properties returned as lists.
+ *
+ * @since 7.3
+ */
+public class XmpReader {
+
+    /**
+     * ExifTool family 0 group of the XMP tags.
+     */
+    public static final String GROUP = "XMP";
+
+    protected static final String RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+
+    protected static final String XML = "http://www.w3.org/XML/1998/namespace";
+
+    protected static final String DEFAULT_LANGUAGE = "x-default";
+
+    protected static final Pattern DATE = Pattern.compile(
+            "(\\d{4})-(\\d{2})-(\\d{2})T(\\d{2}):(\\d{2})(:\\d{2}(?:\\.\\d+)?)?(Z|[+-]\\d{2}:\\d{2})?");
+
+    protected static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    /**
+     * ExifTool names of the properties which are not named after the XMP property, by namespace and property.
+     */
+    protected static final Map<String, String> NAMES = new HashMap<>();
+
+    static {
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        NAMES.put("http://ns.adobe.com/tiff/1.0/ImageLength", "ImageHeight");
+        NAMES.put("http://ns.adobe.com/tiff/1.0/DateTime", "ModifyDate");
+        NAMES.put("http://ns.adobe.com/exif/1.0/PixelXDimension", "ExifImageWidth");
+        NAMES.put("http://ns.adobe.com/exif/1.0/PixelYDimension", "ExifImageHeight");
+        NAMES.put("http://ns.adobe.com/exif/1.0/DateTimeDigitized", "CreateDate");
+        NAMES.put("http://ns.adobe.com/exif/1.0/ISOSpeedRatings", "ISO");
+    }
+
+    protected final Map<String, List<String>> values = new LinkedHashMap<>();
+
+    /**
+     * Reads the packet into {@code XMP:} tags, the ones already present being kept.
+     */
+    public static void read(ByteBuffer packet, Map<String, Object> tags) throws XMLStreamException {
+        byte[] bytes = new byte[packet.remaining()];
+        packet.duplicate().get(bytes);
+        read(new ByteArrayInputStream(bytes), tags);
+    }
+
+    public static void read(InputStream packet, Map<String, Object> tags) throws XMLStreamException {
+        XmpReader reader = new XmpReader();
+        XMLStreamReader xml = FACTORY.createXMLStreamReader(packet);
+        try {
+            reader.readPacket(xml);
+        } finally {
+            xml.close();
+        }
+        for (Map.Entry<String, List<String>> entry : reader.values.entrySet()) {
+            TagValues.put(tags, GROUP, entry.getKey(), TagValues.toJson(entry.getValue()));
+        }
+    }
+
+    protected void readPacket(XMLStreamReader xml) throws XMLStreamException {
+        while (xml.hasNext()) {
+            if (xml.next() == XMLStreamConstants.START_ELEMENT && isRdf(xml, "Description")) {
+                readStructure(xml, "");
+            }
+        }
+    }
+
+    /**
+     * Reads the properties of an {@code rdf:Description} or of a property with {@code rdf:parseType="Resource"}, up
+     * to its end element.
+     */
+    protected void readStructure(XMLStreamReader xml, String prefix) throws XMLStreamException {
+        readAttributes(xml, prefix);
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                readProperty(xml, prefix + getName(xml.getNamespaceURI(), xml.getLocalName(), prefix.isEmpty()));
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * The attributes of a description or of a structure property are simple properties.
+     *
+     * @return Whether a property was read.
+     */
+    protected boolean readAttributes(XMLStreamReader xml, String prefix) {
+        boolean found = false;
+        for (int i = 0; i < xml.getAttributeCount(); i++) {
+            String namespace = xml.getAttributeNamespace(i);
+            if (namespace == null || namespace.isEmpty() || RDF.equals(namespace) || XML.equals(namespace)) {
+                continue;
+            }
+            add(prefix + getName(namespace, xml.getAttributeLocalName(i), prefix.isEmpty()),
+                    xml.getAttributeValue(i));
+            found = true;
+        }
+        return found;
+    }
+
+    protected void readProperty(XMLStreamReader xml, String name) throws XMLStreamException {
+        if ("Resource".equals(xml.getAttributeValue(RDF, "parseType"))) {
+            readStructure(xml, name);
+            return;
+        }
+        boolean hasFields = readAttributes(xml, name);
+        StringBuilder text = new StringBuilder();
+        boolean hasChildren = false;
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                text.append(xml.getText());
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                hasChildren = true;
+                if (isRdf(xml, "Bag") || isRdf(xml, "Seq") || isRdf(xml, "Alt")) {
+                    readList(xml, name, isRdf(xml, "Alt"));
+                } else if (isRdf(xml, "Description")) {
+                    readStructure(xml, name);
+                } else {
+                    skip(xml);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+        String value = text.toString().trim();
+        if (!hasChildren && (!value.isEmpty() || !hasFields)) {
+            add(name, value);
+        }
+    }
+
+    protected void readList(XMLStreamReader xml, String name, boolean alternative) throws XMLStreamException {
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (!isRdf(xml, "li")) {
+                    skip(xml);
+                    continue;
+                }
+                String language = xml.getAttributeValue(XML, "lang");
+                String itemName = name;
+                if (alternative && language != null && !DEFAULT_LANGUAGE.equals(language)) {
+                    itemName = name + '-' + language;
+                }
+                readProperty(xml, itemName);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return;
+            }
+        }
+    }
+
+    protected void skip(XMLStreamReader xml) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    protected void add(String name, String value) {
+        List<String> list = values.get(name);
+        if (list == null) {
+            list = new ArrayList<>(1);
+            values.put(name, list);
+        }
+        list.add(convertDate(value));
+    }
+
+    protected static boolean isRdf(XMLStreamReader xml, String localName) {
+        return RDF.equals(xml.getNamespaceURI()) && localName.equals(xml.getLocalName());
+    }
+
+    /**
+     * @param topLevel Whether the property is not a structure field, the ExifTool exceptions being defined for these
+     *            ones only.
+     */
+    protected static String getName(String namespace, String localName, boolean topLevel) {
+        if (topLevel) {
+            String name = NAMES.get(namespace + localName);
+            if (name != null) {
+                return name;
+            }
+        }
+        if (localName.isEmpty()) {
+            return localName;
+        }
+        return Character.toUpperCase(localName.charAt(0)) + localName.substring(1);
+    }
+
+    /**
+     * ExifTool prints the XMP dates in the EXIF format, such as 2015:03:20 10:21:05+01:00.
+     */
+    protected static String convertDate(String value) {
+        Matcher matcher = DATE.matcher(value);
+        if (!matcher.matches()) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        sb.append(matcher.group(1)).append(':').append(matcher.group(2)).append(':').append(matcher.group(3));
+        sb.append(' ').append(matcher.group(4)).append(':').append(matcher.group(5));
+        if (matcher.group(6) != null) {
+            sb.append(matcher.group(6));
+        }
+        if (matcher.group(7) != null) {
+            sb.append(matcher.group(7));
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,446 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.internals.writers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Sets the common XMP properties of a packet, addressed by their ExifTool name such as {@code XMP:Title} or
+ * {@code XMP-dc:Title}, the other properties of the packet being kept as is.
+ * <p>
+ * As with ExifTool, a {@code null} or empty value deletes the property, a collection sets all the items of a list
+ * property and the dates may be given in the EXIF format.
+ *
+ * @since 7.3
+ */
+public class XmpWriter {
+
+    public static final String GROUP = "XMP";
+
+    protected static final String X = "adobe:ns:meta/";
+
+    protected static final String RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+
+    protected static final String DEFAULT_LANGUAGE = "x-default";
+
+    protected static final byte[] PACKET_HEADER = "<?xpacket begin='\uFEFF' id='W5M0MpCehiHzreSzNTczkc9d'?>\n".getBytes(
+            StandardCharsets.UTF_8);
+
+    protected static final byte[] PACKET_TRAILER = "<?xpacket end='w'?>".getBytes(StandardCharsets.UTF_8);
+
+    protected static final Pattern EXIF_DATE = Pattern.compile(
+            "(\\d{4}):(\\d{2}):(\\d{2})(?: (\\d{2}:\\d{2}(?::\\d{2}(?:\\.\\d+)?)?)(Z|[+-]\\d{2}:\\d{2})?)?");
+
+    protected static final DocumentBuilderFactory FACTORY = DocumentBuilderFactory.newInstance();
+
+    protected enum Kind {
+        TEXT, DATE, LANG_ALT, BAG, SEQ
+    }
+
+    protected static class Property {
+
+        protected final String prefix;
+
+        protected final String namespace;
+
+        protected final String name;
+
+        protected final Kind kind;
+
+        protected Property(String prefix, String namespace, String name, Kind kind) {
+            this.prefix = prefix;
+            this.namespace = namespace;
+            this.name = name;
+            this.kind = kind;
+        }
+
+    }
+
+    /**
+     * The writable properties, by lower case ExifTool name.
+     */
+    protected static final Map<String, List<Property>> PROPERTIES = new HashMap<>();
+
+    static {
+        FACTORY.setNamespaceAware(true);
+        FACTORY.setExpandEntityReferences(false);
+        try {
+            FACTORY.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+        String dc = "http://purl.org/dc/elements/1.1/";
+        addProperty("dc", dc, "title", Kind.LANG_ALT);
+        addProperty("dc", dc, "description", Kind.LANG_ALT);
+        addProperty("dc", dc, "rights", Kind.LANG_ALT);
+        addProperty("dc", dc, "creator", Kind.SEQ);
+        addProperty("dc", dc, "date", Kind.SEQ);
+        addProperty("dc", dc, "subject", Kind.BAG);
+        addProperty("dc", dc, "contributor", Kind.BAG);
+        addProperty("dc", dc, "publisher", Kind.BAG);
+        addProperty("dc", dc, "language", Kind.BAG);
+        addProperty("dc", dc, "relation", Kind.BAG);
+        addProperty("dc", dc, "type", Kind.BAG);
+        addProperty("dc", dc, "coverage", Kind.TEXT);
+        addProperty("dc", dc, "format", Kind.TEXT);
+        addProperty("dc", dc, "identifier", Kind.TEXT);
+        addProperty("dc", dc, "source", Kind.TEXT);
+        String xmp = "http://ns.adobe.com/xap/1.0/";
+        addProperty("xmp", xmp, "CreateDate", Kind.DATE);
+        addProperty("xmp", xmp, "ModifyDate", Kind.DATE);
+        addProperty("xmp", xmp, "MetadataDate", Kind.DATE);
+        addProperty("xmp", xmp, "CreatorTool", Kind.TEXT);
+        addProperty("xmp", xmp, "Label", Kind.TEXT);
+        addProperty("xmp", xmp, "Nickname", Kind.TEXT);
+        addProperty("xmp", xmp, "Rating", Kind.TEXT);
+        String photoshop = "http://ns.adobe.com/photoshop/1.0/";
+        addProperty("photoshop", photoshop, "AuthorsPosition", Kind.TEXT);
+        addProperty("photoshop", photoshop, "CaptionWriter", Kind.TEXT);
+        addProperty("photoshop", photoshop, "Category", Kind.TEXT);
+        addProperty("photoshop", photoshop, "City", Kind.TEXT);
+        addProperty("photoshop", photoshop, "Country", Kind.TEXT);
+        addProperty("photoshop", photoshop, "Credit", Kind.TEXT);
+        addProperty("photoshop", photoshop, "DateCreated", Kind.DATE);
+        addProperty("photoshop", photoshop, "Headline", Kind.TEXT);
+        addProperty("photoshop", photoshop, "Instructions", Kind.TEXT);
+        addProperty("photoshop", photoshop, "Source", Kind.TEXT);
+        addProperty("photoshop", photoshop, "State", Kind.TEXT);
+        addProperty("photoshop", photoshop, "SupplementalCategories", Kind.BAG);
+        addProperty("photoshop", photoshop, "TransmissionReference", Kind.TEXT);
+        addProperty("photoshop", photoshop, "Urgency", Kind.TEXT);
+        String rights = "http://ns.adobe.com/xap/1.0/rights/";
+        addProperty("xmpRights", rights, "Marked", Kind.TEXT);
+        addProperty("xmpRights", rights, "Owner", Kind.BAG);
+        addProperty("xmpRights", rights, "UsageTerms", Kind.LANG_ALT);
+        addProperty("xmpRights", rights, "WebStatement", Kind.TEXT);
+    }
+
+    protected static void addProperty(String prefix, String namespace, String name, Kind kind) {
+        String key = name.toLowerCase(Locale.ENGLISH);
+        List<Property> properties = PROPERTIES.get(key);
+        if (properties == null) {
+            properties = new ArrayList<>(1);
+            PROPERTIES.put(key, properties);
+        }
+        properties.add(new Property(prefix, namespace, name, kind));
+    }
+
+    protected final Document document;
+
+    protected final Element rdf;
+
+    /**
+     * @param packet The packet to update, {@code null} to create one.
+     * @throws IllegalArgumentException If the packet is not well formed.
+     */
+    public XmpWriter(byte[] packet) {
+        DocumentBuilder builder;
+        try {
+            builder = FACTORY.newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+        if (packet == null) {
+            document = builder.newDocument();
+            Element meta = document.createElementNS(X, "x:xmpmeta");
+            document.appendChild(meta);
+            rdf = document.createElementNS(RDF, "rdf:RDF");
+            meta.appendChild(rdf);
+            return;
+        }
+        try {
+            document = builder.parse(new ByteArrayInputStream(packet));
+        } catch (SAXException | IOException e) {
+            throw new IllegalArgumentException("Invalid XMP packet", e);
+        }
+        NodeList list = document.getElementsByTagNameNS(RDF, "RDF");
+        if (list.getLength() != 1) {
+            throw new IllegalArgumentException("Invalid XMP packet");
+        }
+        rdf = (Element) list.item(0);
+    }
+
+    /**
+     * @return Whether {@link #set} can write all the tags, keyed by ExifTool group and name.
+     */
+    public static boolean canWrite(Map<String, Object> metadata) {
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            Property property = getProperty(entry.getKey());
+            if (property == null) {
+                return false;
+            }
+            Object value = entry.getValue();
+            boolean list = value instanceof Collection || (value != null && value.getClass().isArray());
+            if (list && property.kind != Kind.BAG && property.kind != Kind.SEQ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The property written for the ExifTool tag, {@code null} if it is not an XMP tag known here or if it is
+     *         ambiguous without its namespace group, such as {@code XMP:Source}.
+     */
+    protected static Property getProperty(String tag) {
+        int colon = tag.lastIndexOf(':');
+        if (colon < 0) {
+            return null;
+        }
+        String group = tag.substring(0, colon);
+        List<Property> properties = PROPERTIES.get(tag.substring(colon + 1).toLowerCase(Locale.ENGLISH));
+        if (properties == null) {
+            return null;
+        }
+        if (GROUP.equalsIgnoreCase(group)) {
+            return properties.size() == 1 ? properties.get(0) : null;
+        }
+        for (Property property : properties) {
+            if ((GROUP + "-" + property.prefix).equalsIgnoreCase(group)) {
+                return property;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the tags, which must be writable according to {@link #canWrite}.
+     */
+    public void set(Map<String, Object> metadata) {
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            Property property = getProperty(entry.getKey());
+            if (property == null) {
+                throw new IllegalArgumentException("Not writable: " + entry.getKey());
+            }
+            remove(property);
+            List<String> values = toStrings(entry.getValue());
+            if (!values.isEmpty()) {
+                add(property, values);
+            }
+        }
+    }
+
+    protected static List<String> toStrings(Object value) {
+        Collection<?> items;
+        if (value == null) {
+            return Collections.emptyList();
+        } else if (value instanceof Collection) {
+            items = (Collection<?>) value;
+        } else if (value.getClass().isArray()) {
+            List<Object> array = new ArrayList<>();
+            for (int i = 0; i < Array.getLength(value); i++) {
+                array.add(Array.get(value, i));
+            }
+            items = array;
+        } else {
+            items = Arrays.asList(value);
+        }
+        List<String> values = new ArrayList<>(items.size());
+        for (Object item : items) {
+            if (item != null && !item.toString().isEmpty()) {
+                values.add(item.toString());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Removes the property from all the descriptions, whether written as an element or as an attribute.
+     */
+    protected void remove(Property property) {
+        for (Element description : getDescriptions()) {
+            description.removeAttributeNS(property.namespace, property.name);
+            Node child = description.getFirstChild();
+            while (child != null) {
+                Node next = child.getNextSibling();
+                if (child.getNodeType() == Node.ELEMENT_NODE && property.namespace.equals(child.getNamespaceURI())
+                        && property.name.equals(child.getLocalName())) {
+                    description.removeChild(child);
+                }
+                child = next;
+            }
+        }
+    }
+
+    protected void add(Property property, List<String> values) {
+        Element description = getDescription(property.namespace);
+        Element element = document.createElementNS(property.namespace, property.prefix + ":" + property.name);
+        switch (property.kind) {
+        case LANG_ALT:
+            Element alt = append(element, "rdf:Alt");
+            Element item = append(alt, "rdf:li");
+            item.setAttributeNS(XMLConstants.XML_NS_URI, "xml:lang", DEFAULT_LANGUAGE);
+            item.setTextContent(values.get(0));
+            break;
+        case BAG:
+        case SEQ:
+            Element list = append(element, property.kind == Kind.BAG ? "rdf:Bag" : "rdf:Seq");
+            for (String value : values) {
+                append(list, "rdf:li").setTextContent(value);
+            }
+            break;
+        case DATE:
+            element.setTextContent(toXmpDate(values.get(0)));
+            break;
+        default:
+            element.setTextContent(values.get(0));
+        }
+        if (!description.hasAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, property.prefix)) {
+            description.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:" + property.prefix,
+                    property.namespace);
+        }
+        description.appendChild(element);
+    }
+
+    protected Element append(Element parent, String name) {
+        Element child = document.createElementNS(RDF, name);
+        parent.appendChild(child);
+        return child;
+    }
+
+    protected List<Element> getDescriptions() {
+        List<Element> descriptions = new ArrayList<>();
+        for (Node child = rdf.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && RDF.equals(child.getNamespaceURI())
+                    && "Description".equals(child.getLocalName())) {
+                descriptions.add((Element) child);
+            }
+        }
+        return descriptions;
+    }
+
+    /**
+     * @return The description declaring the namespace, or the first one, created if needed.
+     */
+    protected Element getDescription(String namespace) {
+        List<Element> descriptions = getDescriptions();
+        for (Element description : descriptions) {
+            for (int i = 0; i < description.getAttributes().getLength(); i++) {
+                Node attribute = description.getAttributes().item(i);
+                if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())
+                        && namespace.equals(attribute.getNodeValue())) {
+                    return description;
+                }
+            }
+        }
+        if (!descriptions.isEmpty()) {
+            return descriptions.get(0);
+        }
+        Element description = document.createElementNS(RDF, "rdf:Description");
+        description.setAttributeNS(RDF, "rdf:about", "");
+        rdf.appendChild(description);
+        return description;
+    }
+
+    /**
+     * Converts a date given in the EXIF format, such as {@code 2015:03:20 10:21:05+01:00}, to the XMP format.
+     */
+    protected static String toXmpDate(String value) {
+        Matcher matcher = EXIF_DATE.matcher(value);
+        if (!matcher.matches()) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        sb.append(matcher.group(1)).append('-').append(matcher.group(2)).append('-').append(matcher.group(3));
+        if (matcher.group(4) != null) {
+            sb.append('T').append(matcher.group(4));
+            if (matcher.group(5) != null) {
+                sb.append(matcher.group(5));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Wraps the serialized XMP in a packet padded with white space up to the given length, as allowed by the XMP
+     * specification, so that it can be updated in place later on.
+     *
+     * @param xml The {@link #serialize serialized} XMP.
+     * @param length The length of the packet, greater than {@link #getPacketLength}.
+     */
+    public static byte[] toPacket(byte[] xml, int length) {
+        int padding = length - PACKET_HEADER.length - xml.length - PACKET_TRAILER.length;
+        if (padding < 1) {
+            throw new IllegalArgumentException("Packet longer than " + length + " bytes");
+        }
+        byte[] packet = new byte[length];
+        System.arraycopy(PACKET_HEADER, 0, packet, 0, PACKET_HEADER.length);
+        System.arraycopy(xml, 0, packet, PACKET_HEADER.length, xml.length);
+        int position = PACKET_HEADER.length + xml.length;
+        for (int i = 0; i < padding; i++) {
+            // a new line every 100 characters, as Adobe does
+            packet[position + i] = (byte) (i % 100 == 0 ? '\n' : ' ');
+        }
+        System.arraycopy(PACKET_TRAILER, 0, packet, length - PACKET_TRAILER.length, PACKET_TRAILER.length);
+        return packet;
+    }
+
+    /**
+     * @return The length of the packet of the serialized XMP without padding.
+     */
+    public static int getPacketLength(byte[] xml) {
+        return PACKET_HEADER.length + xml.length + PACKET_TRAILER.length;
+    }
+
+    /**
+     * @return The XMP, without packet wrapper.
+     */
+    public byte[] serialize() {
+        try {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            transformer.setOutputProperty(OutputKeys.ENCODING, StandardCharsets.UTF_8.name());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            transformer.transform(new DOMSource(document.getDocumentElement()), new StreamResult(out));
+            return out.toByteArray();
+        } catch (TransformerException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
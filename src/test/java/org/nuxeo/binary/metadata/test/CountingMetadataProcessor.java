@@ -0,0 +1,72 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.nuxeo.binary.metadata.api.BinaryMetadataException;
+import org.nuxeo.binary.metadata.api.BinaryMetadataProcessor;
+import org.nuxeo.ecm.core.api.Blob;
+
+/**
+ * Counts the calls standing for the processor subprocesses, the metadata read being the content of the blob followed
+ * by the tag.
+ *
+ * @since 7.3
+ */
+public class CountingMetadataProcessor implements BinaryMetadataProcessor {
+
+    public static final AtomicInteger READS = new AtomicInteger();
+
+    public static final AtomicInteger WRITES = new AtomicInteger();
+
+    public static void reset() {
+        READS.set(0);
+        WRITES.set(0);
+    }
+
+    @Override
+    public boolean writeMetadata(Blob blob, Map<String, Object> metadata, boolean ignorePrefix) {
+        WRITES.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public Map<String, Object> readMetadata(Blob blob, List<String> metadata, boolean ignorePrefix) {
+        READS.incrementAndGet();
+        Map<String, Object> result = new HashMap<>();
+        try {
+            for (String tag : metadata) {
+                result.put(tag, blob.getString() + " " + tag);
+            }
+        } catch (IOException e) {
+            throw new BinaryMetadataException(e);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Object> readMetadata(Blob blob, boolean ignorePrefix) {
+        READS.incrementAndGet();
+        return new HashMap<>();
+    }
+
+}
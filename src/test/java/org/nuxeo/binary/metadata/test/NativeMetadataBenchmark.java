@@ -0,0 +1,115 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.nuxeo.binary.metadata.internals.ExifToolJsonReader;
+import org.nuxeo.binary.metadata.internals.JpegMetadataProcessor;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the native readers with ExifTool on the test images, ExifTool being run and parsed as the
+ * {@code exifTool} processor does (the benchmark runs without the Nuxeo runtime). Run with an ExifTool install on
+ * the path through {@link #main(String[])}, it is not part of the unit tests.
+ *
+ * @since 7.3
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class NativeMetadataBenchmark {
+
+    protected static final List<String> METADATA = Arrays.asList("EXIF:Make", "EXIF:Model", "EXIF:Orientation",
+            "EXIF:ExposureTime", "EXIF:FNumber", "EXIF:ISO", "EXIF:FocalLength", "EXIF:DateTimeOriginal",
+            "File:ImageWidth", "File:ImageHeight");
+
+    @Param({ "data/china.jpg", "data/iptc_sample.jpg" })
+    public String image;
+
+    protected File file;
+
+    protected Blob blob;
+
+    protected JpegMetadataProcessor jpeg;
+
+    protected ExifToolJsonReader jsonReader;
+
+    protected List<String> exifToolCommand;
+
+    @Setup
+    public void setup() throws IOException {
+        file = FileUtils.getResourceFileFromContext(image);
+        blob = Blobs.createBlob(file);
+        jpeg = new JpegMetadataProcessor();
+        jpeg.init(Collections.<String, String> emptyMap());
+        jsonReader = new ExifToolJsonReader(new ObjectMapper(), METADATA);
+        exifToolCommand = new ArrayList<>(Arrays.asList("exiftool", "-G", "-json"));
+        for (String tag : METADATA) {
+            exifToolCommand.add("-" + tag);
+        }
+        exifToolCommand.add(file.getAbsolutePath());
+    }
+
+    @Benchmark
+    public Map<String, Object> jpegProcessor() {
+        return jpeg.readMetadata(blob, METADATA, false);
+    }
+
+    @Benchmark
+    public Map<String, Object> exifTool() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(exifToolCommand).redirectErrorStream(true).start();
+        try (InputStream in = process.getInputStream()) {
+            List<Map<String, Object>> result = jsonReader.read(in);
+            process.waitFor();
+            return result.get(0);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(NativeMetadataBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
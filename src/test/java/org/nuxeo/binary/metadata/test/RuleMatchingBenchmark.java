@@ -0,0 +1,154 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.el.ExpressionFactory;
+
+import org.jboss.el.ExpressionFactoryImpl;
+import org.nuxeo.binary.metadata.internals.CompiledActionFilter;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.platform.actions.ActionContext;
+import org.nuxeo.ecm.platform.actions.DefaultActionFilter;
+import org.nuxeo.ecm.platform.actions.ELActionContext;
+import org.nuxeo.ecm.platform.actions.FilterRule;
+import org.nuxeo.ecm.platform.el.ExpressionContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the matching of a document against the type and facet filters of the rules, the filters being evaluated
+ * as the {@link org.nuxeo.ecm.platform.actions.ejb.ActionManager} does with a new or a shared expression factory, or
+ * compiled once. The benchmark runs without the Nuxeo runtime through {@link #main(String[])}, it is not part of the
+ * unit tests.
+ *
+ * @since 7.3
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RuleMatchingBenchmark {
+
+    protected static final ExpressionFactory EXPRESSION_FACTORY = new ExpressionFactoryImpl();
+
+    @Param({ "File", "Folder" })
+    public String type;
+
+    protected DocumentModel doc;
+
+    protected List<DefaultActionFilter> filters;
+
+    protected List<CompiledActionFilter> compiledFilters;
+
+    @Setup
+    public void setup() {
+        doc = createDocument(type, Arrays.asList("Downloadable", "Versionable"), Arrays.asList("dublincore", "file"));
+        filters = Arrays.asList(
+                new DefaultActionFilter("hasFileType", new FilterRule[] { new FilterRule(true, null, null, null,
+                        new String[] { "File", "Picture" }, null) }),
+                new DefaultActionFilter("isDownloadable", new FilterRule[] { new FilterRule(true, null,
+                        new String[] { "Downloadable" }, null, null, null) }),
+                new DefaultActionFilter("notFolderish", new FilterRule[] { new FilterRule(false, null,
+                        new String[] { "Folderish" }, null, null, null) }));
+        compiledFilters = new ArrayList<>();
+        for (DefaultActionFilter filter : filters) {
+            compiledFilters.add(CompiledActionFilter.compile(filter.getId(), filter));
+        }
+    }
+
+    /**
+     * A document answering its type, facets and schemas only.
+     */
+    protected static DocumentModel createDocument(final String type, final List<String> facets,
+            final List<String> schemas) {
+        return (DocumentModel) Proxy.newProxyInstance(RuleMatchingBenchmark.class.getClassLoader(),
+                new Class<?>[] { DocumentModel.class }, new InvocationHandler() {
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        switch (method.getName()) {
+                        case "getType":
+                            return type;
+                        case "hasFacet":
+                            return Boolean.valueOf(facets.contains(args[0]));
+                        case "hasSchema":
+                            return Boolean.valueOf(schemas.contains(args[0]));
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                    }
+
+                });
+    }
+
+    protected boolean accept(ActionContext actionContext) {
+        actionContext.setCurrentDocument(doc);
+        for (DefaultActionFilter filter : filters) {
+            if (!filter.accept(null, actionContext)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Benchmark
+    public boolean newFactory() {
+        return accept(new ELActionContext(new ExpressionContext(), new ExpressionFactoryImpl()));
+    }
+
+    @Benchmark
+    public boolean sharedFactory() {
+        return accept(new ELActionContext(new ExpressionContext(), EXPRESSION_FACTORY));
+    }
+
+    @Benchmark
+    public boolean compiledFilters() {
+        for (CompiledActionFilter filter : compiledFilters) {
+            if (!filter.accept(doc)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RuleMatchingBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.nuxeo.binary.metadata.api.BinaryMetadataException;
+import org.nuxeo.binary.metadata.api.BinaryMetadataProcessor;
+import org.nuxeo.binary.metadata.internals.AdaptiveConcurrencyLimiter;
+import org.nuxeo.binary.metadata.internals.LimitedBinaryMetadataProcessor;
+import org.nuxeo.binary.metadata.internals.ProcessorTimeoutException;
+import org.nuxeo.binary.metadata.internals.ProcessorUnavailableException;
+import org.nuxeo.ecm.core.api.Blob;
+
+/**
+ * @since 7.3
+ */
+public class TestAdaptiveConcurrencyLimiter {
+
+    @Test
+    public void itShouldGrowWhileLatencyIsFlat() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 64);
+        long[] starts = new long[4];
+        for (int round = 0; round < 50; round++) {
+            int limit = limiter.getLimit();
+            for (int i = 0; i < Math.min(limit, starts.length); i++) {
+                starts[i] = limiter.acquire();
+            }
+            for (int i = 0; i < Math.min(limit, starts.length); i++) {
+                limiter.release(starts[i], true);
+            }
+        }
+        assertTrue("limit " + limiter.getLimit(), limiter.getLimit() > 4);
+    }
+
+    @Test
+    public void itShouldShrinkWhenLatencyIncreases() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(32, 1, 64);
+        // fast calls set the no load latency
+        for (int i = 0; i < 10; i++) {
+            limiter.release(limiter.acquire(), true);
+        }
+        // calls ten times slower than the no load latency
+        for (int i = 0; i < 20; i++) {
+            long start = limiter.acquire();
+            limiter.release(start - TimeUnit.SECONDS.toNanos(1), true);
+        }
+        assertTrue("limit " + limiter.getLimit(), limiter.getLimit() < 32);
+    }
+
+    @Test
+    public void itShouldNotPinTheLimitOfASlowProcessorToTheFastOnes() {
+        AdaptiveConcurrencyLimiter shared = new AdaptiveConcurrencyLimiter(16, 1, 64);
+        AdaptiveConcurrencyLimiter slow = new AdaptiveConcurrencyLimiter(16, 1, 64);
+        long fastLatency = TimeUnit.MILLISECONDS.toNanos(1);
+        long slowLatency = TimeUnit.MILLISECONDS.toNanos(200);
+        // in-JVM reads interleaved with external process calls of a steady latency
+        for (int round = 0; round < 50; round++) {
+            runCalls(shared, 16, fastLatency);
+            runCalls(shared, 16, slowLatency);
+            runCalls(slow, 16, slowLatency);
+        }
+        // a single limiter sees the slow calls as queuing behind the fast ones
+        assertTrue("shared limit " + shared.getLimit(), shared.getLimit() < 8);
+        // the latency of the slow processor alone is flat, nothing bounds its limit
+        assertTrue("slow limit " + slow.getLimit(), slow.getLimit() >= 16);
+    }
+
+    /**
+     * Fails each read with the given exception.
+     */
+    protected static class FailingProcessor implements BinaryMetadataProcessor {
+
+        protected final BinaryMetadataException failure;
+
+        protected FailingProcessor(BinaryMetadataException failure) {
+            this.failure = failure;
+        }
+
+        @Override
+        public boolean writeMetadata(Blob blob, Map<String, Object> metadata, boolean ignorePrefix) {
+            throw failure;
+        }
+
+        @Override
+        public Map<String, Object> readMetadata(Blob blob, List<String> metadata, boolean ignorePrefix) {
+            throw failure;
+        }
+
+        @Override
+        public Map<String, Object> readMetadata(Blob blob, boolean ignorePrefix) {
+            throw failure;
+        }
+
+        @Override
+        public List<Map<String, Object>> readMetadata(List<Blob> blobs, List<String> metadata, boolean ignorePrefix) {
+            throw failure;
+        }
+
+    }
+
+    protected static int failCalls(BinaryMetadataException failure) {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(16, 1, 64);
+        BinaryMetadataProcessor processor = new LimitedBinaryMetadataProcessor(new FailingProcessor(failure), limiter);
+        for (int i = 0; i < 50; i++) {
+            try {
+                processor.readMetadata(null, false);
+                fail();
+            } catch (BinaryMetadataException e) {
+                assertSame(failure, e);
+            }
+        }
+        assertEquals(0, limiter.getInFlight());
+        return limiter.getLimit();
+    }
+
+    @Test
+    public void itShouldNotBackOffOnContentErrors() {
+        // a batch of corrupt files says nothing about the load of the processor
+        assertEquals(16, failCalls(new BinaryMetadataException("Corrupt file")));
+        assertEquals(1, failCalls(new ProcessorTimeoutException("Command killed after 120000ms")));
+        assertEquals(1, failCalls(new ProcessorUnavailableException("No subprocess slot available")));
+    }
+
+    protected static void runCalls(AdaptiveConcurrencyLimiter limiter, int calls, long latency) {
+        long[] starts = new long[Math.min(calls, limiter.getLimit())];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = limiter.acquire();
+        }
+        for (int i = 0; i < starts.length; i++) {
+            limiter.release(starts[i] - latency, true);
+        }
+    }
+
+    @Test
+    public void itShouldQueueCallsAboveTheLimit() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1);
+        long start = limiter.acquire();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+
+            @Override
+            public void run() {
+                limiter.release(limiter.acquire(), true);
+                done.countDown();
+            }
+
+        };
+        waiter.start();
+        while (limiter.getQueueDepth() == 0) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, limiter.getInFlight());
+        limiter.release(start, true);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(0, limiter.getQueueDepth());
+    }
+
+}
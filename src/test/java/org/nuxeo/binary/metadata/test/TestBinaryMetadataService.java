@@ -18,10 +18,13 @@ package org.nuxeo.binary.metadata.test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -30,10 +33,16 @@ import javax.inject.Inject;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.nuxeo.binary.metadata.api.BinaryMetadataConstants;
 import org.nuxeo.binary.metadata.api.BinaryMetadataService;
+import org.nuxeo.binary.metadata.internals.BinaryMetadataServiceImpl;
+import org.nuxeo.binary.metadata.internals.MetadataRuleIndex;
+import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.PathRef;
 import org.nuxeo.ecm.core.api.blobholder.BlobHolder;
+import org.nuxeo.ecm.core.api.impl.blob.ByteArrayBlob;
 import org.nuxeo.ecm.core.test.annotations.Granularity;
 import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
 import org.nuxeo.runtime.test.runner.Features;
@@ -111,6 +120,35 @@ public class TestBinaryMetadataService {
         assertEquals("Divine Recordings", blobProperties.get("ID3:Publisher").toString());
     }
 
+    @Test
+    public void itShouldExtractGivenMetadataFromSeveralBinaries() {
+        List<Blob> blobs = new ArrayList<>();
+        blobs.add(BinaryMetadataServerInit.getFile(0, session).getAdapter(BlobHolder.class).getBlob());
+        blobs.add(BinaryMetadataServerInit.getFile(1, session).getAdapter(BlobHolder.class).getBlob());
+        blobs.add(BinaryMetadataServerInit.getFile(0, session).getAdapter(BlobHolder.class).getBlob());
+        List<String> metadata = Arrays.asList("ID3:Title", "PDF:Author");
+        List<Map<String, Object>> results = binaryMetadataService.readMetadata(blobs, metadata, false);
+        assertEquals(3, results.size());
+        assertEquals("Twist", results.get(0).get("ID3:Title").toString());
+        assertNull(results.get(0).get("PDF:Author"));
+        assertEquals("Mirko Nasato", results.get(1).get("PDF:Author"));
+        assertEquals(results.get(0), results.get(2));
+    }
+
+    @Test
+    public void itShouldStreamBinariesWithoutFile() throws IOException {
+        Blob pdf = BinaryMetadataServerInit.getFile(1, session).getAdapter(BlobHolder.class).getBlob();
+        Blob memoryBlob = new ByteArrayBlob(pdf.getByteArray(), "application/pdf");
+        List<String> metadata = Arrays.asList("PDF:Author", "PDF:Producer");
+        Map<String, Object> streamed = binaryMetadataService.readMetadata(
+                BinaryMetadataConstants.EXIF_TOOL_STREAMING_CONTRIBUTION_ID, memoryBlob, metadata, false);
+        assertEquals("Mirko Nasato", streamed.get("PDF:Author"));
+        assertEquals(binaryMetadataService.readMetadata(pdf, metadata, false), streamed);
+        // file based blobs are still given as a path
+        assertEquals(streamed, binaryMetadataService.readMetadata(
+                BinaryMetadataConstants.EXIF_TOOL_STREAMING_CONTRIBUTION_ID, pdf, metadata, false));
+    }
+
     @Test
     public void itShouldWriteGivenMetadataInBinary() {
         // Get the document with PSD attached
@@ -155,6 +193,27 @@ public class TestBinaryMetadataService {
         assertEquals("OpenOffice.org 3.2", pdfDoc.getPropertyValue("dc:description"));
     }
 
+    @Test
+    public void itShouldNotSaveTheDocumentWhenNothingChanged() {
+        DocumentModel pdfDoc = BinaryMetadataServerInit.getFile(1, session);
+        binaryMetadataService.writeMetadata(pdfDoc, session);
+
+        // the mapped properties already have the values of the binary
+        pdfDoc = BinaryMetadataServerInit.getFile(1, session);
+        pdfDoc.setPropertyValue("dc:rights", "not saved");
+        binaryMetadataService.writeMetadata(pdfDoc, session);
+        assertNull(BinaryMetadataServerInit.getFile(1, session).getPropertyValue("dc:rights"));
+    }
+
+    @Test
+    public void itShouldIndexTheRulesByDocumentType() {
+        MetadataRuleIndex index = ((BinaryMetadataServiceImpl) binaryMetadataService).getRuleIndex();
+        assertEquals(2, index.size());
+        // both rules are restricted to the File type by hasFileType
+        assertEquals(2, index.getCandidates(BinaryMetadataServerInit.getFile(1, session)).size());
+        assertTrue(index.getCandidates(session.getDocument(new PathRef("/folder"))).isEmpty());
+    }
+
     @Test
     public void itShouldAcceptQuoteInMetadataAndAllASCII() {
         // Get the document with MP3 attached
@@ -173,4 +232,16 @@ public class TestBinaryMetadataService {
             fail(e.getMessage());
         }
     }
+
+    @Test
+    public void itShouldWriteValuesAsIs() {
+        Blob pdf = BinaryMetadataServerInit.getFile(1, session).getAdapter(BlobHolder.class).getBlob();
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("PDF:Subject", "l'adresse  idéale");
+        assertTrue(binaryMetadataService.writeMetadata(pdf, metadata, false));
+        Map<String, Object> blobProperties = binaryMetadataService.readMetadata(pdf, Arrays.asList("PDF:Subject"),
+                false);
+        assertEquals("l'adresse  idéale", blobProperties.get("PDF:Subject"));
+    }
+
 }
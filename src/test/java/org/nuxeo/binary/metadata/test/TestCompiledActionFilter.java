@@ -0,0 +1,145 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import javax.inject.Inject;
+
+import org.jboss.el.ExpressionFactoryImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.binary.metadata.internals.CompiledActionFilter;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.ecm.platform.actions.ActionContext;
+import org.nuxeo.ecm.platform.actions.ELActionContext;
+import org.nuxeo.ecm.platform.actions.ejb.ActionManager;
+import org.nuxeo.ecm.platform.el.ExpressionContext;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+
+/**
+ * Checks the compiled filters against the {@link ActionManager}, for a folder, a file named "file" and a file named
+ * "other".
+ *
+ * @since 7.3
+ */
+@RunWith(FeaturesRunner.class)
+@Features(BinaryMetadataFeature.class)
+@LocalDeploy("org.nuxeo.binary.metadata:binary-metadata-contrib-filters-test.xml")
+@RepositoryConfig(cleanup = Granularity.METHOD)
+public class TestCompiledActionFilter {
+
+    @Inject
+    CoreSession session;
+
+    @Inject
+    ActionManager actionManager;
+
+    DocumentModel[] docs;
+
+    @Before
+    public void createDocuments() {
+        DocumentModel folder = session.createDocument(session.createDocumentModel("/", "folder", "Folder"));
+        DocumentModel file = session.createDocument(session.createDocumentModel("/folder", "file", "File"));
+        DocumentModel other = session.createDocument(session.createDocumentModel("/folder", "other", "File"));
+        docs = new DocumentModel[] { folder, file, other };
+    }
+
+    protected CompiledActionFilter compile(String filterId) {
+        CompiledActionFilter filter = CompiledActionFilter.compile(filterId, actionManager.getFilter(filterId));
+        assertNotNull(filterId, filter);
+        return filter;
+    }
+
+    protected boolean checkFilter(String filterId, DocumentModel doc) {
+        ActionContext actionContext = new ELActionContext(new ExpressionContext(), new ExpressionFactoryImpl());
+        actionContext.setCurrentDocument(doc);
+        return actionManager.checkFilter(filterId, actionContext);
+    }
+
+    /**
+     * Checks that the compiled filter gives the result of the filter for each document.
+     */
+    protected void assertExact(String filterId, boolean... expected) {
+        CompiledActionFilter filter = compile(filterId);
+        assertTrue(filterId, filter.isExact());
+        for (int i = 0; i < docs.length; i++) {
+            String message = filterId + " " + docs[i].getName();
+            assertEquals(message, expected[i], checkFilter(filterId, docs[i]));
+            assertEquals(message, expected[i], filter.accept(docs[i]));
+        }
+    }
+
+    /**
+     * Checks that the compiled filter accepts each document accepted by the filter.
+     */
+    protected void assertNotExact(String filterId, boolean... expected) {
+        CompiledActionFilter filter = compile(filterId);
+        assertFalse(filterId, filter.isExact());
+        for (int i = 0; i < docs.length; i++) {
+            String message = filterId + " " + docs[i].getName();
+            assertEquals(message, expected[i], checkFilter(filterId, docs[i]));
+            assertTrue(message, filter.accept(docs[i]) || !expected[i]);
+        }
+    }
+
+    @Test
+    public void itShouldCompileTheDenyOnlyFilters() {
+        assertExact("compiledDenyFolderish", false, true, true);
+        // all the restrictions of a rule have to match
+        assertExact("compiledDenyTypeAndSchema", true, true, true);
+    }
+
+    @Test
+    public void itShouldCompileTheGrantsByType() {
+        assertExact("compiledGrantType", false, true, true);
+    }
+
+    @Test
+    public void itShouldCompileTheGrantsByFacet() {
+        assertExact("compiledGrantFacet", true, false, false);
+    }
+
+    @Test
+    public void itShouldCompileTheGrantsBySchema() {
+        assertExact("compiledGrantSchema", false, true, true);
+    }
+
+    @Test
+    public void itShouldCompileTheMixedFilters() {
+        assertExact("compiledMixed", false, true, true);
+        assertExact("compiledMixedRestrictions", false, true, true);
+    }
+
+    @Test
+    public void itShouldCompileTheMixedFiltersWithConditions() {
+        assertNotExact("compiledGrantCondition", false, true, false);
+        // the restrictions of the rules are still checked
+        assertFalse(compile("compiledGrantCondition").accept(docs[0]));
+        assertNotExact("compiledDenyCondition", true, true, false);
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.junit.Test;
+import org.nuxeo.binary.metadata.api.MetadataTagList;
+import org.nuxeo.binary.metadata.internals.ExifToolArguments;
+
+/**
+ * @since 7.3
+ */
+public class TestExifToolArguments {
+
+    @Test
+    public void itShouldShareTheReadArgumentsOfTagLists() {
+        MetadataTagList tags = new MetadataTagList(Arrays.asList("EXIF:Make", "XMP:Title"));
+        assertEquals(Arrays.asList("EXIF:Make", "XMP:Title"), tags);
+        assertEquals(Arrays.asList("-EXIF:Make", "-XMP:Title"), tags.getReadArguments());
+        assertSame(tags.getReadArguments(), ExifToolArguments.getReadArguments(tags));
+        assertEquals(Arrays.asList("-EXIF:Make"), ExifToolArguments.getReadArguments(Arrays.asList("EXIF:Make")));
+    }
+
+    @Test
+    public void itShouldPassValuesAsSeparateArguments() {
+        Calendar date = Calendar.getInstance(TimeZone.getTimeZone("GMT+02:00"));
+        date.clear();
+        date.set(2015, Calendar.MARCH, 2, 10, 30, 0);
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        metadata.put("PDF:Subject", "l'adresse idéale");
+        metadata.put("XMP:Subject", new String[] { "sea", "sun" });
+        metadata.put("XMP:CreateDate", date);
+        metadata.put("PDF:Author", null);
+        List<String> arguments = ExifToolArguments.getWriteArguments(metadata);
+        assertEquals(Arrays.asList("-PDF:Subject=l'adresse idéale", "-XMP:Subject=sea", "-XMP:Subject=sun",
+                "-XMP:CreateDate=2015:03:02 10:30:00+02:00", "-PDF:Author="), arguments);
+    }
+
+    @Test
+    public void itShouldEscapeForTheCommandLineExecutor() {
+        assertEquals("-PDF:Subject=ladresse\\ idéale -XMP:Title=a ",
+                ExifToolArguments.toCommandLine(Arrays.asList("-PDF:Subject=l'adresse idéale", "-XMP:Title=a")));
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+import org.junit.Test;
+import org.nuxeo.binary.metadata.internals.ExifToolJsonReader;
+
+/**
+ * @since 7.3
+ */
+public class TestExifToolJsonReader {
+
+    protected static final List<String> OUTPUT = Arrays.asList("[{", //
+            "  \"SourceFile\": \"/tmp/photo.jpg\",", //
+            "  \"EXIF:Orientation\": \"Horizontal (normal)\",", //
+            "  \"EXIF:FNumber\": 2.8,", //
+            "  \"EXIF:ISO\": 100,", //
+            "  \"XMP:Subject\": [\"sea\", \"sun\"],", //
+            "  \"Composite:Nested\": {\"values\": [1, 2, {\"value\": 3}]},", //
+            "  \"EXIF:ThumbnailImage\": \"base64:/9j/4AAQSkZJRgABAQEASABIAAD\"", //
+            "}, {", //
+            "  \"SourceFile\": \"/tmp/broken.jpg\",", //
+            "  \"ExifTool:Error\": \"File format error\"", //
+            "}]");
+
+    protected final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void itShouldReadLikeTheObjectMapper() throws IOException {
+        StringBuilder json = new StringBuilder();
+        for (String line : OUTPUT) {
+            json.append(line);
+        }
+        List<Map<String, Object>> expected = mapper.readValue(json.toString(),
+                new TypeReference<List<Map<String, Object>>>() {
+                });
+        assertEquals(expected, new ExifToolJsonReader(mapper, null).read(OUTPUT));
+    }
+
+    @Test
+    public void itShouldOnlyReadRequestedTags() throws IOException {
+        List<Map<String, Object>> results = new ExifToolJsonReader(mapper, Arrays.asList("EXIF:Orientation",
+                "ISO#", "XMP-dc:Subject")).read(OUTPUT);
+        assertEquals(2, results.size());
+        Map<String, Object> photo = results.get(0);
+        assertEquals(new HashSet<>(Arrays.asList("SourceFile", "EXIF:Orientation", "EXIF:ISO", "XMP:Subject")),
+                photo.keySet());
+        assertEquals(100, photo.get("EXIF:ISO"));
+        assertEquals(Arrays.asList("sea", "sun"), photo.get("XMP:Subject"));
+        assertEquals("File format error", results.get(1).get("ExifTool:Error"));
+    }
+
+    @Test
+    public void itShouldReadAllTagsForWildcards() throws IOException {
+        Map<String, Object> photo = new ExifToolJsonReader(mapper, Collections.singletonList("EXIF:*")).read(OUTPUT).get(
+                0);
+        assertEquals(7, photo.size());
+    }
+
+    @Test
+    public void itShouldReadEmptyOutput() throws IOException {
+        assertTrue(new ExifToolJsonReader(mapper, null).read(Collections.<String> emptyList()).isEmpty());
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.binary.metadata.api.BinaryMetadataConstants;
+import org.nuxeo.binary.metadata.api.BinaryMetadataService;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.blobholder.BlobHolder;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+
+/**
+ * @since 7.3
+ */
+@RunWith(FeaturesRunner.class)
+@Features(BinaryMetadataFeature.class)
+@LocalDeploy({ "org.nuxeo.binary.metadata:binary-metadata-disable-listener.xml" })
+@RepositoryConfig(cleanup = Granularity.METHOD, init = BinaryMetadataServerInit.class)
+public class TestExifToolPoolProcessor {
+
+    @Inject
+    BinaryMetadataService binaryMetadataService;
+
+    @Inject
+    CoreSession session;
+
+    protected Blob getBlob(int index) {
+        return BinaryMetadataServerInit.getFile(index, session).getAdapter(BlobHolder.class).getBlob();
+    }
+
+    @Test
+    public void itShouldReadLikeTheForkingProcessor() {
+        List<String> tags = Arrays.asList("PDF:Producer", "PDF:Author", "PDF:Language");
+        Blob pdf = getBlob(1);
+        Map<String, Object> expected = binaryMetadataService.readMetadata(
+                BinaryMetadataConstants.EXIF_TOOL_CONTRIBUTION_ID, pdf, tags, false);
+        Map<String, Object> pooled = binaryMetadataService.readMetadata(
+                BinaryMetadataConstants.EXIF_TOOL_POOL_CONTRIBUTION_ID, pdf, tags, false);
+        assertEquals(expected, pooled);
+        assertEquals("Mirko Nasato", pooled.get("PDF:Author"));
+    }
+
+    @Test
+    public void itShouldReuseWorkersAcrossRequests() {
+        Blob music = getBlob(0);
+        for (int i = 0; i < 10; i++) {
+            Map<String, Object> properties = binaryMetadataService.readMetadata(
+                    BinaryMetadataConstants.EXIF_TOOL_POOL_CONTRIBUTION_ID, music, true);
+            assertNotNull(properties);
+            assertEquals("Twist", properties.get("Title").toString());
+        }
+        Map<String, Object> properties = binaryMetadataService.readMetadata(
+                BinaryMetadataConstants.EXIF_TOOL_POOL_CONTRIBUTION_ID, music,
+                Collections.singletonList("ID3:Publisher"), false);
+        assertEquals("Divine Recordings", properties.get("ID3:Publisher").toString());
+    }
+
+    @Test
+    public void itShouldWriteThroughWorkers() {
+        Blob pdf = getBlob(1);
+        Map<String, Object> metadata = Collections.<String, Object> singletonMap("PDF:Subject", "l'adresse idéale");
+        assertTrue(binaryMetadataService.writeMetadata(BinaryMetadataConstants.EXIF_TOOL_POOL_CONTRIBUTION_ID, pdf,
+                metadata, false));
+        Map<String, Object> properties = binaryMetadataService.readMetadata(
+                BinaryMetadataConstants.EXIF_TOOL_POOL_CONTRIBUTION_ID, pdf,
+                Collections.singletonList("PDF:Subject"), false);
+        assertEquals("l'adresse idéale", properties.get("PDF:Subject"));
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nuxeo.binary.metadata.api.BinaryMetadataProcessor;
+import org.nuxeo.binary.metadata.internals.CachedBinaryMetadataProcessor;
+import org.nuxeo.binary.metadata.internals.MetadataDiskCache;
+import org.nuxeo.binary.metadata.internals.MetadataResultCache;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+
+/**
+ * @since 7.3
+ */
+public class TestMetadataDiskCache {
+
+    protected static final List<String> TAGS = Arrays.asList("XMP:Title");
+
+    protected static final int SIZE = 4096;
+
+    protected File dir;
+
+    @Before
+    public void createDirectory() throws IOException {
+        dir = Files.createTempDirectory("nxbm").toFile();
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    protected Map<String, Object> createResult(String title) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("XMP:Title", title);
+        result.put("EXIF:ImageWidth", Integer.valueOf(12));
+        result.put("XMP:Subject", Arrays.asList("a", "b"));
+        return result;
+    }
+
+    @Test
+    public void itShouldKeepTheResultsAcrossRestarts() throws IOException {
+        try (MetadataDiskCache cache = new MetadataDiskCache(dir, SIZE)) {
+            cache.put("a", "jpeg", TAGS, false, createResult("a"));
+            cache.put("a", "jpeg", null, false, createResult("all"));
+            cache.put("b", "jpeg", TAGS, true, createResult("b"));
+            assertEquals(createResult("a"), cache.get("a", "jpeg", TAGS, false));
+            assertNull(cache.get("a", "jpeg", TAGS, true));
+            assertNull(cache.get("a", "pdf", TAGS, false));
+        }
+        try (MetadataDiskCache cache = new MetadataDiskCache(dir, SIZE)) {
+            assertEquals(createResult("a"), cache.get("a", "jpeg", TAGS, false));
+            assertEquals(createResult("all"), cache.get("a", "jpeg", null, false));
+            assertEquals(createResult("b"), cache.get("b", "jpeg", TAGS, true));
+            assertEquals(3, cache.getHits());
+        }
+    }
+
+    @Test
+    public void itShouldKeepTheInvalidationsAcrossRestarts() throws IOException {
+        try (MetadataDiskCache cache = new MetadataDiskCache(dir, SIZE)) {
+            cache.put("a", "jpeg", TAGS, false, createResult("a"));
+            cache.put("a", "pdf", null, false, createResult("a"));
+            cache.put("b", "jpeg", TAGS, false, createResult("b"));
+            cache.invalidate("a");
+            assertNull(cache.get("a", "jpeg", TAGS, false));
+            cache.put("a", "jpeg", TAGS, false, createResult("written"));
+        }
+        try (MetadataDiskCache cache = new MetadataDiskCache(dir, SIZE)) {
+            assertEquals(createResult("written"), cache.get("a", "jpeg", TAGS, false));
+            assertNull(cache.get("a", "pdf", null, false));
+            assertEquals(createResult("b"), cache.get("b", "jpeg", TAGS, false));
+        }
+    }
+
+    @Test
+    public void itShouldCompactTheLogWhenFull() throws IOException {
+        long used;
+        try (MetadataDiskCache cache = new MetadataDiskCache(dir, SIZE)) {
+            for (int i = 0; i < 200; i++) {
+                cache.put("digest" + i, "jpeg", TAGS, false, createResult("title" + i));
+            }
+            used = cache.getUsedSize();
+            assertTrue("used " + used, used <= SIZE);
+            assertEquals(createResult("title199"), cache.get("digest199", "jpeg", TAGS, false));
+            assertNull(cache.get("digest0", "jpeg", TAGS, false));
+        }
+        assertEquals(SIZE, new File(dir, MetadataDiskCache.LOG_FILE_NAME).length());
+        try (MetadataDiskCache cache = new MetadataDiskCache(dir, SIZE)) {
+            assertEquals(used, cache.getUsedSize());
+            assertEquals(createResult("title199"), cache.get("digest199", "jpeg", TAGS, false));
+        }
+    }
+
+    @Test
+    public void itShouldStopAtATornRecord() throws IOException {
+        long used;
+        try (MetadataDiskCache cache = new MetadataDiskCache(dir, SIZE)) {
+            cache.put("a", "jpeg", TAGS, false, createResult("a"));
+            cache.put("b", "jpeg", TAGS, false, createResult("b"));
+            used = cache.getUsedSize();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, MetadataDiskCache.LOG_FILE_NAME), "rw")) {
+            file.seek(used - 1);
+            int last = file.read();
+            file.seek(used - 1);
+            file.write(last ^ 1);
+        }
+        try (MetadataDiskCache cache = new MetadataDiskCache(dir, SIZE)) {
+            assertEquals(createResult("a"), cache.get("a", "jpeg", TAGS, false));
+            assertNull(cache.get("b", "jpeg", TAGS, false));
+            assertEquals(1, cache.size());
+        }
+    }
+
+    @Test
+    public void itShouldServeTheMemoryCacheFromTheDisk() throws IOException {
+        MetadataResultCache memory = new MetadataResultCache(1024 * 1024, 60);
+        try (MetadataDiskCache disk = new MetadataDiskCache(dir, SIZE)) {
+            disk.put("a", "counting", TAGS, false, Collections.<String, Object> singletonMap("XMP:Title", "disk"));
+            BinaryMetadataProcessor processor = new CachedBinaryMetadataProcessor(
+                    new TestMetadataResultCache.CountingProcessor(), "counting", memory, disk);
+            Blob blob = Blobs.createBlob("a");
+            blob.setDigest("a");
+            assertEquals("disk", processor.readMetadata(blob, TAGS, false).get("XMP:Title"));
+            assertEquals("disk", memory.get("a", "counting", TAGS, false).get("XMP:Title"));
+
+            assertTrue(processor.writeMetadata(blob, Collections.<String, Object> emptyMap(), false));
+            assertNull(memory.get("a", "counting", TAGS, false));
+            assertNull(disk.get("a", "counting", TAGS, false));
+            assertEquals(1, processor.readMetadata(blob, TAGS, false).get("XMP:Title"));
+            assertEquals(1, disk.get("a", "counting", TAGS, false).get("XMP:Title"));
+        }
+    }
+
+}
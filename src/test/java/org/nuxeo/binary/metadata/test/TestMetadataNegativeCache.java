@@ -0,0 +1,188 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.nuxeo.binary.metadata.api.BinaryMetadataException;
+import org.nuxeo.binary.metadata.api.BinaryMetadataProcessor;
+import org.nuxeo.binary.metadata.internals.InvalidBinaryException;
+import org.nuxeo.binary.metadata.internals.MetadataNegativeCache;
+import org.nuxeo.binary.metadata.internals.NegativeCachedBinaryMetadataProcessor;
+import org.nuxeo.binary.metadata.internals.ProcessorTimeoutException;
+import org.nuxeo.binary.metadata.internals.ProcessorUnavailableException;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+
+/**
+ * @since 7.3
+ */
+public class TestMetadataNegativeCache {
+
+    protected static final List<String> TAGS = Arrays.asList("XMP:Title");
+
+    /**
+     * Fails for the blobs whose digest starts with "broken", "unavailable", "timeout" or "io", and finds no metadata in
+     * the others.
+     */
+    protected static class FailingProcessor implements BinaryMetadataProcessor {
+
+        protected final AtomicInteger reads = new AtomicInteger();
+
+        @Override
+        public boolean writeMetadata(Blob blob, Map<String, Object> metadata, boolean ignorePrefix) {
+            return true;
+        }
+
+        @Override
+        public Map<String, Object> readMetadata(Blob blob, List<String> metadata, boolean ignorePrefix) {
+            reads.incrementAndGet();
+            String content = String.valueOf(blob.getDigest());
+            if (content.startsWith("broken")) {
+                throw new InvalidBinaryException("Cannot parse " + content);
+            } else if (content.startsWith("unavailable")) {
+                throw new ProcessorUnavailableException("No worker available");
+            } else if (content.startsWith("timeout")) {
+                throw new ProcessorTimeoutException("Command killed");
+            } else if (content.startsWith("io")) {
+                throw new BinaryMetadataException("Cannot read " + content);
+            }
+            return new LinkedHashMap<>();
+        }
+
+        @Override
+        public Map<String, Object> readMetadata(Blob blob, boolean ignorePrefix) {
+            return readMetadata(blob, null, ignorePrefix);
+        }
+
+    }
+
+    protected Blob createBlob(String digest) {
+        Blob blob = Blobs.createBlob(digest);
+        blob.setDigest(digest);
+        return blob;
+    }
+
+    protected void assertFailure(BinaryMetadataProcessor processor, Blob blob, String message) {
+        try {
+            processor.readMetadata(blob, TAGS, false);
+            fail("Read should fail");
+        } catch (BinaryMetadataException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    @Test
+    public void itShouldNotRetryTheFailures() {
+        FailingProcessor failing = new FailingProcessor();
+        MetadataNegativeCache cache = new MetadataNegativeCache(100, 60);
+        BinaryMetadataProcessor processor = new NegativeCachedBinaryMetadataProcessor(failing, "failing", cache);
+        assertFailure(processor, createBlob("broken"), "Cannot parse broken");
+        assertFailure(processor, createBlob("broken"), "Cannot parse broken");
+        // all the reads of the binary fail
+        try {
+            processor.readMetadata(createBlob("broken"), true);
+            fail("Read should fail");
+        } catch (BinaryMetadataException e) {
+            assertEquals("Cannot parse broken", e.getMessage());
+        }
+        assertEquals(1, failing.reads.get());
+        assertEquals(2, cache.getHitCount());
+
+        // the failures of another processor are kept apart
+        BinaryMetadataProcessor other = new NegativeCachedBinaryMetadataProcessor(failing, "other", cache);
+        assertFailure(other, createBlob("broken"), "Cannot parse broken");
+        assertEquals(2, failing.reads.get());
+
+        // the processor being unavailable says nothing about the binary
+        assertFailure(processor, createBlob("unavailable"), "No worker available");
+        assertFailure(processor, createBlob("unavailable"), "No worker available");
+        assertEquals(4, failing.reads.get());
+
+        assertTrue(processor.writeMetadata(createBlob("broken"), Collections.<String, Object> emptyMap(), false));
+        assertFailure(processor, createBlob("broken"), "Cannot parse broken");
+        assertEquals(5, failing.reads.get());
+    }
+
+    @Test
+    public void itShouldRetryTheFailuresNotCausedByTheBinary() {
+        FailingProcessor failing = new FailingProcessor();
+        MetadataNegativeCache cache = new MetadataNegativeCache(100, 60);
+        BinaryMetadataProcessor processor = new NegativeCachedBinaryMetadataProcessor(failing, "failing", cache);
+        assertFailure(processor, createBlob("timeout"), "Command killed");
+        assertFailure(processor, createBlob("timeout"), "Command killed");
+        assertEquals(2, failing.reads.get());
+        assertFailure(processor, createBlob("io"), "Cannot read io");
+        assertFailure(processor, createBlob("io"), "Cannot read io");
+        assertEquals(4, failing.reads.get());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void itShouldNotRetryTheEmptyResults() {
+        FailingProcessor failing = new FailingProcessor();
+        MetadataNegativeCache cache = new MetadataNegativeCache(100, 60);
+        BinaryMetadataProcessor processor = new NegativeCachedBinaryMetadataProcessor(failing, "failing", cache);
+        assertTrue(processor.readMetadata(createBlob("a"), TAGS, false).isEmpty());
+        assertTrue(processor.readMetadata(createBlob("a"), TAGS, false).isEmpty());
+        assertEquals(1, failing.reads.get());
+        // other tags may be found
+        assertTrue(processor.readMetadata(createBlob("a"), false).isEmpty());
+        assertEquals(2, failing.reads.get());
+
+        // the blobs without digest are always read
+        assertTrue(processor.readMetadata(Blobs.createBlob("a"), TAGS, false).isEmpty());
+        assertEquals(3, failing.reads.get());
+    }
+
+    @Test
+    public void itShouldReadTheBlobsOfABatchNotKnownToBeEmpty() {
+        final AtomicInteger batched = new AtomicInteger();
+        FailingProcessor failing = new FailingProcessor() {
+
+            @Override
+            public List<Map<String, Object>> readMetadata(List<Blob> blobs, List<String> metadata,
+                    boolean ignorePrefix) {
+                batched.addAndGet(blobs.size());
+                return super.readMetadata(blobs, metadata, ignorePrefix);
+            }
+
+        };
+        MetadataNegativeCache cache = new MetadataNegativeCache(100, 60);
+        BinaryMetadataProcessor processor = new NegativeCachedBinaryMetadataProcessor(failing, "failing", cache);
+        processor.readMetadata(createBlob("a"), TAGS, false);
+        List<Map<String, Object>> results = processor.readMetadata(Arrays.asList(createBlob("a"), createBlob("b")),
+                TAGS, false);
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isEmpty());
+        assertTrue(results.get(1).isEmpty());
+        assertEquals(1, batched.get());
+        assertTrue(processor.readMetadata(createBlob("b"), TAGS, false).isEmpty());
+        assertEquals(2, failing.reads.get());
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.nuxeo.binary.metadata.api.BinaryMetadataProcessor;
+import org.nuxeo.binary.metadata.internals.CachedBinaryMetadataProcessor;
+import org.nuxeo.binary.metadata.internals.MetadataResultCache;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+
+/**
+ * @since 7.3
+ */
+public class TestMetadataResultCache {
+
+    protected static final List<String> TAGS = Arrays.asList("XMP:Title");
+
+    /**
+     * Returns the number of reads done so far as title.
+     */
+    protected static class CountingProcessor implements BinaryMetadataProcessor {
+
+        protected final AtomicInteger reads = new AtomicInteger();
+
+        @Override
+        public boolean writeMetadata(Blob blob, Map<String, Object> metadata, boolean ignorePrefix) {
+            return true;
+        }
+
+        @Override
+        public Map<String, Object> readMetadata(Blob blob, List<String> metadata, boolean ignorePrefix) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put(ignorePrefix ? "Title" : "XMP:Title", Integer.valueOf(reads.incrementAndGet()));
+            return result;
+        }
+
+        @Override
+        public Map<String, Object> readMetadata(Blob blob, boolean ignorePrefix) {
+            return readMetadata(blob, null, ignorePrefix);
+        }
+
+    }
+
+    protected Blob createBlob(String digest) {
+        Blob blob = Blobs.createBlob(digest);
+        blob.setDigest(digest);
+        return blob;
+    }
+
+    @Test
+    public void itShouldServeTheReadsOfTheSameDigestFromTheCache() {
+        CountingProcessor counting = new CountingProcessor();
+        MetadataResultCache cache = new MetadataResultCache(1024 * 1024, 60);
+        BinaryMetadataProcessor processor = new CachedBinaryMetadataProcessor(counting, "counting", cache);
+        assertEquals(1, processor.readMetadata(createBlob("a"), TAGS, false).get("XMP:Title"));
+        // another blob with the same content
+        assertEquals(1, processor.readMetadata(createBlob("a"), TAGS, false).get("XMP:Title"));
+        assertEquals(2, processor.readMetadata(createBlob("a"), TAGS, true).get("Title"));
+        assertEquals(3, processor.readMetadata(createBlob("b"), TAGS, false).get("XMP:Title"));
+        assertEquals(4, processor.readMetadata(createBlob("a"), false).get("XMP:Title"));
+        assertEquals(4, counting.reads.get());
+        assertEquals(1, cache.getStats().hitCount());
+        assertEquals(4, cache.getStats().missCount());
+
+        // the blobs without digest are not cached
+        assertEquals(5, processor.readMetadata(Blobs.createBlob("c"), TAGS, false).get("XMP:Title"));
+        assertEquals(6, processor.readMetadata(Blobs.createBlob("c"), TAGS, false).get("XMP:Title"));
+
+        // the results are copied
+        processor.readMetadata(createBlob("b"), TAGS, false).clear();
+        assertEquals(3, processor.readMetadata(createBlob("b"), TAGS, false).get("XMP:Title"));
+    }
+
+    @Test
+    public void itShouldInvalidateTheDigestOnWrite() {
+        CountingProcessor counting = new CountingProcessor();
+        MetadataResultCache cache = new MetadataResultCache(1024 * 1024, 60);
+        BinaryMetadataProcessor processor = new CachedBinaryMetadataProcessor(counting, "counting", cache);
+        BinaryMetadataProcessor other = new CachedBinaryMetadataProcessor(counting, "other", cache);
+        processor.readMetadata(createBlob("a"), TAGS, false);
+        other.readMetadata(createBlob("a"), TAGS, true);
+        processor.readMetadata(createBlob("b"), TAGS, false);
+        assertEquals(3, cache.size());
+
+        assertTrue(processor.writeMetadata(createBlob("a"), Collections.<String, Object> emptyMap(), false));
+        assertEquals(1, cache.size());
+        assertNull(cache.get("a", "other", TAGS, true));
+        assertEquals(4, processor.readMetadata(createBlob("a"), TAGS, false).get("XMP:Title"));
+    }
+
+    @Test
+    public void itShouldReadTheMissingBlobsOfABatchOnly() {
+        CountingProcessor counting = new CountingProcessor();
+        MetadataResultCache cache = new MetadataResultCache(1024 * 1024, 60);
+        BinaryMetadataProcessor processor = new CachedBinaryMetadataProcessor(counting, "counting", cache);
+        processor.readMetadata(createBlob("b"), TAGS, false);
+        List<Map<String, Object>> results = processor.readMetadata(
+                Arrays.asList(createBlob("a"), createBlob("b"), createBlob("c")), TAGS, false);
+        assertEquals(2, results.get(0).get("XMP:Title"));
+        assertEquals(1, results.get(1).get("XMP:Title"));
+        assertEquals(3, results.get(2).get("XMP:Title"));
+        assertEquals(3, counting.reads.get());
+    }
+
+    @Test
+    public void itShouldEvictAboveTheMaximumWeight() {
+        MetadataResultCache cache = new MetadataResultCache(1000, 60);
+        Map<String, Object> result = Collections.<String, Object> singletonMap("XMP:Title", new String(new char[100]));
+        for (int i = 0; i < 20; i++) {
+            cache.put("digest" + i, "counting", TAGS, false, result);
+        }
+        assertTrue("size " + cache.size(), cache.size() < 20);
+        assertTrue(cache.getStats().evictionCount() > 0);
+        assertEquals(result, cache.get("digest19", "counting", TAGS, false));
+    }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.nuxeo.binary.metadata.api.BinaryMetadataProcessor;
+import org.nuxeo.binary.metadata.api.KeyValueStore;
+import org.nuxeo.binary.metadata.internals.CachedBinaryMetadataProcessor;
+import org.nuxeo.binary.metadata.internals.MemoryKeyValueStore;
+import org.nuxeo.binary.metadata.internals.MetadataResultCache;
+import org.nuxeo.binary.metadata.internals.MetadataSharedCache;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+
+/**
+ * @since 7.3
+ */
+public class TestMetadataSharedCache {
+
+    protected static final List<String> TAGS = Arrays.asList("XMP:Title");
+
+    protected Blob createBlob(String digest) {
+        Blob blob = Blobs.createBlob(digest);
+        blob.setDigest(digest);
+        return blob;
+    }
+
+    protected Map<String, Object> createResult(String title) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("XMP:Title", title);
+        result.put("XMP:Subject", Arrays.asList("a", "b"));
+        return result;
+    }
+
+    @Test
+    public void itShouldReadEachBinaryOnceForAllTheNodes() {
+        MemoryKeyValueStore store = new MemoryKeyValueStore();
+        TestMetadataResultCache.CountingProcessor counting = new TestMetadataResultCache.CountingProcessor();
+        MetadataSharedCache shared = new MetadataSharedCache(store, 60, 64 * 1024);
+        BinaryMetadataProcessor node1 = new CachedBinaryMetadataProcessor(counting, "counting",
+                new MetadataResultCache(1024 * 1024, 60), shared);
+        BinaryMetadataProcessor node2 = new CachedBinaryMetadataProcessor(counting, "counting",
+                new MetadataResultCache(1024 * 1024, 60), shared);
+        assertEquals(1, node1.readMetadata(createBlob("a"), TAGS, false).get("XMP:Title"));
+        assertEquals(1, node2.readMetadata(createBlob("a"), TAGS, false).get("XMP:Title"));
+        assertEquals(2, node2.readMetadata(createBlob("a"), false).get("XMP:Title"));
+        assertEquals(2, node1.readMetadata(createBlob("a"), false).get("XMP:Title"));
+        assertEquals(2, counting.reads.get());
+        // one key by result, the binary never being invalidated
+        assertEquals(2, store.size());
+        assertEquals(2, shared.getHits());
+    }
+
+    @Test
+    public void itShouldInvalidateTheSharedResultsOnWrite() {
+        MemoryKeyValueStore store = new MemoryKeyValueStore();
+        MetadataSharedCache shared = new MetadataSharedCache(store, 60, 64 * 1024);
+        shared.put("a", "jpeg", TAGS, false, createResult("a"));
+        shared.put("a", "pdf", null, true, createResult("all"));
+        shared.put("b", "jpeg", TAGS, false, createResult("b"));
+        assertEquals(createResult("a"), shared.get("a", "jpeg", TAGS, false));
+        assertEquals(createResult("all"), shared.get("a", "pdf", null, true));
+        assertNull(shared.get("a", "jpeg", TAGS, true));
+
+        BinaryMetadataProcessor processor = new CachedBinaryMetadataProcessor(
+                new TestMetadataResultCache.CountingProcessor(), "jpeg", shared);
+        assertTrue(processor.writeMetadata(createBlob("a"), Collections.<String, Object> emptyMap(), false));
+        assertNull(shared.get("a", "jpeg", TAGS, false));
+        assertNull(shared.get("a", "pdf", null, true));
+        assertEquals(createResult("b"), shared.get("b", "jpeg", TAGS, false));
+    }
+
+    @Test
+    public void itShouldKeepTheResultsPutConcurrently() throws Exception {
+        MemoryKeyValueStore store = new MemoryKeyValueStore();
+        final MetadataSharedCache shared = new MetadataSharedCache(store, 60, 64 * 1024);
+        final int count = 16;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                final String processorId = "processor" + i;
+                futures.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        shared.put("a", processorId, TAGS, false, createResult(processorId));
+                        return null;
+                    }
+
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        for (int i = 0; i < count; i++) {
+            assertEquals(createResult("processor" + i), shared.get("a", "processor" + i, TAGS, false));
+        }
+    }
+
+    @Test
+    public void itShouldNotReviveTheResultsPutDuringAnInvalidation() {
+        final MemoryKeyValueStore store = new MemoryKeyValueStore();
+        final AtomicReference<MetadataSharedCache> invalidated = new AtomicReference<>();
+        // invalidates the binary once, between the reads and the writes of a put
+        KeyValueStore racing = new KeyValueStore() {
+
+            @Override
+            public byte[] get(String key) {
+                byte[] value = store.get(key);
+                MetadataSharedCache cache = invalidated.getAndSet(null);
+                if (cache != null) {
+                    cache.invalidate("a");
+                }
+                return value;
+            }
+
+            @Override
+            public void put(String key, byte[] value, long ttl) {
+                store.put(key, value, ttl);
+            }
+
+        };
+        MetadataSharedCache shared = new MetadataSharedCache(racing, 60, 64 * 1024);
+        shared.put("a", "jpeg", TAGS, false, createResult("stale"));
+        invalidated.set(shared);
+        shared.put("a", "pdf", TAGS, false, createResult("stale"));
+        assertNull(invalidated.get());
+        assertNull(shared.get("a", "jpeg", TAGS, false));
+        assertNull(shared.get("a", "pdf", TAGS, false));
+        // the results of the new generation are shared
+        shared.put("a", "jpeg", TAGS, false, createResult("fresh"));
+        assertEquals(createResult("fresh"), shared.get("a", "jpeg", TAGS, false));
+    }
+
+    protected String createRandomText(int length) {
+        Random random = new Random(length);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append(Character.forDigit(random.nextInt(36), 36));
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void itShouldNotShareTheResultsLargerThanTheLimit() {
+        MemoryKeyValueStore store = new MemoryKeyValueStore();
+        MetadataSharedCache shared = new MetadataSharedCache(store, 60, 256);
+        String large = new String(new char[300]).replace('\0', 'x');
+        shared.put("a", "jpeg", TAGS, false, createResult(large));
+        // compressed below the limit
+        assertEquals(createResult(large), shared.get("a", "jpeg", TAGS, false));
+        // each result is limited on its own
+        shared.put("a", "pdf", TAGS, false, createResult(createRandomText(200)));
+        assertEquals(0, shared.getRejections());
+        assertEquals(createResult(large), shared.get("a", "jpeg", TAGS, false));
+        shared.put("b", "jpeg", TAGS, false, createResult(createRandomText(600)));
+        assertEquals(1, shared.getRejections());
+        assertNull(shared.get("b", "jpeg", TAGS, false));
+    }
+
+    @Test
+    public void itShouldMissWhenTheStoreFails() {
+        KeyValueStore failing = new KeyValueStore() {
+
+            @Override
+            public byte[] get(String key) {
+                throw new IllegalStateException("Store down");
+            }
+
+            @Override
+            public void put(String key, byte[] value, long ttl) {
+                throw new IllegalStateException("Store down");
+            }
+
+        };
+        TestMetadataResultCache.CountingProcessor counting = new TestMetadataResultCache.CountingProcessor();
+        MetadataSharedCache shared = new MetadataSharedCache(failing, 60, 64 * 1024);
+        BinaryMetadataProcessor processor = new CachedBinaryMetadataProcessor(counting, "counting", shared);
+        assertEquals(1, processor.readMetadata(createBlob("a"), TAGS, false).get("XMP:Title"));
+        assertEquals(2, processor.readMetadata(createBlob("a"), TAGS, false).get("XMP:Title"));
+        // a generation read to get the result, then another one to put it
+        assertEquals(4, shared.getErrors());
+    }
+
+}
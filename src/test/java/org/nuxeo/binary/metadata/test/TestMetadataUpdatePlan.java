@@ -0,0 +1,120 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.test;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.inject.Inject;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.binary.metadata.api.BinaryMetadataService;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+
+/**
+ * Checks the processor calls done by the service and the sync listener for a document matching three mappings of the
+ * same blob.
+ *
+ * @since 7.3
+ */
+@RunWith(FeaturesRunner.class)
+@Features(BinaryMetadataFeature.class)
+@LocalDeploy("org.nuxeo.binary.metadata:binary-metadata-contrib-counting-test.xml")
+@RepositoryConfig(cleanup = Granularity.METHOD)
+public class TestMetadataUpdatePlan {
+
+    @Inject
+    CoreSession session;
+
+    @Inject
+    BinaryMetadataService binaryMetadataService;
+
+    DocumentModel doc;
+
+    @Before
+    public void createDocument() {
+        DocumentModel folder = session.createDocumentModel("/", "folder", "Folder");
+        session.createDocument(folder);
+        doc = session.createDocumentModel("/folder", "file", "File");
+        doc.setPropertyValue("file:content", Blobs.createBlob("a"));
+        CountingMetadataProcessor.reset();
+        doc = session.createDocument(doc);
+        assertEquals(1, CountingMetadataProcessor.READS.get());
+        assertEquals("a Counting:Title", doc.getPropertyValue("dc:title"));
+        CountingMetadataProcessor.reset();
+    }
+
+    @Test
+    public void itShouldReadTheBlobOnceForAllTheMappings() {
+        // not saved, its blob has no digest to be cached by
+        DocumentModel other = session.createDocumentModel("/folder", "other", "File");
+        other.setPropertyValue("file:content", Blobs.createBlob("d"));
+
+        binaryMetadataService.writeMetadata(other, session);
+
+        assertEquals(1, CountingMetadataProcessor.READS.get());
+        assertEquals("d Counting:Title", other.getPropertyValue("dc:title"));
+        assertEquals("d Counting:Description", other.getPropertyValue("dc:description"));
+        assertEquals("d Counting:Source", other.getPropertyValue("dc:source"));
+    }
+
+    @Test
+    public void itShouldReadADirtyBlobOnce() {
+        doc.setPropertyValue("file:content", Blobs.createBlob("b"));
+        session.saveDocument(doc);
+
+        assertEquals(1, CountingMetadataProcessor.READS.get());
+        assertEquals(0, CountingMetadataProcessor.WRITES.get());
+        doc = session.getDocument(doc.getRef());
+        assertEquals("b Counting:Title", doc.getPropertyValue("dc:title"));
+        assertEquals("b Counting:Description", doc.getPropertyValue("dc:description"));
+        assertEquals("b Counting:Source", doc.getPropertyValue("dc:source"));
+    }
+
+    @Test
+    public void itShouldWriteTheDirtyMappingsOnce() {
+        doc.setPropertyValue("dc:title", "title");
+        doc.setPropertyValue("dc:description", "description");
+        session.saveDocument(doc);
+
+        assertEquals(0, CountingMetadataProcessor.READS.get());
+        assertEquals(1, CountingMetadataProcessor.WRITES.get());
+    }
+
+    @Test
+    public void itShouldWriteAndReadADirtyBlobOnce() {
+        doc.setPropertyValue("file:content", Blobs.createBlob("c"));
+        doc.setPropertyValue("dc:title", "title");
+        session.saveDocument(doc);
+
+        assertEquals(1, CountingMetadataProcessor.READS.get());
+        assertEquals(1, CountingMetadataProcessor.WRITES.get());
+        doc = session.getDocument(doc.getRef());
+        assertEquals("title", doc.getPropertyValue("dc:title"));
+        assertEquals("c Counting:Description", doc.getPropertyValue("dc:description"));
+        assertEquals("c Counting:Source", doc.getPropertyValue("dc:source"));
+    }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.binary.metadata.api.BinaryMetadataConstants;
+import org.nuxeo.binary.metadata.api.BinaryMetadataService;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.blobholder.BlobHolder;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.metrics.MetricsService;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+
+/**
+ * The processors reading the metadata in the JVM return what ExifTool returns for the same tags.
+ *
+ * @since 7.3
+ */
+@RunWith(FeaturesRunner.class)
+@Features(BinaryMetadataFeature.class)
+@LocalDeploy("org.nuxeo.binary.metadata:binary-metadata-disable-listener.xml")
+@RepositoryConfig(cleanup = Granularity.METHOD, init = BinaryMetadataServerInit.class)
+public class TestNativeMetadataProcessors {
+
+    protected static final List<String> JPEG_METADATA = Arrays.asList("EXIF:Make", "EXIF:Model", "EXIF:Orientation",
+            "EXIF:XResolution", "EXIF:ResolutionUnit", "EXIF:ModifyDate", "EXIF:ExposureTime", "EXIF:FNumber",
+            "EXIF:ISO", "EXIF:FocalLength", "EXIF:Flash", "EXIF:ColorSpace", "EXIF:ExifImageWidth",
+            "File:ImageHeight");
+
+    protected static final List<String> PDF_METADATA = Arrays.asList("PDF:PDFVersion", "PDF:Linearized",
+            "PDF:Author", "PDF:Creator", "PDF:Producer", "PDF:CreateDate", "PDF:PageCount", "PDF:Language",
+            "File:MIMEType");
+
+    protected static final List<String> ID3_METADATA = Arrays.asList("ID3:Title", "ID3:Artist", "ID3:Album",
+            "ID3:Publisher", "ID3:Genre", "ID3:Year", "ID3:Track", "ID3:Lyrics-por", "File:MIMEType");
+
+    protected static final List<String> PNG_METADATA = Arrays.asList("PNG:ImageWidth", "PNG:ImageHeight",
+            "PNG:BitDepth", "PNG:ColorType", "PNG:Interlace", "File:MIMEType", "Composite:ImageSize");
+
+    protected static final List<String> IPTC_METADATA = Arrays.asList("IPTC:ObjectName", "IPTC:Category",
+            "IPTC:SupplementalCategories", "IPTC:Keywords", "IPTC:DateCreated", "IPTC:TimeCreated", "IPTC:By-line",
+            "IPTC:City", "IPTC:Country-PrimaryLocationName", "IPTC:Credit", "IPTC:Source", "IPTC:CopyrightNotice",
+            "IPTC:Caption-Abstract", "IPTC:Writer-Editor", "Composite:DateTimeCreated");
+
+    @Inject
+    BinaryMetadataService binaryMetadataService;
+
+    @Inject
+    CoreSession session;
+
+    protected Blob getBlob(int index) {
+        return BinaryMetadataServerInit.getFile(index, session).getAdapter(BlobHolder.class).getBlob();
+    }
+
+    protected long getRoutingCount(String route, String name) {
+        return SharedMetricRegistries.getOrCreate(MetricsService.class.getName()).counter(
+                MetricRegistry.name(BinaryMetadataService.class, "routing", route, name)).getCount();
+    }
+
+    protected void assertSameAsExifTool(String processor, Blob blob, List<String> metadata) {
+        Map<String, Object> expected = binaryMetadataService.readMetadata(blob, metadata, false);
+        assertEquals(expected, binaryMetadataService.readMetadata(processor, blob, metadata, false));
+        expected = binaryMetadataService.readMetadata(blob, metadata, true);
+        assertEquals(expected, binaryMetadataService.readMetadata(processor, blob, metadata, true));
+    }
+
+    @Test
+    public void itShouldReadJpegMetadata() {
+        Blob jpeg = getBlob(4);
+        Map<String, Object> metadata = binaryMetadataService.readMetadata(
+                BinaryMetadataConstants.JPEG_CONTRIBUTION_ID, jpeg, JPEG_METADATA, false);
+        assertEquals("Google", metadata.get("EXIF:Make"));
+        assertEquals("Nexus", metadata.get("EXIF:Model"));
+        assertEquals("Horizontal (normal)", metadata.get("EXIF:Orientation"));
+        assertEquals("1/89", metadata.get("EXIF:ExposureTime"));
+        assertEquals(2.4, metadata.get("EXIF:FNumber"));
+        assertEquals(2368, metadata.get("File:ImageHeight"));
+
+        metadata = binaryMetadataService.readMetadata(BinaryMetadataConstants.JPEG_CONTRIBUTION_ID, jpeg,
+                Arrays.asList("Make", "EXIF:Model"), true);
+        assertEquals(2, metadata.size());
+        assertEquals("Google", metadata.get("Make"));
+        assertEquals("Nexus", metadata.get("Model"));
+
+        assertSameAsExifTool(BinaryMetadataConstants.JPEG_CONTRIBUTION_ID, jpeg, JPEG_METADATA);
+    }
+
+    @Test
+    public void itShouldReadPdfMetadata() {
+        Blob pdf = getBlob(1);
+        Map<String, Object> metadata = binaryMetadataService.readMetadata(BinaryMetadataConstants.PDF_CONTRIBUTION_ID,
+                pdf, PDF_METADATA, false);
+        assertEquals("Mirko Nasato", metadata.get("PDF:Author"));
+        assertEquals("Writer", metadata.get("PDF:Creator"));
+        assertEquals("OpenOffice.org 3.2", metadata.get("PDF:Producer"));
+        assertEquals("en-US", metadata.get("PDF:Language"));
+        assertEquals("application/pdf", metadata.get("File:MIMEType"));
+
+        assertSameAsExifTool(BinaryMetadataConstants.PDF_CONTRIBUTION_ID, pdf, PDF_METADATA);
+    }
+
+    @Test
+    public void itShouldReadId3Metadata() {
+        Blob mp3 = getBlob(0);
+        Map<String, Object> metadata = binaryMetadataService.readMetadata(BinaryMetadataConstants.ID3_CONTRIBUTION_ID,
+                mp3, ID3_METADATA, false);
+        assertEquals("Twist", metadata.get("ID3:Title"));
+        assertEquals("Divine Recordings", metadata.get("ID3:Publisher"));
+        assertEquals("Metal", metadata.get("ID3:Genre"));
+        assertEquals(1996, metadata.get("ID3:Year"));
+
+        metadata = binaryMetadataService.readMetadata(BinaryMetadataConstants.ID3_CONTRIBUTION_ID, mp3,
+                Arrays.asList("ID3:Title", "Album"), true);
+        assertEquals(2, metadata.size());
+        assertEquals("Life Is Peachy", metadata.get("Album"));
+
+        assertSameAsExifTool(BinaryMetadataConstants.ID3_CONTRIBUTION_ID, mp3, ID3_METADATA);
+    }
+
+    @Test
+    public void itShouldReadPngMetadata() {
+        Blob png = getBlob(2);
+        Map<String, Object> metadata = binaryMetadataService.readMetadata(BinaryMetadataConstants.PNG_CONTRIBUTION_ID,
+                png, PNG_METADATA, false);
+        assertEquals(1024, metadata.get("PNG:ImageWidth"));
+        assertEquals(769, metadata.get("PNG:ImageHeight"));
+        assertEquals("RGB with Alpha", metadata.get("PNG:ColorType"));
+        assertEquals("image/png", metadata.get("File:MIMEType"));
+
+        assertSameAsExifTool(BinaryMetadataConstants.PNG_CONTRIBUTION_ID, png, PNG_METADATA);
+    }
+
+    @Test
+    public void itShouldReadIptcMetadata() throws IOException {
+        Blob jpeg = Blobs.createBlob(FileUtils.getResourceFileFromContext("data/iptc_sample.jpg"), "image/jpeg");
+        Map<String, Object> metadata = binaryMetadataService.readMetadata(
+                BinaryMetadataConstants.IPTC_CONTRIBUTION_ID, jpeg, IPTC_METADATA, false);
+        assertEquals("GERMANY-CULTURE-MUSIC-BACH", metadata.get("IPTC:ObjectName"));
+        assertEquals("JENS SCHLUETER", metadata.get("IPTC:By-line"));
+        assertEquals("2008:04:15", metadata.get("IPTC:DateCreated"));
+        assertEquals("10:28:00+00:00", metadata.get("IPTC:TimeCreated"));
+        assertEquals("DDP", metadata.get("IPTC:Source"));
+        assertEquals("ImageForum", metadata.get("IPTC:CopyrightNotice"));
+
+        // the tags of the other segments are still read
+        metadata = binaryMetadataService.readMetadata(BinaryMetadataConstants.IPTC_CONTRIBUTION_ID, getBlob(4),
+                Arrays.asList("EXIF:Make", "IPTC:Keywords"), false);
+        assertEquals("Google", metadata.get("EXIF:Make"));
+        assertNull(metadata.get("IPTC:Keywords"));
+
+        assertSameAsExifTool(BinaryMetadataConstants.IPTC_CONTRIBUTION_ID, jpeg, IPTC_METADATA);
+    }
+
+    @Test
+    public void itShouldWriteXmpWithoutRewritingTheImage() throws IOException {
+        File file = File.createTempFile("nxbm", ".jpg");
+        try {
+            Files.copy(FileUtils.getResourceFileFromContext("data/china.jpg").toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            Blob jpeg = Blobs.createBlob(file, "image/jpeg");
+            List<String> tags = Arrays.asList("XMP:Title", "XMP:Subject", "EXIF:Make", "File:ImageHeight");
+            Map<String, Object> metadata = new HashMap<>();
+            metadata.put("XMP:Title", "Great Wall");
+            metadata.put("XMP-dc:Subject", Arrays.asList("China", "Wall"));
+            assertTrue(binaryMetadataService.writeMetadata(BinaryMetadataConstants.JPEG_CONTRIBUTION_ID, jpeg,
+                    metadata, false));
+            Map<String, Object> written = binaryMetadataService.readMetadata(jpeg, tags, false);
+            assertEquals("Great Wall", written.get("XMP:Title"));
+            assertEquals(Arrays.asList("China", "Wall"), written.get("XMP:Subject"));
+            assertEquals("Google", written.get("EXIF:Make"));
+            assertEquals(2368, written.get("File:ImageHeight"));
+
+            // the padding of the new packet leaves room for the next update
+            long length = file.length();
+            metadata.put("XMP:Title", "Great Wall of China");
+            assertTrue(binaryMetadataService.writeMetadata(BinaryMetadataConstants.JPEG_CONTRIBUTION_ID, jpeg,
+                    metadata, false));
+            assertEquals(length, file.length());
+            assertEquals("Great Wall of China", binaryMetadataService.readMetadata(jpeg, tags, false).get(
+                    "XMP:Title"));
+            assertSameAsExifTool(BinaryMetadataConstants.JPEG_CONTRIBUTION_ID, jpeg, tags);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void itShouldRouteByMimeType() {
+        long iptcHits = getRoutingCount(BinaryMetadataConstants.IPTC_CONTRIBUTION_ID, "hits");
+        long iptcFallbacks = getRoutingCount(BinaryMetadataConstants.IPTC_CONTRIBUTION_ID, "fallbacks");
+        Blob jpeg = getBlob(4);
+        assertSameAsExifTool(BinaryMetadataConstants.ROUTING_CONTRIBUTION_ID, jpeg, JPEG_METADATA);
+        assertEquals(iptcHits + 2, getRoutingCount(BinaryMetadataConstants.IPTC_CONTRIBUTION_ID, "hits"));
+        assertEquals(iptcFallbacks, getRoutingCount(BinaryMetadataConstants.IPTC_CONTRIBUTION_ID, "fallbacks"));
+
+        // the composite tags computed by ExifTool are read through the default processor
+        long id3Hits = getRoutingCount(BinaryMetadataConstants.ID3_CONTRIBUTION_ID, "hits");
+        long id3Fallbacks = getRoutingCount(BinaryMetadataConstants.ID3_CONTRIBUTION_ID, "fallbacks");
+        Map<String, Object> metadata = binaryMetadataService.readMetadata(
+                BinaryMetadataConstants.ROUTING_CONTRIBUTION_ID, getBlob(0),
+                Arrays.asList("ID3:Title", "Composite:Duration"), false);
+        assertEquals("Twist", metadata.get("ID3:Title"));
+        assertNotNull(metadata.get("Composite:Duration"));
+        assertEquals(id3Hits + 1, getRoutingCount(BinaryMetadataConstants.ID3_CONTRIBUTION_ID, "hits"));
+        assertEquals(id3Fallbacks + 1, getRoutingCount(BinaryMetadataConstants.ID3_CONTRIBUTION_ID, "fallbacks"));
+    }
+
+    @Test
+    public void itShouldFallbackToExifToolForOtherFormats() {
+        Blob mp3 = getBlob(0);
+        Map<String, Object> metadata = binaryMetadataService.readMetadata(
+                BinaryMetadataConstants.JPEG_CONTRIBUTION_ID, mp3, Arrays.asList("ID3:Title", "EXIF:Make"), false);
+        assertEquals("Twist", metadata.get("ID3:Title"));
+        assertNull(metadata.get("EXIF:Make"));
+    }
+
+}
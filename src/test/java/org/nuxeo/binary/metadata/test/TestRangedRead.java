@@ -0,0 +1,125 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.binary.metadata.api.BinaryMetadataService;
+import org.nuxeo.binary.metadata.internals.BinaryMetadataServiceImpl;
+import org.nuxeo.binary.metadata.internals.ExifToolProcessor;
+import org.nuxeo.binary.metadata.internals.LocalFileRangeReader;
+import org.nuxeo.binary.metadata.internals.RangedReadPolicy;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.blobholder.BlobHolder;
+import org.nuxeo.ecm.core.api.impl.blob.ByteArrayBlob;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+
+/**
+ * The blob files of the test repository stand in for a binary store with random access, read through
+ * {@link LocalFileRangeReader}: only the contributed ranges are copied.
+ *
+ * @since 7.3
+ */
+@RunWith(FeaturesRunner.class)
+@Features(BinaryMetadataFeature.class)
+@LocalDeploy({ "org.nuxeo.binary.metadata:binary-metadata-disable-listener.xml",
+        "org.nuxeo.binary.metadata:binary-metadata-ranged-test.xml" })
+@RepositoryConfig(cleanup = Granularity.METHOD, init = BinaryMetadataServerInit.class)
+public class TestRangedRead {
+
+    protected static final String RANGED_PROCESSOR = "exifToolRanged";
+
+    @Inject
+    BinaryMetadataService binaryMetadataService;
+
+    @Inject
+    CoreSession session;
+
+    protected Blob getBlob(int index) {
+        return BinaryMetadataServerInit.getFile(index, session).getAdapter(BlobHolder.class).getBlob();
+    }
+
+    /**
+     * @return A copy of the blob without random access to its binary.
+     */
+    protected Blob getMemoryBlob(int index) throws IOException {
+        Blob blob = getBlob(index);
+        Blob memoryBlob = new ByteArrayBlob(blob.getByteArray(), blob.getMimeType());
+        memoryBlob.setFilename(blob.getFilename());
+        return memoryBlob;
+    }
+
+    protected RangedReadPolicy getPolicy() {
+        return ((ExifToolProcessor) ((BinaryMetadataServiceImpl) binaryMetadataService).getContributedProcessor(
+                RANGED_PROCESSOR)).getRangedReadPolicy();
+    }
+
+    @Test
+    public void itShouldReadJpegHeaderFromRanges() throws IOException {
+        Blob jpeg = getBlob(4);
+        List<String> metadata = Arrays.asList("EXIF:Orientation", "EXIF:FNumber", "EXIF:Make");
+        RangedReadPolicy policy = getPolicy();
+        long rangedReads = policy.getRangedReads();
+        long fallbacks = policy.getFallbacks();
+        Map<String, Object> ranged = binaryMetadataService.readMetadata(RANGED_PROCESSOR, jpeg, metadata, false);
+        assertEquals(binaryMetadataService.readMetadata(jpeg, metadata, false), ranged);
+        assertEquals("Horizontal (normal)", ranged.get("EXIF:Orientation"));
+        assertEquals(rangedReads + 1, policy.getRangedReads());
+        assertEquals(fallbacks, policy.getFallbacks());
+    }
+
+    @Test
+    public void itShouldFallBackToFullBinaryWhenRangesAreIncomplete() {
+        List<String> metadata = Arrays.asList("PDF:Author", "PDF:Producer");
+        RangedReadPolicy policy = getPolicy();
+        long rangedReads = policy.getRangedReads();
+        long fallbacks = policy.getFallbacks();
+        Map<String, Object> ranged = binaryMetadataService.readMetadata(RANGED_PROCESSOR, getBlob(1), metadata, false);
+        assertEquals("Mirko Nasato", ranged.get("PDF:Author"));
+        assertEquals("OpenOffice.org 3.2", ranged.get("PDF:Producer"));
+        assertEquals(rangedReads, policy.getRangedReads());
+        assertEquals(fallbacks + 1, policy.getFallbacks());
+    }
+
+    @Test
+    public void itShouldReadTheBinariesWithoutRandomAccessInFull() throws IOException {
+        Blob jpeg = getMemoryBlob(4);
+        List<String> metadata = Arrays.asList("EXIF:Orientation");
+        RangedReadPolicy policy = getPolicy();
+        long rangedReads = policy.getRangedReads();
+        long fallbacks = policy.getFallbacks();
+        assertEquals("Horizontal (normal)",
+                binaryMetadataService.readMetadata(RANGED_PROCESSOR, jpeg, metadata, false).get("EXIF:Orientation"));
+        assertEquals(rangedReads, policy.getRangedReads());
+        assertEquals(fallbacks, policy.getFallbacks());
+    }
+
+}
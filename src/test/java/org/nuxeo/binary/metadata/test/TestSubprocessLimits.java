@@ -0,0 +1,81 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *      Vladimir Pasquier <vpasquier@nuxeo.com>
+ */
+package org.nuxeo.binary.metadata.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.nuxeo.binary.metadata.api.BinaryMetadataException;
+import org.nuxeo.binary.metadata.internals.ProcessWatchdog;
+import org.nuxeo.binary.metadata.internals.SubprocessLimiter;
+
+/**
+ * @since 7.3
+ */
+public class TestSubprocessLimits {
+
+    @Test
+    public void itShouldKeepInteractiveSlotsFromBackgroundCalls() {
+        SubprocessLimiter limiter = new SubprocessLimiter(2, 1, 100);
+        SubprocessLimiter.setBackground(true);
+        Semaphore background;
+        try {
+            background = limiter.acquire();
+            try {
+                limiter.acquire();
+                fail("Background quota should be exhausted");
+            } catch (BinaryMetadataException e) {
+                // expected
+            }
+        } finally {
+            SubprocessLimiter.setBackground(false);
+        }
+        assertEquals(0, limiter.getAvailableBackground());
+        assertEquals(2, limiter.getAvailableInteractive());
+        Semaphore interactive = limiter.acquire();
+        assertEquals(1, limiter.getAvailableInteractive());
+        limiter.release(interactive);
+        limiter.release(background);
+        assertEquals(1, limiter.getAvailableBackground());
+        assertEquals(2, limiter.getAvailableInteractive());
+    }
+
+    @Test
+    public void itShouldKillProcessesAfterTimeout() throws Exception {
+        Process process = new ProcessBuilder("sleep", "30").start();
+        try (ProcessWatchdog watchdog = ProcessWatchdog.watch(process, 200)) {
+            assertTrue(process.waitFor(10, TimeUnit.SECONDS));
+            assertTrue(watchdog.isExpired());
+        }
+    }
+
+    @Test
+    public void itShouldNotKillCompletedProcesses() throws Exception {
+        Process process = new ProcessBuilder("sleep", "0").start();
+        try (ProcessWatchdog watchdog = ProcessWatchdog.watch(process, 10000)) {
+            assertEquals(0, process.waitFor());
+            assertFalse(watchdog.isExpired());
+        }
+    }
+
+}